@@ -4,8 +4,22 @@ import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.singleagent.learning.LearningAgent;
 import burlap.behavior.singleagent.learning.LearningAgentFactory;
 import burlap.debugtools.DPrint;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.environment.Environment;
+import burlap.oomdp.singleagent.environment.EnvironmentFactory;
+import burlap.oomdp.singleagent.environment.EnvironmentObserver;
+import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
 import burlap.oomdp.singleagent.environment.EnvironmentServer;
+import burlap.parallel.Parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -29,6 +43,19 @@ import burlap.oomdp.singleagent.environment.EnvironmentServer;
  * By default the cumulative reward per step will be plotted and if more than one trial is specified, the both the most recent trail and the trial average plot will be shown.
  * If only one trial is specified, then only the most recent trial plot will be shown. To control the kinds of plots displayed use the 
  * {@link #setUpPlottingConfiguration(int, int, int, int, TrialMode, PerformanceMetric...)} method. 
+ * <p>
+ * Trials can also be run in isolation from each other, optionally in parallel, with the {@link #setParallelTrials(int, burlap.oomdp.singleagent.environment.EnvironmentFactory)}
+ * method. In that mode, every trial runs in its own {@link burlap.oomdp.singleagent.environment.Environment} generated by an
+ * {@link burlap.oomdp.singleagent.environment.EnvironmentFactory}, and the thread running the trial is given its own
+ * {@link burlap.debugtools.RandomFactory} seeded from the trial seed (see {@link #setTrialSeed(long)}) and the trial number. The environment and agent of a trial
+ * are both generated after that {@link burlap.debugtools.RandomFactory} is installed, so the results of each trial depend only on its seed
+ * and not on which thread ran it or what other trials ran at the same time. Because many domains (such as
+ * {@link burlap.domain.singleagent.gridworld.GridWorldDomain}) have their actions retrieve a {@link java.util.Random} from
+ * {@link burlap.debugtools.RandomFactory} when the domain is generated, the {@link burlap.oomdp.singleagent.environment.EnvironmentFactory}
+ * must generate a new {@link burlap.oomdp.core.Domain} for every {@link burlap.oomdp.singleagent.environment.Environment} it creates;
+ * an {@link burlap.oomdp.singleagent.environment.Environment} built on a domain generated ahead of time would sample its transitions from the shared generators.
+ * The performance data of each trial is recorded separately
+ * and given to the {@link PerformancePlotter} in agent and trial order, so the plots and csv files are identical for any number of threads, including one.
  * 
  * @author James MacGlashan
  *
@@ -109,6 +136,24 @@ public class LearningAlgorithmExperimenter {
 	public int							debugCode = 63634013;
 
 
+	/**
+	 * The factory used to generate a separate {@link burlap.oomdp.singleagent.environment.Environment} for each trial when trials are isolated; null if all trials use the test {@link burlap.oomdp.singleagent.environment.Environment}.
+	 */
+	protected EnvironmentFactory		trialEnvironmentFactory = null;
+
+
+	/**
+	 * The number of threads used to run isolated trials
+	 */
+	protected int						numTrialThreads = 1;
+
+
+	/**
+	 * The seed from which the {@link burlap.debugtools.RandomFactory} of each isolated trial is seeded
+	 */
+	protected long						trialSeed = 0;
+
+
 	
 	
 	
@@ -200,6 +245,35 @@ public class LearningAlgorithmExperimenter {
 	}
 	
 	
+	/**
+	 * Sets the experiment to run each trial in isolation in its own {@link burlap.oomdp.singleagent.environment.Environment} generated
+	 * by the given factory, using the given number of threads. With one thread, the isolated trials run one after another on the calling thread
+	 * and produce the same results as with any other number of threads.
+	 * Note that the test {@link burlap.oomdp.singleagent.environment.Environment} given to the constructor is not used in this mode,
+	 * and if the generated {@link burlap.oomdp.singleagent.environment.Environment}s implement {@link burlap.behavior.singleagent.auxiliary.performance.ExperimentalEnvironment},
+	 * they are told a new experiment has started at the beginning of every trial.
+	 * The factory must generate the {@link burlap.oomdp.core.Domain} of every {@link burlap.oomdp.singleagent.environment.Environment}
+	 * it creates inside {@link burlap.oomdp.singleagent.environment.EnvironmentFactory#generateEnvironment()}, so that the domain's actions use the
+	 * trial's {@link burlap.debugtools.RandomFactory}; otherwise trials are neither isolated nor reproducible.
+	 * @param nThreads the number of threads used to run trials
+	 * @param environmentFactory the factory that generates the {@link burlap.oomdp.singleagent.environment.Environment} of each trial
+	 */
+	public void setParallelTrials(int nThreads, EnvironmentFactory environmentFactory){
+		this.numTrialThreads = Math.max(1, nThreads);
+		this.trialEnvironmentFactory = environmentFactory;
+	}
+
+
+	/**
+	 * Sets the seed from which the {@link burlap.debugtools.RandomFactory} of each isolated trial is seeded. Trial j of every agent uses
+	 * the seed trialSeed + j. The default is 0. Only used when trials are isolated with {@link #setParallelTrials(int, burlap.oomdp.singleagent.environment.EnvironmentFactory)}.
+	 * @param trialSeed the seed from which the {@link burlap.debugtools.RandomFactory} of each trial is seeded
+	 */
+	public void setTrialSeed(long trialSeed){
+		this.trialSeed = trialSeed;
+	}
+
+
 	/**
 	 * Starts the experiment and runs all trails for all agents.
 	 */
@@ -229,6 +303,13 @@ public class LearningAlgorithmExperimenter {
 			this.plotter.startGUI();
 		}
 		
+		if(this.trialEnvironmentFactory != null){
+			this.runIsolatedTrials();
+			this.plotter.endAllAgents();
+			this.completedExperiment = true;
+			return;
+		}
+		
 		for(int i = 0; i < this.agentFactories.length; i++){
 			
 			if(i > 0){
@@ -363,4 +444,173 @@ public class LearningAlgorithmExperimenter {
 	
 	
 	
+	/**
+	 * Runs all trials of all agents in isolation, in parallel if more than one thread is used, and adds their results to the plotter in
+	 * agent and trial order.
+	 */
+	protected void runIsolatedTrials(){
+
+		ExecutorService executor = null;
+		List<Future<PerformancePlotter.Trial>> futures = null;
+		if(this.numTrialThreads > 1){
+			executor = Parallel.newDaemonPool(this.numTrialThreads, "experiment-trial");
+			futures = new ArrayList<Future<PerformancePlotter.Trial>>(this.agentFactories.length*this.nTrials);
+			for(int i = 0; i < this.agentFactories.length; i++){
+				for(int j = 0; j < this.nTrials; j++){
+					final LearningAgentFactory agentFactory = this.agentFactories[i];
+					final int trial = j;
+					futures.add(executor.submit(new Callable<PerformancePlotter.Trial>() {
+						@Override
+						public PerformancePlotter.Trial call() throws Exception {
+							return runIsolatedTrial(agentFactory, trial);
+						}
+					}));
+				}
+			}
+		}
+
+		try{
+			for(int i = 0; i < this.agentFactories.length; i++){
+
+				if(i > 0){
+					this.plotter.startNewAgent(this.agentFactories[i].getAgentName());
+				}
+
+				for(int j = 0; j < this.nTrials; j++){
+
+					PerformancePlotter.Trial trial;
+					if(executor == null){
+						DPrint.cl(this.debugCode, "Beginning " + this.agentFactories[i].getAgentName() + " trial " + (j+1) + "/" + this.nTrials);
+						trial = this.runIsolatedTrial(this.agentFactories[i], j);
+					}
+					else{
+						trial = this.getTrial(futures.get(i*this.nTrials + j));
+						DPrint.cl(this.debugCode, "Completed " + this.agentFactories[i].getAgentName() + " trial " + (j+1) + "/" + this.nTrials);
+					}
+
+					this.plotter.addCompletedTrial(trial);
+				}
+
+			}
+		}finally{
+			if(executor != null){
+				executor.shutdownNow();
+			}
+		}
+
+	}
+
+
+	/**
+	 * Runs a single trial in isolation: installs a {@link burlap.debugtools.RandomFactory} seeded for the trial on the current thread,
+	 * generates the trial's {@link burlap.oomdp.singleagent.environment.Environment} and agent, and records the trial's performance data.
+	 * @param agentFactory the agent factory used to generate the agent to test.
+	 * @param trial the index of the trial
+	 * @return the performance data of the trial
+	 */
+	protected PerformancePlotter.Trial runIsolatedTrial(LearningAgentFactory agentFactory, int trial){
+
+		RandomFactory.setThreadFactory(new RandomFactory(this.trialSeed + trial));
+		try{
+
+			Environment env = this.trialEnvironmentFactory.generateEnvironment();
+			if(env instanceof ExperimentalEnvironment){
+				((ExperimentalEnvironment)env).startNewExperiment();
+			}
+
+			TrialRecorder recorder = new TrialRecorder(this.plotter.newTrial());
+			EnvironmentServer server = new EnvironmentServer(env, recorder);
+
+			//disable data collection during agent generation, as is done for non-isolated trials
+			recorder.collectData = false;
+			LearningAgent agent = agentFactory.generateAgent();
+			recorder.collectData = true;
+
+			if(this.trialLengthIsInEpisodes){
+				for(int i = 0; i < this.trialLength; i++){
+					agent.runLearningEpisode(server);
+					recorder.trial.setupForNewEpisode();
+					server.resetEnvironment();
+				}
+			}
+			else{
+				int stepsRemaining = this.trialLength;
+				while(stepsRemaining > 0){
+					EpisodeAnalysis ea = agent.runLearningEpisode(server, stepsRemaining);
+					stepsRemaining -= ea.numTimeSteps()-1; //-1  because we want to subtract the number of actions, not the number of states seen
+					recorder.trial.setupForNewEpisode();
+					server.resetEnvironment();
+				}
+			}
+
+			return recorder.trial;
+
+		}finally{
+			RandomFactory.clearThreadFactory();
+		}
+
+	}
+
+
+	/**
+	 * Waits for and returns the result of a parallel trial.
+	 * @param future the future of the trial
+	 * @return the performance data of the trial
+	 */
+	protected PerformancePlotter.Trial getTrial(Future<PerformancePlotter.Trial> future){
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for an experiment trial to complete.", e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("An experiment trial threw an exception.", e.getCause());
+		}
+	}
+
+
+
+	/**
+	 * An {@link burlap.oomdp.singleagent.environment.EnvironmentObserver} that records the rewards of an isolated trial's
+	 * interactions into a {@link burlap.behavior.singleagent.auxiliary.performance.PerformancePlotter.Trial}.
+	 */
+	protected static class TrialRecorder implements EnvironmentObserver{
+
+		/**
+		 * The performance data of the trial
+		 */
+		protected PerformancePlotter.Trial trial;
+
+		/**
+		 * Whether interactions are currently recorded
+		 */
+		protected boolean collectData = true;
+
+
+		/**
+		 * Initializes.
+		 * @param trial the trial into which interactions are recorded
+		 */
+		public TrialRecorder(PerformancePlotter.Trial trial){
+			this.trial = trial;
+		}
+
+		@Override
+		public void observeEnvironmentActionInitiation(State o, GroundedAction action) {
+			//do nothing
+		}
+
+		@Override
+		public void observeEnvironmentInteraction(EnvironmentOutcome eo) {
+			if(this.collectData){
+				this.trial.stepIncrement(eo.r);
+			}
+		}
+
+		@Override
+		public void observeEnvironmentReset(Environment resetEnvironment) {
+			//do nothing
+		}
+	}
+	
 }
@@ -22,6 +22,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.List;
 
@@ -416,6 +417,51 @@ public class PerformancePlotter extends JFrame implements EnvironmentObserver {
 	}
 	
 	
+	/**
+	 * Returns a new empty {@link burlap.behavior.singleagent.auxiliary.performance.PerformancePlotter.Trial} that can be filled
+	 * independently of this plotter's current trial (for example, on another thread) and then added with {@link #addCompletedTrial(burlap.behavior.singleagent.auxiliary.performance.PerformancePlotter.Trial)}.
+	 * @return a new empty {@link burlap.behavior.singleagent.auxiliary.performance.PerformancePlotter.Trial}
+	 */
+	protected Trial newTrial(){
+		return new Trial();
+	}
+	
+	
+	/**
+	 * Adds a trial of the current agent whose data was collected separately. This has the same effect as calling {@link #startNewTrial()},
+	 * observing the trial's interactions and episode ends, and calling {@link #endTrial()}.
+	 * @param trial the completed trial
+	 */
+	protected void addCompletedTrial(Trial trial){
+		
+		//let any pending agent change finish before the trial is added
+		if(!SwingUtilities.isEventDispatchThread()){
+			try {
+				SwingUtilities.invokeAndWait(new Runnable() {
+					@Override
+					public void run() {
+						//do nothing
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		
+		synchronized(this){
+			this.startNewTrial();
+			this.curTrial = trial;
+			this.curTimeStep = trial.totalSteps + trial.curEpisodeSteps;
+			this.curEpisode = trial.totalEpisodes;
+		}
+		
+		this.endTrial();
+		
+	}
+	
+	
 	/**
 	 * Informs the plotter that data collecton for a new agent should begin.
 	 * If the current agent is already set to the agent name provided, then a warning message is printed and nothing changes.
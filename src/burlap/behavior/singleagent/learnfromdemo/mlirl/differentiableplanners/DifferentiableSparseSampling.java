@@ -13,7 +13,7 @@ import burlap.behavior.singleagent.learnfromdemo.mlirl.support.DifferentiableRF;
 import burlap.behavior.singleagent.learnfromdemo.mlirl.support.QGradientPlanner;
 import burlap.behavior.singleagent.learnfromdemo.mlirl.support.QGradientTuple;
 import burlap.behavior.singleagent.MDPSolver;
-import burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling;
+import burlap.behavior.singleagent.planning.stochastic.sparsesampling.HeightIndexedNodeTable;
 import burlap.oomdp.statehashing.HashableStateFactory;
 import burlap.oomdp.statehashing.HashableState;
 import burlap.datastructures.BoltzmannDistribution;
@@ -21,8 +21,12 @@ import burlap.debugtools.DPrint;
 import burlap.oomdp.core.*;
 import burlap.oomdp.core.states.State;
 import burlap.oomdp.singleagent.GroundedAction;
+import burlap.parallel.Parallel;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Differentiable finite horizon valueFunction that can also use sparse sampling over the transition dynamics when the
@@ -33,6 +37,10 @@ import java.util.*;
  * object and learned with {@link burlap.behavior.singleagent.learnfromdemo.mlirl.MLIRL},
  * enabling a nice separation of shaping features/rewards and the learned (or known) reward function.
  * <p>
+ * Like {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling}, the tree nodes are stored in a concurrent
+ * {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.HeightIndexedNodeTable} whose size can be capped with {@link #setMaxStoredNodes(int)},
+ * and the samples of the root node can be expanded in parallel with {@link #setParallelSampling(int)}.
+ * <p>
  * <p>
  * 1. MacGlashan, J. Littman, M., "Between Imitation and Intention Learning," Proceedings of IJCAI 15, 2015.
  * 2. Babes, M., Marivate, V., Subramanian, K., and Littman, "Apprenticeship learning about multiple intentions." Proceedings of the 28th International Conference on Machine Learning (ICML-11). 2011.
@@ -69,7 +77,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	/**
 	 * The tree nodes indexed by state and height.
 	 */
-	protected Map<SparseSampling.HashedHeightState, DiffStateNode> nodesByHeight;
+	protected HeightIndexedNodeTable<DiffStateNode> nodesByHeight;
 
 	/**
 	 * The root state node Q-values that have been estimated by previous planning calls.
@@ -93,7 +101,19 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	/**
 	 * The total number of pseudo-Bellman updates
 	 */
-	protected int numUpdates = 0;
+	protected AtomicInteger numUpdates = new AtomicInteger(0);
+
+
+	/**
+	 * The executor used to expand the root samples in parallel; null if planning is serial.
+	 */
+	protected ExecutorService samplingExecutor;
+
+
+	/**
+	 * Whether the sampling executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean ownsSamplingExecutor = false;
 
 
 	/**
@@ -112,7 +132,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 		this.h = h;
 		this.c = c;
 		this.boltzBeta = boltzBeta;
-		this.nodesByHeight = new HashMap<SparseSampling.HashedHeightState, DiffStateNode>();
+		this.nodesByHeight = new HeightIndexedNodeTable<DiffStateNode>();
 		this.rootLevelQValues = new HashMap<HashableState, DifferentiableSparseSampling.QAndQGradient>();
 		this.rfDim = rf.numParameters();
 
@@ -179,6 +199,46 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 		}
 	}
 
+	/**
+	 * Sets this planner to expand the samples of the root node in parallel with its own thread pool. Each thread estimates the values and value gradients
+	 * of the subtrees of its samples and the threads share the tree nodes. If nThreads is less than or equal to 1, then planning will be serial.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with
+	 * {@link #setParallelSampling(java.util.concurrent.ExecutorService)} never is.
+	 * @param nThreads the number of threads to use
+	 */
+	public void setParallelSampling(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelSampling(null);
+		}
+		else{
+			this.setParallelSampling(Parallel.newDaemonPool(nThreads, "DifferentiableSparseSampling"));
+			this.ownsSamplingExecutor = true;
+		}
+	}
+
+
+	/**
+	 * Sets this planner to expand the samples of the root node in parallel with the given executor. If the executor is null, then planning will be serial.
+	 * @param executor the executor on which the root samples are expanded
+	 */
+	public void setParallelSampling(ExecutorService executor){
+		if(this.ownsSamplingExecutor && this.samplingExecutor != executor){
+			this.samplingExecutor.shutdown();
+		}
+		this.ownsSamplingExecutor = false;
+		this.samplingExecutor = executor;
+	}
+
+
+	/**
+	 * Sets the maximum number of tree nodes that will be stored for reuse. Once the limit is reached, the values of newly generated nodes are
+	 * recomputed whenever they are sampled rather than stored.
+	 * @param maxNodes the maximum number of stored nodes; -1 for no limit.
+	 */
+	public void setMaxStoredNodes(int maxNodes){
+		this.nodesByHeight.setMaxNodes(maxNodes);
+	}
+
 	/**
 	 * Sets the {@link ValueFunctionInitialization} object to use for settting the value of leaf nodes.
 	 * @param vinit the {@link ValueFunctionInitialization} object to use for settting the value of leaf nodes.
@@ -214,7 +274,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	 * @return the total number of state value estimates performed since the {@link #resetSolver()} call.
 	 */
 	public int getNumberOfValueEsitmates(){
-		return this.numUpdates;
+		return this.numUpdates.get();
 	}
 
 	@Override
@@ -319,12 +379,17 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 		}
 
 		DPrint.cl(this.debugCode, "Beginning Planning.");
-		int oldUpdates = this.numUpdates;
+		int oldUpdates = this.numUpdates.get();
 
 		DiffStateNode sn = this.getStateNode(initialState, this.h);
-		rootLevelQValues.put(sh, sn.estimateQs());
+		if(this.samplingExecutor != null){
+			rootLevelQValues.put(sh, this.estimateQsInParallel(sn));
+		}
+		else{
+			rootLevelQValues.put(sh, sn.estimateQs());
+		}
 
-		DPrint.cl(this.debugCode, "Finished Planning with " + (this.numUpdates - oldUpdates) + " value esitmates; for a cumulative total of: " + this.numUpdates);
+		DPrint.cl(this.debugCode, "Finished Planning with " + (this.numUpdates.get() - oldUpdates) + " value esitmates; for a cumulative total of: " + this.numUpdates.get());
 
 		if(this.forgetPreviousPlanResults){
 			this.nodesByHeight.clear();
@@ -340,7 +405,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	public void resetSolver() {
 		this.nodesByHeight.clear();
 		this.rootLevelQValues.clear();
-		this.numUpdates = 0;
+		this.numUpdates.set(0);
 	}
 
 
@@ -356,7 +421,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 		}
 
 		//convert height from bottom to depth from root
-		int d = this.h = height;
+		int d = this.h - height;
 		int vc = (int) (c * Math.pow(this.gamma, 2*d));
 		if(vc == 0){
 			vc = 1;
@@ -372,20 +437,73 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	 */
 	protected DiffStateNode getStateNode(State s, int height){
 		HashableState sh = this.hashingFactory.hashState(s);
-		SparseSampling.HashedHeightState hhs = new SparseSampling.HashedHeightState(sh, height);
-		DiffStateNode sn = this.nodesByHeight.get(hhs);
+		DiffStateNode sn = this.nodesByHeight.get(sh, height);
 		if(sn == null){
-			sn = new DiffStateNode(sh, height);
-			this.nodesByHeight.put(hhs, sn);
+			sn = this.nodesByHeight.putIfAbsent(sh, height, new DiffStateNode(sh, height));
 		}
 
 		return sn;
 	}
 
 
+	/**
+	 * Estimates the Q-values and Q-value gradients of a node by expanding each of its samples (or each of its transitions if the full
+	 * transition dynamics are used) in parallel with the sampling executor. The results are combined in the same order as the serial estimate.
+	 * @param sn the state node whose Q-values should be estimated
+	 * @return the Q-values and Q-value gradients for each action
+	 */
+	protected QAndQGradient estimateQsInParallel(final DiffStateNode sn){
+
+		int nodeC = this.getCAtHeight(sn.height);
+		if(sn.height == 0 || nodeC == 0){
+			return sn.estimateQs();
+		}
+
+		List<GroundedAction> gas = this.getAllGroundedActions(sn.sh.s);
+		int [] actionStarts = new int[gas.size()+1];
+		List<Callable<TransitionSample>> tasks = new ArrayList<Callable<TransitionSample>>();
+		for(int i = 0; i < gas.size(); i++){
+			final GroundedAction ga = gas.get(i);
+			actionStarts[i] = tasks.size();
+			if(nodeC > 0){
+				for(int j = 0; j < nodeC; j++){
+					tasks.add(new Callable<TransitionSample>() {
+						@Override
+						public TransitionSample call() throws Exception {
+							return sn.transitionSample(ga, 1., ga.executeIn(sn.sh.s));
+						}
+					});
+				}
+			}
+			else{
+				for(final TransitionProbability tp : ga.getTransitions(sn.sh.s)){
+					tasks.add(new Callable<TransitionSample>() {
+						@Override
+						public TransitionSample call() throws Exception {
+							return sn.transitionSample(ga, tp.p, tp.s);
+						}
+					});
+				}
+			}
+		}
+		actionStarts[gas.size()] = tasks.size();
+
+		List<TransitionSample> samples = Parallel.invokeAll(this.samplingExecutor, tasks);
+
+		QAndQGradient qs = new QAndQGradient(gas.size());
+		for(int i = 0; i < gas.size(); i++){
+			sn.addQEstimate(gas.get(i), samples.subList(actionStarts[i], actionStarts[i+1]), nodeC > 0, qs);
+		}
+
+		return qs;
+
+	}
+
+
 
 	/**
 	 * A class for value differentiable state nodes. Includes the state, a value estimate, whether the node has been closed and methods for estimating the Q and V values.
+	 * The value of a node is estimated while holding the node's lock, so that a node shared by samples that are expanded in parallel is only estimated once.
 	 * @author James MacGlashan
 	 *
 	 */
@@ -461,67 +579,75 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 
 		public void sampledBellmanQEstimate(GroundedAction ga, QAndQGradient qs){
 
-			FunctionGradient qGradient = new FunctionGradient.SparseGradient();
-
 			//generate C samples
-			double sum = 0.;
+			int c = DifferentiableSparseSampling.this.getCAtHeight(this.height);
+			List<TransitionSample> samples = new ArrayList<TransitionSample>(c);
 			for(int i = 0; i < c; i++){
+				samples.add(this.transitionSample(ga, 1., ga.executeIn(this.sh.s)));
+			}
 
-				//execute
-				State ns = ga.executeIn(this.sh.s);
-				double r = DifferentiableSparseSampling.this.rf.reward(this.sh.s, ga, ns);
-				FunctionGradient rGradient = ((DifferentiableRF)DifferentiableSparseSampling.this.rf).gradient(this.sh.s, ga, ns);
+			this.addQEstimate(ga, samples, true, qs);
 
-				DiffStateNode nsn = DifferentiableSparseSampling.this.getStateNode(ns, this.height-1);
+		}
 
-				VAndVGradient vVals = nsn.estimateV();
-				Set<Integer> params = combinedNonZeroPDParameters(vVals.vGrad, rGradient);
-				sum += r + DifferentiableSparseSampling.this.gamma*vVals.v;
-				for(Integer p : params){
-					double curVal = qGradient.getPartialDerivative(p);
-					double nextVal = curVal + rGradient.getPartialDerivative(p) + DifferentiableSparseSampling.this.gamma * vVals.vGrad.getPartialDerivative(p);
-					qGradient.put(p, nextVal);
-				}
 
+		public void fulldBellmanQEstimate(GroundedAction ga, QAndQGradient qs){
 
-			}
-			sum /= (double)c;
-			for(FunctionGradient.PartialDerivative pd : qGradient.getNonZeroPartialDerivatives()){
-				double nextVal = pd.value / (double)c;
-				qGradient.put(pd.parameterId, nextVal);
+			List<TransitionProbability> tps = ga.getTransitions(sh.s);
+			List<TransitionSample> samples = new ArrayList<TransitionSample>(tps.size());
+			for(TransitionProbability tp : tps){
+				samples.add(this.transitionSample(ga, tp.p, tp.s));
 			}
 
+			this.addQEstimate(ga, samples, false, qs);
 
-			qs.add(new QValue(this.sh.s, ga, sum), new QGradientTuple(this.sh.s, ga, qGradient));
+		}
 
 
+		/**
+		 * Computes the reward, reward gradient, and the estimated value and value gradient of the outcome state of a transition.
+		 * @param ga the action taken
+		 * @param p the weight (probability) of the transition
+		 * @param ns the outcome state
+		 * @return the {@link burlap.behavior.singleagent.learnfromdemo.mlirl.differentiableplanners.DifferentiableSparseSampling.TransitionSample}
+		 */
+		protected TransitionSample transitionSample(GroundedAction ga, double p, State ns){
+			double r = DifferentiableSparseSampling.this.rf.reward(this.sh.s, ga, ns);
+			FunctionGradient rGradient = ((DifferentiableRF)DifferentiableSparseSampling.this.rf).gradient(this.sh.s, ga, ns);
+			DiffStateNode nsn = DifferentiableSparseSampling.this.getStateNode(ns, this.height-1);
+			return new TransitionSample(p, r, rGradient, nsn.estimateV());
 		}
 
 
-		public void fulldBellmanQEstimate(GroundedAction ga, QAndQGradient qs){
+		/**
+		 * Combines the transitions of an action into its Q-value and Q-value gradient and adds them to qs.
+		 * @param ga the action
+		 * @param samples the transitions of the action
+		 * @param average if true, the transitions are samples that are averaged; if false, they are weighted by their probability
+		 * @param qs the Q-values and gradients to which the result is added
+		 */
+		protected void addQEstimate(GroundedAction ga, List<TransitionSample> samples, boolean average, QAndQGradient qs){
 
-			int dim = DifferentiableSparseSampling.this.rfDim;
 			FunctionGradient qGradient = new FunctionGradient.SparseGradient();
 
 			double sum = 0.;
-			List<TransitionProbability> tps = ga.getTransitions(sh.s);
-			for(TransitionProbability tp : tps){
-
-				State ns = tp.s;
-				double r = DifferentiableSparseSampling.this.rf.reward(this.sh.s, ga, ns);
-				FunctionGradient rGradient = ((DifferentiableRF)DifferentiableSparseSampling.this.rf).gradient(this.sh.s, ga, ns);
-
-				DiffStateNode nsn = DifferentiableSparseSampling.this.getStateNode(ns, this.height-1);
-
-				VAndVGradient vVals = nsn.estimateV();
-				Set<Integer> params = combinedNonZeroPDParameters(vVals.vGrad, rGradient);
-				sum += tp.p * (r + DifferentiableSparseSampling.this.gamma*vVals.v);
+			for(TransitionSample ts : samples){
+				Set<Integer> params = combinedNonZeroPDParameters(ts.vVals.vGrad, ts.rGradient);
+				sum += ts.p * (ts.r + DifferentiableSparseSampling.this.gamma*ts.vVals.v);
 				for(Integer p : params){
 					double curVal = qGradient.getPartialDerivative(p);
-					double nextVal = curVal + tp.p * (rGradient.getPartialDerivative(p) + DifferentiableSparseSampling.this.gamma * vVals.vGrad.getPartialDerivative(p));
+					double nextVal = curVal + ts.p * (ts.rGradient.getPartialDerivative(p) + DifferentiableSparseSampling.this.gamma * ts.vVals.vGrad.getPartialDerivative(p));
 					qGradient.put(p, nextVal);
 				}
+			}
 
+			if(average){
+				int n = samples.size();
+				sum /= (double)n;
+				for(FunctionGradient.PartialDerivative pd : qGradient.getNonZeroPartialDerivatives()){
+					double nextVal = pd.value / (double)n;
+					qGradient.put(pd.parameterId, nextVal);
+				}
 			}
 
 			qs.add(new QValue(this.sh.s, ga, sum), new QGradientTuple(this.sh.s, ga, qGradient));
@@ -529,7 +655,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 		}
 
 
-		public VAndVGradient estimateV(){
+		public synchronized VAndVGradient estimateV(){
 
 			if(this.closed){
 				return new VAndVGradient(this.v, this.vgrad);
@@ -546,7 +672,7 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 			this.setV(qs);
 			this.setVGrad(qs);
 			this.closed = true;
-			DifferentiableSparseSampling.this.numUpdates++;
+			DifferentiableSparseSampling.this.numUpdates.incrementAndGet();
 
 			return new VAndVGradient(this.v, this.vgrad);
 		}
@@ -644,6 +770,26 @@ public class DifferentiableSparseSampling extends MDPSolver implements QGradient
 	}
 
 
+	/**
+	 * A tuple for storing a transition's weight, reward, reward gradient, and the value and value gradient of its outcome state.
+	 */
+	protected static class TransitionSample{
+
+		double p;
+		double r;
+		FunctionGradient rGradient;
+		VAndVGradient vVals;
+
+		public TransitionSample(double p, double r, FunctionGradient rGradient, VAndVGradient vVals){
+			this.p = p;
+			this.r = r;
+			this.rGradient = rGradient;
+			this.vVals = vVals;
+		}
+
+	}
+
+
 	/**
 	 * A tuple for storing a state value and its gradient.
 	 */
@@ -0,0 +1,112 @@
+package burlap.behavior.singleagent.learning;
+
+import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.environment.Environment;
+import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
+
+/**
+ * A {@link burlap.behavior.singleagent.learning.LearningAgent} whose learning episodes can be driven one step at a time by
+ * the caller rather than by the agent itself. The agent creates an {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner}
+ * for each episode that holds all the episode specific learning state (such as the current state, selected action, eligibility traces,
+ * and the {@link burlap.behavior.singleagent.EpisodeAnalysis} recording), which allows a single agent to learn from multiple
+ * episodes in different {@link burlap.oomdp.singleagent.environment.Environment}s at the same time, as is done by
+ * {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner}.
+ * <p>
+ * An episode is driven by repeatedly asking the {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner} for
+ * the {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner#nextAction()}, executing it in the
+ * {@link burlap.oomdp.singleagent.environment.Environment}, and passing the outcome to
+ * {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner#learnFromOutcome(burlap.oomdp.singleagent.environment.Environment, burlap.oomdp.singleagent.environment.EnvironmentOutcome)}
+ * until the environment is in a terminal state or the step limit is reached, after which
+ * {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner#endEpisode()} is called.
+ * {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.Helper#runLearningEpisode(burlap.behavior.singleagent.learning.StepwiseLearningAgent, burlap.oomdp.singleagent.environment.Environment, int)}
+ * implements this loop for a single {@link burlap.oomdp.singleagent.environment.Environment}.
+ * <p>
+ * {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner} methods are not required to be thread safe; callers
+ * that drive episodes from multiple threads must synchronize calls to the agent and its episode learners.
+ * @author James MacGlashan
+ *
+ */
+public interface StepwiseLearningAgent extends LearningAgent {
+
+
+	/**
+	 * Begins a new learning episode from the given initial state.
+	 * @param initialState the initial state of the episode
+	 * @return the {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent.EpisodeLearner} for the episode
+	 */
+	EpisodeLearner beginLearningEpisode(State initialState);
+
+
+
+	/**
+	 * The learning state of a single episode of a {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent}.
+	 */
+	interface EpisodeLearner{
+
+		/**
+		 * Returns the action the agent will take in the current state of the episode.
+		 * @return the action the agent will take in the current state of the episode.
+		 */
+		GroundedAction nextAction();
+
+		/**
+		 * Learns from the outcome of executing the last action returned by {@link #nextAction()} and moves the episode to the next state.
+		 * @param env the {@link burlap.oomdp.singleagent.environment.Environment} in which the action was executed
+		 * @param eo the outcome of executing the action
+		 */
+		void learnFromOutcome(Environment env, EnvironmentOutcome eo);
+
+		/**
+		 * Returns the number of steps taken so far in this episode.
+		 * @return the number of steps taken so far in this episode.
+		 */
+		int numSteps();
+
+		/**
+		 * Returns the {@link burlap.behavior.singleagent.EpisodeAnalysis} recording this episode so far.
+		 * @return the {@link burlap.behavior.singleagent.EpisodeAnalysis} recording this episode so far.
+		 */
+		EpisodeAnalysis getEpisodeAnalysis();
+
+		/**
+		 * Ends the episode, letting the agent record it in its episode history and statistics.
+		 * @return the {@link burlap.behavior.singleagent.EpisodeAnalysis} recording the episode.
+		 */
+		EpisodeAnalysis endEpisode();
+
+	}
+
+
+
+	/**
+	 * A class with a static method for driving an episode of a {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent}
+	 * in a single {@link burlap.oomdp.singleagent.environment.Environment}.
+	 */
+	class Helper{
+
+		private Helper(){
+			// do nothing
+		}
+
+		/**
+		 * Runs a learning episode of the given agent in the given {@link burlap.oomdp.singleagent.environment.Environment} until it
+		 * reaches a terminal state or maxSteps steps have been taken.
+		 * @param agent the learning agent
+		 * @param env the {@link burlap.oomdp.singleagent.environment.Environment} in which the agent will interact
+		 * @param maxSteps the maximum number of steps in the episode; -1 for no limit
+		 * @return the {@link burlap.behavior.singleagent.EpisodeAnalysis} recording the episode.
+		 */
+		public static EpisodeAnalysis runLearningEpisode(StepwiseLearningAgent agent, Environment env, int maxSteps){
+			EpisodeLearner learner = agent.beginLearningEpisode(env.getCurrentObservation());
+			while(!env.isInTerminalState() && (learner.numSteps() < maxSteps || maxSteps == -1)){
+				EnvironmentOutcome eo = learner.nextAction().executeIn(env);
+				learner.learnFromOutcome(env, eo);
+			}
+			return learner.endEpisode();
+		}
+
+	}
+
+}
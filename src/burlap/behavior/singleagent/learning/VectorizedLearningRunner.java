@@ -0,0 +1,358 @@
+package burlap.behavior.singleagent.learning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.environment.Environment;
+import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
+import burlap.parallel.Parallel;
+
+
+/**
+ * Runs the learning episodes of a single {@link burlap.behavior.singleagent.learning.StepwiseLearningAgent} across multiple
+ * {@link burlap.oomdp.singleagent.environment.Environment} instances at once so that experience is collected from several environments
+ * in parallel. Typically the environments are independent copies of the same
+ * {@link burlap.oomdp.singleagent.environment.SimulatedEnvironment}. Each environment runs its own sequence of episodes,
+ * and the {@link burlap.behavior.singleagent.EpisodeAnalysis} of every episode is kept per environment and can be retrieved with
+ * {@link #getEpisodes(int)}. After an episode ends, its environment is sent the
+ * {@link burlap.oomdp.singleagent.environment.Environment#resetEnvironment()} message before the next episode in it begins.
+ * <p>
+ * There are two modes of execution.
+ * <p>
+ * {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner.Mode#LOCKSTEP}: all active environments take one step together.
+ * The agent selects the action for each environment in environment order, the actions are executed in their environments in parallel,
+ * and then the agent learns from the outcomes in environment order. Because the agent is only ever called from one thread and always in
+ * the same order, the agent does not need to be thread safe and its own random choices (such as exploration) are made in a fixed order.
+ * Learning is only deterministic for a fixed random seed if each environment also samples its transitions from its own seeded generator;
+ * environments whose actions share a generator, such as the shared generators of {@link burlap.debugtools.RandomFactory}, draw from
+ * it in an order that depends on thread scheduling.
+ * <p>
+ * {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner.Mode#ASYNCHRONOUS}: the environments are divided among worker
+ * threads, and each worker steps its environments as fast as it can. Calls to the agent (action selection and learning) are synchronized
+ * on the agent, so only the execution of actions in environments runs concurrently. This mode avoids waiting on the slowest environment
+ * each step, but the order in which the agent learns from the environments depends on thread scheduling.
+ * <p>
+ * In both modes, the environments must be distinct objects that can be stepped concurrently.
+ * @author James MacGlashan
+ *
+ */
+public class VectorizedLearningRunner {
+
+
+	/**
+	 * The execution modes of a {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner}.
+	 */
+	public static enum Mode{
+		LOCKSTEP,
+		ASYNCHRONOUS
+	}
+
+
+	/**
+	 * The learning agent
+	 */
+	protected StepwiseLearningAgent				agent;
+
+	/**
+	 * The environments in which the agent learns
+	 */
+	protected List<Environment>					envs;
+
+	/**
+	 * The execution mode
+	 */
+	protected Mode								mode;
+
+	/**
+	 * The executor used to step environments in parallel
+	 */
+	protected ExecutorService					executor;
+
+	/**
+	 * The number of worker threads used to step environments
+	 */
+	protected int								numWorkers;
+
+	/**
+	 * The maximum number of steps in an episode; -1 for no limit
+	 */
+	protected int								maxEpisodeSteps = -1;
+
+	/**
+	 * The recorded episodes of each environment
+	 */
+	protected List<List<EpisodeAnalysis>>		episodesByEnv;
+
+
+	/**
+	 * Initializes with a new daemon thread pool with the given number of threads.
+	 * @param agent the learning agent
+	 * @param envs the environments in which the agent will learn
+	 * @param nThreads the number of threads used to step environments
+	 * @param mode the execution mode
+	 */
+	public VectorizedLearningRunner(StepwiseLearningAgent agent, List<Environment> envs, int nThreads, Mode mode){
+		this(agent, envs, Parallel.newDaemonPool(Math.max(1, nThreads), "VectorizedLearningRunner"), nThreads, mode);
+	}
+
+
+	/**
+	 * Initializes.
+	 * @param agent the learning agent
+	 * @param envs the environments in which the agent will learn
+	 * @param executor the executor used to step environments
+	 * @param nThreads the number of tasks that will be submitted to the executor at once
+	 * @param mode the execution mode
+	 */
+	public VectorizedLearningRunner(StepwiseLearningAgent agent, List<Environment> envs, ExecutorService executor, int nThreads, Mode mode){
+		if(envs.isEmpty()){
+			throw new RuntimeException("VectorizedLearningRunner requires at least one environment.");
+		}
+		this.agent = agent;
+		this.envs = new ArrayList<Environment>(envs);
+		this.executor = executor;
+		this.numWorkers = Math.max(1, nThreads);
+		this.mode = mode;
+		this.episodesByEnv = new ArrayList<List<EpisodeAnalysis>>(envs.size());
+		for(int i = 0; i < envs.size(); i++){
+			this.episodesByEnv.add(new ArrayList<EpisodeAnalysis>());
+		}
+	}
+
+
+	/**
+	 * Sets the maximum number of steps in an episode.
+	 * @param maxEpisodeSteps the maximum number of steps in an episode; -1 for no limit
+	 */
+	public void setMaxEpisodeSteps(int maxEpisodeSteps){
+		this.maxEpisodeSteps = maxEpisodeSteps;
+	}
+
+
+	/**
+	 * Returns the maximum number of steps in an episode.
+	 * @return the maximum number of steps in an episode; -1 for no limit
+	 */
+	public int getMaxEpisodeSteps(){
+		return this.maxEpisodeSteps;
+	}
+
+
+	/**
+	 * Returns the number of environments.
+	 * @return the number of environments.
+	 */
+	public int numEnvironments(){
+		return this.envs.size();
+	}
+
+
+	/**
+	 * Returns all episodes that have been run in the environment with the given index, in the order they were run.
+	 * @param envIndex the index of the environment
+	 * @return all episodes that have been run in the environment.
+	 */
+	public List<EpisodeAnalysis> getEpisodes(int envIndex){
+		return this.episodesByEnv.get(envIndex);
+	}
+
+
+	/**
+	 * Clears the recorded episodes of all environments.
+	 */
+	public void clearEpisodes(){
+		for(List<EpisodeAnalysis> episodes : this.episodesByEnv){
+			episodes.clear();
+		}
+	}
+
+
+	/**
+	 * Runs the given total number of learning episodes spread across the environments. Each environment runs episodes until the total number
+	 * of started episodes reaches numEpisodes.
+	 * @param numEpisodes the total number of episodes to run
+	 * @return the episodes that were run, in the order they finished.
+	 */
+	public List<EpisodeAnalysis> runEpisodes(int numEpisodes){
+		if(this.mode == Mode.LOCKSTEP){
+			return this.runLockstepEpisodes(numEpisodes);
+		}
+		return this.runAsynchronousEpisodes(numEpisodes);
+	}
+
+
+	/**
+	 * Runs the given total number of episodes in {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner.Mode#LOCKSTEP} mode.
+	 * @param numEpisodes the total number of episodes to run
+	 * @return the episodes that were run, in the order they finished.
+	 */
+	protected List<EpisodeAnalysis> runLockstepEpisodes(int numEpisodes){
+
+		List<EpisodeAnalysis> finished = new ArrayList<EpisodeAnalysis>(numEpisodes);
+		int nEnvs = this.envs.size();
+		final StepwiseLearningAgent.EpisodeLearner [] learners = new StepwiseLearningAgent.EpisodeLearner[nEnvs];
+		final GroundedAction [] actions = new GroundedAction[nEnvs];
+		final EnvironmentOutcome [] outcomes = new EnvironmentOutcome[nEnvs];
+		final int [] active = new int[nEnvs];
+
+		int started = 0;
+		for(int i = 0; i < nEnvs && started < numEpisodes; i++){
+			learners[i] = this.agent.beginLearningEpisode(this.envs.get(i).getCurrentObservation());
+			started++;
+		}
+
+		while(true){
+
+			//end episodes that are over and start new ones in their environments
+			int nActive = 0;
+			for(int i = 0; i < nEnvs; i++){
+				while(learners[i] != null && this.episodeIsOver(learners[i], this.envs.get(i))){
+					finished.add(this.endEpisode(i, learners[i]));
+					learners[i] = null;
+					if(started < numEpisodes){
+						learners[i] = this.agent.beginLearningEpisode(this.envs.get(i).getCurrentObservation());
+						started++;
+					}
+				}
+				if(learners[i] != null){
+					active[nActive] = i;
+					nActive++;
+				}
+			}
+
+			if(nActive == 0){
+				break;
+			}
+
+			for(int j = 0; j < nActive; j++){
+				actions[active[j]] = learners[active[j]].nextAction();
+			}
+
+			if(nActive == 1 || this.numWorkers == 1){
+				for(int j = 0; j < nActive; j++){
+					int i = active[j];
+					outcomes[i] = actions[i].executeIn(this.envs.get(i));
+				}
+			}
+			else{
+				Parallel.forChunks(this.executor, nActive, this.numWorkers, new Parallel.ForChunk<Object>() {
+					@Override
+					public Object run(int chunk, int start, int end) {
+						for(int j = start; j < end; j++){
+							int i = active[j];
+							outcomes[i] = actions[i].executeIn(envs.get(i));
+						}
+						return null;
+					}
+				});
+			}
+
+			for(int j = 0; j < nActive; j++){
+				int i = active[j];
+				learners[i].learnFromOutcome(this.envs.get(i), outcomes[i]);
+				actions[i] = null;
+				outcomes[i] = null;
+			}
+
+		}
+
+		return finished;
+	}
+
+
+	/**
+	 * Runs the given total number of episodes in {@link burlap.behavior.singleagent.learning.VectorizedLearningRunner.Mode#ASYNCHRONOUS} mode.
+	 * @param numEpisodes the total number of episodes to run
+	 * @return the episodes that were run, in the order they finished.
+	 */
+	protected List<EpisodeAnalysis> runAsynchronousEpisodes(final int numEpisodes){
+
+		final List<EpisodeAnalysis> finished = new ArrayList<EpisodeAnalysis>(numEpisodes);
+		final AtomicInteger started = new AtomicInteger(0);
+
+		Parallel.forChunks(this.executor, this.envs.size(), this.numWorkers, new Parallel.ForChunk<Object>() {
+			@Override
+			public Object run(int chunk, int start, int end) {
+
+				//round robin over this worker's environments, one episode at a time
+				int i = start;
+				while(started.getAndIncrement() < numEpisodes){
+					EpisodeAnalysis ea = runAsynchronousEpisode(i);
+					synchronized(finished){
+						finished.add(ea);
+					}
+					i = i+1 < end ? i+1 : start;
+				}
+
+				return null;
+			}
+		});
+
+		return finished;
+	}
+
+
+	/**
+	 * Runs one episode in the environment with the given index, synchronizing all calls to the agent on the agent.
+	 * @param envIndex the index of the environment
+	 * @return the {@link burlap.behavior.singleagent.EpisodeAnalysis} of the episode
+	 */
+	protected EpisodeAnalysis runAsynchronousEpisode(int envIndex){
+
+		Environment env = this.envs.get(envIndex);
+		StepwiseLearningAgent.EpisodeLearner learner;
+		synchronized(this.agent){
+			learner = this.agent.beginLearningEpisode(env.getCurrentObservation());
+		}
+
+		while(!this.episodeIsOver(learner, env)){
+			GroundedAction action;
+			synchronized(this.agent){
+				action = learner.nextAction();
+			}
+			EnvironmentOutcome eo = action.executeIn(env);
+			synchronized(this.agent){
+				learner.learnFromOutcome(env, eo);
+			}
+		}
+
+		synchronized(this.agent){
+			return this.endEpisode(envIndex, learner);
+		}
+
+	}
+
+
+	/**
+	 * Returns whether the given episode in the given environment is over, either because the environment is in a terminal state
+	 * or because the episode has reached the maximum number of steps.
+	 * @param learner the episode
+	 * @param env the environment of the episode
+	 * @return true if the episode is over; false otherwise.
+	 */
+	protected boolean episodeIsOver(StepwiseLearningAgent.EpisodeLearner learner, Environment env){
+		return env.isInTerminalState() || (this.maxEpisodeSteps != -1 && learner.numSteps() >= this.maxEpisodeSteps);
+	}
+
+
+	/**
+	 * Ends the given episode, records it for its environment, and resets the environment.
+	 * @param envIndex the index of the environment of the episode
+	 * @param learner the episode
+	 * @return the {@link burlap.behavior.singleagent.EpisodeAnalysis} of the episode
+	 */
+	protected EpisodeAnalysis endEpisode(int envIndex, StepwiseLearningAgent.EpisodeLearner learner){
+		EpisodeAnalysis ea = learner.endEpisode();
+		List<EpisodeAnalysis> episodes = this.episodesByEnv.get(envIndex);
+		synchronized(episodes){
+			episodes.add(ea);
+		}
+		this.envs.get(envIndex).resetEnvironment();
+		return ea;
+	}
+
+}
@@ -145,6 +145,11 @@ public class LSPI extends MDPSolver implements QFunction, LearningAgent, Planner
 	 * The number of the most recent learning episodes to store.
 	 */
 	protected int													numEpisodesToStore;
+
+	/**
+	 * The sparse solver used by {@link #LSTDQ()}; if null, the dense Sherman-Morrison update is used instead.
+	 */
+	protected SparseLSTDQ											sparseLSTDQ = new SparseLSTDQ();
 	
 	
 	
@@ -265,6 +270,32 @@ public class LSPI extends MDPSolver implements QFunction, LearningAgent, Planner
 	}
 
 	
+	/**
+	 * Returns the sparse LSTDQ solver used by {@link #LSTDQ()}, or null if the dense Sherman-Morrison update is used. The returned solver
+	 * can be used to configure parallel accumulation and the solve method.
+	 * @return the sparse LSTDQ solver used by {@link #LSTDQ()}, or null if the dense Sherman-Morrison update is used.
+	 */
+	public SparseLSTDQ getSparseLSTDQ() {
+		return sparseLSTDQ;
+	}
+
+
+	/**
+	 * Toggles whether {@link #LSTDQ()} uses the {@link burlap.behavior.singleagent.learning.lspi.SparseLSTDQ} solver, which is the default,
+	 * or the dense per sample Sherman-Morrison update of the inverse LSTDQ matrix, which requires O(n^2) time and memory per sample
+	 * for n features.
+	 * @param useSparseLSTDQ if true, the sparse solver is used; if false, the dense Sherman-Morrison update is used.
+	 */
+	public void toggleSparseLSTDQ(boolean useSparseLSTDQ) {
+		if(!useSparseLSTDQ){
+			this.sparseLSTDQ = null;
+		}
+		else if(this.sparseLSTDQ == null){
+			this.sparseLSTDQ = new SparseLSTDQ();
+		}
+	}
+
+	
 	/**
 	 * Gets the number of SARS samples that will be gathered by the {@link #planFromState(State)} method.
 	 * @return the number of SARS samples that will be gathered by the {@link #planFromState(State)} method.
@@ -402,6 +433,11 @@ public class LSPI extends MDPSolver implements QFunction, LearningAgent, Planner
 		}
 		
 		int nf = this.featureDatabase.numberOfFeatures();
+		
+		if(this.sparseLSTDQ != null){
+			return this.sparseLSTDQ(features, nf);
+		}
+		
 		SimpleMatrix B = SimpleMatrix.identity(nf).scale(this.identityScalar);
 		SimpleMatrix b = new SimpleMatrix(nf, 1);
 		
@@ -438,6 +474,45 @@ public class LSPI extends MDPSolver implements QFunction, LearningAgent, Planner
 		
 	}
 	
+	/**
+	 * Solves LSTDQ for the given features of this object's current {@link SARSData} dataset with the {@link burlap.behavior.singleagent.learning.lspi.SparseLSTDQ}
+	 * solver and sets the value function to the resulting weights.
+	 * @param features the state-action features of each sample and the next state features of the policy's action
+	 * @param nf the total number of state-action features.
+	 * @return the new weight matrix as a {@link SimpleMatrix} object.
+	 */
+	protected SimpleMatrix sparseLSTDQ(List<SSFeatures> features, int nf){
+		
+		List<SparseLSTDQ.SparseFeatureVector> phis = new ArrayList<SparseLSTDQ.SparseFeatureVector>(features.size());
+		List<SparseLSTDQ.SparseFeatureVector> nextPhis = new ArrayList<SparseLSTDQ.SparseFeatureVector>(features.size());
+		double [] rewards = new double[features.size()];
+		for(int i = 0; i < features.size(); i++){
+			phis.add(this.sparsePhiConstructor(features.get(i).sActionFeatures));
+			nextPhis.add(this.sparsePhiConstructor(features.get(i).sPrimeActionFeatures));
+			rewards[i] = this.dataset.get(i).r;
+		}
+		
+		double [] initialWeights = null;
+		if(this.lastWeights != null && this.lastWeights.numRows() == nf){
+			initialWeights = new double[nf];
+			for(int i = 0; i < nf; i++){
+				initialWeights[i] = this.lastWeights.get(i, 0);
+			}
+		}
+		
+		double [] w = this.sparseLSTDQ.solve(phis, nextPhis, rewards, nf, this.gamma, 1. / this.identityScalar, initialWeights);
+		
+		SimpleMatrix wm = new SimpleMatrix(nf, 1);
+		this.vfa = new LinearVFA(this.featureDatabase);
+		for(int i = 0; i < nf; i++){
+			wm.set(i, 0, w[i]);
+			this.vfa.setParameter(i, w[i]);
+		}
+		
+		return wm;
+		
+	}
+	
 	/**
 	 * Runs LSPI for either numIterations or until the change in the weight matrix is no greater than maxChange.
 	 * @param numIterations the maximum number of policy iterations.
@@ -484,6 +559,18 @@ public class LSPI extends MDPSolver implements QFunction, LearningAgent, Planner
 		return phi;
 	}
 	
+	/**
+	 * Constructs the state-action feature vector as a {@link burlap.behavior.singleagent.learning.lspi.SparseLSTDQ.SparseFeatureVector}.
+	 * @param features the state-action features that have non-zero values
+	 * @return the state-action feature vector as a {@link burlap.behavior.singleagent.learning.lspi.SparseLSTDQ.SparseFeatureVector}.
+	 */
+	protected SparseLSTDQ.SparseFeatureVector sparsePhiConstructor(List<ActionFeaturesQuery> features){
+		if(features.size() != 1){
+			throw new RuntimeException("Expected only one actions's set of features.");
+		}
+		return SparseLSTDQ.SparseFeatureVector.fromFeatures(features.get(0).features);
+	}
+	
 	/**
 	 * Wraps a {@link GroundedAction} in a list of size 1.
 	 * @param ga the {@link GroundedAction} to wrap.
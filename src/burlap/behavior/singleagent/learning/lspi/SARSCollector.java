@@ -1,6 +1,9 @@
 package burlap.behavior.singleagent.learning.lspi;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import burlap.debugtools.RandomFactory;
 import burlap.oomdp.auxiliary.StateGenerator;
@@ -12,6 +15,7 @@ import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.singleagent.environment.Environment;
 import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
+import burlap.parallel.Parallel;
 
 
 /**
@@ -125,6 +129,71 @@ public abstract class SARSCollector {
 		return intoDataset;
 
 	}
+
+
+
+	/**
+	 * Collects nSamples of SARS tuples from multiple {@link burlap.oomdp.singleagent.environment.Environment}s in parallel, using
+	 * one task per environment on the given executor. The samples are split as evenly as possible among the environments and each
+	 * environment's share is collected with {@link #collectNInstances(burlap.oomdp.singleagent.environment.Environment, int, int, SARSData)}.
+	 * The samples of each environment are then added to the dataset in environment order. Because this collector's
+	 * {@link #collectDataFrom(burlap.oomdp.singleagent.environment.Environment, int, SARSData)} method is called concurrently,
+	 * it must be safe to call from multiple threads on different environments, and the environments must be distinct objects.
+	 * @param envs The {@link burlap.oomdp.singleagent.environment.Environment}s from which samples should be collected.
+	 * @param nSamples The total number of samples to generate.
+	 * @param maxEpisodeSteps the maximum number of steps to take from any initial state of an {@link burlap.oomdp.singleagent.environment.Environment}.
+	 * @param intoDataset the dataset into which the results will be collected. If null, a new dataset is created.
+	 * @param executor the executor on which the environments are stepped
+	 * @return the intoDataset object, which is created if it is input as null.
+	 */
+	public SARSData collectNInstances(final List<Environment> envs, int nSamples, final int maxEpisodeSteps, SARSData intoDataset, ExecutorService executor){
+
+		if(intoDataset == null){
+			intoDataset = new SARSData(nSamples);
+		}
+
+		final int [] bounds = Parallel.partition(nSamples, envs.size());
+		List<Callable<SARSData>> tasks = new ArrayList<Callable<SARSData>>(bounds.length-1);
+		for(int i = 0; i < bounds.length-1; i++){
+			final Environment env = envs.get(i);
+			final int n = bounds[i+1] - bounds[i];
+			tasks.add(new Callable<SARSData>() {
+				@Override
+				public SARSData call() throws Exception {
+					return collectNInstances(env, n, maxEpisodeSteps, null);
+				}
+			});
+		}
+
+		for(SARSData envData : Parallel.invokeAll(executor, tasks)){
+			for(SARSData.SARS sars : envData.dataset){
+				intoDataset.add(sars);
+			}
+		}
+
+		return intoDataset;
+
+	}
+
+
+	/**
+	 * Collects nSamples of SARS tuples from multiple {@link burlap.oomdp.singleagent.environment.Environment}s in parallel, using
+	 * a temporary thread pool with one thread per environment. See
+	 * {@link #collectNInstances(java.util.List, int, int, SARSData, java.util.concurrent.ExecutorService)} for details.
+	 * @param envs The {@link burlap.oomdp.singleagent.environment.Environment}s from which samples should be collected.
+	 * @param nSamples The total number of samples to generate.
+	 * @param maxEpisodeSteps the maximum number of steps to take from any initial state of an {@link burlap.oomdp.singleagent.environment.Environment}.
+	 * @param intoDataset the dataset into which the results will be collected. If null, a new dataset is created.
+	 * @return the intoDataset object, which is created if it is input as null.
+	 */
+	public SARSData collectNInstances(List<Environment> envs, int nSamples, int maxEpisodeSteps, SARSData intoDataset){
+		ExecutorService executor = Parallel.newDaemonPool(envs.size(), "SARSCollector");
+		try{
+			return this.collectNInstances(envs, nSamples, maxEpisodeSteps, intoDataset, executor);
+		}finally{
+			executor.shutdown();
+		}
+	}
 	
 	
 	
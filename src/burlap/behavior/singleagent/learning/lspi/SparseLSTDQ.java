@@ -0,0 +1,715 @@
+package burlap.behavior.singleagent.learning.lspi;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.ejml.simple.SimpleMatrix;
+
+import burlap.behavior.singleagent.vfa.StateFeature;
+import burlap.debugtools.DPrint;
+import burlap.parallel.Parallel;
+
+
+/**
+ * An LSTDQ [1] solver that exploits the sparsity of state-action feature vectors. Rather than maintaining the dense inverse of the
+ * LSTDQ matrix with a Sherman-Morrison update for every sample, this solver accumulates the matrix
+ * A = (1/c)I + sum_i phi_i (phi_i - gamma phi'_i)^T and the vector b = sum_i r_i phi_i in place, touching only the entries
+ * for the non-zero features of each sample, and then solves A w = b once. The identity term (1/c)I is the same regularization
+ * that the Sherman-Morrison formulation introduces by initializing the inverse to c times the identity matrix, so both
+ * formulations produce the same weights.
+ * <p>
+ * A is stored with a sparse row for each feature. When a number of threads is set with {@link #setParallelAccumulation(int)}, the
+ * samples are split into contiguous chunks that are accumulated on different threads and then summed in chunk order, so the result
+ * does not depend on thread scheduling.
+ * <p>
+ * If the number of features is no greater than {@link #getMaxDenseFeatures()}, A is solved with a dense LU factorization.
+ * Otherwise it is solved with the Jacobi preconditioned BiCGSTAB method, optionally warm started from previous weights
+ * (such as those of the previous LSPI iteration).
+ * <p>
+ * 1. Lagoudakis, Michail G., and Ronald Parr. "Least-squares policy iteration." The Journal of Machine Learning Research 4 (2003): 1107-1149.
+ * @author James MacGlashan
+ *
+ */
+public class SparseLSTDQ {
+
+	/**
+	 * The executor used to accumulate samples in parallel; null for serial accumulation
+	 */
+	protected ExecutorService			accumulationExecutor = null;
+
+	/**
+	 * Whether the accumulation executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean					ownsAccumulationExecutor = false;
+
+	/**
+	 * The number of chunks into which samples are split for parallel accumulation
+	 */
+	protected int						numAccumulationChunks = 1;
+
+	/**
+	 * The maximum number of features for which a dense factorization is used
+	 */
+	protected int						maxDenseFeatures = 1500;
+
+	/**
+	 * The relative residual at which the iterative solver stops
+	 */
+	protected double					tolerance = 1e-10;
+
+	/**
+	 * The maximum number of iterations of the iterative solver
+	 */
+	protected int						maxIterations = 2000;
+
+	/**
+	 * The debug code used for printing solver warnings
+	 */
+	protected int						debugCode = 0;
+
+
+	/**
+	 * Sets the number of threads used to accumulate samples. A new daemon thread pool is created if more than one thread is used.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with
+	 * {@link #setParallelAccumulation(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads; 1 or less for serial accumulation
+	 */
+	public void setParallelAccumulation(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelAccumulation(null, 1);
+		}
+		else{
+			this.setParallelAccumulation(Parallel.newDaemonPool(nThreads, "LSTDQ"), nThreads);
+			this.ownsAccumulationExecutor = true;
+		}
+	}
+
+
+	/**
+	 * Sets the executor used to accumulate samples and the number of chunks into which the samples are split.
+	 * @param executor the executor; null for serial accumulation
+	 * @param nChunks the number of chunks into which samples are split
+	 */
+	public void setParallelAccumulation(ExecutorService executor, int nChunks){
+		if(this.ownsAccumulationExecutor && this.accumulationExecutor != executor){
+			this.accumulationExecutor.shutdown();
+		}
+		this.ownsAccumulationExecutor = false;
+		this.accumulationExecutor = executor;
+		this.numAccumulationChunks = Math.max(1, nChunks);
+	}
+
+
+	/**
+	 * Returns the maximum number of features for which a dense factorization is used.
+	 * @return the maximum number of features for which a dense factorization is used.
+	 */
+	public int getMaxDenseFeatures() {
+		return maxDenseFeatures;
+	}
+
+
+	/**
+	 * Sets the maximum number of features for which a dense factorization is used. Problems with more features are solved iteratively.
+	 * @param maxDenseFeatures the maximum number of features for which a dense factorization is used.
+	 */
+	public void setMaxDenseFeatures(int maxDenseFeatures) {
+		this.maxDenseFeatures = maxDenseFeatures;
+	}
+
+
+	/**
+	 * Returns the relative residual at which the iterative solver stops.
+	 * @return the relative residual at which the iterative solver stops.
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+
+	/**
+	 * Sets the relative residual at which the iterative solver stops.
+	 * @param tolerance the relative residual at which the iterative solver stops.
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+
+	/**
+	 * Returns the maximum number of iterations of the iterative solver.
+	 * @return the maximum number of iterations of the iterative solver.
+	 */
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+
+	/**
+	 * Sets the maximum number of iterations of the iterative solver.
+	 * @param maxIterations the maximum number of iterations of the iterative solver.
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+
+	/**
+	 * Sets the debug code used for printing solver warnings.
+	 * @param debugCode the debug code used for printing solver warnings.
+	 */
+	public void setDebugCode(int debugCode) {
+		this.debugCode = debugCode;
+	}
+
+
+	/**
+	 * Solves for the LSTDQ weights of the given samples.
+	 * @param phis the state-action feature vector of each sample
+	 * @param nextPhis the next state-action feature vector of each sample, for the action selected by the evaluated policy
+	 * @param rewards the reward of each sample
+	 * @param nf the total number of features
+	 * @param gamma the discount factor
+	 * @param ridge the value added to the diagonal of A; the reciprocal of the Sherman-Morrison identity scalar
+	 * @param initialWeights the initial weights for the iterative solver; may be null or of a different length, in which case zero weights are used
+	 * @return the weights
+	 */
+	public double [] solve(final List<SparseFeatureVector> phis, final List<SparseFeatureVector> nextPhis, final double [] rewards,
+						   final int nf, final double gamma, double ridge, double [] initialWeights){
+
+		RowAccumulator acc;
+		if(this.accumulationExecutor == null || this.numAccumulationChunks <= 1 || phis.size() < 2){
+			acc = new RowAccumulator(nf);
+			acc.addSamples(phis, nextPhis, rewards, gamma, 0, phis.size());
+		}
+		else{
+			List<RowAccumulator> partials = Parallel.forChunks(this.accumulationExecutor, phis.size(), this.numAccumulationChunks, new Parallel.ForChunk<RowAccumulator>() {
+				@Override
+				public RowAccumulator run(int chunk, int start, int end) {
+					RowAccumulator chunkAcc = new RowAccumulator(nf);
+					chunkAcc.addSamples(phis, nextPhis, rewards, gamma, start, end);
+					return chunkAcc;
+				}
+			});
+			acc = partials.get(0);
+			for(int i = 1; i < partials.size(); i++){
+				acc.addAll(partials.get(i));
+			}
+		}
+
+		for(int i = 0; i < nf; i++){
+			acc.add(i, i, ridge);
+		}
+
+		CSRMatrix A = acc.toCSR();
+
+		if(nf <= this.maxDenseFeatures){
+			return this.solveDense(A, acc.b);
+		}
+
+		double [] x0 = initialWeights != null && initialWeights.length == nf ? initialWeights : new double[nf];
+		return this.solveBiCGSTAB(A, acc.b, x0);
+
+	}
+
+
+	/**
+	 * Solves A x = b with a dense LU factorization.
+	 * @param A the matrix
+	 * @param b the right hand side
+	 * @return the solution x
+	 */
+	protected double [] solveDense(CSRMatrix A, double [] b){
+
+		int n = A.n;
+		SimpleMatrix dA = new SimpleMatrix(n, n);
+		SimpleMatrix db = new SimpleMatrix(n, 1);
+		for(int i = 0; i < n; i++){
+			for(int k = A.rowStarts[i]; k < A.rowStarts[i+1]; k++){
+				dA.set(i, A.cols[k], A.vals[k]);
+			}
+			db.set(i, 0, b[i]);
+		}
+
+		SimpleMatrix w = dA.solve(db);
+		double [] x = new double[n];
+		for(int i = 0; i < n; i++){
+			x[i] = w.get(i, 0);
+		}
+
+		return x;
+	}
+
+
+	/**
+	 * Solves A x = b with the Jacobi preconditioned BiCGSTAB method.
+	 * @param A the matrix
+	 * @param b the right hand side
+	 * @param x0 the initial solution, which is not modified
+	 * @return the solution x
+	 */
+	protected double [] solveBiCGSTAB(CSRMatrix A, double [] b, double [] x0){
+
+		int n = A.n;
+		double [] x = x0.clone();
+
+		double bNorm = norm(b);
+		if(bNorm == 0.){
+			return new double[n];
+		}
+		double stop = this.tolerance * bNorm;
+
+		double [] invDiag = A.diagonal();
+		for(int i = 0; i < n; i++){
+			invDiag[i] = invDiag[i] != 0. ? 1. / invDiag[i] : 1.;
+		}
+
+		double [] r = new double[n];
+		A.multiply(x, r);
+		for(int i = 0; i < n; i++){
+			r[i] = b[i] - r[i];
+		}
+		if(norm(r) <= stop){
+			return x;
+		}
+
+		double [] rHat = r.clone();
+		double [] p = new double[n];
+		double [] v = new double[n];
+		double [] y = new double[n];
+		double [] s = new double[n];
+		double [] z = new double[n];
+		double [] t = new double[n];
+
+		double rho = 1.;
+		double alpha = 1.;
+		double omega = 1.;
+
+		for(int it = 0; it < this.maxIterations; it++){
+
+			double rhoNext = dot(rHat, r);
+			if(rhoNext == 0.){
+				//breakdown; restart with the current residual as the shadow residual
+				System.arraycopy(r, 0, rHat, 0, n);
+				rhoNext = dot(rHat, r);
+				java.util.Arrays.fill(p, 0.);
+				java.util.Arrays.fill(v, 0.);
+				rho = alpha = omega = 1.;
+			}
+
+			double beta = (rhoNext / rho) * (alpha / omega);
+			for(int i = 0; i < n; i++){
+				p[i] = r[i] + beta * (p[i] - omega * v[i]);
+				y[i] = invDiag[i] * p[i];
+			}
+			A.multiply(y, v);
+
+			alpha = rhoNext / dot(rHat, v);
+			for(int i = 0; i < n; i++){
+				s[i] = r[i] - alpha * v[i];
+			}
+			if(norm(s) <= stop){
+				for(int i = 0; i < n; i++){
+					x[i] += alpha * y[i];
+				}
+				return x;
+			}
+
+			for(int i = 0; i < n; i++){
+				z[i] = invDiag[i] * s[i];
+			}
+			A.multiply(z, t);
+
+			double tt = dot(t, t);
+			omega = tt != 0. ? dot(t, s) / tt : 0.;
+			for(int i = 0; i < n; i++){
+				x[i] += alpha * y[i] + omega * z[i];
+				r[i] = s[i] - omega * t[i];
+			}
+
+			if(norm(r) <= stop){
+				return x;
+			}
+			if(omega == 0.){
+				break;
+			}
+
+			rho = rhoNext;
+
+		}
+
+		DPrint.cl(this.debugCode, "LSTDQ iterative solver did not reach the residual tolerance in " + this.maxIterations + " iterations.");
+
+		return x;
+	}
+
+
+	/**
+	 * Returns the dot product of two vectors.
+	 * @param a the first vector
+	 * @param b the second vector
+	 * @return the dot product
+	 */
+	protected static double dot(double [] a, double [] b){
+		double sum = 0.;
+		for(int i = 0; i < a.length; i++){
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Returns the Euclidean norm of a vector.
+	 * @param a the vector
+	 * @return the Euclidean norm
+	 */
+	protected static double norm(double [] a){
+		return Math.sqrt(dot(a, a));
+	}
+
+
+
+	/**
+	 * A sparse feature vector stored as parallel arrays of feature ids and values.
+	 */
+	public static class SparseFeatureVector{
+
+		/**
+		 * The ids of the non-zero features
+		 */
+		public int []		ids;
+
+		/**
+		 * The values of the non-zero features
+		 */
+		public double []	values;
+
+
+		/**
+		 * Initializes.
+		 * @param ids the ids of the non-zero features
+		 * @param values the values of the non-zero features
+		 */
+		public SparseFeatureVector(int [] ids, double [] values){
+			this.ids = ids;
+			this.values = values;
+		}
+
+
+		/**
+		 * Creates a sparse feature vector from a list of {@link burlap.behavior.singleagent.vfa.StateFeature}s. If a feature id
+		 * appears more than once, its last value is used.
+		 * @param features the state features
+		 * @return the sparse feature vector
+		 */
+		public static SparseFeatureVector fromFeatures(List<StateFeature> features){
+			int [] ids = new int[features.size()];
+			double [] values = new double[features.size()];
+			int n = 0;
+			for(StateFeature sf : features){
+				int existing = -1;
+				for(int i = 0; i < n; i++){
+					if(ids[i] == sf.id){
+						existing = i;
+						break;
+					}
+				}
+				if(existing != -1){
+					values[existing] = sf.value;
+				}
+				else{
+					ids[n] = sf.id;
+					values[n] = sf.value;
+					n++;
+				}
+			}
+			if(n < ids.length){
+				ids = java.util.Arrays.copyOf(ids, n);
+				values = java.util.Arrays.copyOf(values, n);
+			}
+			return new SparseFeatureVector(ids, values);
+		}
+
+	}
+
+
+
+	/**
+	 * A square sparse matrix in compressed sparse row format. The columns within a row are not required to be sorted.
+	 */
+	public static class CSRMatrix{
+
+		/**
+		 * The number of rows and columns
+		 */
+		public int			n;
+
+		/**
+		 * The index of the first entry of each row; the last element is the number of entries
+		 */
+		public int []		rowStarts;
+
+		/**
+		 * The column of each entry
+		 */
+		public int []		cols;
+
+		/**
+		 * The value of each entry
+		 */
+		public double []	vals;
+
+
+		/**
+		 * Initializes.
+		 * @param n the number of rows and columns
+		 * @param rowStarts the index of the first entry of each row followed by the number of entries
+		 * @param cols the column of each entry
+		 * @param vals the value of each entry
+		 */
+		public CSRMatrix(int n, int [] rowStarts, int [] cols, double [] vals){
+			this.n = n;
+			this.rowStarts = rowStarts;
+			this.cols = cols;
+			this.vals = vals;
+		}
+
+
+		/**
+		 * Computes out = this * x.
+		 * @param x the vector to multiply
+		 * @param out the vector into which the result is written
+		 */
+		public void multiply(double [] x, double [] out){
+			for(int i = 0; i < this.n; i++){
+				double sum = 0.;
+				for(int k = this.rowStarts[i]; k < this.rowStarts[i+1]; k++){
+					sum += this.vals[k] * x[this.cols[k]];
+				}
+				out[i] = sum;
+			}
+		}
+
+
+		/**
+		 * Returns a new array with the diagonal entries of this matrix.
+		 * @return the diagonal entries of this matrix
+		 */
+		public double [] diagonal(){
+			double [] d = new double[this.n];
+			for(int i = 0; i < this.n; i++){
+				for(int k = this.rowStarts[i]; k < this.rowStarts[i+1]; k++){
+					if(this.cols[k] == i){
+						d[i] += this.vals[k];
+					}
+				}
+			}
+			return d;
+		}
+
+	}
+
+
+
+	/**
+	 * Accumulates the LSTDQ matrix A in sparse rows, each an open addressing hash table from column to value, and the vector b.
+	 */
+	protected static class RowAccumulator{
+
+		/**
+		 * The column keys of each row's hash table; null for rows without entries. Empty slots hold -1.
+		 */
+		protected int [][]			rowCols;
+
+		/**
+		 * The values of each row's hash table
+		 */
+		protected double [][]		rowVals;
+
+		/**
+		 * The number of entries in each row
+		 */
+		protected int []			rowSizes;
+
+		/**
+		 * The accumulated vector b
+		 */
+		protected double []			b;
+
+
+		/**
+		 * Initializes an empty accumulator.
+		 * @param nf the number of features
+		 */
+		public RowAccumulator(int nf){
+			this.rowCols = new int[nf][];
+			this.rowVals = new double[nf][];
+			this.rowSizes = new int[nf];
+			this.b = new double[nf];
+		}
+
+
+		/**
+		 * Adds the samples in the index range [start, end).
+		 * @param phis the state-action feature vector of each sample
+		 * @param nextPhis the next state-action feature vector of each sample
+		 * @param rewards the reward of each sample
+		 * @param gamma the discount factor
+		 * @param start the first sample (inclusive)
+		 * @param end the last sample (exclusive)
+		 */
+		public void addSamples(List<SparseFeatureVector> phis, List<SparseFeatureVector> nextPhis, double [] rewards, double gamma, int start, int end){
+			for(int s = start; s < end; s++){
+				SparseFeatureVector phi = phis.get(s);
+				SparseFeatureVector nextPhi = nextPhis.get(s);
+				double r = rewards[s];
+				for(int i = 0; i < phi.ids.length; i++){
+					int row = phi.ids[i];
+					double vi = phi.values[i];
+					this.b[row] += r * vi;
+					for(int j = 0; j < phi.ids.length; j++){
+						this.add(row, phi.ids[j], vi * phi.values[j]);
+					}
+					for(int j = 0; j < nextPhi.ids.length; j++){
+						this.add(row, nextPhi.ids[j], -gamma * vi * nextPhi.values[j]);
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Adds a value to an entry of A.
+		 * @param row the row of the entry
+		 * @param col the column of the entry
+		 * @param v the value to add
+		 */
+		public void add(int row, int col, double v){
+
+			int [] cols = this.rowCols[row];
+			if(cols == null){
+				cols = new int[8];
+				java.util.Arrays.fill(cols, -1);
+				this.rowCols[row] = cols;
+				this.rowVals[row] = new double[8];
+			}
+
+			int mask = cols.length - 1;
+			int i = slot(col, mask);
+			while(true){
+				int c = cols[i];
+				if(c == col){
+					this.rowVals[row][i] += v;
+					return;
+				}
+				if(c == -1){
+					break;
+				}
+				i = (i + 1) & mask;
+			}
+
+			cols[i] = col;
+			this.rowVals[row][i] = v;
+			this.rowSizes[row]++;
+			if(this.rowSizes[row] * 2 > cols.length){
+				this.growRow(row);
+			}
+
+		}
+
+
+		/**
+		 * Adds all entries of another accumulator to this one.
+		 * @param other the other accumulator
+		 */
+		public void addAll(RowAccumulator other){
+			for(int row = 0; row < this.b.length; row++){
+				this.b[row] += other.b[row];
+				int [] cols = other.rowCols[row];
+				if(cols == null){
+					continue;
+				}
+				double [] vals = other.rowVals[row];
+				for(int i = 0; i < cols.length; i++){
+					if(cols[i] != -1){
+						this.add(row, cols[i], vals[i]);
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Returns the accumulated matrix A in compressed sparse row format.
+		 * @return the accumulated matrix A
+		 */
+		public CSRMatrix toCSR(){
+			int n = this.b.length;
+			int [] rowStarts = new int[n+1];
+			for(int row = 0; row < n; row++){
+				rowStarts[row+1] = rowStarts[row] + this.rowSizes[row];
+			}
+			int [] cols = new int[rowStarts[n]];
+			double [] vals = new double[rowStarts[n]];
+			for(int row = 0; row < n; row++){
+				int [] rCols = this.rowCols[row];
+				if(rCols == null){
+					continue;
+				}
+				double [] rVals = this.rowVals[row];
+				int k = rowStarts[row];
+				for(int i = 0; i < rCols.length; i++){
+					if(rCols[i] != -1){
+						cols[k] = rCols[i];
+						vals[k] = rVals[i];
+						k++;
+					}
+				}
+			}
+			return new CSRMatrix(n, rowStarts, cols, vals);
+		}
+
+
+		/**
+		 * Returns the home slot of a column in a row hash table with the given mask. The column is multiplied by the golden ratio constant and
+		 * the slot is taken from the top log2(capacity) bits of the product, so that the slots are spread over tables of any capacity.
+		 * @param col the column
+		 * @param mask the capacity of the table minus one; the capacity is a power of two
+		 * @return the home slot of the column
+		 */
+		protected static int slot(int col, int mask){
+			return (col * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+		}
+
+
+		/**
+		 * Doubles the capacity of a row's hash table.
+		 * @param row the row
+		 */
+		protected void growRow(int row){
+			int [] oCols = this.rowCols[row];
+			double [] oVals = this.rowVals[row];
+			int [] cols = new int[oCols.length*2];
+			double [] vals = new double[oCols.length*2];
+			java.util.Arrays.fill(cols, -1);
+			int mask = cols.length - 1;
+			for(int j = 0; j < oCols.length; j++){
+				int col = oCols[j];
+				if(col == -1){
+					continue;
+				}
+				int i = slot(col, mask);
+				while(cols[i] != -1){
+					i = (i + 1) & mask;
+				}
+				cols[i] = col;
+				vals[i] = oVals[j];
+			}
+			this.rowCols[row] = cols;
+			this.rowVals[row] = vals;
+		}
+
+	}
+
+}
@@ -0,0 +1,312 @@
+package burlap.behavior.singleagent.learning.tdmethods;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import burlap.behavior.valuefunction.QValue;
+import burlap.behavior.valuefunction.ValueFunctionInitialization;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.statehashing.HashableState;
+
+
+/**
+ * A tabular Q-function store that keeps Q-values in contiguous primitive arrays rather than in per state lists of
+ * {@link burlap.behavior.valuefunction.QValue} objects. Each indexed state is assigned an int id in the order it was first seen,
+ * and each distinct {@link burlap.oomdp.singleagent.GroundedAction} is assigned a fixed int action id. The Q-values of a state
+ * occupy a contiguous range of "slots" in a shared double array; the slot range of state id i is [{@link #slotStart(int)}, {@link #slotEnd(int)}),
+ * and the action id of each slot is stored in a parallel int array. Once a state has been indexed, finding and updating the Q-value for
+ * one of its actions is an int comparison scan over its slots, and no objects are allocated.
+ * <p>
+ * {@link burlap.oomdp.singleagent.GroundedAction} instances used as action keys are compared with their equals method, so parameterized
+ * actions should have their parameters translated to the indexed state's object names before being looked up (see
+ * {@link burlap.oomdp.core.AbstractObjectParameterizedGroundedAction.Helper#translateParameters(burlap.oomdp.core.AbstractGroundedAction, burlap.oomdp.core.states.State, burlap.oomdp.core.states.State)}).
+ * <p>
+ * This table is used by {@link burlap.behavior.singleagent.learning.tdmethods.QLearning} and {@link burlap.behavior.singleagent.learning.tdmethods.SarsaLam}
+ * when their array Q-table is enabled.
+ * @author James MacGlashan
+ *
+ */
+public class ArrayQTable {
+
+	/**
+	 * The int id of each indexed state
+	 */
+	protected Map<HashableState, Integer>		stateIds = new HashMap<HashableState, Integer>();
+
+	/**
+	 * The indexed states ordered by their id
+	 */
+	protected List<HashableState>				states = new ArrayList<HashableState>();
+
+	/**
+	 * The int id of each grounded action
+	 */
+	protected Map<GroundedAction, Integer>		actionIds = new HashMap<GroundedAction, Integer>();
+
+	/**
+	 * The grounded actions ordered by their id
+	 */
+	protected List<GroundedAction>				actions = new ArrayList<GroundedAction>();
+
+	/**
+	 * The first slot of each state id; the entry after the last state id is the total number of slots.
+	 */
+	protected int []							stateStarts;
+
+	/**
+	 * The action id of each slot
+	 */
+	protected int []							slotActions;
+
+	/**
+	 * The Q-value of each slot
+	 */
+	protected double []							qValues;
+
+	/**
+	 * The number of indexed states
+	 */
+	protected int								numStates = 0;
+
+
+	/**
+	 * Initializes an empty table.
+	 */
+	public ArrayQTable(){
+		this.stateStarts = new int[64];
+		this.slotActions = new int[256];
+		this.qValues = new double[256];
+	}
+
+
+	/**
+	 * Returns the id of the given state, or -1 if it is not indexed.
+	 * @param sh the hashed state
+	 * @return the id of the given state, or -1 if it is not indexed.
+	 */
+	public int stateId(HashableState sh){
+		Integer id = this.stateIds.get(sh);
+		return id != null ? id : -1;
+	}
+
+
+	/**
+	 * Indexes a new state with slots for the given actions whose Q-values are initialized with the given {@link burlap.behavior.valuefunction.ValueFunctionInitialization}.
+	 * The state must not already be indexed.
+	 * @param sh the hashed state to index
+	 * @param gas the actions applicable in the state
+	 * @param qInit the Q-value initialization
+	 * @return the id of the new state
+	 */
+	public int addState(HashableState sh, List<GroundedAction> gas, ValueFunctionInitialization qInit){
+
+		int id = this.numStates;
+		int start = this.stateStarts[id];
+		int end = start + gas.size();
+
+		if(id + 2 > this.stateStarts.length){
+			int [] nStarts = new int[this.stateStarts.length*2];
+			System.arraycopy(this.stateStarts, 0, nStarts, 0, id+1);
+			this.stateStarts = nStarts;
+		}
+		if(end > this.qValues.length){
+			int nLength = Math.max(end, this.qValues.length*2);
+			int [] nActions = new int[nLength];
+			double [] nQs = new double[nLength];
+			System.arraycopy(this.slotActions, 0, nActions, 0, start);
+			System.arraycopy(this.qValues, 0, nQs, 0, start);
+			this.slotActions = nActions;
+			this.qValues = nQs;
+		}
+
+		for(int i = 0; i < gas.size(); i++){
+			GroundedAction ga = gas.get(i);
+			this.slotActions[start+i] = this.actionId(ga);
+			this.qValues[start+i] = qInit.qValue(sh.s, ga);
+		}
+
+		this.stateStarts[id+1] = end;
+		this.stateIds.put(sh, id);
+		this.states.add(sh);
+		this.numStates++;
+
+		return id;
+	}
+
+
+	/**
+	 * Returns the slot of the given action in the given state, or -1 if the action is not indexed for the state.
+	 * @param stateId the state id
+	 * @param ga the action, with parameters already translated to the indexed state's object names
+	 * @return the slot of the given action in the given state, or -1 if the action is not indexed for the state.
+	 */
+	public int slot(int stateId, GroundedAction ga){
+		Integer aid = this.actionIds.get(ga);
+		if(aid == null){
+			return -1;
+		}
+		int a = aid;
+		int end = this.stateStarts[stateId+1];
+		for(int i = this.stateStarts[stateId]; i < end; i++){
+			if(this.slotActions[i] == a){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Returns the first slot of the given state.
+	 * @param stateId the state id
+	 * @return the first slot of the given state.
+	 */
+	public int slotStart(int stateId){
+		return this.stateStarts[stateId];
+	}
+
+
+	/**
+	 * Returns one past the last slot of the given state.
+	 * @param stateId the state id
+	 * @return one past the last slot of the given state.
+	 */
+	public int slotEnd(int stateId){
+		return this.stateStarts[stateId+1];
+	}
+
+
+	/**
+	 * Returns the Q-value stored in the given slot.
+	 * @param slot the slot
+	 * @return the Q-value stored in the given slot.
+	 */
+	public double getQ(int slot){
+		return this.qValues[slot];
+	}
+
+
+	/**
+	 * Sets the Q-value stored in the given slot.
+	 * @param slot the slot
+	 * @param q the new Q-value
+	 */
+	public void setQ(int slot, double q){
+		this.qValues[slot] = q;
+	}
+
+
+	/**
+	 * Returns the maximum Q-value of the given state.
+	 * @param stateId the state id
+	 * @return the maximum Q-value of the given state.
+	 */
+	public double maxQ(int stateId){
+		double max = Double.NEGATIVE_INFINITY;
+		int end = this.stateStarts[stateId+1];
+		for(int i = this.stateStarts[stateId]; i < end; i++){
+			if(this.qValues[i] > max){
+				max = this.qValues[i];
+			}
+		}
+		return max;
+	}
+
+
+	/**
+	 * Returns the action of the given slot.
+	 * @param slot the slot
+	 * @return the action of the given slot.
+	 */
+	public GroundedAction slotAction(int slot){
+		return this.actions.get(this.slotActions[slot]);
+	}
+
+
+	/**
+	 * Returns the indexed state with the given id.
+	 * @param stateId the state id
+	 * @return the indexed state with the given id.
+	 */
+	public HashableState state(int stateId){
+		return this.states.get(stateId);
+	}
+
+
+	/**
+	 * Returns a {@link burlap.behavior.valuefunction.QValue} for the given slot. The returned object is a copy; changing its
+	 * q field does not change the table.
+	 * @param stateId the state id of the slot
+	 * @param slot the slot
+	 * @return a {@link burlap.behavior.valuefunction.QValue} for the given slot.
+	 */
+	public QValue qValue(int stateId, int slot){
+		return new QValue(this.states.get(stateId).s, this.slotAction(slot), this.qValues[slot]);
+	}
+
+
+	/**
+	 * Returns {@link burlap.behavior.valuefunction.QValue} copies of the Q-values of all actions in the given state.
+	 * @param stateId the state id
+	 * @return {@link burlap.behavior.valuefunction.QValue} copies of the Q-values of all actions in the given state.
+	 */
+	public List<QValue> qValues(int stateId){
+		int start = this.stateStarts[stateId];
+		int end = this.stateStarts[stateId+1];
+		List<QValue> qs = new ArrayList<QValue>(end-start);
+		for(int i = start; i < end; i++){
+			qs.add(this.qValue(stateId, i));
+		}
+		return qs;
+	}
+
+
+	/**
+	 * Returns the number of indexed states.
+	 * @return the number of indexed states.
+	 */
+	public int numStates(){
+		return this.numStates;
+	}
+
+
+	/**
+	 * Returns the total number of slots of all indexed states.
+	 * @return the total number of slots of all indexed states.
+	 */
+	public int numSlots(){
+		return this.stateStarts[this.numStates];
+	}
+
+
+	/**
+	 * Removes all indexed states and actions.
+	 */
+	public void clear(){
+		this.stateIds.clear();
+		this.states.clear();
+		this.actionIds.clear();
+		this.actions.clear();
+		this.numStates = 0;
+		this.stateStarts[0] = 0;
+	}
+
+
+	/**
+	 * Returns the id of the given action, assigning it a new one if it does not have one yet.
+	 * @param ga the action
+	 * @return the id of the given action.
+	 */
+	protected int actionId(GroundedAction ga){
+		Integer aid = this.actionIds.get(ga);
+		if(aid == null){
+			aid = this.actions.size();
+			this.actionIds.put(ga, aid);
+			this.actions.add(ga);
+		}
+		return aid;
+	}
+
+}
@@ -7,7 +7,7 @@ import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.policy.Policy;
 import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.singleagent.MDPSolver;
-import burlap.behavior.singleagent.learning.LearningAgent;
+import burlap.behavior.singleagent.learning.StepwiseLearningAgent;
 import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.singleagent.options.support.EnvironmentOptionOutcome;
 import burlap.behavior.singleagent.planning.Planner;
@@ -50,13 +50,17 @@ import java.util.Map;
  * want to use a custom learning rate decay schedule rather than a constant learning rate, use the
  * {@link #setLearningRateFunction(burlap.behavior.learningrate.LearningRate)}.
  * <p>
+ * By default Q-values are stored as {@link burlap.behavior.valuefunction.QValue} objects in a {@link burlap.behavior.singleagent.learning.tdmethods.QLearningStateNode}
+ * for each state. For long learning runs, use {@link #toggleArrayQTable(boolean)} to instead store them in an {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable},
+ * which keeps Q-values in contiguous primitive arrays indexed by int state and action ids so that learning updates do not allocate objects.
+ * <p>
  * 1. Watkins, Christopher JCH, and Peter Dayan. "Q-learning." Machine learning 8.3-4 (1992): 279-292. <p>
  * 2. Sutton, Richard S., Doina Precup, and Satinder Singh. "Between MDPs and semi-MDPs: A framework for temporal abstraction in reinforcement learning." Artificial intelligence 112.1 (1999): 181-211.
  * 
  * @author James MacGlashan
  *
  */
-public class QLearning extends MDPSolver implements QFunction, LearningAgent, Planner{
+public class QLearning extends MDPSolver implements QFunction, StepwiseLearningAgent, Planner{
 
 
 	/**
@@ -132,6 +136,12 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 	 * The total number of learning steps performed by this agent.
 	 */
 	protected int													totalNumberOfSteps = 0;
+
+
+	/**
+	 * The primitive array Q-value store; null if Q-values are stored in {@link #qIndex}.
+	 */
+	protected ArrayQTable											arrayQTable = null;
 	
 	
 	/**
@@ -352,17 +362,36 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 			}
 		}
 	}
-	
-	
-	
-	
-	
 
 
+	/**
+	 * Sets whether Q-values are stored in an {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} of contiguous primitive arrays
+	 * (true) or as {@link burlap.behavior.valuefunction.QValue} objects in {@link burlap.behavior.singleagent.learning.tdmethods.QLearningStateNode}s (false).
+	 * The default is false. With the array table, the {@link burlap.behavior.valuefunction.QValue} objects returned by
+	 * {@link #getQs(burlap.oomdp.core.states.State)} and {@link #getQ(burlap.oomdp.core.states.State, burlap.oomdp.core.AbstractGroundedAction)} are
+	 * copies, so changing them does not change the stored Q-values. Q-values learned with the previous storage are not carried over,
+	 * so this method should be called before learning begins.
+	 * @param toggle true to store Q-values in an {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable}; false to store them in {@link burlap.behavior.singleagent.learning.tdmethods.QLearningStateNode}s.
+	 */
+	public void toggleArrayQTable(boolean toggle){
+		if(toggle && this.arrayQTable == null){
+			this.arrayQTable = new ArrayQTable();
+		}
+		else if(!toggle){
+			this.arrayQTable = null;
+		}
+	}
 
 
-	
-	
+	/**
+	 * Returns the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} storing the Q-values, or null if Q-values are stored
+	 * in {@link burlap.behavior.singleagent.learning.tdmethods.QLearningStateNode}s.
+	 * @return the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} storing the Q-values, or null if it is not used.
+	 */
+	public ArrayQTable getArrayQTable(){
+		return this.arrayQTable;
+	}
+
 
 	@Override
 	public List<QValue> getQs(State s) {
@@ -381,6 +410,9 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 	 * @return the possible Q-values for a given hashed stated.
 	 */
 	protected List<QValue> getQs(HashableState s) {
+		if(this.arrayQTable != null){
+			return this.arrayQTable.qValues(this.getStateId(s));
+		}
 		QLearningStateNode node = this.getStateNode(s);
 		return node.qEntry;
 	}
@@ -393,6 +425,11 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 	 * @return the Q-value for a given hashed state and action; null is returned if there is not Q-value currently stored.
 	 */
 	protected QValue getQ(HashableState s, GroundedAction a) {
+		if(this.arrayQTable != null){
+			int sid = this.getStateId(s);
+			int slot = this.getQSlot(sid, s, a);
+			return slot != -1 ? this.arrayQTable.qValue(sid, slot) : null;
+		}
 		QLearningStateNode node = this.getStateNode(s);
 
 		a = (GroundedAction)AbstractObjectParameterizedGroundedAction.Helper.translateParameters(a, s.s, node.s.s);
@@ -446,12 +483,51 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 		
 	}
 	
+	/**
+	 * Returns the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} id of the given hashed state. If the state is not indexed,
+	 * it is added to the table and has its Q-values initialized using this object's {@link burlap.behavior.valuefunction.ValueFunctionInitialization} data member.
+	 * Should only be called when the array Q-table is enabled.
+	 * @param s the hashed state for which to get the id
+	 * @return the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} id of the given hashed state.
+	 */
+	protected int getStateId(HashableState s){
+
+		int sid = this.arrayQTable.stateId(s);
+
+		if(sid == -1){
+			List<GroundedAction> gas = this.getAllGroundedActions(s.s);
+			if(gas.isEmpty()){
+				throw new RuntimeErrorException(new Error("No possible actions in this state, cannot continue Q-learning"));
+			}
+			sid = this.arrayQTable.addState(s, gas, this.qInitFunction);
+		}
+
+		return sid;
+	}
+
+
+	/**
+	 * Returns the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} slot of the given action in the given state.
+	 * Should only be called when the array Q-table is enabled.
+	 * @param sid the {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} id of the hashed state
+	 * @param s the hashed state
+	 * @param a the action
+	 * @return the slot of the given action in the given state; -1 if the action is not indexed for the state.
+	 */
+	protected int getQSlot(int sid, HashableState s, GroundedAction a){
+		a = (GroundedAction)AbstractObjectParameterizedGroundedAction.Helper.translateParameters(a, s.s, this.arrayQTable.state(sid).s);
+		return this.arrayQTable.slot(sid, a);
+	}
+
 	/**
 	 * Returns the maximum Q-value in the hashed stated.
 	 * @param s the state for which to get he maximum Q-value;
 	 * @return the maximum Q-value in the hashed stated.
 	 */
 	protected double getMaxQ(HashableState s){
+		if(this.arrayQTable != null){
+			return this.arrayQTable.maxQ(this.getStateId(s));
+		}
 		List <QValue> qs = this.getQs(s);
 		double max = Double.NEGATIVE_INFINITY;
 		for(QValue q : qs){
@@ -498,67 +574,164 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 
 		this.toggleShouldAnnotateOptionDecomposition(shouldAnnotateOptions);
 
-		State initialState = env.getCurrentObservation();
+		return StepwiseLearningAgent.Helper.runLearningEpisode(this, env, maxSteps);
 
-		EpisodeAnalysis ea = new EpisodeAnalysis(initialState);
-		HashableState curState = this.stateHash(initialState);
-		eStepCounter = 0;
+	}
 
-		maxQChangeInLastEpisode = 0.;
-		while(!env.isInTerminalState() && (eStepCounter < maxSteps || maxSteps == -1)){
 
-			GroundedAction action = (GroundedAction)learningPolicy.getAction(curState.s);
-			QValue curQ = this.getQ(curState, action);
+	@Override
+	public EpisodeLearner beginLearningEpisode(State initialState) {
+		return new QLearningEpisode(initialState);
+	}
+
+
+	/**
+	 * Records a finished learning episode in the episode history and sets the last episode statistics.
+	 * @param ea the {@link burlap.behavior.singleagent.EpisodeAnalysis} of the finished episode
+	 * @param numSteps the number of steps taken in the episode
+	 * @param maxQChange the maximum Q-value change that occurred in the episode
+	 */
+	protected void recordFinishedEpisode(EpisodeAnalysis ea, int numSteps, double maxQChange){
+
+		this.eStepCounter = numSteps;
+		this.maxQChangeInLastEpisode = maxQChange;
+
+		if(episodeHistory.size() >= numEpisodesToStore){
+			episodeHistory.poll();
+		}
+		episodeHistory.offer(ea);
+
+	}
+
+
+
+	/**
+	 * The learning state of a single Q-learning episode.
+	 */
+	protected class QLearningEpisode implements EpisodeLearner{
+
+		/**
+		 * The recording of the episode
+		 */
+		protected EpisodeAnalysis		ea;
+
+		/**
+		 * The current state of the episode
+		 */
+		protected HashableState			curState;
+
+		/**
+		 * The action selected in the current state
+		 */
+		protected GroundedAction		action;
+
+		/**
+		 * The Q-value of the selected action when Q-values are stored in {@link #qIndex}
+		 */
+		protected QValue				curQ;
 
-			EnvironmentOutcome eo = action.executeIn(env);
+		/**
+		 * The {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} slot of the selected action when the array Q-table is used
+		 */
+		protected int					curSlot = -1;
 
+		/**
+		 * The number of steps taken in the episode
+		 */
+		protected int					numSteps = 0;
 
-			HashableState nextState = this.stateHash(eo.op);
+		/**
+		 * The maximum Q-value change in the episode
+		 */
+		protected double				maxQChange = 0.;
+
+
+		/**
+		 * Initializes.
+		 * @param initialState the initial state of the episode
+		 */
+		public QLearningEpisode(State initialState){
+			this.ea = new EpisodeAnalysis(initialState);
+			this.curState = stateHash(initialState);
+		}
+
+		@Override
+		public GroundedAction nextAction() {
+
+			this.action = (GroundedAction)learningPolicy.getAction(this.curState.s);
+			if(arrayQTable != null){
+				this.curSlot = getQSlot(getStateId(this.curState), this.curState, this.action);
+			}
+			else{
+				this.curQ = getQ(this.curState, this.action);
+			}
+
+			return this.action;
+		}
+
+		@Override
+		public void learnFromOutcome(Environment env, EnvironmentOutcome eo) {
+
+			HashableState nextState = stateHash(eo.op);
 			double maxQ = 0.;
 
 			if(!eo.terminated){
-				maxQ = this.getMaxQ(nextState);
+				maxQ = getMaxQ(nextState);
 			}
 
 			//manage option specifics
 			double r = eo.r;
-			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : this.gamma;
+			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : gamma;
 			int stepInc = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).numSteps : 1;
-			eStepCounter += stepInc;
+			this.numSteps += stepInc;
+			eStepCounter = this.numSteps;
 
-			if(action.action.isPrimitive() || !this.shouldAnnotateOptions){
-				ea.recordTransitionTo(action, nextState.s, r);
+			if(this.action.action.isPrimitive() || !shouldAnnotateOptions){
+				this.ea.recordTransitionTo(this.action, nextState.s, r);
 			}
 			else{
-				ea.appendAndMergeEpisodeAnalysis(((Option)action.action).getLastExecutionResults());
+				this.ea.appendAndMergeEpisodeAnalysis(((Option)this.action.action).getLastExecutionResults());
 			}
 
 
 
-			double oldQ = curQ.q;
+			double oldQ = this.curQ != null ? this.curQ.q : arrayQTable.getQ(this.curSlot);
 
 			//update Q-value
-			curQ.q = curQ.q + this.learningRate.pollLearningRate(this.totalNumberOfSteps, curState.s, action) * (r + (discount * maxQ) - curQ.q);
+			double newQ = oldQ + learningRate.pollLearningRate(totalNumberOfSteps, this.curState.s, this.action) * (r + (discount * maxQ) - oldQ);
+			if(this.curQ != null){
+				this.curQ.q = newQ;
+			}
+			else{
+				arrayQTable.setQ(this.curSlot, newQ);
+			}
 
-			double deltaQ = Math.abs(oldQ - curQ.q);
-			if(deltaQ > maxQChangeInLastEpisode){
-				maxQChangeInLastEpisode = deltaQ;
+			double deltaQ = Math.abs(oldQ - newQ);
+			if(deltaQ > this.maxQChange){
+				this.maxQChange = deltaQ;
 			}
 
 			//move on polling environment for its current state in case it changed during processing
-			curState = this.stateHash(env.getCurrentObservation());
-			this.totalNumberOfSteps++;
-
+			this.curState = stateHash(env.getCurrentObservation());
+			totalNumberOfSteps++;
 
 		}
 
-		if(episodeHistory.size() >= numEpisodesToStore){
-			episodeHistory.poll();
+		@Override
+		public int numSteps() {
+			return this.numSteps;
 		}
-		episodeHistory.offer(ea);
 
-		return ea;
+		@Override
+		public EpisodeAnalysis getEpisodeAnalysis() {
+			return this.ea;
+		}
 
+		@Override
+		public EpisodeAnalysis endEpisode() {
+			recordFinishedEpisode(this.ea, this.numSteps, this.maxQChange);
+			return this.ea;
+		}
 	}
 
 
@@ -587,6 +760,9 @@ public class QLearning extends MDPSolver implements QFunction, LearningAgent, Pl
 	public void resetSolver(){
 		this.mapToStateIndex.clear();
 		this.qIndex.clear();
+		if(this.arrayQTable != null){
+			this.arrayQTable.clear();
+		}
 		this.episodeHistory.clear();
 		this.eStepCounter = 0;
 		this.maxQChangeInLastEpisode = Double.POSITIVE_INFINITY;
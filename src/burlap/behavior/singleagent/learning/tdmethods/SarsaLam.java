@@ -3,6 +3,7 @@ package burlap.behavior.singleagent.learning.tdmethods;
 import java.util.LinkedList;
 
 import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.behavior.singleagent.learning.StepwiseLearningAgent;
 import burlap.behavior.policy.Policy;
 import burlap.behavior.valuefunction.QValue;
 import burlap.behavior.valuefunction.ValueFunctionInitialization;
@@ -31,6 +32,9 @@ import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
  * want to use a custom learning rate decay schedule rather than a constant learning rate, use the
  * {@link #setLearningRateFunction(burlap.behavior.learningrate.LearningRate)}.
  * <p>
+ * When the array Q-table is enabled with {@link #toggleArrayQTable(boolean)}, eligibility traces are also kept in primitive
+ * arrays (see {@link burlap.behavior.singleagent.learning.tdmethods.SarsaLam.SlotEligibilityTraces}).
+ * <p>
  * @author James MacGlashan
  * 
  * <p>
@@ -46,6 +50,11 @@ public class SarsaLam extends QLearning {
 	 */
 	protected double				lambda;
 	
+	/**
+	 * The cleared array eligibility traces of a finished episode, which the next episode reuses; null if there are none.
+	 */
+	protected SlotEligibilityTraces	spareSlotTraces;
+	
 	
 	/**
 	 * Initializes SARSA(\lambda) with 0.1 epsilon greedy policy, the same Q-value initialization everywhere, and places no limit on the number of steps the 
@@ -145,29 +154,124 @@ public class SarsaLam extends QLearning {
 
 	@Override
 	public EpisodeAnalysis runLearningEpisode(Environment env, int maxSteps){
+		return StepwiseLearningAgent.Helper.runLearningEpisode(this, env, maxSteps);
+	}
+
+
+	@Override
+	public EpisodeLearner beginLearningEpisode(State initialState) {
+		return new SarsaLamEpisode(initialState);
+	}
+
+
+
+	/**
+	 * The learning state of a single SARSA(\lambda) episode, including its eligibility traces.
+	 */
+	protected class SarsaLamEpisode implements EpisodeLearner{
+
+		/**
+		 * The recording of the episode
+		 */
+		protected EpisodeAnalysis					ea;
 
-		State initialState = env.getCurrentObservation();
+		/**
+		 * The current state of the episode
+		 */
+		protected HashableState						curState;
 
-		EpisodeAnalysis ea = new EpisodeAnalysis(initialState);
-		maxQChangeInLastEpisode = 0.;
+		/**
+		 * The action selected in the current state
+		 */
+		protected GroundedAction					action;
 
-		HashableState curState = this.stateHash(initialState);
-		eStepCounter = 0;
-		LinkedList<EligibilityTrace> traces = new LinkedList<SarsaLam.EligibilityTrace>();
+		/**
+		 * The Q-value of the selected action when Q-values are stored in {@link #qIndex}
+		 */
+		protected QValue							curQ;
 
-		GroundedAction action = (GroundedAction)learningPolicy.getAction(curState.s);
-		QValue curQ = this.getQ(curState, action);
+		/**
+		 * The {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} state id of the current state when the array Q-table is used
+		 */
+		protected int								curSid = -1;
 
+		/**
+		 * The {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} slot of the selected action when the array Q-table is used
+		 */
+		protected int								curSlot = -1;
 
+		/**
+		 * The eligibility traces when Q-values are stored in {@link #qIndex}
+		 */
+		protected LinkedList<EligibilityTrace>		traces;
 
-		while(!env.isInTerminalState() && (eStepCounter < maxSteps || maxSteps == -1)){
+		/**
+		 * The eligibility traces when the array Q-table is used
+		 */
+		protected SlotEligibilityTraces				slotTraces;
 
-			EnvironmentOutcome eo = action.executeIn(env);
+		/**
+		 * The number of steps taken in the episode
+		 */
+		protected int								numSteps = 0;
 
-			HashableState nextState = this.stateHash(eo.op);
+		/**
+		 * The maximum Q-value change in the episode
+		 */
+		protected double							maxQChange = 0.;
+
+
+		/**
+		 * Initializes and selects the action for the initial state.
+		 * @param initialState the initial state of the episode
+		 */
+		public SarsaLamEpisode(State initialState){
+
+			this.ea = new EpisodeAnalysis(initialState);
+			this.curState = stateHash(initialState);
+			this.action = (GroundedAction)learningPolicy.getAction(this.curState.s);
+
+			if(arrayQTable != null){
+				if(spareSlotTraces != null){
+					this.slotTraces = spareSlotTraces;
+					spareSlotTraces = null;
+				}
+				else{
+					this.slotTraces = new SlotEligibilityTraces();
+				}
+				this.curSid = getStateId(this.curState);
+				this.curSlot = getQSlot(this.curSid, this.curState, this.action);
+			}
+			else{
+				this.traces = new LinkedList<SarsaLam.EligibilityTrace>();
+				this.curQ = getQ(this.curState, this.action);
+			}
+
+		}
+
+		@Override
+		public GroundedAction nextAction() {
+			return this.action;
+		}
+
+		@Override
+		public void learnFromOutcome(Environment env, EnvironmentOutcome eo) {
+
+			HashableState nextState = stateHash(eo.op);
 			GroundedAction nextAction = (GroundedAction)learningPolicy.getAction(nextState.s);
-			QValue nextQ = this.getQ(nextState, nextAction);
-			double nextQV = nextQ.q;
+			QValue nextQ = null;
+			int nextSid = -1;
+			int nextSlot = -1;
+			double nextQV;
+			if(arrayQTable != null){
+				nextSid = getStateId(nextState);
+				nextSlot = getQSlot(nextSid, nextState, nextAction);
+				nextQV = arrayQTable.getQ(nextSlot);
+			}
+			else{
+				nextQ = getQ(nextState, nextAction);
+				nextQV = nextQ.q;
+			}
 
 			if(env.isInTerminalState()){
 				nextQV = 0.;
@@ -176,28 +280,52 @@ public class SarsaLam extends QLearning {
 
 			//manage option specifics
 			double r = eo.r;
-			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : this.gamma;
+			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : gamma;
 			int stepInc = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).numSteps : 1;
-			eStepCounter += stepInc;
+			this.numSteps += stepInc;
+			eStepCounter = this.numSteps;
+
+			if(this.action.action.isPrimitive() || !shouldAnnotateOptions){
+				this.ea.recordTransitionTo(this.action, nextState.s, r);
+			}
+			else{
+				this.ea.appendAndMergeEpisodeAnalysis(((Option)this.action.action).getLastExecutionResults());
+			}
 
-			if(action.action.isPrimitive() || !this.shouldAnnotateOptions){
-				ea.recordTransitionTo(action, nextState.s, r);
+
+			if(arrayQTable != null){
+				this.updateSlotTraces(r + (discount * nextQV) - arrayQTable.getQ(this.curSlot), discount);
 			}
 			else{
-				ea.appendAndMergeEpisodeAnalysis(((Option)action.action).getLastExecutionResults());
+				this.updateTraces(r + (discount * nextQV) - this.curQ.q, discount);
 			}
 
 
+			//move on
+			this.curState = nextState;
+			this.action = nextAction;
+			this.curQ = nextQ;
+			this.curSid = nextSid;
+			this.curSlot = nextSlot;
+
+			totalNumberOfSteps++;
+
+		}
+
 
-			//delta
-			double delta = r + (discount * nextQV) - curQ.q;
+		/**
+		 * Updates the Q-values of all {@link #traces} and adds a trace for the current state-action pair if there is none.
+		 * @param delta the TD error
+		 * @param discount the discount factor of the transition
+		 */
+		protected void updateTraces(double delta, double discount){
 
 			//update all
 			boolean foundCurrentQTrace = false;
-			for(EligibilityTrace et : traces){
+			for(EligibilityTrace et : this.traces){
 
-				if(et.sh.equals(curState)){
-					if(et.q.a.equals(action)){
+				if(et.sh.equals(this.curState)){
+					if(et.q.a.equals(this.action)){
 						foundCurrentQTrace = true;
 						et.eligibility = 1.; //replacing traces
 					}
@@ -206,51 +334,105 @@ public class SarsaLam extends QLearning {
 					}
 				}
 
-				double learningRate = this.learningRate.pollLearningRate(this.totalNumberOfSteps, et.sh.s, et.q.a);
+				double learningRate = SarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, et.sh.s, et.q.a);
 
 				et.q.q = et.q.q + (learningRate * et.eligibility * delta);
 				et.eligibility = et.eligibility * lambda * discount;
 
 				double deltaQ = Math.abs(et.initialQ - et.q.q);
-				if(deltaQ > maxQChangeInLastEpisode){
-					maxQChangeInLastEpisode = deltaQ;
+				if(deltaQ > this.maxQChange){
+					this.maxQChange = deltaQ;
 				}
 
 			}
 
 			if(!foundCurrentQTrace){
 				//then update and add it
-				double learningRate = this.learningRate.pollLearningRate(this.totalNumberOfSteps, curQ.s, curQ.a);
-				curQ.q = curQ.q + (learningRate * delta);
-				EligibilityTrace et = new EligibilityTrace(curState, curQ, lambda*discount);
+				double learningRate = SarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, this.curQ.s, this.curQ.a);
+				this.curQ.q = this.curQ.q + (learningRate * delta);
+				EligibilityTrace et = new EligibilityTrace(this.curState, this.curQ, lambda*discount);
 
-				traces.add(et);
+				this.traces.add(et);
 
 				double deltaQ = Math.abs(et.initialQ - et.q.q);
-				if(deltaQ > maxQChangeInLastEpisode){
-					maxQChangeInLastEpisode = deltaQ;
+				if(deltaQ > this.maxQChange){
+					this.maxQChange = deltaQ;
 				}
 
 			}
 
+		}
 
-			//move on
-			curState = nextState;
-			action = nextAction;
-			curQ = nextQ;
 
-			this.totalNumberOfSteps++;
+		/**
+		 * Updates the Q-values of all {@link #slotTraces} and adds a trace for the current state-action slot if there is none.
+		 * @param delta the TD error
+		 * @param discount the discount factor of the transition
+		 */
+		protected void updateSlotTraces(double delta, double discount){
 
-		}
+			SlotEligibilityTraces traces = this.slotTraces;
+
+			//update all
+			boolean foundCurrentQTrace = false;
+			for(int i = 0; i < traces.size; i++){
+
+				int slot = traces.slots[i];
+				if(traces.stateIds[i] == this.curSid){
+					if(slot == this.curSlot){
+						foundCurrentQTrace = true;
+						traces.eligibility[i] = 1.; //replacing traces
+					}
+					else{
+						traces.eligibility[i] = 0.; //replacing traces
+					}
+				}
+
+				double learningRate = SarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, traces.states[i].s, arrayQTable.slotAction(slot));
+
+				double q = arrayQTable.getQ(slot) + (learningRate * traces.eligibility[i] * delta);
+				arrayQTable.setQ(slot, q);
+				traces.eligibility[i] = traces.eligibility[i] * lambda * discount;
+
+				double deltaQ = Math.abs(traces.initialQ[i] - q);
+				if(deltaQ > this.maxQChange){
+					this.maxQChange = deltaQ;
+				}
 
+			}
 
+			if(!foundCurrentQTrace){
+				//then update and add it
+				double learningRate = SarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, arrayQTable.state(this.curSid).s, arrayQTable.slotAction(this.curSlot));
+				double q = arrayQTable.getQ(this.curSlot) + (learningRate * delta);
+				arrayQTable.setQ(this.curSlot, q);
+				//as with the object traces, the initial Q-value of a new trace is recorded after its first update
+				traces.add(this.curSid, this.curState, this.curSlot, lambda*discount, q);
 
-		if(episodeHistory.size() >= numEpisodesToStore){
-			episodeHistory.poll();
+			}
+
+		}
+
+		@Override
+		public int numSteps() {
+			return this.numSteps;
 		}
-		episodeHistory.offer(ea);
 
-		return ea;
+		@Override
+		public EpisodeAnalysis getEpisodeAnalysis() {
+			return this.ea;
+		}
+
+		@Override
+		public EpisodeAnalysis endEpisode() {
+			recordFinishedEpisode(this.ea, this.numSteps, this.maxQChange);
+			if(this.slotTraces != null){
+				this.slotTraces.clear();
+				spareSlotTraces = this.slotTraces;
+				this.slotTraces = null;
+			}
+			return this.ea;
+		}
 	}
 
 
@@ -306,4 +488,93 @@ public class SarsaLam extends QLearning {
 	
 	
 
+	/**
+	 * Eligibility traces for Q-values stored in an {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable}. Each trace is
+	 * an index into parallel arrays holding its state id, state, slot, eligibility value, and initial Q-value. The arrays grow as needed
+	 * and are kept when the traces are cleared. When an episode ends, its traces are cleared and reused by the next episode that begins,
+	 * so sequential episodes do not allocate new traces; episodes that run at the same time each have their own.
+	 * @author James MacGlashan
+	 *
+	 */
+	public static class SlotEligibilityTraces{
+
+		/**
+		 * The {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} state id of each trace
+		 */
+		public int []					stateIds = new int[16];
+
+		/**
+		 * The state of each trace
+		 */
+		public HashableState []			states = new HashableState[16];
+
+		/**
+		 * The {@link burlap.behavior.singleagent.learning.tdmethods.ArrayQTable} slot of each trace
+		 */
+		public int []					slots = new int[16];
+
+		/**
+		 * The eligibility value of each trace
+		 */
+		public double []				eligibility = new double[16];
+
+		/**
+		 * The initial numeric Q-value of each trace when it was created.
+		 */
+		public double []				initialQ = new double[16];
+
+		/**
+		 * The number of traces
+		 */
+		public int						size = 0;
+
+
+		/**
+		 * Adds a trace.
+		 * @param stateId the state id of the trace
+		 * @param sh the state of the trace
+		 * @param slot the slot of the trace
+		 * @param eligibility the eligibility value
+		 * @param initialQ the initial numeric Q-value of the trace
+		 */
+		public void add(int stateId, HashableState sh, int slot, double eligibility, double initialQ){
+			if(this.size == this.slots.length){
+				int nLength = this.size*2;
+				int [] nStateIds = new int[nLength];
+				HashableState [] nStates = new HashableState[nLength];
+				int [] nSlots = new int[nLength];
+				double [] nEligibility = new double[nLength];
+				double [] nInitialQ = new double[nLength];
+				System.arraycopy(this.stateIds, 0, nStateIds, 0, this.size);
+				System.arraycopy(this.states, 0, nStates, 0, this.size);
+				System.arraycopy(this.slots, 0, nSlots, 0, this.size);
+				System.arraycopy(this.eligibility, 0, nEligibility, 0, this.size);
+				System.arraycopy(this.initialQ, 0, nInitialQ, 0, this.size);
+				this.stateIds = nStateIds;
+				this.states = nStates;
+				this.slots = nSlots;
+				this.eligibility = nEligibility;
+				this.initialQ = nInitialQ;
+			}
+			this.stateIds[this.size] = stateId;
+			this.states[this.size] = sh;
+			this.slots[this.size] = slot;
+			this.eligibility[this.size] = eligibility;
+			this.initialQ[this.size] = initialQ;
+			this.size++;
+		}
+
+
+		/**
+		 * Removes all traces. The arrays are kept for reuse.
+		 */
+		public void clear(){
+			for(int i = 0; i < this.size; i++){
+				this.states[i] = null;
+			}
+			this.size = 0;
+		}
+
+	}
+
 }
@@ -7,10 +7,11 @@ import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.policy.Policy;
 import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.singleagent.MDPSolver;
-import burlap.behavior.singleagent.learning.LearningAgent;
+import burlap.behavior.singleagent.learning.StepwiseLearningAgent;
 import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.singleagent.options.support.EnvironmentOptionOutcome;
 import burlap.behavior.singleagent.planning.Planner;
+import burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue;
 import burlap.behavior.singleagent.vfa.DifferentiableStateActionValue;
 import burlap.behavior.singleagent.vfa.FunctionGradient;
 import burlap.behavior.valuefunction.QFunction;
@@ -53,7 +54,7 @@ import java.util.*;
  * 2. 2. Sutton, Richard S., Doina Precup, and Satinder Singh. "Between MDPs and semi-MDPs: A framework for temporal abstraction in reinforcement learning." Artificial intelligence 112.1 (1999): 181-211.
  *
  */
-public class GradientDescentSarsaLam extends MDPSolver implements QFunction, LearningAgent, Planner {
+public class GradientDescentSarsaLam extends MDPSolver implements QFunction, StepwiseLearningAgent, Planner {
 	
 	
 	/**
@@ -367,44 +368,117 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 
 	@Override
 	public EpisodeAnalysis runLearningEpisode(Environment env, int maxSteps) {
+		return StepwiseLearningAgent.Helper.runLearningEpisode(this, env, maxSteps);
+	}
+
+
+	@Override
+	public EpisodeLearner beginLearningEpisode(State initialState) {
+		return new GradientDescentSarsaLamEpisode(initialState);
+	}
+
+
+
+	/**
+	 * The learning state of a single gradient descent SARSA(\lambda) episode, including its eligibility traces.
+	 */
+	protected class GradientDescentSarsaLamEpisode implements EpisodeLearner{
+
+		/**
+		 * The recording of the episode
+		 */
+		protected EpisodeAnalysis						ea;
+
+		/**
+		 * The current state of the episode
+		 */
+		protected State									curState;
+
+		/**
+		 * The action selected in the current state
+		 */
+		protected GroundedAction						action;
+
+		/**
+		 * The eligibility traces of the episode indexed by parameter id
+		 */
+		protected Map <Integer, EligibilityTraceVector>	traces = new HashMap<Integer, EligibilityTraceVector>();
+
+		/**
+		 * The number of steps taken in the episode
+		 */
+		protected int									numSteps = 0;
+
+		/**
+		 * The maximum weight change in the episode
+		 */
+		protected double								maxWeightChange = 0.;
+
+		/**
+		 * The reused gradient buffer of the selected action when the value function is a {@link burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue}
+		 */
+		protected FunctionGradient.ArrayGradient		gradientBuffer;
+
+		/**
+		 * The reused gradient buffers of all actions when the value function is a {@link burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue}
+		 */
+		protected FunctionGradient.ArrayGradient []		actionGradientBuffers;
 
-		State initialState = env.getCurrentObservation();
 
-		EpisodeAnalysis ea = new EpisodeAnalysis(initialState);
-		maxWeightChangeInLastEpisode = 0.;
+		/**
+		 * Initializes and selects the action for the initial state.
+		 * @param initialState the initial state of the episode
+		 */
+		public GradientDescentSarsaLamEpisode(State initialState){
+			this.ea = new EpisodeAnalysis(initialState);
+			this.curState = initialState;
+			this.action = (GroundedAction)learningPolicy.getAction(this.curState);
+		}
 
-		State curState = initialState;
-		eStepCounter = 0;
-		Map <Integer, EligibilityTraceVector> traces = new HashMap<Integer, EligibilityTraceVector>();
+		@Override
+		public GroundedAction nextAction() {
+			return this.action;
+		}
 
-		GroundedAction action = (GroundedAction)this.learningPolicy.getAction(curState);
-		while(!env.isInTerminalState() && (eStepCounter < maxSteps || maxSteps == -1)){
+		@Override
+		public void learnFromOutcome(Environment env, EnvironmentOutcome eo) {
+
+			State curState = this.curState;
+			GroundedAction action = this.action;
+			Map <Integer, EligibilityTraceVector> traces = this.traces;
 
 			//get Q-value and gradient
-			double curQ = this.vfa.evaluate(curState, action);
-			FunctionGradient gradient = this.vfa.gradient(curState, action);
+			BatchDifferentiableStateActionValue batchVFA = vfa instanceof BatchDifferentiableStateActionValue ? (BatchDifferentiableStateActionValue)vfa : null;
+			double curQ = vfa.evaluate(curState, action);
+			FunctionGradient gradient;
+			if(batchVFA != null){
+				this.gradientBuffer = batchVFA.gradient(curState, action, this.gradientBuffer);
+				gradient = this.gradientBuffer;
+			}
+			else{
+				gradient = vfa.gradient(curState, action);
+			}
 
-			//execute our action choice
-			EnvironmentOutcome eo = action.executeIn(env);
 			State nextState = eo.op;
 
 			//determine next Q-value for outcome state
-			GroundedAction nextAction = (GroundedAction)this.learningPolicy.getAction(nextState);
+			GroundedAction nextAction = (GroundedAction)learningPolicy.getAction(nextState);
 			double nextQV = 0.;
 			if(!eo.terminated){
-				nextQV = this.vfa.evaluate(nextState, nextAction);
+				nextQV = vfa.evaluate(nextState, nextAction);
 			}
 
 			//manage option specifics
 			double r = eo.r;
-			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : this.gamma;
+			double discount = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).discount : gamma;
 			int stepInc = eo instanceof EnvironmentOptionOutcome ? ((EnvironmentOptionOutcome)eo).numSteps : 1;
-			eStepCounter += stepInc;
-			if(action.action.isPrimitive() || !this.shouldAnnotateOptions){
-				ea.recordTransitionTo(action, nextState, r);
+			this.numSteps += stepInc;
+			eStepCounter = this.numSteps;
+			if(action.action.isPrimitive() || !shouldAnnotateOptions){
+				this.ea.recordTransitionTo(action, nextState, r);
 			}
 			else{
-				ea.appendAndMergeEpisodeAnalysis(((Option)action.action).getLastExecutionResults());
+				this.ea.appendAndMergeEpisodeAnalysis(((Option)action.action).getLastExecutionResults());
 			}
 
 			//compute function delta
@@ -413,13 +487,30 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 
 			//manage replacing traces by zeroing out features for actions
 			//also zero out selected action, since it will be put back in later code
-			if(this.useReplacingTraces){
-				List<GroundedAction> allActions = this.getAllGroundedActions(curState);
+			if(useReplacingTraces && batchVFA != null){
+				List<GroundedAction> allActions = getAllGroundedActions(curState);
+				this.actionGradientBuffers = batchVFA.gradientAll(curState, allActions, this.actionGradientBuffers);
+				for(int i = 0; i < allActions.size(); i++){
+					FunctionGradient.ArrayGradient ofg = this.actionGradientBuffers[i];
+					for(int j = 0; j < ofg.numNonZeroPDs(); j++){
+						int parameterId = ofg.parameterId(j);
+						EligibilityTraceVector et = traces.get(parameterId);
+						if(et != null){
+							et.eligibilityValue = 0.;
+						}
+						else{
+							traces.put(parameterId, new EligibilityTraceVector(parameterId, vfa.getParameter(parameterId), 0.));
+						}
+					}
+				}
+			}
+			else if(useReplacingTraces){
+				List<GroundedAction> allActions = getAllGroundedActions(curState);
 				for(GroundedAction oa : allActions){
 
 					//get non-zero parameters and zero them
-					this.vfa.evaluate(curState, oa);
-					FunctionGradient ofg = this.vfa.gradient(curState, oa);
+					vfa.evaluate(curState, oa);
+					FunctionGradient ofg = vfa.gradient(curState, oa);
 					for(FunctionGradient.PartialDerivative pds : ofg.getNonZeroPartialDerivatives()){
 						EligibilityTraceVector et = traces.get(pds.parameterId);
 						if(et != null){
@@ -427,19 +518,27 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 						}
 						else{
 							//no trace for this yet, so add it
-							et = new EligibilityTraceVector(pds.parameterId, this.vfa.getParameter(pds.parameterId), 0.);
+							et = new EligibilityTraceVector(pds.parameterId, vfa.getParameter(pds.parameterId), 0.);
 							traces.put(pds.parameterId, et);
 						}
 					}
 
 				}
 			}
+			else if(batchVFA != null){
+				for(int j = 0; j < this.gradientBuffer.numNonZeroPDs(); j++){
+					int parameterId = this.gradientBuffer.parameterId(j);
+					if(!traces.containsKey(parameterId)){
+						traces.put(parameterId, new EligibilityTraceVector(parameterId, vfa.getParameter(parameterId), 0.));
+					}
+				}
+			}
 			else{
 				//if not using replacing traces, then add any new parameters whose traces need to be set, but set initially
 				//at zero since it will be updated in the next loop
 				for(FunctionGradient.PartialDerivative pds : gradient.getNonZeroPartialDerivatives()){
 					if(!traces.containsKey(pds.parameterId)){
-						traces.put(pds.parameterId, new EligibilityTraceVector(pds.parameterId, this.vfa.getParameter(pds.parameterId), 0.));
+						traces.put(pds.parameterId, new EligibilityTraceVector(pds.parameterId, vfa.getParameter(pds.parameterId), 0.));
 					}
 				}
 
@@ -448,28 +547,37 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 
 			//scan through trace elements, update them, and update parameter
 			double learningRate = 0.;
-			if(!this.useFeatureWiseLearningRate){
-				learningRate = this.learningRate.pollLearningRate(this.totalNumberOfSteps, curState, action);
+			if(!useFeatureWiseLearningRate){
+				learningRate = GradientDescentSarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, curState, action);
+			}
+
+			//a gradient buffer is added to the traces by iterating its entries rather than looking up each trace's weight in it
+			if(batchVFA != null){
+				for(int j = 0; j < this.gradientBuffer.numNonZeroPDs(); j++){
+					traces.get(this.gradientBuffer.parameterId(j)).eligibilityValue += this.gradientBuffer.value(j);
+				}
 			}
 
 			Set <Integer> deletedSet = new HashSet<Integer>();
 			for(EligibilityTraceVector et : traces.values()){
-				if(this.useFeatureWiseLearningRate){
-					learningRate = this.learningRate.pollLearningRate(this.totalNumberOfSteps, et.weight);
+				if(useFeatureWiseLearningRate){
+					learningRate = GradientDescentSarsaLam.this.learningRate.pollLearningRate(totalNumberOfSteps, et.weight);
 				}
 
-				et.eligibilityValue += gradient.getPartialDerivative(et.weight);
+				if(batchVFA == null){
+					et.eligibilityValue += gradient.getPartialDerivative(et.weight);
+				}
 				double newParam = vfa.getParameter(et.weight) + learningRate * delta * et.eligibilityValue;
-				this.vfa.setParameter(et.weight, newParam);
+				vfa.setParameter(et.weight, newParam);
 
 				double deltaW = Math.abs(et.initialWeightValue - newParam);
-				if(deltaW > maxWeightChangeInLastEpisode){
-					maxWeightChangeInLastEpisode = deltaW;
+				if(deltaW > this.maxWeightChange){
+					this.maxWeightChange = deltaW;
 				}
 
 				//now decay and delete from tracking if too small
-				et.eligibilityValue *= this.lambda*discount;
-				if(et.eligibilityValue < this.minEligibityForUpdate){
+				et.eligibilityValue *= lambda*discount;
+				if(et.eligibilityValue < minEligibityForUpdate){
 					deletedSet.add(et.weight);
 				}
 
@@ -482,20 +590,36 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 			}
 
 			//move on
-			curState = nextState;
-			action = nextAction;
+			this.curState = nextState;
+			this.action = nextAction;
 
-			this.totalNumberOfSteps++;
+			totalNumberOfSteps++;
 
+		}
 
+		@Override
+		public int numSteps() {
+			return this.numSteps;
 		}
 
-		if(episodeHistory.size() >= numEpisodesToStore){
-			episodeHistory.poll();
-			episodeHistory.offer(ea);
+		@Override
+		public EpisodeAnalysis getEpisodeAnalysis() {
+			return this.ea;
 		}
 
-		return ea;
+		@Override
+		public EpisodeAnalysis endEpisode() {
+
+			eStepCounter = this.numSteps;
+			maxWeightChangeInLastEpisode = this.maxWeightChange;
+
+			if(episodeHistory.size() >= numEpisodesToStore){
+				episodeHistory.poll();
+			}
+			episodeHistory.offer(this.ea);
+
+			return this.ea;
+		}
 	}
 
 
@@ -521,6 +645,14 @@ public class GradientDescentSarsaLam extends MDPSolver implements QFunction, Lea
 		List<GroundedAction> gas = this.getAllGroundedActions(s);
 		List <QValue> qs = new ArrayList<QValue>(gas.size());
 
+		if(this.vfa instanceof BatchDifferentiableStateActionValue){
+			double [] qArray = ((BatchDifferentiableStateActionValue)this.vfa).evaluateAll(s, gas, null);
+			for(int i = 0; i < gas.size(); i++){
+				qs.add(new QValue(s, gas.get(i), qArray[i]));
+			}
+			return qs;
+		}
+
 		for(GroundedAction ga : gas){
 			qs.add(new QValue(s, ga, this.vfa.evaluate(s, ga)));
 		}
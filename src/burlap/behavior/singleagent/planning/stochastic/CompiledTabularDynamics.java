@@ -0,0 +1,482 @@
+package burlap.behavior.singleagent.planning.stochastic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import burlap.behavior.policy.Policy;
+import burlap.behavior.policy.Policy.ActionProb;
+import burlap.behavior.singleagent.options.Option;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+import burlap.oomdp.statehashing.HashableState;
+
+
+/**
+ * A compiled, index-compacted representation of the tabular transition dynamics stored by a {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming}
+ * instance. Each state is assigned a dense int id once and the transition dynamics are stored in compressed sparse row (CSR) style primitive arrays:
+ * the action slots of state s are the indices [actionStarts[s], actionStarts[s+1]) and the transitions of action slot a are the indices
+ * [transitionStarts[a], transitionStarts[a+1]) of the {@link #nextStates} and {@link #transitionWeights} arrays.
+ * <p>
+ * To avoid reevaluating the reward function on every backup, the expected immediate reward of each action slot is precomputed and each transition
+ * stores its probability already multiplied by the discount factor, so that the Q-value of action slot a is simply
+ * expectedRewards[a] + sum_t transitionWeights[t] * v[nextStates[t]]. For {@link burlap.behavior.singleagent.options.Option}s, the expected
+ * reward is the option's expected cumulative discounted reward and the transition weights are the option's (already discounted) transition probabilities.
+ * <p>
+ * Value functions operated on by this class are plain double arrays indexed by state id, which makes sweeps allocation free and cache friendly.
+ * Values are copied to and from a {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} value function map
+ * with the {@link #initialValues(DynamicProgramming)} and {@link #writeValues(double[], java.util.Map)} methods.
+ * A compiled instance is an additional copy of the dynamics it was compiled from; the {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming}
+ * instance keeps its hashed transition dynamics, so compiling trades memory for sweep speed.
+ * @author James MacGlashan
+ *
+ */
+public class CompiledTabularDynamics {
+
+	/**
+	 * The hashed state of each state id
+	 */
+	protected List<HashableState>				states;
+
+	/**
+	 * The id of each hashed state
+	 */
+	protected Map<HashableState, Integer>		stateIds;
+
+	/**
+	 * Whether each state is a terminal state
+	 */
+	protected boolean []						terminal;
+
+	/**
+	 * The first action slot of each state; has one more entry than the number of states.
+	 */
+	protected int []							actionStarts;
+
+	/**
+	 * The grounded action of each action slot
+	 */
+	protected GroundedAction []					actions;
+
+	/**
+	 * The expected immediate (or for options, cumulative discounted) reward of each action slot
+	 */
+	protected double []							expectedRewards;
+
+	/**
+	 * The first transition of each action slot; has one more entry than the number of action slots.
+	 */
+	protected int []							transitionStarts;
+
+	/**
+	 * The id of the outcome state of each transition
+	 */
+	protected int []							nextStates;
+
+	/**
+	 * The discounted probability of each transition
+	 */
+	protected double []							transitionWeights;
+
+
+	/**
+	 * Compiles the transition dynamics of the given states from the given {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} instance.
+	 * Any outcome state that is not in the provided collection is assigned an id and compiled as well, so that the resulting
+	 * model is closed under its transitions.
+	 * @param dp the {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} instance whose transition dynamics, reward function, terminal function and discount factor are compiled
+	 * @param seedStates the states to compile
+	 */
+	public CompiledTabularDynamics(DynamicProgramming dp, Collection<HashableState> seedStates){
+
+		this.states = new ArrayList<HashableState>(seedStates.size());
+		this.stateIds = new HashMap<HashableState, Integer>(seedStates.size());
+		for(HashableState sh : seedStates){
+			this.idFor(sh);
+		}
+
+		IntArray aStarts = new IntArray(seedStates.size()+1);
+		IntArray tStarts = new IntArray(seedStates.size()*2);
+		IntArray next = new IntArray(seedStates.size()*4);
+		DoubleArray weights = new DoubleArray(seedStates.size()*4);
+		DoubleArray rewards = new DoubleArray(seedStates.size()*2);
+		List<GroundedAction> slotActions = new ArrayList<GroundedAction>(seedStates.size()*2);
+		List<Boolean> terminalList = new ArrayList<Boolean>(seedStates.size());
+
+		TerminalFunction tf = dp.getTf();
+		RewardFunction rf = dp.getRf();
+		double gamma = dp.getGamma();
+
+		//the state list may grow as we encounter outcome states that were not in the seed set
+		for(int s = 0; s < this.states.size(); s++){
+
+			HashableState sh = this.states.get(s);
+			aStarts.add(slotActions.size());
+
+			boolean isTerminal = tf.isTerminal(sh.s);
+			terminalList.add(isTerminal);
+			if(isTerminal){
+				continue;
+			}
+
+			List<ActionTransitions> transitions = dp.getActionsTransitions(sh);
+			for(ActionTransitions at : transitions){
+
+				tStarts.add(next.size);
+				slotActions.add(at.ga);
+
+				double r = 0.;
+				if(at.ga.action instanceof Option){
+					r = ((Option)at.ga.action).getExpectedRewards(sh.s, at.ga);
+					for(HashedTransitionProbability tp : at.transitions){
+						//option transition probabilities are already discounted
+						next.add(this.idFor(tp.sh));
+						weights.add(tp.p);
+					}
+				}
+				else{
+					for(HashedTransitionProbability tp : at.transitions){
+						r += tp.p * rf.reward(sh.s, at.ga, tp.sh.s);
+						next.add(this.idFor(tp.sh));
+						weights.add(tp.p * gamma);
+					}
+				}
+				rewards.add(r);
+
+			}
+
+		}
+		aStarts.add(slotActions.size());
+		tStarts.add(next.size);
+
+		this.actionStarts = aStarts.trimmed();
+		this.transitionStarts = tStarts.trimmed();
+		this.nextStates = next.trimmed();
+		this.transitionWeights = weights.trimmed();
+		this.expectedRewards = rewards.trimmed();
+		this.actions = slotActions.toArray(new GroundedAction[slotActions.size()]);
+		this.terminal = new boolean[terminalList.size()];
+		for(int i = 0; i < this.terminal.length; i++){
+			this.terminal[i] = terminalList.get(i);
+		}
+
+	}
+
+
+	/**
+	 * Returns the number of compiled states.
+	 * @return the number of compiled states.
+	 */
+	public int numStates(){
+		return this.states.size();
+	}
+
+
+	/**
+	 * Returns the total number of compiled action slots over all states.
+	 * @return the total number of compiled action slots over all states.
+	 */
+	public int numActionSlots(){
+		return this.actions.length;
+	}
+
+
+	/**
+	 * Returns the id of the given hashed state, or -1 if it has not been compiled.
+	 * @param sh the hashed state
+	 * @return the id of the given hashed state, or -1 if it has not been compiled.
+	 */
+	public int stateId(HashableState sh){
+		Integer id = this.stateIds.get(sh);
+		return id == null ? -1 : id;
+	}
+
+
+	/**
+	 * Returns the hashed state with the given id.
+	 * @param id the state id
+	 * @return the hashed state with the given id.
+	 */
+	public HashableState state(int id){
+		return this.states.get(id);
+	}
+
+
+	/**
+	 * Returns whether the state with the given id is a terminal state.
+	 * @param id the state id
+	 * @return true if the state is terminal; false otherwise.
+	 */
+	public boolean isTerminal(int id){
+		return this.terminal[id];
+	}
+
+
+	/**
+	 * Returns the first action slot of the given state. The action slots of state s are [firstActionSlot(s), firstActionSlot(s+1)), so s may be
+	 * equal to {@link #numStates()}.
+	 * @param s the state id
+	 * @return the first action slot of the state
+	 */
+	public int firstActionSlot(int s){
+		return this.actionStarts[s];
+	}
+
+
+	/**
+	 * Returns the first transition of the given action slot. The transitions of slot a are [firstTransition(a), firstTransition(a+1)), so a may be
+	 * equal to {@link #numActionSlots()}.
+	 * @param slot the action slot
+	 * @return the first transition of the action slot
+	 */
+	public int firstTransition(int slot){
+		return this.transitionStarts[slot];
+	}
+
+
+	/**
+	 * Returns the id of the outcome state of the given transition.
+	 * @param t the transition index
+	 * @return the id of the outcome state
+	 */
+	public int nextState(int t){
+		return this.nextStates[t];
+	}
+
+
+	/**
+	 * Returns the discounted probability of the given transition.
+	 * @param t the transition index
+	 * @return the discounted probability of the transition
+	 */
+	public double transitionWeight(int t){
+		return this.transitionWeights[t];
+	}
+
+
+	/**
+	 * Returns the value of each compiled state in the value function of the given {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} instance,
+	 * indexed by state id.
+	 * @param dp the {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} instance whose values are copied
+	 * @return the value of each compiled state
+	 */
+	public double [] initialValues(DynamicProgramming dp){
+		double [] v = new double[this.states.size()];
+		for(int i = 0; i < v.length; i++){
+			v[i] = this.terminal[i] ? 0. : dp.value(this.states.get(i));
+		}
+		return v;
+	}
+
+
+	/**
+	 * Writes the given state id indexed values into a value function map.
+	 * @param v the state id indexed values
+	 * @param valueFunction the value function map into which the values are written
+	 */
+	public void writeValues(double [] v, Map<HashableState, Double> valueFunction){
+		for(int i = 0; i < v.length; i++){
+			valueFunction.put(this.states.get(i), v[i]);
+		}
+	}
+
+
+	/**
+	 * Returns the Q-value of the given action slot under the given value function.
+	 * @param slot the action slot
+	 * @param v the state id indexed value function
+	 * @return the Q-value of the action slot
+	 */
+	public double q(int slot, double [] v){
+		double q = this.expectedRewards[slot];
+		int end = this.transitionStarts[slot+1];
+		for(int t = this.transitionStarts[slot]; t < end; t++){
+			q += this.transitionWeights[t] * v[this.nextStates[t]];
+		}
+		return q;
+	}
+
+
+	/**
+	 * Returns the Bellman optimality backup of the given state under the given value function. Terminal states have a value of 0.
+	 * @param s the state id
+	 * @param v the state id indexed value function
+	 * @return the backed up value
+	 */
+	public double backup(int s, double [] v){
+		if(this.terminal[s]){
+			return 0.;
+		}
+		double maxQ = Double.NEGATIVE_INFINITY;
+		int end = this.actionStarts[s+1];
+		for(int a = this.actionStarts[s]; a < end; a++){
+			double q = this.q(a, v);
+			if(q > maxQ){
+				maxQ = q;
+			}
+		}
+		return maxQ;
+	}
+
+
+	/**
+	 * Returns the fixed-policy Bellman backup of the given state under the given value function.
+	 * @param s the state id
+	 * @param actionProbs the probability of each action slot under the evaluated policy, as returned by {@link #policyActionProbabilities(burlap.behavior.policy.Policy)}
+	 * @param v the state id indexed value function
+	 * @return the backed up value
+	 */
+	public double fixedPolicyBackup(int s, double [] actionProbs, double [] v){
+		if(this.terminal[s]){
+			return 0.;
+		}
+		double weightedQ = 0.;
+		int end = this.actionStarts[s+1];
+		for(int a = this.actionStarts[s]; a < end; a++){
+			double p = actionProbs[a];
+			if(p == 0.){
+				continue; //doesn't contribute
+			}
+			weightedQ += p * this.q(a, v);
+		}
+		return weightedQ;
+	}
+
+
+	/**
+	 * Returns the probability that the given policy selects each action slot.
+	 * @param p the policy
+	 * @return the action slot indexed selection probabilities
+	 */
+	public double [] policyActionProbabilities(Policy p){
+		double [] probs = new double[this.actions.length];
+		for(int s = 0; s < this.terminal.length; s++){
+			if(this.terminal[s] || this.actionStarts[s] == this.actionStarts[s+1]){
+				continue;
+			}
+			List<ActionProb> distribution = p.getActionDistributionForState(this.states.get(s).s);
+			for(int a = this.actionStarts[s]; a < this.actionStarts[s+1]; a++){
+				probs[a] = Policy.getProbOfActionGivenDistribution(this.actions[a], distribution);
+			}
+		}
+		return probs;
+	}
+
+
+	/**
+	 * Performs an in place (Gauss-Seidel-style) sweep over all states.
+	 * @param v the state id indexed value function that is updated
+	 * @param actionProbs the action slot probabilities of a policy to evaluate, or null to use the Bellman optimality backup
+	 * @return the maximum change in the value of any state
+	 */
+	public double sweep(double [] v, double [] actionProbs){
+		double delta = 0.;
+		for(int s = 0; s < v.length; s++){
+			double nv = actionProbs == null ? this.backup(s, v) : this.fixedPolicyBackup(s, actionProbs, v);
+			delta = Math.max(Math.abs(nv - v[s]), delta);
+			v[s] = nv;
+		}
+		return delta;
+	}
+
+
+	/**
+	 * Performs a synchronous (Jacobi-style) sweep over the states with ids in [start, end), reading from v and writing the new values to nv.
+	 * Because v is not modified, disjoint ranges can be swept concurrently.
+	 * @param v the state id indexed value function read by the backups
+	 * @param nv the array into which the backed up values are written
+	 * @param actionProbs the action slot probabilities of a policy to evaluate, or null to use the Bellman optimality backup
+	 * @param start the first state id (inclusive) to back up
+	 * @param end the last state id (exclusive) to back up
+	 * @return the maximum change in the value of any state in the range
+	 */
+	public double synchronousSweep(double [] v, double [] nv, double [] actionProbs, int start, int end){
+		double delta = 0.;
+		for(int s = start; s < end; s++){
+			double val = actionProbs == null ? this.backup(s, v) : this.fixedPolicyBackup(s, actionProbs, v);
+			delta = Math.max(Math.abs(val - v[s]), delta);
+			nv[s] = val;
+		}
+		return delta;
+	}
+
+
+	/**
+	 * Returns the id of the hashed state, assigning a new id if it does not yet have one.
+	 * @param sh the hashed state
+	 * @return the id of the hashed state
+	 */
+	protected int idFor(HashableState sh){
+		Integer id = this.stateIds.get(sh);
+		if(id == null){
+			id = this.states.size();
+			this.states.add(sh);
+			this.stateIds.put(sh, id);
+		}
+		return id;
+	}
+
+
+
+	/**
+	 * A minimal growable int array.
+	 */
+	protected static class IntArray{
+
+		int [] data;
+		int size = 0;
+
+		public IntArray(int capacity){
+			this.data = new int[Math.max(capacity, 4)];
+		}
+
+		public void add(int v){
+			if(this.size == this.data.length){
+				int [] nd = new int[this.data.length*2];
+				System.arraycopy(this.data, 0, nd, 0, this.size);
+				this.data = nd;
+			}
+			this.data[this.size++] = v;
+		}
+
+		public int [] trimmed(){
+			int [] t = new int[this.size];
+			System.arraycopy(this.data, 0, t, 0, this.size);
+			return t;
+		}
+
+	}
+
+
+	/**
+	 * A minimal growable double array.
+	 */
+	protected static class DoubleArray{
+
+		double [] data;
+		int size = 0;
+
+		public DoubleArray(int capacity){
+			this.data = new double[Math.max(capacity, 4)];
+		}
+
+		public void add(double v){
+			if(this.size == this.data.length){
+				double [] nd = new double[this.data.length*2];
+				System.arraycopy(this.data, 0, nd, 0, this.size);
+				this.data = nd;
+			}
+			this.data[this.size++] = v;
+		}
+
+		public double [] trimmed(){
+			double [] t = new double[this.size];
+			System.arraycopy(this.data, 0, t, 0, this.size);
+			return t;
+		}
+
+	}
+
+}
@@ -4,7 +4,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import burlap.behavior.policy.Policy;
 import burlap.behavior.policy.Policy.ActionProb;
@@ -13,6 +14,7 @@ import burlap.behavior.singleagent.options.Option;
 import burlap.oomdp.core.*;
 import burlap.oomdp.statehashing.HashableStateFactory;
 import burlap.oomdp.statehashing.HashableState;
+import burlap.behavior.valuefunction.ConcurrentValueTable;
 import burlap.behavior.valuefunction.QFunction;
 import burlap.behavior.valuefunction.QValue;
 import burlap.behavior.valuefunction.ValueFunction;
@@ -22,6 +24,7 @@ import burlap.oomdp.core.states.State;
 import burlap.oomdp.singleagent.Action;
 import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
+import burlap.parallel.Parallel;
 
 /**
  * A class for performing dynamic programming operations: updating the value function using a Bellman backup.
@@ -34,6 +37,18 @@ import burlap.oomdp.singleagent.RewardFunction;
  * will cache the transition dynamics so that they do not have to be procedurally generated
  * by the {@link burlap.oomdp.singleagent.Action}. Transition dynamic caching can be disable by calling the {@link #toggleUseCachedTransitionDynamics(boolean)}
  * method. This may be desirable if the transition dynamics are expected to change with time, such as when the model is being learned in model-based RL.
+ * <p>
+ * Subclasses that sweep over the whole state space (e.g., {@link burlap.behavior.singleagent.planning.stochastic.valueiteration.ValueIteration})
+ * can optionally perform each sweep in parallel by calling {@link #setParallelSweeps(int)}. A parallel sweep is a synchronous (Jacobi-style)
+ * sweep: the Bellman backup of every state is computed against the value function as it was at the start of the sweep and the new values
+ * are written only after all backups have been computed. Parallel sweeps require the reward function, terminal function and value function initialization
+ * to be safe to call from multiple threads.
+ * <p>
+ * Subclasses may also be set to operate in a compiled mode with {@link #toggleCompiledDynamics(boolean)}. In compiled mode, after the reachable
+ * states have been found, each state is assigned a dense int id and the cached transition dynamics are compiled into a {@link burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics}
+ * instance so that all Bellman updates of a planning call operate on primitive arrays. The value function map is updated with the compiled
+ * values when planning completes, so all value and Q-value queries behave the same as in the default mode. Compiled mode speeds up
+ * sweeps but does not reduce memory use: the hashed transition dynamics and value function map are kept alongside the compiled arrays.
  * @author James MacGlashan
  *
  */
@@ -57,9 +72,9 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 	
 	
 	/**
-	 * A map for storing the current value function estimate for each state.
+	 * A table for storing the current value function estimate for each state. The table is safe to read and write from multiple threads.
 	 */
-	protected Map <HashableState, Double>							valueFunction;
+	protected ConcurrentValueTable									valueFunction;
 	
 	
 	/**
@@ -67,6 +82,43 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 	 */
 	protected ValueFunctionInitialization valueInitializer = new ValueFunctionInitialization.ConstantValueFunctionInitialization();
 	
+	
+	/**
+	 * The executor used to perform parallel synchronous sweeps. If null, sweeps are performed serially in place.
+	 */
+	protected ExecutorService										sweepExecutor = null;
+	
+	
+	/**
+	 * The number of chunks into which the state space is partitioned for each parallel sweep.
+	 */
+	protected int													sweepChunks = 1;
+	
+	
+	/**
+	 * Whether the sweep executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean												ownsSweepExecutor = false;
+	
+	
+	/**
+	 * Whether parallel sweeps write each backup to the value function as soon as it is computed (asynchronous, Gauss-Seidel-style)
+	 * instead of after the whole sweep (synchronous, Jacobi-style).
+	 */
+	protected boolean												parallelSweepsInPlace = false;
+	
+	
+	/**
+	 * Whether planning sweeps should operate on compiled primitive array transition dynamics.
+	 */
+	protected boolean												useCompiledDynamics = false;
+	
+	
+	/**
+	 * The compiled transition dynamics used when {@link #useCompiledDynamics} is true; null if they have not been compiled since new states were indexed.
+	 */
+	protected CompiledTabularDynamics								compiledDynamics;
+	
 
 	
 	
@@ -85,7 +137,7 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 		this.solverInit(domain, rf, tf, gamma, hashingFactory);
 		
 		this.transitionDynamics = new HashMap<HashableState, List<ActionTransitions>>();
-		this.valueFunction = new HashMap<HashableState, Double>();
+		this.valueFunction = new ConcurrentValueTable();
 		
 		
 		
@@ -97,6 +149,7 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 		this.mapToStateIndex.clear();
 		this.valueFunction.clear();
 		this.transitionDynamics.clear();
+		this.compiledDynamics = null;
 	}
 	
 	/**
@@ -107,6 +160,147 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 		this.valueInitializer = vfInit;
 	}
 	
+	/**
+	 * Sets whether whole state space sweeps should be performed in parallel with the given number of threads. If nThreads is greater
+	 * than one, a new daemon thread pool of that size is created and sweeps become synchronous (Jacobi-style) sweeps in which each state's
+	 * backup is computed against the value function from the previous sweep, unless in place parallel sweeps are turned on with
+	 * {@link #toggleParallelSweepsInPlace(boolean)}. If nThreads is one or less, sweeps are performed serially in place
+	 * (Gauss-Seidel-style), which is the default. A pool created by this method is shut down when it is replaced; an executor provided with
+	 * {@link #setParallelSweeps(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads to use for sweeps.
+	 */
+	public void setParallelSweeps(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelSweeps(null, 1);
+		}
+		else{
+			this.setParallelSweeps(Parallel.newDaemonPool(nThreads, "dp-sweep"), nThreads * 4);
+			this.ownsSweepExecutor = true;
+		}
+	}
+	
+	
+	/**
+	 * Sets whole state space sweeps to be performed as parallel synchronous (Jacobi-style) sweeps using the provided executor. The executor
+	 * is not shut down by this object. Setting the executor to null reverts to serial in place sweeps.
+	 * @param executor the executor on which backups will be computed
+	 * @param nChunks the number of chunks into which the state space is partitioned for each sweep
+	 */
+	public void setParallelSweeps(ExecutorService executor, int nChunks){
+		if(this.ownsSweepExecutor && this.sweepExecutor != executor){
+			this.sweepExecutor.shutdown();
+		}
+		this.ownsSweepExecutor = false;
+		this.sweepExecutor = executor;
+		this.sweepChunks = Math.max(1, nChunks);
+	}
+	
+	
+	/**
+	 * Sets whether parallel sweeps are performed in place. In place parallel sweeps write each backup to the shared value function as soon as it is
+	 * computed, so later backups of the same sweep (on any thread) may use it, as in a serial Gauss-Seidel sweep, which usually converges in fewer sweeps
+	 * than a synchronous sweep. The order in which backups see each other's values depends on thread scheduling, so results may differ slightly between runs.
+	 * This has no effect on serial sweeps, which are always in place.
+	 * @param parallelSweepsInPlace true to write backups as they are computed; false to write them after each sweep (the default)
+	 */
+	public void toggleParallelSweepsInPlace(boolean parallelSweepsInPlace){
+		this.parallelSweepsInPlace = parallelSweepsInPlace;
+	}
+	
+	
+	/**
+	 * Replaces the state index map and the cached transition dynamics map with concurrent maps that hold the same entries, so that
+	 * backups and Q-value queries may be performed by multiple threads at once. The value function is always safe to use
+	 * from multiple threads. Planners that run backups concurrently (such as parallel RTDP trials) call this method when parallel planning is turned on.
+	 */
+	protected void useConcurrentStateMaps(){
+		if(!(this.mapToStateIndex instanceof ConcurrentHashMap)){
+			this.mapToStateIndex = new ConcurrentHashMap<HashableState, HashableState>(this.mapToStateIndex);
+		}
+		if(!(this.transitionDynamics instanceof ConcurrentHashMap)){
+			this.transitionDynamics = new ConcurrentHashMap<HashableState, List<ActionTransitions>>(this.transitionDynamics);
+		}
+	}
+	
+	
+	/**
+	 * Sets whether planning sweeps should operate on compiled primitive array transition dynamics. Compiled mode
+	 * requires the transition dynamics to be fixed for the duration of a planning call. The compiled dynamics are reused by later planning
+	 * calls until new states are indexed or the solver is reset. The hashed transition dynamics are still cached, because Q-value queries and
+	 * reachability analysis use them, so compiled mode holds both copies of the transition dynamics in memory.
+	 * @param useCompiledDynamics true if planning should use compiled transition dynamics; false to use the hashed transition dynamics directly.
+	 */
+	public void toggleCompiledDynamics(boolean useCompiledDynamics){
+		this.useCompiledDynamics = useCompiledDynamics;
+		if(!useCompiledDynamics){
+			this.compiledDynamics = null;
+		}
+	}
+	
+	
+	/**
+	 * Returns the most recently compiled transition dynamics, or null if none have been compiled.
+	 * @return the most recently compiled transition dynamics, or null if none have been compiled.
+	 */
+	public CompiledTabularDynamics getCompiledDynamics(){
+		return this.compiledDynamics;
+	}
+	
+	
+	/**
+	 * Compiles the transition dynamics of all states that have been indexed by this object (and any states reachable from them) into
+	 * a {@link burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics} instance, which is stored and returned. If the
+	 * dynamics have already been compiled and no states have been indexed since, the stored instance is returned.
+	 * @return the compiled transition dynamics
+	 */
+	protected CompiledTabularDynamics compileDynamics(){
+		if(this.compiledDynamics == null){
+			this.compiledDynamics = new CompiledTabularDynamics(this, new ArrayList<HashableState>(this.mapToStateIndex.keySet()));
+		}
+		return this.compiledDynamics;
+	}
+	
+	
+	/**
+	 * Performs a sweep over all states of the compiled transition dynamics. If this object is set to use parallel sweeps,
+	 * a synchronous (Jacobi-style) sweep is performed across the sweep executor; otherwise an in place sweep is performed.
+	 * @param v the state id indexed value function that is updated
+	 * @param actionProbs the action slot probabilities of a policy to evaluate, or null to use the Bellman optimality backup
+	 * @return the maximum change in the value of any state
+	 */
+	protected double compiledSweep(final double [] v, final double [] actionProbs){
+		
+		if(this.sweepExecutor == null){
+			return this.compiledDynamics.sweep(v, actionProbs);
+		}
+		
+		final double [] nv = new double[v.length];
+		final CompiledTabularDynamics cd = this.compiledDynamics;
+		List<Double> deltas = Parallel.forChunks(this.sweepExecutor, v.length, this.sweepChunks, new Parallel.ForChunk<Double>() {
+			@Override
+			public Double run(int chunk, int start, int end) {
+				return cd.synchronousSweep(v, nv, actionProbs, start, end);
+			}
+		});
+		System.arraycopy(nv, 0, v, 0, v.length);
+		
+		double delta = 0.;
+		for(double d : deltas){
+			delta = Math.max(d, delta);
+		}
+		return delta;
+	}
+	
+	
+	/**
+	 * Returns whether whole state space sweeps are performed in parallel.
+	 * @return true if sweeps are performed in parallel; false if they are performed serially.
+	 */
+	public boolean usesParallelSweeps(){
+		return this.sweepExecutor != null;
+	}
+	
+	
 	/**
 	 * Returns the value initialization function used.
 	 * @return the value initialization function used.
@@ -149,8 +343,10 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 		if(this.tf.isTerminal(sh.s)){
 			return 0.;
 		}
-		Double V = valueFunction.get(sh);
-		double v = V == null ? this.getDefaultValue(sh.s) : V;
+		double v = this.valueFunction.getValue(sh, Double.NaN);
+		if(Double.isNaN(v) && !this.valueFunction.containsState(sh)){
+			v = this.getDefaultValue(sh.s);
+		}
 		return v;
 	}
 	
@@ -178,6 +374,7 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 			//then this is an unexplored state
 			indexSH = sh;
 			mapToStateIndex.put(indexSH, indexSH);
+			this.compiledDynamics = null;
 		}
 		
 		
@@ -217,6 +414,7 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 				//then this is an unexplored state
 				indexSH = sh;
 				mapToStateIndex.put(indexSH, indexSH);
+				this.compiledDynamics = null;
 			}
 			
 //			if(this.containsParameterizedActions && !this.domain.isObjectIdentifierDependent() && a.parametersAreObjects()){
@@ -249,8 +447,8 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 	 * @return all states that are stored in this planners value function.
 	 */
 	public List <State> getAllStates(){
-		List <State> result = new ArrayList<State>(valueFunction.size());
-		Set<HashableState> shs = valueFunction.keySet();
+		List<HashableState> shs = valueFunction.states();
+		List <State> result = new ArrayList<State>(shs.size());
 		for(HashableState sh : shs){
 			result.add(sh.s);
 		}
@@ -322,6 +520,7 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 			
 			//indicate how this state is stored
 			mapToStateIndex.put(sh, sh);
+			this.compiledDynamics = null;
 			
 			
 			//first get all grounded actions for this state
@@ -379,9 +578,23 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 	 */
 	protected double performBellmanUpdateOn(HashableState sh){
 		
+		double maxQ = this.computeBellmanBackup(sh);
+		valueFunction.setValue(sh, maxQ);
+		
+		return maxQ;
+	}
+	
+	
+	/**
+	 * Computes the Bellman backup of the provided (hashed) state without storing the result in the value function.
+	 * If this object is set to used cached transition dynamics and the transition dynamics for this state are not cached, then they will be created and cached.
+	 * @param sh the hashed state on which to compute the Bellman backup.
+	 * @return the backed up value of the state.
+	 */
+	protected double computeBellmanBackup(HashableState sh){
+		
 		if(this.tf.isTerminal(sh.s)){
 			//terminal states always have a state value of 0
-			valueFunction.put(sh, 0.);
 			return 0.;
 		}
 		
@@ -412,8 +625,6 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 			
 		}
 		
-		valueFunction.put(sh, maxQ);
-		
 		return maxQ;
 	}
 	
@@ -429,15 +640,36 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 	 */
 	protected double performFixedPolicyBellmanUpdateOn(HashableState sh, Policy p){
 		
+		double weightedQ;
+		if(this.tf.isTerminal(sh.s)){
+			//terminal states always have a state value of 0
+			weightedQ = 0.;
+		}
+		else{
+			weightedQ = this.computeFixedPolicyBellmanBackup(sh, p.getActionDistributionForState(sh.s));
+		}
+		
+		valueFunction.setValue(sh, weightedQ);
+		
+		return weightedQ;
+		
+	}
+	
+	
+	/**
+	 * Computes the fixed-policy Bellman backup of the provided (hashed) state without storing the result in the value function.
+	 * @param sh the hashed state on which to compute the Bellman backup.
+	 * @param policyDistribution the action distribution of the evaluated policy in the state
+	 * @return the backed up value of the state
+	 */
+	protected double computeFixedPolicyBellmanBackup(HashableState sh, List<ActionProb> policyDistribution){
 		
 		if(this.tf.isTerminal(sh.s)){
 			//terminal states always have a state value of 0
-			valueFunction.put(sh, 0.);
 			return 0.;
 		}
 		
 		double weightedQ = 0.;
-		List<ActionProb> policyDistribution = p.getActionDistributionForState(sh.s);
 		
 		if(this.useCachedTransitions){
 			
@@ -472,12 +704,80 @@ public class DynamicProgramming extends MDPSolver implements ValueFunction, QFun
 			
 		}
 		
+		return weightedQ;
 		
+	}
+	
+	
+	/**
+	 * Performs one Bellman sweep over the given states using this object's sweep executor. By default the sweep is synchronous (Jacobi-style):
+	 * every backup is computed against the value function as it was before the sweep and the new values are written to
+	 * the value function after all backups have completed. If parallel sweeps are set to be in place with {@link #toggleParallelSweepsInPlace(boolean)},
+	 * each new value is instead written to the value function as soon as it is computed. If policyDistributions is null, the Bellman optimality backup
+	 * is used; otherwise the fixed-policy backup using the action distribution at the same index of each state is used.
+	 * Because backups may be computed concurrently, the transition dynamics for all of the states should already be cached.
+	 * @param states the states to back up
+	 * @param policyDistributions the policy action distribution for each state, or null to use the Bellman optimality backup
+	 * @return the maximum change in the value of any state
+	 */
+	protected double parallelBellmanSweep(final List<HashableState> states, final List<List<ActionProb>> policyDistributions){
+		
+		final double [] newValues = new double[states.size()];
+		
+		List<Double> deltas = Parallel.forChunks(this.sweepExecutor, states.size(), this.sweepChunks, new Parallel.ForChunk<Double>() {
+			@Override
+			public Double run(int chunk, int start, int end) {
+				double delta = 0.;
+				for(int i = start; i < end; i++){
+					HashableState sh = states.get(i);
+					double v = value(sh);
+					double nv = policyDistributions == null ? computeBellmanBackup(sh) : computeFixedPolicyBellmanBackup(sh, policyDistributions.get(i));
+					if(parallelSweepsInPlace){
+						valueFunction.setValue(sh, nv);
+					}
+					else{
+						newValues[i] = nv;
+					}
+					delta = Math.max(Math.abs(nv - v), delta);
+				}
+				return delta;
+			}
+		});
 		
-		valueFunction.put(sh, weightedQ);
+		//merge the new values now that no worker is reading the value function
+		if(!this.parallelSweepsInPlace){
+			for(int i = 0; i < newValues.length; i++){
+				valueFunction.setValue(states.get(i), newValues[i]);
+			}
+		}
 		
-		return weightedQ;
+		double delta = 0.;
+		for(double d : deltas){
+			delta = Math.max(d, delta);
+		}
 		
+		return delta;
+	}
+	
+	
+	/**
+	 * Returns the action distribution of a policy for each of the given states. Used to query a policy once per evaluation
+	 * (rather than once per sweep and from multiple threads) when performing parallel fixed-policy sweeps.
+	 * @param states the states for which to get the policy action distribution
+	 * @param p the policy
+	 * @return the action distribution of the policy for each state, in the same order as the states.
+	 */
+	protected List<List<ActionProb>> getPolicyDistributions(List<HashableState> states, Policy p){
+		List<List<ActionProb>> distributions = new ArrayList<List<ActionProb>>(states.size());
+		for(HashableState sh : states){
+			if(this.tf.isTerminal(sh.s)){
+				distributions.add(null);
+			}
+			else{
+				distributions.add(p.getActionDistributionForState(sh.s));
+			}
+		}
+		return distributions;
 	}
 	
 	
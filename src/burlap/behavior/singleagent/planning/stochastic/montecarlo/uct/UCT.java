@@ -19,8 +19,12 @@ import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.statehashing.HashableState;
 import burlap.oomdp.statehashing.HashableStateFactory;
+import burlap.parallel.Parallel;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An implementation of UCT [1]. This class can be augmented with a goal state specification (using a {@link burlap.oomdp.auxiliary.stateconditiontest.StateConditionTest})
@@ -37,6 +41,17 @@ import java.util.*;
  * will be more computationally efficient than replanning at each step, but may have degrading performance after each step since
  * each step has a shorter horizon from which to plan and may not have as many samples from which it estimated its Q-value.
  * <p>
+ * Planning normally stops after a fixed number of rollouts, but a wall-clock time budget per call to {@link #planFromState(burlap.oomdp.core.states.State)}
+ * can also be set with {@link #setPlanningTimeBudget(long)}. If tree reuse is enabled with {@link #toggleTreeReuse(boolean)}, then
+ * when UCT is asked to plan from a state that is a successor of the current root in the tree, that successor node becomes the new root and
+ * the statistics of its subtree are kept, rather than growing a new tree from scratch.
+ * <p>
+ * Rollouts can be spread across multiple threads with the {@link #setParallelRollouts(int, burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT.ParallelMode)}
+ * method, using either root parallelization, in which each thread grows its own independent tree and the root action statistics
+ * of the trees are merged, or tree parallelization, in which all threads share one tree and a virtual loss is applied to the
+ * action nodes of in progress rollouts so that concurrent rollouts spread out over the tree. Parallel rollouts require
+ * that the domain actions, reward function, terminal function, and hashing factory be safe to use from multiple threads.
+ * <p>
  * 1. Kocsis, Levente, and Csaba Szepesvari. "Bandit based monte-carlo planning." ECML (2006). 282-293.
  * 
  * @author James MacGlashan
@@ -44,6 +59,21 @@ import java.util.*;
  */
 public class UCT extends MDPSolver implements Planner, QFunction {
 
+	/**
+	 * The parallelization schemes for running rollouts on multiple threads.
+	 */
+	public static enum ParallelMode{
+		/**
+		 * Each thread grows an independent tree from the root and the root action statistics of the trees are summed.
+		 */
+		ROOT,
+
+		/**
+		 * All threads roll out in the same tree, using virtual losses to discourage threads from following the same path.
+		 */
+		TREE
+	}
+
 	protected List<Map<HashableState, UCTStateNode>> 			stateDepthIndex;
 	protected Map <HashableState, List <UCTStateNode>>			statesToStateNodes;
 	protected UCTStateNode										root;
@@ -56,8 +86,13 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	protected UCTActionConstructor								actionNodeConstructor;
 	
 	protected StateConditionTest								goalCondition;
-	protected boolean											foundGoal;
-	protected boolean											foundGoalOnRollout;
+	protected volatile boolean									foundGoal;
+	protected final ThreadLocal<Boolean>						foundGoalOnRollout = new ThreadLocal<Boolean>(){
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
 	
 	protected Set<HashableState>								uniqueStatesInTree;
 	
@@ -67,6 +102,57 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	protected Random											rand;
 	
 	
+	/**
+	 * The executor used to run parallel rollouts; null if rollouts are performed serially.
+	 */
+	protected ExecutorService									rolloutExecutor;
+	
+	/**
+	 * Whether the rollout executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean											ownsRolloutExecutor = false;
+	
+	/**
+	 * The number of parallel rollout workers (or independent trees in root parallel mode)
+	 */
+	protected int												numRolloutWorkers = 1;
+	
+	/**
+	 * The parallelization scheme used when parallel rollouts are enabled
+	 */
+	protected ParallelMode										parallelMode = ParallelMode.TREE;
+	
+	/**
+	 * The return assumed for each in progress rollout through an action node when computing its upper confidence Q-value in tree parallel mode.
+	 */
+	protected double											virtualLossReturn = 0.;
+	
+	/**
+	 * Whether tree parallel rollouts are currently being performed
+	 */
+	protected boolean											treeParallelRollouts = false;
+	
+	/**
+	 * The lock that guards the tree index data structures when rollouts are performed in parallel
+	 */
+	protected final Object										treeIndexLock = new Object();
+	
+	/**
+	 * The maximum wall-clock time in milliseconds for each call to {@link #planFromState(burlap.oomdp.core.states.State)}; -1 if there is no time limit.
+	 */
+	protected long												planningTimeBudget = -1;
+	
+	/**
+	 * The {@link System#nanoTime()} at which the current planning call must stop; only used if there is a time limit.
+	 */
+	protected long												planningDeadline;
+	
+	/**
+	 * Whether the subtree of a successor of the root is reused when planning from that successor.
+	 */
+	protected boolean											reuseTree = false;
+	
+	
 	
 	/**
 	 * Initializes UCT
@@ -120,6 +206,78 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	public void useGoalConditionStopCriteria(StateConditionTest gc){
 		this.goalCondition = gc;
 	}
+	
+	
+	/**
+	 * Sets a wall-clock time budget for each call to {@link #planFromState(burlap.oomdp.core.states.State)}. Planning will stop when the time budget
+	 * is exhausted, the maximum number of rollouts has been performed, or a goal is found, whichever comes first. To plan only by time, set
+	 * the number of rollouts to -1 in the constructor. A rollout that is in progress when the budget expires is finished first.
+	 * @param milliseconds the maximum planning time in milliseconds; if less than or equal to zero, then there is no time limit.
+	 */
+	public void setPlanningTimeBudget(long milliseconds){
+		this.planningTimeBudget = milliseconds > 0 ? milliseconds : -1;
+	}
+	
+	
+	/**
+	 * Sets whether the tree should be reused between planning calls. When enabled and UCT is asked to plan from (or return Q-values for)
+	 * a state that is a successor of the current root in the tree, the successor node becomes the new root and the statistics of its subtree are kept;
+	 * otherwise a new tree is grown. Tree reuse is not applied in
+	 * {@link burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT.ParallelMode#ROOT} parallel mode.
+	 * @param reuseTree whether the tree should be reused between planning calls
+	 */
+	public void toggleTreeReuse(boolean reuseTree){
+		this.reuseTree = reuseTree;
+	}
+	
+	
+	/**
+	 * Sets UCT to perform its rollouts on multiple threads with its own thread pool. If nThreads is less than or equal to 1,
+	 * then rollouts will be performed serially. In {@link burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT.ParallelMode#ROOT}
+	 * mode, each thread grows an independent tree with its share of the rollouts; in
+	 * {@link burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT.ParallelMode#TREE} mode, all threads roll out in the same tree.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with
+	 * {@link #setParallelRollouts(java.util.concurrent.ExecutorService, int, burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT.ParallelMode)} never is.
+	 * @param nThreads the number of threads to use
+	 * @param mode the parallelization scheme
+	 */
+	public void setParallelRollouts(int nThreads, ParallelMode mode){
+		if(nThreads <= 1){
+			this.setParallelRollouts(null, 1, mode);
+		}
+		else{
+			this.setParallelRollouts(Parallel.newDaemonPool(nThreads, "UCT"), nThreads, mode);
+			this.ownsRolloutExecutor = true;
+		}
+	}
+	
+	
+	/**
+	 * Sets UCT to perform its rollouts in parallel with the given executor. If the executor is null, then rollouts will be performed serially.
+	 * @param executor the executor on which rollout workers are run
+	 * @param nWorkers the number of rollout workers (or independent trees in root parallel mode) to submit to the executor
+	 * @param mode the parallelization scheme
+	 */
+	public void setParallelRollouts(ExecutorService executor, int nWorkers, ParallelMode mode){
+		if(this.ownsRolloutExecutor && this.rolloutExecutor != executor){
+			this.rolloutExecutor.shutdown();
+		}
+		this.ownsRolloutExecutor = false;
+		this.rolloutExecutor = executor;
+		this.numRolloutWorkers = Math.max(1, nWorkers);
+		this.parallelMode = mode;
+	}
+	
+	
+	/**
+	 * Sets the return assumed for each in progress rollout through an action node when selecting actions in tree parallel mode.
+	 * Each in progress rollout counts as an additional visit of the action node with this return, so it should be pessimistic
+	 * for the domain (for example, the minimum reward times the planning horizon). The default is 0.
+	 * @param virtualLossReturn the return assumed for an in progress rollout
+	 */
+	public void setVirtualLossReturn(double virtualLossReturn){
+		this.virtualLossReturn = virtualLossReturn;
+	}
 
 
 	/**
@@ -131,26 +289,32 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	@Override
 	public GreedyQPolicy planFromState(State initialState) {
 		
-		foundGoal = false;
-		
-		treeSize = 1;
-		numVisits = 0;
-		
-		HashableState shi = this.stateHash(initialState);
-		root = stateNodeConstructor.generate(shi, 0, actions, actionNodeConstructor);
+		this.planningDeadline = System.nanoTime() + this.planningTimeBudget * 1000000L;
 		
-		uniqueStatesInTree = new HashSet<HashableState>();
+		if(this.rolloutExecutor != null && this.parallelMode == ParallelMode.ROOT){
+			this.rootParallelPlanFromState(initialState);
+			DPrint.cl(debugCode, "\nRollouts: " + numRollOutsFromRoot + "; Best Action Expected Return: " + this.bestReturnAction(root).averageReturn());
+			return new GreedyQPolicy(this);
+		}
 		
-		stateDepthIndex = new ArrayList<Map<HashableState,UCTStateNode>>();
-		statesToStateNodes = new HashMap<HashableState, List<UCTStateNode>>();
-		Map <HashableState, UCTStateNode> depth0Map = new HashMap<HashableState, UCTStateNode>();
-		depth0Map.put(shi, root);
-		stateDepthIndex.add(depth0Map);
+		if(this.reuseTree && this.reuseSubtree(this.stateHash(initialState))){
+			foundGoal = false;
+			numVisits = 0;
+			numRollOutsFromRoot = 0;
+			DPrint.cl(debugCode, "Reusing tree with " + treeSize + " nodes and " + root.n + " root visits");
+		}
+		else{
+			this.initializeTree(initialState);
+		}
 		
+		if(this.rolloutExecutor != null){
+			this.treeParallelRollOuts();
+			DPrint.cl(debugCode, "\nRollouts: " + numRollOutsFromRoot + "; Best Action Expected Return: " + this.bestReturnAction(root).averageReturn());
+			return new GreedyQPolicy(this);
+		}
 		
 		int lastNumUnique = 0;
 		
-		numRollOutsFromRoot = 0;
 		while(!this.stopPlanning()){
 			
 			this.initializeRollOut();
@@ -174,6 +338,242 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		return new GreedyQPolicy(this);
 
 	}
+	
+	
+	/**
+	 * Creates a new tree whose root is the given state and clears the planning statistics.
+	 * @param initialState the state of the root node of the tree
+	 */
+	protected void initializeTree(State initialState){
+		
+		foundGoal = false;
+		
+		treeSize = 1;
+		numVisits = 0;
+		
+		HashableState shi = this.stateHash(initialState);
+		root = stateNodeConstructor.generate(shi, 0, actions, actionNodeConstructor);
+		
+		uniqueStatesInTree = new HashSet<HashableState>();
+		
+		stateDepthIndex = new ArrayList<Map<HashableState,UCTStateNode>>();
+		statesToStateNodes = new HashMap<HashableState, List<UCTStateNode>>();
+		Map <HashableState, UCTStateNode> depth0Map = new HashMap<HashableState, UCTStateNode>();
+		depth0Map.put(shi, root);
+		stateDepthIndex.add(depth0Map);
+		
+		numRollOutsFromRoot = 0;
+		
+	}
+	
+	
+	/**
+	 * Makes the node for the given state the root of the tree if it is the current root or a successor of the current root, keeping
+	 * the statistics of its subtree. The depth of every node in the kept subtree is shifted so that the new root has depth 0 and the
+	 * rest of the tree is discarded.
+	 * @param sh the state that should become the root
+	 * @return true if the tree was reused; false if the state is not the root or a successor of the root.
+	 */
+	protected boolean reuseSubtree(HashableState sh){
+		
+		if(root == null){
+			return false;
+		}
+		if(root.state.equals(sh)){
+			return true;
+		}
+		
+		//find the shallowest successor node of the root for the state
+		UCTStateNode newRoot = null;
+		for(UCTActionNode anode : root.actionNodes){
+			for(UCTStateNode suc : anode.getAllSuccessors()){
+				if(suc.state.equals(sh) && (newRoot == null || suc.depth < newRoot.depth)){
+					newRoot = suc;
+				}
+			}
+		}
+		
+		if(newRoot == null){
+			return false;
+		}
+		
+		//collect the subtree of the new root
+		int depthShift = newRoot.depth;
+		Set<UCTStateNode> subtree = Collections.newSetFromMap(new IdentityHashMap<UCTStateNode, Boolean>());
+		List<UCTStateNode> orderedSubtree = new ArrayList<UCTStateNode>();
+		LinkedList<UCTStateNode> openList = new LinkedList<UCTStateNode>();
+		subtree.add(newRoot);
+		openList.offer(newRoot);
+		while(!openList.isEmpty()){
+			UCTStateNode node = openList.poll();
+			orderedSubtree.add(node);
+			for(UCTActionNode anode : node.actionNodes){
+				for(UCTStateNode suc : anode.getAllSuccessors()){
+					if(suc.depth > depthShift && subtree.add(suc)){
+						openList.offer(suc);
+					}
+				}
+			}
+		}
+		
+		//reindex it with the new root at depth 0
+		root = newRoot;
+		treeSize = 0;
+		uniqueStatesInTree = new HashSet<HashableState>();
+		stateDepthIndex = new ArrayList<Map<HashableState,UCTStateNode>>();
+		statesToStateNodes = new HashMap<HashableState, List<UCTStateNode>>();
+		for(UCTStateNode node : orderedSubtree){
+			node.depth -= depthShift;
+			this.addNodeToIndexTree(node);
+			if(node != root){
+				uniqueStatesInTree.add(node.state);
+			}
+		}
+		
+		return true;
+		
+	}
+	
+	
+	/**
+	 * Performs rollouts from the root with all rollout workers sharing the same tree. A virtual loss is placed on each action
+	 * node that an in progress rollout passes through so that concurrent rollouts tend to explore different parts of the tree.
+	 * Note that the total number of visits counter is only approximate when rollouts are performed in parallel.
+	 */
+	protected void treeParallelRollOuts(){
+		
+		final AtomicInteger claimed = new AtomicInteger(0);
+		final AtomicInteger completed = new AtomicInteger(0);
+		
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>(this.numRolloutWorkers);
+		for(int i = 0; i < this.numRolloutWorkers; i++){
+			workers.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					while(claimRollOut(claimed)){
+						initializeRollOut();
+						treeRollOut(root, 0, maxHorizon);
+						completed.incrementAndGet();
+					}
+					return null;
+				}
+			});
+		}
+		
+		this.treeParallelRollouts = true;
+		try{
+			Parallel.invokeAll(this.rolloutExecutor, workers);
+		}
+		finally{
+			this.treeParallelRollouts = false;
+		}
+		
+		numRollOutsFromRoot = completed.get();
+		
+	}
+	
+	
+	/**
+	 * Claims permission for a parallel rollout worker to perform another rollout.
+	 * @param claimed the number of rollouts claimed so far by all workers
+	 * @return true if the worker may perform another rollout; false if planning should cease.
+	 */
+	protected boolean claimRollOut(AtomicInteger claimed){
+		if(foundGoal || this.planningTimeExpired()){
+			return false;
+		}
+		return maxRollOutsFromRoot == -1 || claimed.getAndIncrement() < maxRollOutsFromRoot;
+	}
+	
+	
+	/**
+	 * Plans from the input state with root parallelization: the rollouts are divided among independent UCT instances that
+	 * are run in parallel, the first instance's tree becomes this planner's tree, and the root action statistics of the other
+	 * instances are summed into it.
+	 * @param initialState the initial state of the planning problem
+	 */
+	protected void rootParallelPlanFromState(final State initialState){
+		
+		int nWorkers = this.numRolloutWorkers;
+		int [] bounds = null;
+		if(maxRollOutsFromRoot != -1){
+			bounds = Parallel.partition(maxRollOutsFromRoot, nWorkers);
+			nWorkers = bounds.length-1;
+		}
+		
+		final List<UCT> workers = new ArrayList<UCT>(nWorkers);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nWorkers);
+		for(int i = 0; i < nWorkers; i++){
+			final UCT worker = this.newRootParallelWorker(bounds == null ? -1 : bounds[i+1] - bounds[i]);
+			workers.add(worker);
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					worker.planFromState(initialState);
+					return null;
+				}
+			});
+		}
+		
+		Parallel.invokeAll(this.rolloutExecutor, tasks);
+		
+		UCT first = workers.get(0);
+		this.root = first.root;
+		this.stateDepthIndex = first.stateDepthIndex;
+		this.statesToStateNodes = first.statesToStateNodes;
+		this.uniqueStatesInTree = first.uniqueStatesInTree;
+		this.treeSize = first.treeSize;
+		this.numVisits = first.numVisits;
+		this.numRollOutsFromRoot = first.numRollOutsFromRoot;
+		this.foundGoal = first.foundGoal;
+		
+		for(int i = 1; i < workers.size(); i++){
+			UCT worker = workers.get(i);
+			this.mergeRootStatistics(worker.root);
+			this.numVisits += worker.numVisits;
+			this.numRollOutsFromRoot += worker.numRollOutsFromRoot;
+			this.foundGoal = this.foundGoal || worker.foundGoal;
+		}
+		
+	}
+	
+	
+	/**
+	 * Returns a new serial UCT instance with the same planning parameters as this instance that will perform the given number of rollouts.
+	 * The instance is used as an independent tree in root parallel mode.
+	 * @param nRollouts the number of rollouts the worker will perform
+	 * @return a new UCT instance
+	 */
+	protected UCT newRootParallelWorker(int nRollouts){
+		UCT worker = new UCT(this.domain, this.rf, this.tf, this.gamma, this.hashingFactory, this.maxHorizon, nRollouts, 0);
+		worker.explorationBias = this.explorationBias;
+		worker.setActions(this.actions);
+		worker.stateNodeConstructor = this.stateNodeConstructor;
+		worker.actionNodeConstructor = this.actionNodeConstructor;
+		worker.goalCondition = this.goalCondition;
+		worker.debugCode = this.debugCode;
+		worker.rand = new Random(this.rand.nextLong());
+		worker.planningTimeBudget = this.planningTimeBudget;
+		return worker;
+	}
+	
+	
+	/**
+	 * Adds the visit counts and sum returns of the root node of another tree for the same state into the root node of this tree.
+	 * @param otherRoot the root node of the other tree
+	 */
+	protected void mergeRootStatistics(UCTStateNode otherRoot){
+		this.root.n += otherRoot.n;
+		for(UCTActionNode anode : this.root.actionNodes){
+			for(UCTActionNode oanode : otherRoot.actionNodes){
+				if(anode.action.equals(oanode.action)){
+					anode.sumReturn += oanode.sumReturn;
+					anode.n += oanode.n;
+					break;
+				}
+			}
+		}
+	}
 
 	@Override
 	public List<QValue> getQs(State s) {
@@ -186,7 +586,9 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		//if the root node isn't the query state, then replan
 		HashableState sh = this.hashingFactory.hashState(s);
 		if(!sh.equals(this.root.state)){
-			this.resetSolver();
+			if(!this.reuseTree){
+				this.resetSolver();
+			}
 			this.planFromState(s);
 		}
 
@@ -210,7 +612,9 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		//if the root node isn't the query state, then replan
 		HashableState sh = this.hashingFactory.hashState(s);
 		if(!sh.equals(this.root.state)){
-			this.resetSolver();
+			if(!this.reuseTree){
+				this.resetSolver();
+			}
 			this.planFromState(s);
 		}
 
@@ -242,7 +646,7 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	 * Initializes data members; should be called before {@link treeRollOut(UCTStateNode, int, int)}
 	 */
 	protected void initializeRollOut(){
-		foundGoalOnRollout = false;
+		foundGoalOnRollout.set(false);
 	}
 	
 	
@@ -264,7 +668,7 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		if(tf.isTerminal(node.state.s)){
 			if(goalCondition != null && goalCondition.satisfies(node.state.s)){
 			    foundGoal = true;
-                foundGoalOnRollout = true;
+                foundGoalOnRollout.set(true);
 			}
 			DPrint.cl(debugCode, numRollOutsFromRoot + " Hit terminal at depth: " + depth);
 			return 0.;
@@ -280,6 +684,10 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 			//return ((maxHorizon - depth))*-1.;
 		}
 		
+		node.incrementVisits();
+		if(this.treeParallelRollouts){
+			anode.addVirtualLoss();
+		}
 		
 		
 		//sample the action
@@ -327,13 +735,15 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 			
 		}
 		
-		node.n++;
-		anode.update(sampledReturn);
+		if(this.treeParallelRollouts){
+			anode.updateAndRemoveVirtualLoss(sampledReturn);
+		}
+		else{
+			anode.update(sampledReturn);
+		}
 		
-		if(shouldConnectNode || foundGoalOnRollout){
-			this.addNodeToIndexTree(snprime);
-			anode.addSuccessor(snprime);
-			uniqueStatesInTree.add(snprime.state);
+		if(shouldConnectNode || foundGoalOnRollout.get()){
+			anode.addSuccessor(this.connectNodeToTree(snprime));
 		}
 		
 		
@@ -344,7 +754,8 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	
 	/**
 	 * Returns true if rollouts and planning should cease. Planning will stop
-	 * if the valueFunction is told to terminate upon finding a goal and one was found, or if
+	 * if the valueFunction is told to terminate upon finding a goal and one was found, if
+	 * the planning time budget has been exhausted, or if
 	 * the maximum number of rollouts have already been performed.
 	 * @return true if rollouts and planning should cease; false otherwise.
 	 */
@@ -352,6 +763,9 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		if(foundGoal){
 			return true;
 		}
+		if(this.planningTimeExpired()){
+			return true;
+		}
 		if(maxRollOutsFromRoot == -1){
 			return false;
 		}
@@ -366,6 +780,15 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	
 	
 	
+	/**
+	 * Returns true if a planning time budget is set and it has been exhausted by the current planning call.
+	 * @return true if the planning time budget has been exhausted; false otherwise.
+	 */
+	protected boolean planningTimeExpired(){
+		return this.planningTimeBudget > 0 && System.nanoTime() - this.planningDeadline >= 0;
+	}
+	
+	
 	/**
 	 * Selections which action to take. Unexplored actions from the node are selected first.
 	 * If all actions have been explored, then the action with the highest upper confidence Q-value
@@ -383,7 +806,7 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 		for(UCTActionNode an : snode.actionNodes){
 			
 			if(!untriedNodes){
-				if(an.n == 0){
+				if(this.isUntried(an)){
 					untriedNodes = true;
 					candidates.clear();
 					candidates.add(an);
@@ -400,7 +823,7 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 					}
 				}
 			}
-			else if(an.n == 0){
+			else if(this.isUntried(an)){
 				candidates.add(an);
 			}
 			
@@ -417,7 +840,7 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 			List <UCTActionNode> candidates2 = new ArrayList<UCTActionNode>(candidates.size());
 			for(UCTActionNode anode : candidates){
 				HashableState sample = this.stateHash(anode.action.executeIn(snode.state.s));
-				if(!uniqueStatesInTree.contains(sample)){
+				if(!this.isInTree(sample)){
 					candidates2.add(anode);
 				}
 			}
@@ -439,7 +862,25 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	 * @return the upper confidence Q-value
 	 */
 	protected double computeUCTQ(UCTStateNode snode, UCTActionNode anode){
-		return anode.averageReturn() + this.explorationQBoost(snode.n, anode.n);
+		int vl = anode.virtualLosses;
+		if(vl == 0){
+			return anode.averageReturn() + this.explorationQBoost(snode.n, anode.n);
+		}
+		
+		//each in progress rollout counts as a visit with the virtual loss return
+		int na = anode.n + vl;
+		double averageReturn = (anode.sumReturn + vl*this.virtualLossReturn) / na;
+		return averageReturn + this.explorationQBoost(snode.n, na);
+	}
+	
+	
+	/**
+	 * Returns whether an action node has never been selected by a completed or in progress rollout.
+	 * @param anode the action node
+	 * @return true if the action node has never been selected; false otherwise.
+	 */
+	protected boolean isUntried(UCTActionNode anode){
+		return anode.n == 0 && anode.virtualLosses == 0;
 	}
 	
 	
@@ -462,11 +903,52 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	 */
 	protected UCTStateNode queryTreeIndex(HashableState sh, int d){
 		
-		if(d >= stateDepthIndex.size()){
-			return null;
+		synchronized(treeIndexLock){
+			
+			if(d >= stateDepthIndex.size()){
+				return null;
+			}
+			
+			return stateDepthIndex.get(d).get(sh);
+			
+		}
+		
+	}
+	
+	
+	/**
+	 * Returns whether a (hashed) state is stored anywhere in the UCT tree.
+	 * @param sh the state to check
+	 * @return true if the state is in the tree; false otherwise.
+	 */
+	protected boolean isInTree(HashableState sh){
+		synchronized(treeIndexLock){
+			return uniqueStatesInTree.contains(sh);
 		}
+	}
+	
+	
+	/**
+	 * Connects a {@link UCTStateNode} to the UCT tree, unless a node for the same state and depth was already connected (by
+	 * another rollout thread), in which case the previously connected node is returned instead.
+	 * @param snode the {@link UCTStateNode} to connect
+	 * @return the {@link UCTStateNode} in the tree for the state and depth of the input node
+	 */
+	protected UCTStateNode connectNodeToTree(UCTStateNode snode){
 		
-		return stateDepthIndex.get(d).get(sh);
+		synchronized(treeIndexLock){
+			
+			UCTStateNode existing = this.queryTreeIndex(snode.state, snode.depth);
+			if(existing != null){
+				return existing;
+			}
+			
+			this.addNodeToIndexTree(snode);
+			uniqueStatesInTree.add(snode.state);
+			
+			return snode;
+			
+		}
 		
 	}
 	
@@ -476,22 +958,26 @@ public class UCT extends MDPSolver implements Planner, QFunction {
 	 */
 	protected void addNodeToIndexTree(UCTStateNode snode){
 		
-		while(stateDepthIndex.size() <= snode.depth){
-			stateDepthIndex.add(new HashMap<HashableState, UCTStateNode>());
-		}
-		
-		stateDepthIndex.get(snode.depth).put(snode.state, snode);
+		synchronized(treeIndexLock){
 		
-		List <UCTStateNode> depthNodes = statesToStateNodes.get(snode.state);
-		if(depthNodes == null){
-			depthNodes = new ArrayList<UCTStateNode>();
-			statesToStateNodes.put(snode.state, depthNodes);
+			while(stateDepthIndex.size() <= snode.depth){
+				stateDepthIndex.add(new HashMap<HashableState, UCTStateNode>());
+			}
+			
+			stateDepthIndex.get(snode.depth).put(snode.state, snode);
+			
+			List <UCTStateNode> depthNodes = statesToStateNodes.get(snode.state);
+			if(depthNodes == null){
+				depthNodes = new ArrayList<UCTStateNode>();
+				statesToStateNodes.put(snode.state, depthNodes);
+			}
+			
+			depthNodes.add(snode);
+			
+			treeSize++;
+			
 		}
 		
-		depthNodes.add(snode);
-		
-		treeSize++;
-		
 	}
 	
 	
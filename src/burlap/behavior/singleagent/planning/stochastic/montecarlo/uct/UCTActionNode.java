@@ -10,6 +10,11 @@ import burlap.oomdp.singleagent.GroundedAction;
 
 /**
  * UCT Action node that stores relevant action statics necessary for UCT.
+ * <p>
+ * The statistics of a node may be updated concurrently by multiple rollout threads when UCT is run in tree parallel mode.
+ * Updates to the statistics and successors are synchronized on the node and the statistics are volatile, so that
+ * selection can read them without locking. While a rollout that passed through this node is still in progress, the node
+ * also records a virtual loss that rollouts from other threads use to steer away from it.
  * @author James MacGlashan
  *
  */
@@ -23,12 +28,18 @@ public class UCTActionNode {
 	/**
 	 * The sum return observed for this action node
 	 */
-	public double										sumReturn;
+	public volatile double								sumReturn;
 	
 	/**
 	 * The number of of times this action node has been taken
 	 */
-	public int											n;
+	public volatile int									n;
+	
+	/**
+	 * The number of rollouts currently in progress through this action node that have not yet reported their return (the number of virtual losses).
+	 * Only used in tree parallel UCT.
+	 */
+	public volatile int									virtualLosses;
 	
 	/**
 	 * The possible successor states. Stores a list of nodes for the same outcome state
@@ -45,6 +56,7 @@ public class UCTActionNode {
 		action = a;
 		sumReturn = 0.;
 		n = 0;
+		virtualLosses = 0;
 		successorStates = new HashMap<HashableState, List<UCTStateNode>>();
 	}
 	
@@ -64,16 +76,35 @@ public class UCTActionNode {
 	 * Updates the node statistics with a sample return
 	 * @param sampledReturn the sample return observed
 	 */
-	public void update(double sampledReturn){
+	public synchronized void update(double sampledReturn){
+		sumReturn += sampledReturn;
+		n++;
+	}
+	
+	
+	/**
+	 * Records a virtual loss for a rollout that has selected this node and has not yet completed.
+	 */
+	public synchronized void addVirtualLoss(){
+		virtualLosses++;
+	}
+	
+	
+	/**
+	 * Updates the node statistics with a sample return and removes the virtual loss of the rollout that produced it.
+	 * @param sampledReturn the sample return observed
+	 */
+	public synchronized void updateAndRemoveVirtualLoss(double sampledReturn){
 		sumReturn += sampledReturn;
 		n++;
+		virtualLosses--;
 	}
 	
 	/**
 	 * Adds a successor node to the list of possible successors
 	 * @param node
 	 */
-	public void addSuccessor(UCTStateNode node){
+	public synchronized void addSuccessor(UCTStateNode node){
 		
 		List <UCTStateNode> succesorsMatchingState = successorStates.get(node.state);
 		if(succesorsMatchingState == null){
@@ -92,7 +123,7 @@ public class UCTActionNode {
 	 * @param node the node which is checked to be in the current successor states
 	 * @return true if this node contains in its observed successors the input state node
 	 */
-	public boolean referencesSuccessor(UCTStateNode node){
+	public synchronized boolean referencesSuccessor(UCTStateNode node){
 		
 		List <UCTStateNode> succesorsMatchingState = successorStates.get(node.state);
 		if(succesorsMatchingState == null){
@@ -112,7 +143,7 @@ public class UCTActionNode {
 	 * Returns a list of all successor nodes observed
 	 * @return a list of all successor nodes observed
 	 */
-	public List <UCTStateNode> getAllSuccessors(){
+	public synchronized List <UCTStateNode> getAllSuccessors(){
 		List <UCTStateNode> res = new ArrayList<UCTStateNode>();
 		for(List <UCTStateNode> nodes : successorStates.values()){
 			for(UCTStateNode node : nodes){
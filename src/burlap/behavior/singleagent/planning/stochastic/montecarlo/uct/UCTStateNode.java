@@ -2,6 +2,7 @@ package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCTActionNode.UCTActionConstructor;
 import burlap.oomdp.statehashing.HashableState;
@@ -17,6 +18,11 @@ import burlap.oomdp.singleagent.GroundedAction;
  */
 public class UCTStateNode {
 
+	/**
+	 * Lock free updater of the visit count so that tree parallel UCT rollouts can share nodes.
+	 */
+	protected static final AtomicIntegerFieldUpdater<UCTStateNode> visitUpdater = AtomicIntegerFieldUpdater.newUpdater(UCTStateNode.class, "n");
+
 	/**
 	 * The (hashed) state this node wraps
 	 */
@@ -30,7 +36,7 @@ public class UCTStateNode {
 	/**
 	 * The number of times this node has been visited
 	 */
-	public int						n;
+	public volatile int				n;
 	
 	/**
 	 * The possible actions (nodes) that can be performed from this state.
@@ -68,6 +74,14 @@ public class UCTStateNode {
 	}
 	
 	
+	/**
+	 * Atomically increments the number of times this node has been visited.
+	 */
+	public void incrementVisits(){
+		visitUpdater.incrementAndGet(this);
+	}
+	
+	
 	@Override
     public int hashCode() {
         final int prime = 31;
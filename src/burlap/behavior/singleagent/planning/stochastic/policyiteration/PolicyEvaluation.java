@@ -1,7 +1,9 @@
 package burlap.behavior.singleagent.planning.stochastic.policyiteration;
 
 import burlap.behavior.policy.Policy;
+import burlap.behavior.policy.Policy.ActionProb;
 import burlap.behavior.singleagent.planning.stochastic.ActionTransitions;
+import burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics;
 import burlap.behavior.singleagent.planning.stochastic.DynamicProgramming;
 import burlap.behavior.singleagent.planning.stochastic.HashedTransitionProbability;
 import burlap.debugtools.DPrint;
@@ -12,6 +14,7 @@ import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.statehashing.HashableState;
 import burlap.oomdp.statehashing.HashableStateFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,6 +32,10 @@ import java.util.Set;
  * but you should have already seeded the state space by having called the {@link #evaluatePolicy(burlap.behavior.policy.Policy, burlap.oomdp.core.states.State)}
  * method or the {@link #performReachabilityFrom(burlap.oomdp.core.states.State)} method at least once previously,
  * a runtime exception will be thrown.
+ * <p>
+ * Evaluation sweeps can be performed in parallel by calling {@link #setParallelSweeps(int)}. In that case the policy is
+ * queried once per state at the start of each evaluation and each sweep is a synchronous (Jacobi-style) sweep.
+ * Setting {@link #toggleCompiledDynamics(boolean)} to true makes evaluation sweeps operate on primitive array compiled transition dynamics.
  *
  * @author James MacGlashan.
  */
@@ -86,20 +93,36 @@ public class PolicyEvaluation extends DynamicProgramming {
 		}
 
 
+		if(this.useCompiledDynamics){
+			this.evaluateCompiledPolicy(policy);
+			return;
+		}
+
 		double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
 
 		Set <HashableState> states = mapToStateIndex.keySet();
+		List <HashableState> stateList = null;
+		List <List<ActionProb>> distributions = null;
+		if(this.usesParallelSweeps()){
+			stateList = new ArrayList<HashableState>(states);
+			distributions = this.getPolicyDistributions(stateList, policy);
+		}
 
 		int i;
 		for(i = 0; i < this.maxEvalIterations; i++){
 
 			double delta = 0.;
-			for(HashableState sh : states){
+			if(stateList != null){
+				delta = this.parallelBellmanSweep(stateList, distributions);
+			}
+			else{
+				for(HashableState sh : states){
 
-				double v = this.value(sh);
-				double maxQ = this.performFixedPolicyBellmanUpdateOn(sh, policy);
-				delta = Math.max(Math.abs(maxQ - v), delta);
+					double v = this.value(sh);
+					double maxQ = this.performFixedPolicyBellmanUpdateOn(sh, policy);
+					delta = Math.max(Math.abs(maxQ - v), delta);
 
+				}
 			}
 
 			maxChangeInPolicyEvaluation = Math.max(delta, maxChangeInPolicyEvaluation);
@@ -115,6 +138,29 @@ public class PolicyEvaluation extends DynamicProgramming {
 	}
 
 
+	/**
+	 * Computes the value function for the given policy using compiled transition dynamics of the discovered states and
+	 * then writes the resulting values into the value function map.
+	 * @param policy the {@link burlap.behavior.policy.Policy} to evaluate
+	 */
+	protected void evaluateCompiledPolicy(Policy policy){
+
+		CompiledTabularDynamics cd = this.compileDynamics();
+		double [] v = cd.initialValues(this);
+		double [] actionProbs = cd.policyActionProbabilities(policy);
+
+		for(int i = 0; i < this.maxEvalIterations; i++){
+			double delta = this.compiledSweep(v, actionProbs);
+			if(delta < this.maxEvalDelta){
+				break; //approximated well enough; stop iterating
+			}
+		}
+
+		cd.writeValues(v, this.valueFunction);
+
+	}
+
+
 	/**
 	 * This method will find all reachable states that will be used when computing the value function.
 	 * This method will not do anything if all reachable states from the input state have been discovered from previous calls to this method.
@@ -172,6 +218,7 @@ public class PolicyEvaluation extends DynamicProgramming {
 
 		DPrint.cl(this.debugCode, "Finished reachability analysis; # states: " + mapToStateIndex.size());
 
+		this.compiledDynamics = null;
 
 		return true;
 
@@ -2,6 +2,7 @@ package burlap.behavior.singleagent.planning.stochastic.policyiteration;
 
 import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.policy.Policy;
+import burlap.behavior.policy.Policy.ActionProb;
 import burlap.behavior.singleagent.planning.Planner;
 import burlap.behavior.singleagent.planning.stochastic.ActionTransitions;
 import burlap.behavior.singleagent.planning.stochastic.DynamicProgramming;
@@ -14,6 +15,7 @@ import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.statehashing.HashableState;
 import burlap.oomdp.statehashing.HashableStateFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -175,6 +177,10 @@ public class PolicyIteration extends DynamicProgramming implements Planner {
 		this.initializeOptionsForExpectationComputations();
 		if(this.performReachabilityFrom(initialState) || !this.hasRunPlanning){
 			
+			if(this.useCompiledDynamics){
+				this.compileDynamics();
+			}
+			
 			double delta;
 			do{
 				delta = this.evaluatePolicy();
@@ -212,20 +218,35 @@ public class PolicyIteration extends DynamicProgramming implements Planner {
 			throw new RuntimeException("Cannot run VI until the reachable states have been found. Use planFromState method at least once or instead.");
 		}
 		
+		if(this.useCompiledDynamics && this.compiledDynamics != null){
+			return this.evaluateCompiledPolicy();
+		}
+		
 		double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
 		
 		Set <HashableState> states = mapToStateIndex.keySet();
+		List <HashableState> stateList = null;
+		List <List<ActionProb>> distributions = null;
+		if(this.usesParallelSweeps()){
+			stateList = new ArrayList<HashableState>(states);
+			distributions = this.getPolicyDistributions(stateList, this.evaluativePolicy);
+		}
 		
 		int i;
 		for(i = 0; i < this.maxIterations; i++){
 			
 			double delta = 0.;
-			for(HashableState sh : states){
-				
-				double v = this.value(sh);
-				double maxQ = this.performFixedPolicyBellmanUpdateOn(sh, this.evaluativePolicy);
-				delta = Math.max(Math.abs(maxQ - v), delta);
-				
+			if(stateList != null){
+				delta = this.parallelBellmanSweep(stateList, distributions);
+			}
+			else{
+				for(HashableState sh : states){
+					
+					double v = this.value(sh);
+					double maxQ = this.performFixedPolicyBellmanUpdateOn(sh, this.evaluativePolicy);
+					delta = Math.max(Math.abs(maxQ - v), delta);
+					
+				}
 			}
 			
 			maxChangeInPolicyEvaluation = Math.max(delta, maxChangeInPolicyEvaluation);
@@ -248,6 +269,41 @@ public class PolicyIteration extends DynamicProgramming implements Planner {
 	
 	
 	
+	/**
+	 * Computes the value function under following the current evaluative policy using the compiled transition dynamics and
+	 * then writes the resulting values into the value function map.
+	 * @return the maximum single iteration change in the value function
+	 */
+	protected double evaluateCompiledPolicy(){
+		
+		double [] v = this.compiledDynamics.initialValues(this);
+		double [] actionProbs = this.compiledDynamics.policyActionProbabilities(this.evaluativePolicy);
+		
+		double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
+		
+		int i;
+		for(i = 0; i < this.maxIterations; i++){
+			
+			double delta = this.compiledSweep(v, actionProbs);
+			maxChangeInPolicyEvaluation = Math.max(delta, maxChangeInPolicyEvaluation);
+			
+			if(delta < this.maxEvalDelta){
+				i++;
+				break; //approximated well enough; stop iterating
+			}
+			
+		}
+		
+		this.compiledDynamics.writeValues(v, this.valueFunction);
+		
+		DPrint.cl(this.debugCode, "Iterations in inner VI for policy eval: " + i);
+		this.totalValueIterations += i;
+		
+		return maxChangeInPolicyEvaluation;
+		
+	}
+	
+	
 	/**
 	 * This method will find all reachable states that will be used when computing the value function.
 	 * This method will not do anything if all reachable states from the input state have been discovered from previous calls to this method.
@@ -308,6 +364,7 @@ public class PolicyIteration extends DynamicProgramming implements Planner {
 		DPrint.cl(this.debugCode, "Finished reachability analysis; # states: " + mapToStateIndex.size());
 		
 		this.foundReachableStates = true;
+		this.compiledDynamics = null;
 		
 		return true;
 		
@@ -3,6 +3,7 @@ package burlap.behavior.singleagent.planning.stochastic.rtdp;
 import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.singleagent.planning.Planner;
 import burlap.behavior.singleagent.planning.stochastic.DynamicProgramming;
+import burlap.behavior.valuefunction.ConcurrentValueTable;
 import burlap.behavior.valuefunction.QValue;
 import burlap.behavior.valuefunction.ValueFunctionInitialization;
 import burlap.debugtools.DPrint;
@@ -15,8 +16,13 @@ import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.statehashing.HashableState;
 import burlap.oomdp.statehashing.HashableStateFactory;
+import burlap.parallel.Parallel;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -37,6 +43,13 @@ import java.util.*;
  * the method {@link #setStateSelectionMode(StateSelectionMode)}. Another optional state selection mode is to always choose the next state
  * with the highest uncertainty, but this tends to be even slower due to being overly conservative so it is not reccommended in genral.
  * See the {@link StateSelectionMode} documentation for more information.
+ * <p>
+ * Multiple rollouts can be run at the same time with the {@link #setParallelTrials(int)} method. All worker threads share the lower and upper bound
+ * value functions. Each worker selects which bound it is reading on its own thread rather than through the shared value function reference, and bounds
+ * are only ever tightened by parallel workers (the lower bound with an atomic max and the upper bound with an atomic min), so a backup that was computed
+ * from values that another worker has since improved cannot loosen a bound. Planning stops as soon as any rollout finds the margin of the initial state
+ * to be small enough, or when the maximum number of rollouts across all workers is reached. Parallel trials require that the domain actions, reward
+ * function, terminal function, and value function initializations be safe to use from multiple threads.
  * 
  * 
  * 
@@ -79,12 +92,12 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	/**
 	 * The lower bound value function
 	 */
-	protected Map<HashableState, Double>		lowerBoundV = new HashMap<HashableState, Double>();
+	protected ConcurrentValueTable			lowerBoundV = new ConcurrentValueTable();
 	
 	/**
 	 * The upperbound value function
 	 */
-	protected Map<HashableState, Double>		upperBoundV = new HashMap<HashableState, Double>();
+	protected ConcurrentValueTable			upperBoundV = new ConcurrentValueTable();
 	
 	
 	/**
@@ -138,13 +151,13 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	/**
 	 * Keeps track of the number of Bellman updates that have been performed across all planning.
 	 */
-	protected int								numBellmanUpdates = 0;
+	protected AtomicInteger						numBellmanUpdates = new AtomicInteger(0);
 	
 	
 	/**
 	 * Keeps track of the number of rollout steps that have been performed across all planning rollouts.
 	 */
-	protected int								numSteps = 0;
+	protected AtomicInteger						numSteps = new AtomicInteger(0);
 	
 	
 	/**
@@ -154,6 +167,31 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	protected boolean							runRolloutsInReverse = true;
 	
 	
+	/**
+	 * The executor on which parallel rollout workers are run; null if rollouts are run serially.
+	 */
+	protected ExecutorService					trialExecutor = null;
+	
+	
+	/**
+	 * The number of rollout workers submitted to the {@link #trialExecutor}.
+	 */
+	protected int								numTrialWorkers = 1;
+	
+	
+	/**
+	 * Whether the {@link #trialExecutor} was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean							ownsTrialExecutor = false;
+	
+	
+	/**
+	 * The bound that each parallel rollout worker thread is reading: true for the lower bound and false for the upper bound. It is not set
+	 * on other threads, which read the bound that the shared {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} valueFunction reference points to.
+	 */
+	protected ThreadLocal<Boolean>				workerBound = new ThreadLocal<Boolean>();
+	
+	
 	
 	/**
 	 * Initializes.
@@ -229,6 +267,39 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	public void setRunRolloutsInRevere(boolean runRolloutsInRevers){
 		this.runRolloutsInReverse = runRolloutsInRevers;
 	}
+	
+	
+	/**
+	 * Sets Bounded RTDP to run its rollouts on multiple threads with its own thread pool. If nThreads is less than or equal to 1, then rollouts are run serially.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with {@link #setParallelTrials(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads to use
+	 */
+	public void setParallelTrials(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelTrials(null, 1);
+			return;
+		}
+		this.setParallelTrials(Parallel.newDaemonPool(nThreads, "BoundedRTDP"), nThreads);
+		this.ownsTrialExecutor = true;
+	}
+	
+	
+	/**
+	 * Sets Bounded RTDP to run its rollouts in parallel with the given executor. The executor is not shut down by this object. If the executor is null, then rollouts are run serially.
+	 * @param executor the executor on which rollout workers are run
+	 * @param nWorkers the number of rollout workers to submit to the executor
+	 */
+	public void setParallelTrials(ExecutorService executor, int nWorkers){
+		if(this.ownsTrialExecutor && this.trialExecutor != executor){
+			this.trialExecutor.shutdown();
+		}
+		this.ownsTrialExecutor = false;
+		this.trialExecutor = executor;
+		this.numTrialWorkers = Math.max(1, nWorkers);
+		if(executor != null){
+			this.useConcurrentStateMaps();
+		}
+	}
 
 
 
@@ -242,9 +313,14 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	public GreedyQPolicy planFromState(State initialState) {
 	
 		DPrint.cl(this.debugCode, "Beginning Planning.");
-		int nr = 0;
-		while(this.runRollout(initialState) > this.maxDiff && (nr < this.maxRollouts || this.maxRollouts == -1)){
-			nr++;
+		if(this.trialExecutor != null){
+			this.parallelRollouts(initialState);
+		}
+		else{
+			int nr = 0;
+			while(this.runRollout(initialState) > this.maxDiff && (nr < this.maxRollouts || this.maxRollouts == -1)){
+				nr++;
+			}
 		}
 		
 		
@@ -278,7 +354,7 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	 * @return the total number of Bellman updates across all planning
 	 */
 	public int getNumberOfBellmanUpdates(){
-		return this.numBellmanUpdates;
+		return this.numBellmanUpdates.get();
 	}
 	
 	/**
@@ -286,7 +362,113 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	 * @return the total number of planning steps that have been performed.
 	 */
 	public int getNumberOfSteps(){
-		return this.numSteps;
+		return this.numSteps.get();
+	}
+	
+	
+	/**
+	 * Returns the value of the given hashed state. On parallel rollout worker threads, the value is read from the bound the worker has selected; on
+	 * other threads, it is read from the bound the shared value function reference points to.
+	 * @param sh the hashed state to evaluate.
+	 * @return the value of the state in the selected bound.
+	 */
+	@Override
+	public double value(HashableState sh){
+		Boolean lower = this.workerBound.get();
+		if(lower == null){
+			return super.value(sh);
+		}
+		if(this.tf.isTerminal(sh.s)){
+			return 0.;
+		}
+		ConcurrentValueTable bound = lower ? this.lowerBoundV : this.upperBoundV;
+		double v = bound.getValue(sh, Double.NaN);
+		if(Double.isNaN(v) && !bound.containsState(sh)){
+			v = lower ? this.lowerVInit.value(sh.s) : this.upperVInit.value(sh.s);
+		}
+		return v;
+	}
+	
+	
+	/**
+	 * Runs rollouts from the initial state on the {@link #trialExecutor} until the margin of the initial state is small enough or the maximum number of rollouts is reached.
+	 * @param initialState the initial state from which to plan
+	 */
+	protected void parallelRollouts(final State initialState){
+		
+		final AtomicInteger nextRollout = new AtomicInteger(0);
+		final AtomicBoolean converged = new AtomicBoolean(false);
+		
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>(this.numTrialWorkers);
+		for(int w = 0; w < this.numTrialWorkers; w++){
+			workers.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					workerBound.set(defaultToLowerValueAfterPlanning);
+					try{
+						while(!converged.get()){
+							//the serial loop runs one more rollout than the maximum, so the parallel workers do too
+							int i = nextRollout.getAndIncrement();
+							if(maxRollouts != -1 && i > maxRollouts){
+								break;
+							}
+							if(runRollout(initialState) <= maxDiff){
+								converged.set(true);
+							}
+						}
+					}finally{
+						workerBound.remove();
+					}
+					return null;
+				}
+			});
+		}
+		
+		Parallel.invokeAll(this.trialExecutor, workers);
+		
+		if(this.defaultToLowerValueAfterPlanning){
+			this.setValueFunctionToLowerBound();
+		}
+		else{
+			this.setValueFunctionToUpperBound();
+		}
+		
+	}
+	
+	
+	/**
+	 * Selects the bound that value queries read. On parallel rollout worker threads, only the worker's own selection changes; otherwise the shared
+	 * value function reference is changed.
+	 * @param lower true to select the lower bound; false to select the upper bound
+	 */
+	protected void selectBound(boolean lower){
+		if(this.workerBound.get() != null){
+			this.workerBound.set(lower);
+		}
+		else if(lower){
+			this.setValueFunctionToLowerBound();
+		}
+		else{
+			this.setValueFunctionToUpperBound();
+		}
+	}
+	
+	
+	/**
+	 * Stores the backed up lower and upper bound values of a state. On parallel rollout worker threads, the bounds are only tightened.
+	 * @param sh the hashed state
+	 * @param lower the backed up lower bound value
+	 * @param upper the backed up upper bound value
+	 */
+	protected void storeBounds(HashableState sh, double lower, double upper){
+		if(this.workerBound.get() != null){
+			this.lowerBoundV.maxUpdate(sh, lower);
+			this.upperBoundV.minUpdate(sh, upper);
+		}
+		else{
+			this.lowerBoundV.setValue(sh, lower);
+			this.upperBoundV.setValue(sh, upper);
+		}
 	}
 	
 	
@@ -306,16 +488,16 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 				trajectory.offerFirst(csh);
 			}
 			
-			this.setValueFunctionToLowerBound();
+			this.selectBound(true);
 			QValue mxL = this.maxQ(csh.s);
-			this.lowerBoundV.put(csh, mxL.q);
 			
-			this.setValueFunctionToUpperBound();
+			this.selectBound(false);
 			QValue mxU = this.maxQ(csh.s);
-			this.upperBoundV.put(csh, mxU.q);
 			
-			numBellmanUpdates += 2;
-			this.numSteps++;
+			this.storeBounds(csh, mxL.q, mxU.q);
+			
+			numBellmanUpdates.addAndGet(2);
+			this.numSteps.incrementAndGet();
 			
 			StateSelectionAndExpectedGap select = this.getNextState(csh.s, (GroundedAction)mxU.a);
 			csh = select.sh;
@@ -328,8 +510,8 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 		}
 		
 		if(this.tf.isTerminal(csh.s)){
-			this.lowerBoundV.put(csh, 0.);
-			this.upperBoundV.put(csh, 0.);
+			this.lowerBoundV.setValue(csh, 0.);
+			this.upperBoundV.setValue(csh, 0.);
 		}
 		
 		
@@ -339,15 +521,15 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 		if(this.runRolloutsInReverse){
 			while(!trajectory.isEmpty()){
 				HashableState sh = trajectory.pop();
-				this.setValueFunctionToLowerBound();
+				this.selectBound(true);
 				QValue mxL = this.maxQ(sh.s);
-				this.lowerBoundV.put(sh, mxL.q);
 				
-				this.setValueFunctionToUpperBound();
+				this.selectBound(false);
 				QValue mxU = this.maxQ(sh.s);
-				this.upperBoundV.put(sh, mxU.q);
 				
-				numBellmanUpdates += 2;
+				this.storeBounds(sh, mxL.q, mxU.q);
+				
+				numBellmanUpdates.addAndGet(2);
 				lastGap = mxU.q - mxL.q;
 				
 			}
@@ -357,12 +539,7 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 		}
 		
 		
-		if(this.defaultToLowerValueAfterPlanning){
-			this.setValueFunctionToLowerBound();
-		}
-		else{
-			this.setValueFunctionToUpperBound();
-		}
+		this.selectBound(this.defaultToLowerValueAfterPlanning);
 		
 		return lastGap;
 		
@@ -468,9 +645,9 @@ public class BoundedRTDP extends DynamicProgramming implements Planner {
 	 * @return the lower bound and upper bound value function margin/gap for the given state
 	 */
 	protected double getGap(HashableState sh){
-		this.setValueFunctionToLowerBound();
+		this.selectBound(true);
 		double l = this.value(sh);
-		this.setValueFunctionToUpperBound();
+		this.selectBound(false);
 		double u = this.value(sh);
 		double gap = u-l;
 		return gap;
@@ -1,7 +1,11 @@
 package burlap.behavior.singleagent.planning.stochastic.rtdp;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.policy.Policy;
@@ -17,6 +21,7 @@ import burlap.oomdp.core.states.State;
 import burlap.oomdp.core.TerminalFunction;
 import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
+import burlap.parallel.Parallel;
 
 
 /**
@@ -29,6 +34,13 @@ import burlap.oomdp.singleagent.RewardFunction;
  * <p>
  * To ensure optimality, an optimistic value function initialization should be used. However, RTDP excels when a good value function initialization
  * (e.g., an admissible heuristic) can be provided.
+ * <p>
+ * Multiple rollouts can be run at the same time with the {@link #setParallelTrials(int)} method. Each worker thread repeatedly runs a rollout
+ * from the initial state, and all workers share the value function, so each worker's rollouts benefit from the backups of the others (asynchronous
+ * dynamic programming). The number of rollouts is still limited to the set number in total across all workers, and planning stops once the set number
+ * of rollouts have completed with a small value change without any rollout with a large change completing in between. A small change rollout
+ * that started before the last large change rollout completed does not count toward convergence, because it may have been run on values that were about to change.
+ * Parallel trials require that the domain actions, reward function, terminal function, and rollout policy be safe to use from multiple threads.
  * 
  * 
  * 
@@ -78,7 +90,25 @@ public class RTDP extends DynamicProgramming implements Planner{
 	/**
 	 * Stores the number of Bellman updates made across all planning.
 	 */
-	protected int						numberOfBellmanUpdates = 0;
+	protected AtomicInteger				numberOfBellmanUpdates = new AtomicInteger(0);
+	
+	
+	/**
+	 * The executor on which parallel rollout workers are run; null if rollouts are run serially.
+	 */
+	protected ExecutorService			trialExecutor = null;
+	
+	
+	/**
+	 * The number of rollout workers submitted to the {@link #trialExecutor}.
+	 */
+	protected int						numTrialWorkers = 1;
+	
+	
+	/**
+	 * Whether the {@link #trialExecutor} was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean					ownsTrialExecutor = false;
 	
 	
 	
@@ -199,7 +229,40 @@ public class RTDP extends DynamicProgramming implements Planner{
 	 * @return the total number of Bellman updates across all planning
 	 */
 	public int getNumberOfBellmanUpdates(){
-		return this.numberOfBellmanUpdates;
+		return this.numberOfBellmanUpdates.get();
+	}
+	
+	
+	/**
+	 * Sets RTDP to run its rollouts on multiple threads with its own thread pool. If nThreads is less than or equal to 1, then rollouts are run serially.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with {@link #setParallelTrials(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads to use
+	 */
+	public void setParallelTrials(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelTrials(null, 1);
+			return;
+		}
+		this.setParallelTrials(Parallel.newDaemonPool(nThreads, "RTDP"), nThreads);
+		this.ownsTrialExecutor = true;
+	}
+	
+	
+	/**
+	 * Sets RTDP to run its rollouts in parallel with the given executor. The executor is not shut down by this object. If the executor is null, then rollouts are run serially.
+	 * @param executor the executor on which rollout workers are run
+	 * @param nWorkers the number of rollout workers to submit to the executor
+	 */
+	public void setParallelTrials(ExecutorService executor, int nWorkers){
+		if(this.ownsTrialExecutor && this.trialExecutor != executor){
+			this.trialExecutor.shutdown();
+		}
+		this.ownsTrialExecutor = false;
+		this.trialExecutor = executor;
+		this.numTrialWorkers = Math.max(1, nWorkers);
+		if(executor != null){
+			this.useConcurrentStateMaps();
+		}
 	}
 
 	/**
@@ -211,7 +274,10 @@ public class RTDP extends DynamicProgramming implements Planner{
 	@Override
 	public GreedyQPolicy planFromState(State initialState) {
 		
-		if(!useBatch){
+		if(this.trialExecutor != null){
+			this.parallelRTDP(initialState);
+		}
+		else if(!useBatch){
 			this.normalRTDP(initialState);
 		}
 		else{
@@ -233,32 +299,15 @@ public class RTDP extends DynamicProgramming implements Planner{
 		
 		int totalStates = 0;
 		int consecutiveSmallDeltas = 0;
+		int [] nSteps = new int[1];
 		for(int i = 0; i < numRollouts; i++){
 			
-			State curState = initialState;
-			int nSteps = 0;
-			double delta = 0;
-			while(!this.tf.isTerminal(curState) && nSteps < this.maxDepth){
-				
-				HashableState sh = this.hashingFactory.hashState(curState);
-				
-				//select an action
-				GroundedAction ga = (GroundedAction)this.rollOutPolicy.getAction(curState);
-				
-				//update this state's value
-				double curV = this.value(sh);
-				double nV = this.performBellmanUpdateOn(sh);
-				delta = Math.max(Math.abs(nV - curV), delta); 
-				this.numberOfBellmanUpdates++;
-				
-				//take the action
-				curState = ga.executeIn(curState);
-				nSteps++;
-			}
+			nSteps[0] = 0;
+			double delta = this.normalRollout(initialState, nSteps);
 			
-			totalStates += nSteps;
+			totalStates += nSteps[0];
 			
-			DPrint.cl(debugCode, "Pass: " + i + "; Num states: " + nSteps + " (total: " + totalStates + ")");
+			DPrint.cl(debugCode, "Pass: " + i + "; Num states: " + nSteps[0] + " (total: " + totalStates + ")");
 			
 			if(delta < this.maxDelta){
 				consecutiveSmallDeltas++;
@@ -276,6 +325,42 @@ public class RTDP extends DynamicProgramming implements Planner{
 	}
 	
 	
+	/**
+	 * Runs a single rollout from the initial state in which a Bellman update is performed on each state before its action is taken.
+	 * @param initialState the initial state of the rollout
+	 * @param nSteps a single element array to which the number of steps taken is added
+	 * @return the maximum change in the value function from the rollout
+	 */
+	protected double normalRollout(State initialState, int [] nSteps){
+		
+		State curState = initialState;
+		int steps = 0;
+		double delta = 0;
+		while(!this.tf.isTerminal(curState) && steps < this.maxDepth){
+			
+			HashableState sh = this.hashingFactory.hashState(curState);
+			
+			//select an action
+			GroundedAction ga = (GroundedAction)this.rollOutPolicy.getAction(curState);
+			
+			//update this state's value
+			double curV = this.value(sh);
+			double nV = this.performBellmanUpdateOn(sh);
+			delta = Math.max(Math.abs(nV - curV), delta); 
+			this.numberOfBellmanUpdates.incrementAndGet();
+			
+			//take the action
+			curState = ga.executeIn(curState);
+			steps++;
+		}
+		
+		nSteps[0] += steps;
+		
+		return delta;
+		
+	}
+	
+	
 	/**
 	 * Performs Bellman updates only after a rollout is complete and in reverse order
 	 * @param initialState the initial state from which to plan
@@ -285,17 +370,13 @@ public class RTDP extends DynamicProgramming implements Planner{
 		int totalStates = 0;
 		
 		int consecutiveSmallDeltas = 0;
+		int [] nStates = new int[1];
 		for(int i = 0; i < numRollouts; i++){
 			
-			EpisodeAnalysis ea = this.rollOutPolicy.evaluateBehavior(initialState, rf, tf, maxDepth);
-			LinkedList <HashableState> orderedStates = new LinkedList<HashableState>();
-			for(State s : ea.stateSequence){
-				orderedStates.addFirst(this.stateHash(s));
-			}
-			
-			double delta = this.performOrderedBellmanUpdates(orderedStates);
-			totalStates += orderedStates.size();
-			DPrint.cl(debugCode, "Pass: " + i + "; Num states: " + orderedStates.size() + " (total: " + totalStates + ")");
+			nStates[0] = 0;
+			double delta = this.batchRollout(initialState, nStates);
+			totalStates += nStates[0];
+			DPrint.cl(debugCode, "Pass: " + i + "; Num states: " + nStates[0] + " (total: " + totalStates + ")");
 			
 			if(delta < this.maxDelta){
 				consecutiveSmallDeltas++;
@@ -312,6 +393,65 @@ public class RTDP extends DynamicProgramming implements Planner{
 	}
 	
 	
+	/**
+	 * Runs a single rollout from the initial state with the rollout policy and then performs Bellman updates on the visited states in reverse order.
+	 * @param initialState the initial state of the rollout
+	 * @param nStates a single element array to which the number of visited states is added
+	 * @return the maximum change in the value function from the rollout
+	 */
+	protected double batchRollout(State initialState, int [] nStates){
+		
+		EpisodeAnalysis ea = this.rollOutPolicy.evaluateBehavior(initialState, rf, tf, maxDepth);
+		LinkedList <HashableState> orderedStates = new LinkedList<HashableState>();
+		for(State s : ea.stateSequence){
+			orderedStates.addFirst(this.stateHash(s));
+		}
+		
+		nStates[0] += orderedStates.size();
+		
+		return this.performOrderedBellmanUpdates(orderedStates);
+		
+	}
+	
+	
+	/**
+	 * Runs rollouts from the initial state on the {@link #trialExecutor} until the total number of rollouts is reached or the value function has converged.
+	 * @param initialState the initial state from which to plan
+	 */
+	protected void parallelRTDP(final State initialState){
+		
+		final AtomicInteger nextRollout = new AtomicInteger(0);
+		final AtomicInteger totalStates = new AtomicInteger(0);
+		final RolloutConvergence convergence = new RolloutConvergence(this.minNumRolloutsWithSmallValueChange);
+		
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>(this.numTrialWorkers);
+		for(int w = 0; w < this.numTrialWorkers; w++){
+			workers.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					int [] nStates = new int[1];
+					while(!convergence.isConverged()){
+						int i = nextRollout.getAndIncrement();
+						if(i >= numRollouts){
+							break;
+						}
+						long epoch = convergence.startRollout();
+						nStates[0] = 0;
+						double delta = useBatch ? batchRollout(initialState, nStates) : normalRollout(initialState, nStates);
+						convergence.finishRollout(epoch, delta < maxDelta);
+						int total = totalStates.addAndGet(nStates[0]);
+						DPrint.cl(debugCode, "Pass: " + i + "; Num states: " + nStates[0] + " (total: " + total + ")");
+					}
+					return null;
+				}
+			});
+		}
+		
+		Parallel.invokeAll(this.trialExecutor, workers);
+		
+	}
+	
+	
 	/**
 	 * Performs ordered Bellman updates on the list of (hashed) states provided to it.
 	 * @param states the ordered list of states on which to perform Bellamn updates.
@@ -326,7 +466,7 @@ public class RTDP extends DynamicProgramming implements Planner{
 			
 			double maxQ = this.performBellmanUpdateOn(sh);
 			delta = Math.max(Math.abs(maxQ - v), delta);
-			this.numberOfBellmanUpdates++;
+			this.numberOfBellmanUpdates.incrementAndGet();
 			
 		}
 		
@@ -335,4 +475,80 @@ public class RTDP extends DynamicProgramming implements Planner{
 	}
 	
 
+	
+	/**
+	 * Tracks the convergence of rollouts that run concurrently. RTDP has converged once a number of rollouts in a row have completed with
+	 * a small value change. Concurrent rollouts are ordered by their completion, and each rollout with a large value change starts a new epoch; a
+	 * small change rollout only counts toward convergence if no new epoch started while it was running.
+	 */
+	protected static class RolloutConvergence{
+		
+		/**
+		 * The number of consecutive small change rollouts required for convergence
+		 */
+		protected int			required;
+		
+		/**
+		 * The current epoch, which is incremented whenever a rollout with a large value change completes
+		 */
+		protected long			epoch = 0;
+		
+		/**
+		 * The number of small change rollouts that have completed in the current epoch
+		 */
+		protected int			consecutive = 0;
+		
+		/**
+		 * Whether convergence has been reached
+		 */
+		protected volatile boolean	converged = false;
+		
+		
+		/**
+		 * Initializes.
+		 * @param required the number of consecutive small change rollouts required for convergence
+		 */
+		public RolloutConvergence(int required){
+			this.required = required;
+		}
+		
+		
+		/**
+		 * Returns whether convergence has been reached.
+		 * @return true if convergence has been reached; false otherwise.
+		 */
+		public boolean isConverged(){
+			return this.converged;
+		}
+		
+		
+		/**
+		 * Records the start of a rollout.
+		 * @return the epoch in which the rollout started
+		 */
+		public synchronized long startRollout(){
+			return this.epoch;
+		}
+		
+		
+		/**
+		 * Records the completion of a rollout.
+		 * @param startEpoch the epoch in which the rollout started
+		 * @param smallChange whether the value function change of the rollout was smaller than the convergence threshold
+		 */
+		public synchronized void finishRollout(long startEpoch, boolean smallChange){
+			if(!smallChange){
+				this.epoch++;
+				this.consecutive = 0;
+			}
+			else if(startEpoch == this.epoch){
+				this.consecutive++;
+				if(this.consecutive >= this.required){
+					this.converged = true;
+				}
+			}
+		}
+		
+	}
+	
 }
@@ -0,0 +1,116 @@
+package burlap.behavior.singleagent.planning.stochastic.sparsesampling;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import burlap.oomdp.statehashing.HashableState;
+
+/**
+ * A thread safe transposition table of sparse sampling tree nodes indexed by their state and height
+ * (see {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling.HashedHeightState}). Because the table
+ * is backed by a {@link java.util.concurrent.ConcurrentHashMap}, multiple threads expanding different parts of a sparse sampling
+ * tree can share nodes, and when two threads generate a node for the same state and height at the same time, only the first one is kept.
+ * <p>
+ * The table can be given a maximum number of nodes to bound its memory use. Once the table is full, newly generated nodes are
+ * no longer stored, which means their values will be recomputed if they are sampled again. Nodes that are already stored are kept.
+ * <p>
+ * This table is shared by {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling} (and therefore
+ * {@link burlap.behavior.singleagent.pomdp.wrappedmdpalgs.BeliefSparseSampling}) and
+ * {@link burlap.behavior.singleagent.learnfromdemo.mlirl.differentiableplanners.DifferentiableSparseSampling}.
+ * @param <N> the type of the tree nodes
+ * @author James MacGlashan
+ *
+ */
+public class HeightIndexedNodeTable<N> {
+
+	/**
+	 * The stored nodes
+	 */
+	protected ConcurrentMap<SparseSampling.HashedHeightState, N>	nodes = new ConcurrentHashMap<SparseSampling.HashedHeightState, N>();
+
+	/**
+	 * The maximum number of nodes stored; -1 if there is no limit.
+	 */
+	protected int													maxNodes = -1;
+
+
+	/**
+	 * Initializes a table with no limit on the number of stored nodes.
+	 */
+	public HeightIndexedNodeTable(){
+
+	}
+
+
+	/**
+	 * Initializes.
+	 * @param maxNodes the maximum number of nodes stored; -1 for no limit.
+	 */
+	public HeightIndexedNodeTable(int maxNodes){
+		this.maxNodes = maxNodes;
+	}
+
+
+	/**
+	 * Returns the node stored for the given state and height, or null if there is none.
+	 * @param sh the hashed state
+	 * @param height the height of the node
+	 * @return the stored node or null if there is none.
+	 */
+	public N get(HashableState sh, int height){
+		return this.nodes.get(new SparseSampling.HashedHeightState(sh, height));
+	}
+
+
+	/**
+	 * Stores the given node for the given state and height unless a node is already stored for them or the table is full.
+	 * @param sh the hashed state
+	 * @param height the height of the node
+	 * @param node the newly generated node for the state and height
+	 * @return the node that was already stored for the state and height, if there was one; the input node otherwise.
+	 */
+	public N putIfAbsent(HashableState sh, int height, N node){
+		if(this.maxNodes != -1 && this.nodes.size() >= this.maxNodes){
+			N stored = this.get(sh, height);
+			return stored != null ? stored : node;
+		}
+		N stored = this.nodes.putIfAbsent(new SparseSampling.HashedHeightState(sh, height), node);
+		return stored != null ? stored : node;
+	}
+
+
+	/**
+	 * Returns the number of stored nodes.
+	 * @return the number of stored nodes.
+	 */
+	public int size(){
+		return this.nodes.size();
+	}
+
+
+	/**
+	 * Removes all stored nodes.
+	 */
+	public void clear(){
+		this.nodes.clear();
+	}
+
+
+	/**
+	 * Returns the maximum number of nodes stored.
+	 * @return the maximum number of nodes stored; -1 if there is no limit.
+	 */
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+
+	/**
+	 * Sets the maximum number of nodes stored. Nodes that are already stored are kept even if there are more of them than the new maximum.
+	 * @param maxNodes the maximum number of nodes stored; -1 for no limit.
+	 */
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+}
@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.policy.Policy;
@@ -21,6 +24,7 @@ import burlap.oomdp.core.states.State;
 import burlap.oomdp.singleagent.Action;
 import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
+import burlap.parallel.Parallel;
 
 /**
  * An implementation of the Sparse Sampling (SS) [1] planning algorithm. SS's computational complexity is independent of the state space size, which makes it appealing
@@ -59,6 +63,13 @@ import burlap.oomdp.singleagent.RewardFunction;
  * required factored access to the probability of each length of each transition, which is not available from Options (it's aggregated into the transition function
  * itself). An exception will be thrown if {@link Option}s are used with the full Bellman transitions.
  * <p>
+ * The sibling samples of the root node can be expanded concurrently with the {@link #setParallelSampling(int)} method. The threads share the
+ * tree nodes through a concurrent {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.HeightIndexedNodeTable}, so the value
+ * of each state node is still only estimated once, and the number of nodes that are stored can be capped with {@link #setMaxStoredNodes(int)}.
+ * Parallel sampling requires that the domain actions, reward function, terminal function, and hashing factory be safe to use from multiple threads
+ * and it does not support {@link Option}s in either the sampling or the exact mode, because an option records the number of steps of its last
+ * execution in the option itself, which concurrent samples would overwrite. An exception is thrown if a parallel planning call is made with {@link Option}s.
+ * <p>
  * 
  * 
  * 1. Kearns, Michael, Yishay Mansour, and Andrew Y. Ng. "A sparse sampling algorithm for near-optimal planning in large Markov decision processes." 
@@ -106,7 +117,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	/**
 	 * The tree nodes indexed by state and height.
 	 */
-	protected Map<HashedHeightState, StateNode> nodesByHeight;
+	protected HeightIndexedNodeTable<StateNode> nodesByHeight;
 	
 	/**
 	 * The root state node Q-values that have been estimated by previous planning calls.
@@ -117,7 +128,17 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	/**
 	 * The total number of pseudo-Bellman updates
 	 */
-	protected int numUpdates = 0;
+	protected AtomicInteger numUpdates = new AtomicInteger(0);
+	
+	/**
+	 * The executor used to expand the root samples in parallel; null if planning is serial.
+	 */
+	protected ExecutorService samplingExecutor;
+	
+	/**
+	 * Whether the sampling executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean ownsSamplingExecutor = false;
 
 	
 	
@@ -138,7 +159,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 		this.solverInit(domain, rf, tf, gamma, hashingFactory);
 		this.h = h;
 		this.c = c;
-		this.nodesByHeight = new HashMap<SparseSampling.HashedHeightState, SparseSampling.StateNode>();
+		this.nodesByHeight = new HeightIndexedNodeTable<StateNode>();
 		this.rootLevelQValues = new HashMap<HashableState, List<QValue>>();
 		if(this.c < 0){
 			this.computeExactValueFunction = true;
@@ -248,6 +269,46 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 		}
 	}
 	
+	/**
+	 * Sets this planner to expand the samples of the root node in parallel with its own thread pool. Each thread estimates the values of the subtrees of
+	 * its samples and the threads share the tree nodes. If nThreads is less than or equal to 1, then planning will be serial.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with
+	 * {@link #setParallelSampling(java.util.concurrent.ExecutorService)} never is.
+	 * @param nThreads the number of threads to use
+	 */
+	public void setParallelSampling(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelSampling(null);
+		}
+		else{
+			this.setParallelSampling(Parallel.newDaemonPool(nThreads, "SparseSampling"));
+			this.ownsSamplingExecutor = true;
+		}
+	}
+	
+	
+	/**
+	 * Sets this planner to expand the samples of the root node in parallel with the given executor. If the executor is null, then planning will be serial.
+	 * @param executor the executor on which the root samples are expanded
+	 */
+	public void setParallelSampling(ExecutorService executor){
+		if(this.ownsSamplingExecutor && this.samplingExecutor != executor){
+			this.samplingExecutor.shutdown();
+		}
+		this.ownsSamplingExecutor = false;
+		this.samplingExecutor = executor;
+	}
+	
+	
+	/**
+	 * Sets the maximum number of tree nodes that will be stored for reuse. Once the limit is reached, the values of newly generated nodes are
+	 * recomputed whenever they are sampled rather than stored.
+	 * @param maxNodes the maximum number of stored nodes; -1 for no limit.
+	 */
+	public void setMaxStoredNodes(int maxNodes){
+		this.nodesByHeight.setMaxNodes(maxNodes);
+	}
+	
 	/**
 	 * Sets the {@link ValueFunctionInitialization} object to use for settting the value of leaf nodes.
 	 * @param vinit the {@link ValueFunctionInitialization} object to use for settting the value of leaf nodes.
@@ -278,7 +339,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	 * @return the total number of state value estimates performed since the {@link #resetSolver()} call.
 	 */
 	public int getNumberOfValueEsitmates(){
-		return this.numUpdates;
+		return this.numUpdates.get();
 	}
 	
 	/**
@@ -309,12 +370,17 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 		}
 		
 		DPrint.cl(this.debugCode, "Beginning Planning.");
-		int oldUpdates = this.numUpdates;
+		int oldUpdates = this.numUpdates.get();
 		
 		StateNode sn = this.getStateNode(initialState, this.h);
-		rootLevelQValues.put(sh, sn.estimateQs());
+		if(this.samplingExecutor != null){
+			rootLevelQValues.put(sh, this.estimateQsInParallel(sn));
+		}
+		else{
+			rootLevelQValues.put(sh, sn.estimateQs());
+		}
 		
-		DPrint.cl(this.debugCode, "Finished Planning with " + (this.numUpdates - oldUpdates) + " value esitmates; for a cumulative total of: " + this.numUpdates);
+		DPrint.cl(this.debugCode, "Finished Planning with " + (this.numUpdates.get() - oldUpdates) + " value esitmates; for a cumulative total of: " + this.numUpdates.get());
 		
 		if(this.forgetPreviousPlanResults){
 			this.nodesByHeight.clear();
@@ -330,7 +396,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	public void resetSolver() {
 		this.nodesByHeight.clear();
 		this.rootLevelQValues.clear();
-		this.numUpdates = 0;
+		this.numUpdates.set(0);
 	}
 	
 	
@@ -399,6 +465,73 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	}
 	
 	
+	/**
+	 * Estimates the Q-values of a node by expanding each of its samples (or each of its transitions if the exact value function
+	 * is computed) in parallel with the sampling executor. The results are combined in the same order as the serial estimate.
+	 * @param sn the state node whose Q-values should be estimated
+	 * @return a {@link List} of the estiamted Q-values for each action.
+	 */
+	protected List<QValue> estimateQsInParallel(final StateNode sn){
+		
+		for(Action a : this.actions){
+			if(a instanceof Option){
+				throw new RuntimeException("Sparse Sampling Planner with parallel sampling turned on cannot work with options because concurrent samples would overwrite the number of steps each option records for its last execution. Use serial sampling instead.");
+			}
+		}
+		
+		if(sn.height <= 0){
+			return sn.estimateQs();
+		}
+		
+		List<GroundedAction> gas = this.getAllGroundedActions(sn.sh.s);
+		int [] actionStarts = new int[gas.size()+1];
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		int c = this.getCAtHeight(sn.height);
+		for(int i = 0; i < gas.size(); i++){
+			final GroundedAction ga = gas.get(i);
+			actionStarts[i] = tasks.size();
+			if(!this.computeExactValueFunction){
+				for(int j = 0; j < c; j++){
+					tasks.add(new Callable<Double>() {
+						@Override
+						public Double call() throws Exception {
+							return sn.sampledReturn(ga);
+						}
+					});
+				}
+			}
+			else{
+				for(final TransitionProbability tp : ga.getTransitions(sn.sh.s)){
+					tasks.add(new Callable<Double>() {
+						@Override
+						public Double call() throws Exception {
+							return sn.expectedTransitionReturn(ga, tp);
+						}
+					});
+				}
+			}
+		}
+		actionStarts[gas.size()] = tasks.size();
+		
+		List<Double> returns = Parallel.invokeAll(this.samplingExecutor, tasks);
+		
+		List<QValue> qs = new ArrayList<QValue>(gas.size());
+		for(int i = 0; i < gas.size(); i++){
+			double sum = 0.;
+			for(int j = actionStarts[i]; j < actionStarts[i+1]; j++){
+				sum += returns.get(j);
+			}
+			if(!this.computeExactValueFunction){
+				sum /= (double)c;
+			}
+			qs.add(new QValue(sn.sh.s, gas.get(i), sum));
+		}
+		
+		return qs;
+		
+	}
+	
+	
 	/**
 	 * Either returns, or creates, indexes, and returns, the state node for the given state at the given height in the tree
 	 * @param s the state
@@ -407,11 +540,9 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	 */
 	protected StateNode getStateNode(State s, int height){
 		HashableState sh = this.hashingFactory.hashState(s);
-		HashedHeightState hhs = new HashedHeightState(sh, height);
-		StateNode sn = this.nodesByHeight.get(hhs);
+		StateNode sn = this.nodesByHeight.get(sh, height);
 		if(sn == null){
-			sn = new StateNode(sh, height);
-			this.nodesByHeight.put(hhs, sn);
+			sn = this.nodesByHeight.putIfAbsent(sh, height, new StateNode(sh, height));
 		}
 		
 		return sn;
@@ -420,6 +551,8 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 	
 	/**
 	 * A class for state nodes. Includes the state, a value estimate, whether the node has been closed and methods for estimating the Q and V values.
+	 * The value of a node is estimated while holding the node's lock, so that when sibling samples are expanded in parallel, a node that is
+	 * shared by them is only estimated once. Since a node only depends on nodes of a lower height, this cannot deadlock.
 	 * @author James MacGlashan
 	 *
 	 */
@@ -496,22 +629,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 			//generate C samples
 			int c = SparseSampling.this.getCAtHeight(this.height);
 			for(int i = 0; i < c; i++){
-				
-				//execute
-				State ns = ga.executeIn(this.sh.s);
-				
-				//manage option stepsize modifications
-				int k = 1;
-				if(ga.action instanceof Option){
-					k = ((Option)ga.action).getLastNumSteps();
-				}
-				
-				//get reward; our rf will automatically do cumumative discounted if it's an option
-				double r = SparseSampling.this.rf.reward(this.sh.s, ga, ns);
-				
-				StateNode nsn = SparseSampling.this.getStateNode(ns, this.height-k);
-				
-				sum += r + Math.pow(SparseSampling.this.gamma, k)*nsn.estimateV();
+				sum += this.sampledReturn(ga);
 			}
 			sum /= (double)c;
 			
@@ -519,6 +637,44 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 		}
 		
 		
+		/**
+		 * Samples an outcome state of the given action and returns the sampled reward plus the discounted estimated value of the outcome state.
+		 * @param ga the action to sample
+		 * @return the sampled return
+		 */
+		protected double sampledReturn(GroundedAction ga){
+			
+			//execute
+			State ns = ga.executeIn(this.sh.s);
+			
+			//manage option stepsize modifications
+			int k = 1;
+			if(ga.action instanceof Option){
+				k = ((Option)ga.action).getLastNumSteps();
+			}
+			
+			//get reward; our rf will automatically do cumumative discounted if it's an option
+			double r = SparseSampling.this.rf.reward(this.sh.s, ga, ns);
+			
+			StateNode nsn = SparseSampling.this.getStateNode(ns, this.height-k);
+			
+			return r + Math.pow(SparseSampling.this.gamma, k)*nsn.estimateV();
+		}
+		
+		
+		/**
+		 * Returns the probability of a transition times the sum of its reward and the discounted estimated value of its outcome state.
+		 * @param ga the action taken
+		 * @param tp the transition
+		 * @return the probability weighted return of the transition
+		 */
+		protected double expectedTransitionReturn(GroundedAction ga, TransitionProbability tp){
+			double r = SparseSampling.this.rf.reward(this.sh.s, ga, tp.s);
+			StateNode nsn = SparseSampling.this.getStateNode(tp.s, this.height-1);
+			return tp.p * (r + SparseSampling.this.gamma * nsn.estimateV());
+		}
+		
+		
 		/**
 		 * Computes the exact Q-value using full Bellman update with the actual transition dynamics. This procedure will cause Sparse Sampling
 		 * to compute the exact Q-values and optimal policy for a finite horizon problem. It is reccommened when the number of transitions from
@@ -534,11 +690,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 			if(!(ga.action instanceof Option)){
 				
 				for(TransitionProbability tp : tps){
-					
-					double r = SparseSampling.this.rf.reward(this.sh.s, ga, tp.s);
-					StateNode nsn = SparseSampling.this.getStateNode(tp.s, this.height-1);
-					sum += tp.p * (r + SparseSampling.this.gamma * nsn.estimateV());
-					
+					sum += this.expectedTransitionReturn(ga, tp);
 				}
 				
 			}
@@ -557,7 +709,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 		 * Returns the estimated Q-value if this node is closed, or estimates it and closes it otherwise.
 		 * @return the estimated Q-value for this node.
 		 */
-		public double estimateV(){
+		public synchronized double estimateV(){
 			if(this.closed){
 				return this.v;
 			}
@@ -574,7 +726,7 @@ public class SparseSampling extends MDPSolver implements QFunction, Planner {
 			for(QValue q : qs){
 				max = Math.max(max, q.q);
 			}
-			SparseSampling.this.numUpdates++;
+			SparseSampling.this.numUpdates.incrementAndGet();
 			this.v = max;
 			this.closed = true;
 			return max;
@@ -1,22 +1,19 @@
 package burlap.behavior.singleagent.planning.stochastic.valueiteration;
 
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
+import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.singleagent.planning.stochastic.ActionTransitions;
+import burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics;
 import burlap.behavior.singleagent.planning.stochastic.HashedTransitionProbability;
 import burlap.oomdp.statehashing.HashableStateFactory;
 import burlap.oomdp.statehashing.HashableState;
-import burlap.datastructures.HashIndexedHeap;
+import burlap.datastructures.IntIndexedHeap;
 import burlap.debugtools.DPrint;
 import burlap.oomdp.core.Domain;
-import burlap.oomdp.core.states.State;
 import burlap.oomdp.core.TerminalFunction;
-import burlap.oomdp.core.TransitionProbability;
-import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 
 
@@ -26,25 +23,33 @@ import burlap.oomdp.singleagent.RewardFunction;
  * of a state to which it transitions. This means that there is greater memory utilization in this algorithm than standard VI because the backwards transition dynamics must be stored.
  * The priority queue takes C*lg(N) time to manage at each step, where C is the number of backpointers per state,
  * but if large gains can be achieved by the ordeing of the states, then this cost may be worth it.
- * 
- * 
+ * <p>
+ * When VI is run, each state is given a dense int id and the backwards transition dynamics are stored as primitive arrays:
+ * for each state, the ids of its predecessors and the maximum discounted probability with which each predecessor transitions to it. The priority queue is an
+ * {@link burlap.datastructures.IntIndexedHeap} over the state ids, so priority updates do not allocate objects. Both are built
+ * when planning starts and released when it finishes. To bound the memory of the predecessor graph for large state spaces, the number of
+ * predecessors stored for each state can be capped with {@link #setMaxPredecessors(int)}, in which case only the predecessors most likely
+ * to transition to the state are kept. Because a capped predecessor graph may fail to raise the priority of some states whose value is out of date, planning with a
+ * capped graph does not stop until a full sweep over all states changes no value by more than the maximum delta.
+ *
+ *
  * 1. Li, Lihong, Michael L. Littman, and L. Littman. Prioritized sweeping converges to the optimal value function. Tech. Rep. DCS-TR-631, 2008.
  * @author James MacGlashan
  *
  */
 public class PrioritizedSweeping extends ValueIteration{
 
-	/**
-	 * The priority queue of states
-	 */
-	protected HashIndexedHeap<BPTRNode> priorityNodes;
-	
 	/**
 	 * THe maximum number Bellman backups permitted
 	 */
 	protected int maxBackups;
-	
-	
+
+	/**
+	 * The maximum number of predecessors stored for each state; -1 for no limit.
+	 */
+	protected int maxPredecessors = -1;
+
+
 	/**
 	 * Initializes
 	 * @param domain the domain in which to plan
@@ -59,258 +64,410 @@ public class PrioritizedSweeping extends ValueIteration{
 			TerminalFunction tf, double gamma, HashableStateFactory hashingFactory,
 			double maxDelta, int maxBackups) {
 		super(domain, rf, tf, gamma, hashingFactory, maxDelta, 0);
-		this.priorityNodes = new HashIndexedHeap<PrioritizedSweeping.BPTRNode>(new BPTRNodeComparator());
 		this.maxBackups = maxBackups;
 	}
 
 
+	/**
+	 * Sets the maximum number of predecessors stored for each state in the backwards transition dynamics. When a state has more predecessors than
+	 * this, only those with the largest probability of transitioning to it are stored, which bounds the predecessor graph to at most
+	 * maxPredecessors entries per state. Planning remains correct with a capped graph, but may require additional full sweeps to confirm convergence.
+	 * @param maxPredecessors the maximum number of predecessors stored for each state; -1 for no limit (the default).
+	 */
+	public void setMaxPredecessors(int maxPredecessors){
+		if(maxPredecessors == 0 || maxPredecessors < -1){
+			throw new RuntimeException("The maximum number of predecessors must be positive or -1 for no limit; was " + maxPredecessors);
+		}
+		this.maxPredecessors = maxPredecessors;
+	}
+
+
+	/**
+	 * Returns the maximum number of predecessors stored for each state; -1 if there is no limit.
+	 * @return the maximum number of predecessors stored for each state; -1 if there is no limit.
+	 */
+	public int getMaxPredecessors(){
+		return this.maxPredecessors;
+	}
+
+
 
 	@Override
 	public void runVI(){
-		
+
 		if(!this.foundReachableStates){
 			throw new RuntimeException("Cannot run VI until the reachable states have been found. Use the planFromState or performReachabilityFrom method at least once before calling runVI.");
 		}
-		
+
 		DPrint.cl(this.debugCode, "Beginning Planning.");
-		
-		double lastDelta = Double.POSITIVE_INFINITY;
+
+		CompiledTabularDynamics cd = null;
+		double [] v = null;
+		HashableState [] states = null;
+		Map<HashableState, Integer> ids = null;
+		int n;
+		if(this.useCompiledDynamics){
+			cd = this.compileDynamics();
+			v = cd.initialValues(this);
+			n = cd.numStates();
+		}
+		else{
+			states = this.mapToStateIndex.keySet().toArray(new HashableState[this.mapToStateIndex.size()]);
+			n = states.length;
+			ids = new HashMap<HashableState, Integer>(n);
+			for(int i = 0; i < n; i++){
+				ids.put(states[i], i);
+			}
+		}
+
+		PredecessorGraph graph = this.buildPredecessorGraph(n, cd, states, ids);
+		ids = null;
+
+		//every state starts with maximum priority, which ensures one sweep of the state space to start
+		IntIndexedHeap queue = new IntIndexedHeap(n);
+		for(int i = 0; i < n; i++){
+			queue.insert(i, Double.MAX_VALUE);
+		}
+
 		int numBackups = 0;
-		while(lastDelta > this.maxDelta && (numBackups < this.maxBackups || this.maxBackups == -1)){
-			
-			BPTRNode node = this.priorityNodes.poll();
-			lastDelta = node.priority;
-			
-			double oldV = this.value(node.sh);
-			double newV = this.performBellmanUpdateOn(node.sh);
-			double delta = Math.abs(newV-oldV);
-			
-			//update this nodes priority
-			node.priority = delta* node.maxSelfTransitionProb;
-			this.priorityNodes.insert(node);
-			
-			//update priority of nodes that transition to it
-			for(BPTR bptr : node.backPointers){
-				bptr.backNode.priority = Math.max(bptr.backNode.priority, bptr.forwardMaxProbability*delta);
-				this.priorityNodes.refreshPriority(bptr.backNode);
+		while(n > 0 && (numBackups < this.maxBackups || this.maxBackups == -1)){
+
+			int s = queue.peek();
+			if(queue.priority(s) <= this.maxDelta){
+
+				if(!graph.truncated){
+					break;
+				}
+
+				//the capped predecessor graph may have missed some states whose value changed, so confirm convergence with a full sweep
+				double maxChange = 0.;
+				for(int i = 0; i < n && (numBackups < this.maxBackups || this.maxBackups == -1); i++){
+					maxChange = Math.max(maxChange, this.prioritizedBackup(i, graph, queue, cd, v, states));
+					numBackups++;
+				}
+				if(maxChange <= this.maxDelta){
+					break;
+				}
+				continue;
+
 			}
-			
-			lastDelta = Math.max(lastDelta, delta);
+
+			this.prioritizedBackup(s, graph, queue, cd, v, states);
 			numBackups++;
-			
+
+		}
+
+		if(cd != null){
+			cd.writeValues(v, this.valueFunction);
 		}
-		
+
+		this.hasRunVI = true;
+
 		DPrint.cl(this.debugCode, "Finished planning with " + numBackups + " Bellman backups");
-		
+
 	}
-	
-	@Override
-	public boolean performReachabilityFrom(State si){
-		
-		HashableState sih = this.stateHash(si);
-		//if this is not a new state and we are not required to perform a new reachability analysis, then this method does not need to do anything.
-		if(mapToStateIndex.containsKey(sih) && this.foundReachableStates){
-			return false; //no need for additional reachability testing
+
+
+	/**
+	 * Performs a Bellman backup on the state with the given id, sets its priority to the change in its value times its self transition probability,
+	 * and raises the priority of each of its stored predecessors to the change in its value times the predecessor's transition probability if it is larger.
+	 * @param s the id of the state to back up
+	 * @param graph the predecessor graph
+	 * @param queue the priority queue of state ids
+	 * @param cd the compiled transition dynamics if planning in compiled mode; null otherwise.
+	 * @param v the state id indexed value function if planning in compiled mode; null otherwise.
+	 * @param states the hashed state of each id if not planning in compiled mode; null otherwise.
+	 * @return the absolute change in the value of the state
+	 */
+	protected double prioritizedBackup(int s, PredecessorGraph graph, IntIndexedHeap queue, CompiledTabularDynamics cd, double [] v, HashableState [] states){
+
+		double delta;
+		if(cd != null){
+			double newV = cd.backup(s, v);
+			delta = Math.abs(newV - v[s]);
+			v[s] = newV;
 		}
-		
-		DPrint.cl(this.debugCode, "Starting reachability analysis");
-		
-		//add to the open list
-		BPTRNode inode = this.getNodeFor(sih);
-		LinkedList <BPTRNode> openList = new LinkedList<BPTRNode>();
-		Set <BPTRNode> openedSet = new HashSet<BPTRNode>();
-		openList.offer(inode);
-		openedSet.add(inode);
-		
-		
-		while(!openList.isEmpty()){
-			BPTRNode node = openList.poll();
-			
-			
-			//skip this if it's already been expanded
-			if(mapToStateIndex.containsKey(node.sh)){
-				continue;
+		else{
+			double oldV = this.value(states[s]);
+			double newV = this.performBellmanUpdateOn(states[s]);
+			delta = Math.abs(newV - oldV);
+		}
+
+		//update this state's priority
+		queue.setPriority(s, delta * graph.selfProbs[s]);
+
+		//update priority of states that transition to it
+		if(delta > 0.){
+			int end = graph.starts[s] + graph.counts[s];
+			for(int i = graph.starts[s]; i < end; i++){
+				queue.raisePriority(graph.preds[i], graph.probs[i] * delta);
 			}
-			
-			mapToStateIndex.put(node.sh, node.sh);
-			
-			//do not need to expand from terminal states if set to prune
-			if(this.tf.isTerminal(node.sh.s) && stopReachabilityFromTerminalStates){
-				continue;
+		}
+
+		return delta;
+	}
+
+
+	/**
+	 * Builds the backwards transition dynamics of all states. For each state, the maximum discounted probability over all actions with which each predecessor
+	 * transitions to it is stored. If {@link #maxPredecessors} is not -1, only that many predecessors with the largest probability are stored for each state.
+	 * Terminal states are not predecessors of any state, since their value does not depend on their transitions.
+	 * @param n the number of states
+	 * @param cd the compiled transition dynamics if planning in compiled mode; null otherwise.
+	 * @param states the hashed state of each id if not planning in compiled mode; null otherwise.
+	 * @param ids the id of each hashed state if not planning in compiled mode; null otherwise.
+	 * @return the predecessor graph
+	 */
+	protected PredecessorGraph buildPredecessorGraph(int n, CompiledTabularDynamics cd, HashableState [] states, Map<HashableState, Integer> ids){
+
+		PredecessorGraph graph = new PredecessorGraph(n);
+		SuccessorBuffer buffer = new SuccessorBuffer(n);
+
+		//first pass counts the distinct predecessors of each state
+		int [] inDegree = new int[n];
+		for(int s = 0; s < n; s++){
+			this.gatherSuccessors(s, buffer, cd, states, ids);
+			for(int i = 0; i < buffer.size; i++){
+				int t = buffer.ids[i];
+				if(t == s){
+					graph.selfProbs[s] = buffer.probs[i];
+				}
+				else{
+					inDegree[t]++;
+				}
+			}
+		}
+
+		int total = 0;
+		for(int t = 0; t < n; t++){
+			graph.starts[t] = total;
+			int stored = inDegree[t];
+			if(this.maxPredecessors != -1 && stored > this.maxPredecessors){
+				stored = this.maxPredecessors;
+				graph.truncated = true;
 			}
-			
-			
-			//get the transition dynamics for each action and queue up new states
-			List <ActionTransitions> transitions = this.getActionsTransitions(node.sh);
-			for(ActionTransitions at : transitions){
-				for(HashedTransitionProbability tp : at.transitions){
-					HashableState tsh = tp.sh;
-					BPTRNode tnode = this.getNodeFor(tsh);
-					tnode.addBackTransition(node);
-					if(!openedSet.contains(tsh) && !transitionDynamics.containsKey(tsh)){
-						openedSet.add(tnode);
-						openList.offer(tnode);
-					}
+			total += stored;
+			inDegree[t] = stored;
+		}
+		graph.preds = new int[total];
+		graph.probs = new float[total];
+
+		//second pass fills in the predecessors, replacing the least likely stored predecessor when a state's slots are full
+		for(int s = 0; s < n; s++){
+			this.gatherSuccessors(s, buffer, cd, states, ids);
+			for(int i = 0; i < buffer.size; i++){
+				int t = buffer.ids[i];
+				if(t != s){
+					graph.add(t, s, buffer.probs[i], inDegree[t]);
 				}
-				
 			}
-			
-			
 		}
-		
-		DPrint.cl(this.debugCode, "Finished reachability analysis; # states: " + mapToStateIndex.size());
-		
-		this.foundReachableStates = true;
-		this.hasRunVI = false;
-		
-		return true;
-		
+
+		return graph;
 	}
-	
-	
+
+
 	/**
-	 * Returns or creates, stores, and returns a priority back pointer node for the given hased state 
-	 * @param sh the hashed state for which its node should be returned.
-	 * @return a priority back pointer node for the given hased state 
+	 * Fills the buffer with the distinct successors of the given state and the maximum discounted probability over all actions
+	 * with which the state transitions to each of them. For {@link burlap.behavior.singleagent.options.Option}s, the option's discounted transition
+	 * probability is used.
+	 * @param s the id of the state
+	 * @param buffer the buffer to fill
+	 * @param cd the compiled transition dynamics if planning in compiled mode; null otherwise.
+	 * @param states the hashed state of each id if not planning in compiled mode; null otherwise.
+	 * @param ids the id of each hashed state if not planning in compiled mode; null otherwise.
 	 */
-	protected BPTRNode getNodeFor(HashableState sh){
-		
-		BPTRNode node = new BPTRNode(sh);
-		BPTRNode stored = this.priorityNodes.containsInstance(node);
-		if(stored != null){
-			node = stored;
+	protected void gatherSuccessors(int s, SuccessorBuffer buffer, CompiledTabularDynamics cd, HashableState [] states, Map<HashableState, Integer> ids){
+
+		buffer.reset(s);
+
+		if(cd != null){
+			if(cd.isTerminal(s)){
+				return;
+			}
+			int aEnd = cd.firstActionSlot(s+1);
+			for(int a = cd.firstActionSlot(s); a < aEnd; a++){
+				int tEnd = cd.firstTransition(a+1);
+				for(int t = cd.firstTransition(a); t < tEnd; t++){
+					buffer.add(cd.nextState(t), cd.transitionWeight(t));
+				}
+			}
+			return;
 		}
-		else{
-			this.priorityNodes.insert(node);
+
+		HashableState sh = states[s];
+		if(this.tf.isTerminal(sh.s)){
+			return;
 		}
-		
-		return node;
+		List<ActionTransitions> transitions = this.getActionsTransitions(sh);
+		for(ActionTransitions at : transitions){
+			double discount = at.ga.action instanceof Option ? 1. : this.gamma;
+			for(HashedTransitionProbability tp : at.transitions){
+				Integer t = ids.get(tp.sh);
+				if(t != null){
+					buffer.add(t, discount * tp.p);
+				}
+			}
+		}
+
 	}
-	
-	
-	
+
+
+
 	/**
-	 * A node for state thar contains a list of its back pointers, their max probability of transition to this state, and the priority of this nodes state.
+	 * The backwards transition dynamics of a state space stored in compressed sparse row style primitive arrays. The stored predecessors of state t are
+	 * the entries [starts[t], starts[t] + counts[t]) of {@link #preds}, and {@link #probs} holds the maximum discounted probability with which each
+	 * of them transitions to t. Probabilities are stored as floats since they only affect the priority ordering.
 	 * @author James MacGlashan
 	 *
 	 */
-	protected class BPTRNode{
-		
-		public HashableState sh;
-		public List<BPTR> backPointers;
-		public double maxSelfTransitionProb = 0.;
-		public double priority = Double.MAX_VALUE;
-		
+	protected static class PredecessorGraph{
+
+		/**
+		 * The first predecessor entry of each state
+		 */
+		public int [] starts;
+
+		/**
+		 * The number of stored predecessors of each state
+		 */
+		public int [] counts;
+
+		/**
+		 * The predecessor state ids
+		 */
+		public int [] preds;
+
+		/**
+		 * The maximum discounted probability of each predecessor transitioning to its state
+		 */
+		public float [] probs;
+
+		/**
+		 * The maximum discounted probability of each state transitioning to itself
+		 */
+		public float [] selfProbs;
+
 		/**
-		 * Creates a back pointer for the given state with no back pointers and a priority of Double.MAX_VALUE (ensures one sweep of the state space to start)
-		 * @param sh the hased state for which this node will correspond
+		 * Whether any state had more predecessors than could be stored
 		 */
-		public BPTRNode(HashableState sh){
-			this.sh = sh;
-			this.backPointers = new LinkedList<PrioritizedSweeping.BPTR>();
+		public boolean truncated = false;
+
+
+		/**
+		 * Initializes the per state arrays for n states. The predecessor arrays must be allocated by the builder.
+		 * @param n the number of states
+		 */
+		public PredecessorGraph(int n){
+			this.starts = new int[n];
+			this.counts = new int[n];
+			this.selfProbs = new float[n];
 		}
-		
-		
+
+
 		/**
-		 * Adds a backpointer transition
-		 * @param bptr the node that can transition to this node
+		 * Adds a predecessor to state t. If t already has capacity predecessors stored, the new predecessor replaces the least likely stored
+		 * predecessor if it is more likely.
+		 * @param t the state id
+		 * @param pred the predecessor state id
+		 * @param prob the maximum discounted probability of the predecessor transitioning to t
+		 * @param capacity the number of predecessor slots of t
 		 */
-		public void addBackTransition(BPTRNode bptr){
-			if(!bptr.sh.equals(this.sh)){
-				//make sure we don't already have this node
-				boolean hasNode = false;
-				for(BPTR b : this.backPointers){
-					if(b.backNode == bptr){
-						hasNode = true;
-						break;
-					}
-				}
-				if(!hasNode){
-					this.backPointers.add(new BPTR(bptr, this.sh));
+		public void add(int t, int pred, float prob, int capacity){
+			int start = this.starts[t];
+			int c = this.counts[t];
+			if(c < capacity){
+				this.preds[start+c] = pred;
+				this.probs[start+c] = prob;
+				this.counts[t] = c+1;
+				return;
+			}
+			int minI = start;
+			for(int i = start+1; i < start+c; i++){
+				if(this.probs[i] < this.probs[minI]){
+					minI = i;
 				}
 			}
-			else if(this.maxSelfTransitionProb == 0.){
-				BPTR tmp = new BPTR(bptr, this.sh);
-				this.maxSelfTransitionProb = tmp.forwardMaxProbability;
+			if(prob > this.probs[minI]){
+				this.preds[minI] = pred;
+				this.probs[minI] = prob;
 			}
-			
-		}
-		
-		@Override
-		public int hashCode(){
-			return this.sh.hashCode();
-		}
-		
-		@Override
-		public boolean equals(Object other){
-		    if (other == null || this.getClass() != other.getClass()) {
-                return false;   
-            }
-			BPTRNode o = (BPTRNode)other;
-			return this.sh.equals(o.sh);
 		}
-		
+
 	}
-	
-	
+
+
 	/**
-	 * A back pointer and its max action probability of transition.
+	 * A reusable buffer of the distinct successors of a single state, which keeps the maximum probability of each successor.
+	 * Duplicate successors are detected in constant time with arrays indexed by state id that record the last source state that
+	 * added each successor and its slot in the buffer.
 	 * @author James MacGlashan
 	 *
 	 */
-	protected class BPTR{
-		
+	protected static class SuccessorBuffer{
+
+		public int [] ids = new int[16];
+		public float [] probs = new float[16];
+		public int size = 0;
+
+		protected int source = -1;
+		protected int [] lastSource;
+		protected int [] slot;
+
+
 		/**
-		 * The back pointer node
+		 * Initializes for a state space with n states.
+		 * @param n the number of states
 		 */
-		public BPTRNode backNode;
-		
+		public SuccessorBuffer(int n){
+			this.lastSource = new int[n];
+			this.slot = new int[n];
+			for(int i = 0; i < n; i++){
+				this.lastSource[i] = -1;
+			}
+		}
+
+
 		/**
-		 * The maximum probability tha the back node will transition to the implicitly defined forward state node.
+		 * Empties the buffer to gather the successors of the given source state.
+		 * @param source the source state id
 		 */
-		public double forwardMaxProbability;
-		
-		
+		public void reset(int source){
+			this.source = source;
+			this.size = 0;
+		}
+
+
 		/**
-		 * Stores back pointer information.
-		 * @param backNode the backwards node
-		 * @param forwardState the state to which the back node transitions
+		 * Adds a successor, or raises its probability if it was already added for the current source state.
+		 * @param t the successor state id
+		 * @param p the probability of transitioning to the successor
 		 */
-		public BPTR(BPTRNode backNode, HashableState forwardState){
-			this.backNode = backNode;
-			List<GroundedAction> actions = PrioritizedSweeping.this.getAllGroundedActions(backNode.sh.s);
-			double maxProb = 0.;
-			//find action with maximum transition probability
-			for(GroundedAction ga : actions){
-				//search for match
-				List<TransitionProbability> tps = ga.getTransitions(backNode.sh.s);
-				for(TransitionProbability tp : tps){
-					HashableState tpsh = PrioritizedSweeping.this.hashingFactory.hashState(tp.s);
-					if(tpsh.equals(forwardState)){
-						maxProb = Math.max(maxProb, tp.p);
-						break;
-					}
+		public void add(int t, double p){
+			float fp = (float)p;
+			if(this.lastSource[t] == this.source){
+				int i = this.slot[t];
+				if(fp > this.probs[i]){
+					this.probs[i] = fp;
 				}
+				return;
+			}
+			if(this.size == this.ids.length){
+				int [] nids = new int[this.size*2];
+				float [] nprobs = new float[this.size*2];
+				System.arraycopy(this.ids, 0, nids, 0, this.size);
+				System.arraycopy(this.probs, 0, nprobs, 0, this.size);
+				this.ids = nids;
+				this.probs = nprobs;
 			}
-			this.forwardMaxProbability = maxProb;
+			this.lastSource[t] = this.source;
+			this.slot[t] = this.size;
+			this.ids[this.size] = t;
+			this.probs[this.size] = fp;
+			this.size++;
 		}
-		
-	}
-	
-	
-	/**
-	 * Comparator for the the priority of BPTRNodes
-	 * @author James MacGlashan
-	 *
-	 */
-	protected static class BPTRNodeComparator implements Comparator<BPTRNode>{
 
-		@Override
-		public int compare(BPTRNode o1, BPTRNode o2) {
-			return Double.compare(o1.priority, o2.priority);
-		}
-		
 	}
-	
-	
+
+
 }
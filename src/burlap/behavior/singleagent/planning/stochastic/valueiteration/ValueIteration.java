@@ -1,5 +1,6 @@
 package burlap.behavior.singleagent.planning.stochastic.valueiteration;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -8,6 +9,7 @@ import java.util.Set;
 
 import burlap.behavior.policy.GreedyQPolicy;
 import burlap.behavior.singleagent.planning.stochastic.ActionTransitions;
+import burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics;
 import burlap.behavior.singleagent.planning.stochastic.HashedTransitionProbability;
 import burlap.behavior.singleagent.planning.stochastic.DynamicProgramming;
 import burlap.behavior.singleagent.planning.Planner;
@@ -29,6 +31,12 @@ import burlap.oomdp.singleagent.RewardFunction;
  * that VI does not pass over non-reachable states.
  * 
  * This implementation is compatible with options.
+ * <p>
+ * Sweeps can be performed in parallel by calling {@link #setParallelSweeps(int)}, in which case each iteration is a synchronous
+ * (Jacobi-style) sweep over a snapshot of the previous iteration's value function. Synchronous sweeps may require a few more
+ * iterations than the default in place sweeps to reach the same maxDelta, but each iteration is spread across all threads.
+ * Setting {@link #toggleCompiledDynamics(boolean)} to true makes the sweeps operate on primitive array compiled transition dynamics
+ * (in either the serial or parallel case).
  * 
  * 
  * @author James MacGlashan
@@ -140,18 +148,29 @@ public class ValueIteration extends DynamicProgramming implements Planner {
 			throw new RuntimeException("Cannot run VI until the reachable states have been found. Use the planFromState or performReachabilityFrom method at least once before calling runVI.");
 		}
 		
+		if(this.useCompiledDynamics){
+			this.runCompiledVI();
+			return;
+		}
+		
 		Set <HashableState> states = mapToStateIndex.keySet();
+		List <HashableState> stateList = this.usesParallelSweeps() ? new ArrayList<HashableState>(states) : null;
 		
 		int i;
 		for(i = 0; i < this.maxIterations; i++){
 			
 			double delta = 0.;
-			for(HashableState sh : states){
-				
-				double v = this.value(sh);
-				double maxQ = this.performBellmanUpdateOn(sh);
-				delta = Math.max(Math.abs(maxQ - v), delta);
-				
+			if(stateList != null){
+				delta = this.parallelBellmanSweep(stateList, null);
+			}
+			else{
+				for(HashableState sh : states){
+					
+					double v = this.value(sh);
+					double maxQ = this.performBellmanUpdateOn(sh);
+					delta = Math.max(Math.abs(maxQ - v), delta);
+					
+				}
 			}
 			
 			if(delta < this.maxDelta){
@@ -167,6 +186,34 @@ public class ValueIteration extends DynamicProgramming implements Planner {
 	}
 	
 	
+	/**
+	 * Runs VI on compiled transition dynamics until the specified termination conditions are met and then writes the resulting values
+	 * into the value function map.
+	 */
+	protected void runCompiledVI(){
+		
+		CompiledTabularDynamics cd = this.compileDynamics();
+		double [] v = cd.initialValues(this);
+		
+		int i;
+		for(i = 0; i < this.maxIterations; i++){
+			
+			double delta = this.compiledSweep(v, null);
+			if(delta < this.maxDelta){
+				break; //approximated well enough; stop iterating
+			}
+			
+		}
+		
+		cd.writeValues(v, this.valueFunction);
+		
+		DPrint.cl(this.debugCode, "Passes: " + i);
+		
+		this.hasRunVI = true;
+		
+	}
+	
+	
 	/**
 	 * This method will find all reachable states that will be used by the {@link #runVI()} method and will cache all the transition dynamics.
 	 * This method will not do anything if all reachable states from the input state have been discovered from previous calls to this method.
@@ -228,6 +275,7 @@ public class ValueIteration extends DynamicProgramming implements Planner {
 		
 		this.foundReachableStates = true;
 		this.hasRunVI = false;
+		this.compiledDynamics = null;
 		
 		return true;
 		
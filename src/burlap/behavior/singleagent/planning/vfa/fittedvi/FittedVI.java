@@ -7,17 +7,24 @@ import burlap.behavior.valuefunction.ValueFunctionInitialization;
 import burlap.behavior.singleagent.MDPSolver;
 import burlap.behavior.valuefunction.QFunction;
 import burlap.behavior.valuefunction.ValueFunction;
+import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling;
 import burlap.debugtools.DPrint;
+import burlap.debugtools.RandomFactory;
 import burlap.oomdp.core.AbstractGroundedAction;
 import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.TransitionProbability;
 import burlap.oomdp.core.states.State;
 import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.statehashing.SimpleHashableStateFactory;
+import burlap.parallel.Parallel;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A class for performing Fitted Value Iteration [1]. This is a variant of value iteration that takes a set of
@@ -43,7 +50,20 @@ import java.util.List;
  * the depth used to return the Q-values). See the {@link #setPlanningDepth(int)}, {@link #setControlDepth(int)}, and
  * {@link #setPlanningAndControlDepth(int)} methods for controlling the depth. By default, the depth will be 1.
  *
+ * <p>
+ * The Bellman targets of the state samples are independent of each other and can be computed in parallel with the {@link #setParallelTargets(int)}
+ * method. The samples are split into chunks and each chunk is backed up with its own {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling}
+ * instance. Each chunk also runs with its own {@link burlap.debugtools.RandomFactory} (see {@link burlap.debugtools.RandomFactory#setThreadFactory(burlap.debugtools.RandomFactory)})
+ * seeded from the calling thread's mapped random generator 0, so for a fixed number of chunks the targets do not depend on how the chunks are scheduled
+ * in domains that draw their randomness from {@link burlap.debugtools.RandomFactory} when sampling. Parallel targets require that the domain actions, reward function,
+ * terminal function, and the value functions produced by the {@link burlap.behavior.singleagent.planning.vfa.fittedvi.SupervisedVFA} be safe to query from multiple threads.
  *
+ * <p>
+ * By default, new transitions are sampled for every state sample on every iteration. If sampled transition reuse is turned on
+ * with {@link #toggleTransitionSampleReuse(boolean)}, the sparse sampling tree of each state sample is sampled once and stored, and every following
+ * iteration only re-evaluates the stored trees with the current value function approximation, so the transition dynamics are not invoked again
+ * until the state samples or the planning depth change. This makes iterations much cheaper at the cost of storing the sampled
+ * outcome states, and it means every iteration fits the same fixed sampled Bellman operator.
  *
  * <p>
  * 1. Gordon, Geoffrey J. "Stable function approximation in dynamic programming." Proceedings of the twelfth international conference on machine learning. 1995.
@@ -112,6 +132,32 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	protected double maxDelta;
 
 
+	/**
+	 * The executor used to compute the Bellman targets of the state samples in parallel; null if they are computed serially.
+	 */
+	protected ExecutorService targetExecutor = null;
+
+	/**
+	 * The number of chunks into which the state samples are split when targets are computed in parallel.
+	 */
+	protected int targetChunks = 1;
+
+	/**
+	 * Whether the target executor was created by this object, in which case it is shut down when it is replaced.
+	 */
+	protected boolean ownsTargetExecutor = false;
+
+	/**
+	 * Whether the sampled transitions of each state sample are stored and reused across iterations.
+	 */
+	protected boolean reuseTransitionSamples = false;
+
+	/**
+	 * The stored sampled trees of each state sample, in the order of {@link #samples}; null if they have not been sampled.
+	 */
+	protected List<SampledNode> storedSampleTrees = null;
+
+
 	/**
 	 * Initializes. Note that you will need to set the state samples to use for planning with the {@link #setSamples(java.util.List)} method before
 	 * calling {@link #planFromState(burlap.oomdp.core.states.State)}, {@link #runIteration()}, or {@link #runVI()}, otherwise a runtime exception
@@ -199,6 +245,7 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	 */
 	public void setPlanningDepth(int planningDepth) {
 		this.planningDepth = planningDepth;
+		this.storedSampleTrees = null;
 	}
 
 	/**
@@ -226,6 +273,7 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	public void setPlanningAndControlDepth(int depth){
 		this.planningDepth = depth;
 		this.controlDepth = depth;
+		this.storedSampleTrees = null;
 	}
 
 
@@ -243,6 +291,61 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	 */
 	public void setSamples(List<State> samples) {
 		this.samples = samples;
+		this.storedSampleTrees = null;
+	}
+
+
+	/**
+	 * Sets the number of threads used to compute the Bellman targets of the state samples. A new daemon thread pool is created if more than one thread is used.
+	 * A pool created by this method is shut down when it is replaced; an executor provided with {@link #setParallelTargets(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads; 1 or less to compute targets serially
+	 */
+	public void setParallelTargets(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelTargets(null, 1);
+		}
+		else{
+			this.setParallelTargets(Parallel.newDaemonPool(nThreads, "fvi-targets"), nThreads * 4);
+			this.ownsTargetExecutor = true;
+		}
+	}
+
+
+	/**
+	 * Sets the executor used to compute the Bellman targets of the state samples and the number of chunks into which the samples are split.
+	 * The executor is not shut down by this object.
+	 * @param executor the executor; null to compute targets serially
+	 * @param nChunks the number of chunks into which the state samples are split
+	 */
+	public void setParallelTargets(ExecutorService executor, int nChunks){
+		if(this.ownsTargetExecutor && this.targetExecutor != executor){
+			this.targetExecutor.shutdown();
+		}
+		this.ownsTargetExecutor = false;
+		this.targetExecutor = executor;
+		this.targetChunks = executor != null ? Math.max(1, nChunks) : 1;
+	}
+
+
+	/**
+	 * Sets whether the sampled transitions of each state sample are stored the first time they are sampled and reused by all following iterations.
+	 * Turning reuse off discards any stored samples.
+	 * @param reuseTransitionSamples true to reuse sampled transitions across iterations; false to sample new transitions on every iteration.
+	 */
+	public void toggleTransitionSampleReuse(boolean reuseTransitionSamples){
+		this.reuseTransitionSamples = reuseTransitionSamples;
+		if(!reuseTransitionSamples){
+			this.storedSampleTrees = null;
+		}
+	}
+
+
+	/**
+	 * Discards the stored sampled transitions so that the next iteration samples new ones. This should be called if the transition dynamics
+	 * or the reward function change while sampled transition reuse is on.
+	 */
+	public void clearStoredTransitionSamples(){
+		this.storedSampleTrees = null;
 	}
 
 
@@ -270,23 +373,20 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 			throw new RuntimeException("FittedVI cannot run value iteration because the state samples have not been set. Use the setSamples method or the constructor to set them.");
 		}
 
-		SparseSampling ss = new SparseSampling(this.domain, this.rf, this.tf, this.gamma, this.hashingFactory, this.planningDepth, this.transitionSamples);
-		ss.setValueForLeafNodes(this.leafNodeInit);
-		ss.toggleDebugPrinting(false);
+		double [] oldVs = this.sampleValues();
+		double [] targets = this.reuseTransitionSamples ? this.storedSampleTargets() : this.sampledTargets();
 
 		List <SupervisedVFA.SupervisedVFAInstance> instances = new ArrayList<SupervisedVFA.SupervisedVFAInstance>(this.samples.size());
-		List <Double> oldVs = new ArrayList<Double>(this.samples.size());
-		for(State s : this.samples){
-			oldVs.add(this.valueFunction.value(s));
-			instances.add(new SupervisedVFA.SupervisedVFAInstance(s, QFunctionHelper.getOptimalValue(ss, s)));
+		for(int i = 0; i < this.samples.size(); i++){
+			instances.add(new SupervisedVFA.SupervisedVFAInstance(this.samples.get(i), targets[i]));
 		}
 
 		this.valueFunction = this.valueFunctionTrainer.train(instances);
 
+		double [] newVs = this.sampleValues();
 		double maxDiff = 0.;
-		for(int i = 0; i < this.samples.size(); i++){
-			double newV = this.valueFunction.value(this.samples.get(i));
-			double diff = Math.abs(newV - oldVs.get(i));
+		for(int i = 0; i < newVs.length; i++){
+			double diff = Math.abs(newVs[i] - oldVs[i]);
 			maxDiff = Math.max(maxDiff, diff);
 		}
 
@@ -295,6 +395,207 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	}
 
 
+	/**
+	 * Returns the value of each state sample under the current value function approximation.
+	 * @return the value of each state sample
+	 */
+	protected double [] sampleValues(){
+		final double [] values = new double[this.samples.size()];
+		this.forSampleChunks(new Parallel.ForChunk<Object>() {
+			@Override
+			public Object run(int chunk, int start, int end) {
+				for(int i = start; i < end; i++){
+					values[i] = valueFunction.value(samples.get(i));
+				}
+				return null;
+			}
+		});
+		return values;
+	}
+
+
+	/**
+	 * Computes the Bellman target of each state sample with newly sampled transitions. Each chunk of samples uses its own
+	 * {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling} instance.
+	 * @return the Bellman target of each state sample
+	 */
+	protected double [] sampledTargets(){
+		final double [] targets = new double[this.samples.size()];
+		this.forSampleChunks(new Parallel.ForChunk<Object>() {
+			@Override
+			public Object run(int chunk, int start, int end) {
+				SparseSampling ss = new SparseSampling(domain, rf, tf, gamma, hashingFactory, planningDepth, transitionSamples);
+				ss.setValueForLeafNodes(leafNodeInit);
+				ss.toggleDebugPrinting(false);
+				for(int i = start; i < end; i++){
+					targets[i] = QFunctionHelper.getOptimalValue(ss, samples.get(i));
+				}
+				return null;
+			}
+		});
+		return targets;
+	}
+
+
+	/**
+	 * Computes the Bellman target of each state sample by evaluating its stored sampled tree with the current value function approximation,
+	 * sampling and storing the trees first if they have not been sampled for the current state samples.
+	 * @return the Bellman target of each state sample
+	 */
+	protected double [] storedSampleTargets(){
+
+		if(this.storedSampleTrees == null || this.storedSampleTrees.size() != this.samples.size()){
+			final SampledNode [] trees = new SampledNode[this.samples.size()];
+			this.forSampleChunks(new Parallel.ForChunk<Object>() {
+				@Override
+				public Object run(int chunk, int start, int end) {
+					for(int i = start; i < end; i++){
+						trees[i] = sampleTree(samples.get(i), planningDepth, true);
+					}
+					return null;
+				}
+			});
+			List<SampledNode> stored = new ArrayList<SampledNode>(trees.length);
+			for(SampledNode t : trees){
+				stored.add(t);
+			}
+			this.storedSampleTrees = stored;
+		}
+
+		final double [] targets = new double[this.samples.size()];
+		this.forSampleChunks(new Parallel.ForChunk<Object>() {
+			@Override
+			public Object run(int chunk, int start, int end) {
+				for(int i = start; i < end; i++){
+					targets[i] = treeValue(storedSampleTrees.get(i));
+				}
+				return null;
+			}
+		});
+		return targets;
+
+	}
+
+
+	/**
+	 * Samples the sparse sampling tree of a state in the same way {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling}
+	 * would, except that equal outcome states are not merged into a single node.
+	 * @param s the state at the root of the tree
+	 * @param height the height of the tree
+	 * @param root whether the state is the root of the tree; root states are expanded even if they are terminal
+	 * @return the root node of the sampled tree
+	 */
+	protected SampledNode sampleTree(State s, int height, boolean root){
+
+		SampledNode node = new SampledNode(s);
+		if(!root && this.tf.isTerminal(s)){
+			node.terminal = true;
+			return node;
+		}
+		if(height <= 0){
+			return node;
+		}
+
+		List<GroundedAction> gas = this.getAllGroundedActions(s);
+		node.transitions = new ArrayList<List<SampledTransition>>(gas.size());
+		for(GroundedAction ga : gas){
+			List<SampledTransition> transitions;
+			if(this.transitionSamples < 0){
+				if(ga.action instanceof Option){
+					throw new RuntimeException("FittedVI cannot use the full transition dynamics with options. Use a positive number of transition samples instead.");
+				}
+				List<TransitionProbability> tps = ga.getTransitions(s);
+				transitions = new ArrayList<SampledTransition>(tps.size());
+				for(TransitionProbability tp : tps){
+					transitions.add(new SampledTransition(tp.p, this.rf.reward(s, ga, tp.s), this.gamma, this.sampleTree(tp.s, height-1, false)));
+				}
+			}
+			else{
+				transitions = new ArrayList<SampledTransition>(this.transitionSamples);
+				double w = 1. / this.transitionSamples;
+				for(int i = 0; i < this.transitionSamples; i++){
+					State ns = ga.executeIn(s);
+					int k = 1;
+					if(ga.action instanceof Option){
+						k = ((Option)ga.action).getLastNumSteps();
+					}
+					transitions.add(new SampledTransition(w, this.rf.reward(s, ga, ns), Math.pow(this.gamma, k), this.sampleTree(ns, height-k, false)));
+				}
+			}
+			node.transitions.add(transitions);
+		}
+
+		return node;
+	}
+
+
+	/**
+	 * Returns the value of a sampled tree node: zero for terminal states, the current value function approximation for leaves, and
+	 * the maximum sampled Q-value otherwise.
+	 * @param node the sampled tree node
+	 * @return the value of the node
+	 */
+	protected double treeValue(SampledNode node){
+
+		if(node.terminal){
+			return 0.;
+		}
+		if(node.transitions == null){
+			return this.leafNodeInit.value(node.s);
+		}
+		if(node.transitions.isEmpty()){
+			return 0.;
+		}
+
+		double max = Double.NEGATIVE_INFINITY;
+		for(List<SampledTransition> transitions : node.transitions){
+			double q = 0.;
+			for(SampledTransition t : transitions){
+				q += t.weight * (t.reward + t.discount * this.treeValue(t.next));
+			}
+			max = Math.max(max, q);
+		}
+		return max;
+
+	}
+
+
+	/**
+	 * Runs the given work on the index range of the state samples. If targets are computed in parallel, the range is split into chunks that
+	 * each run on the target executor with their own {@link burlap.debugtools.RandomFactory}, seeded in chunk order from the calling thread's mapped
+	 * random generator 0. Otherwise the whole range is run on the calling thread.
+	 * @param body the work to perform on each chunk
+	 */
+	protected void forSampleChunks(final Parallel.ForChunk<Object> body){
+
+		int n = this.samples.size();
+		if(this.targetExecutor == null){
+			body.run(0, 0, n);
+			return;
+		}
+
+		int nChunks = Parallel.partition(n, this.targetChunks).length-1;
+		final long [] seeds = new long[nChunks];
+		Random rand = RandomFactory.getMapped(0);
+		for(int i = 0; i < nChunks; i++){
+			seeds[i] = rand.nextLong();
+		}
+
+		Parallel.forChunks(this.targetExecutor, n, this.targetChunks, new Parallel.ForChunk<Object>() {
+			@Override
+			public Object run(int chunk, int start, int end) {
+				RandomFactory.setThreadFactory(new RandomFactory(seeds[chunk]));
+				try{
+					return body.run(chunk, start, end);
+				}finally{
+					RandomFactory.clearThreadFactory();
+				}
+			}
+		});
+
+	}
+
+
 	/**
 	 * Plans from the input state and then returns a {@link burlap.behavior.policy.GreedyQPolicy} that greedily
 	 * selects the action with the highest Q-value and breaks ties uniformly randomly.
@@ -351,4 +652,77 @@ public class FittedVI extends MDPSolver implements ValueFunction, QFunction, Pla
 	}
 
 
+	/**
+	 * A node of a stored sampled tree.
+	 */
+	protected static class SampledNode{
+
+		/**
+		 * The state of the node
+		 */
+		public State s;
+
+		/**
+		 * Whether the state is a terminal state
+		 */
+		public boolean terminal = false;
+
+		/**
+		 * The sampled transitions of each applicable action; null for leaf and terminal nodes
+		 */
+		public List<List<SampledTransition>> transitions = null;
+
+		/**
+		 * Initializes.
+		 * @param s the state of the node
+		 */
+		public SampledNode(State s){
+			this.s = s;
+		}
+
+	}
+
+
+	/**
+	 * A stored sampled transition. The Q-value of an action is the sum over its transitions of weight * (reward + discount * value(next)).
+	 */
+	protected static class SampledTransition{
+
+		/**
+		 * The weight of the transition: its probability for full transition dynamics, or one over the number of samples
+		 */
+		public double weight;
+
+		/**
+		 * The reward received
+		 */
+		public double reward;
+
+		/**
+		 * The discount applied to the value of the outcome state
+		 */
+		public double discount;
+
+		/**
+		 * The outcome node
+		 */
+		public SampledNode next;
+
+		/**
+		 * Initializes.
+		 * @param weight the weight of the transition
+		 * @param reward the reward received
+		 * @param discount the discount applied to the value of the outcome state
+		 * @param next the outcome node
+		 */
+		public SampledTransition(double weight, double reward, double discount, SampledNode next){
+			this.weight = weight;
+			this.reward = reward;
+			this.discount = discount;
+			this.next = next;
+		}
+
+	}
+
+
 }
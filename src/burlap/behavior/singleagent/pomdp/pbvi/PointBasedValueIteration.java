@@ -0,0 +1,985 @@
+package burlap.behavior.singleagent.pomdp.pbvi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import burlap.behavior.policy.BeliefPolicyToPOMDPPolicy;
+import burlap.behavior.policy.GreedyQPolicy;
+import burlap.behavior.policy.Policy;
+import burlap.behavior.singleagent.MDPSolver;
+import burlap.behavior.singleagent.auxiliary.StateEnumerator;
+import burlap.behavior.singleagent.planning.Planner;
+import burlap.behavior.valuefunction.QFunction;
+import burlap.behavior.valuefunction.QValue;
+import burlap.debugtools.DPrint;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.core.AbstractGroundedAction;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.core.TransitionProbability;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+import burlap.oomdp.singleagent.SADomain;
+import burlap.oomdp.singleagent.pomdp.BeliefMDPGenerator;
+import burlap.oomdp.singleagent.pomdp.ObservationFunction;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.singleagent.pomdp.beliefstate.DenseBeliefVector;
+import burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState;
+import burlap.parallel.Parallel;
+
+
+/**
+ * A point-based value iteration POMDP solver [1] that supports both the standard PBVI backup schedule and the randomized Perseus [2] schedule.
+ * The value function is represented by a set of alpha vectors (each a primitive double array over the
+ * {@link burlap.behavior.singleagent.auxiliary.StateEnumerator} ids of the POMDP's states, paired with the action that generated it), and
+ * is only improved at a finite set of belief points that are reachable from the initial belief state.
+ * <p>
+ * When planning starts, the POMDP's transition dynamics, expected rewards and observation likelihoods are compiled over the state ids, so the domain
+ * must provide a {@link burlap.behavior.singleagent.auxiliary.StateEnumerator} and its observation function must be able to enumerate its observations. Any state
+ * reachable from an enumerated state is enumerated during compilation. Planning then alternates between improving the value function at the current
+ * belief points (until the largest change in value at any point is less than maxDelta, or for at most maxIterations iterations) and expanding the belief point set
+ * with the successor beliefs that are farthest from the existing points, for the given number of expansions or until the belief point set reaches its maximum size.
+ * <p>
+ * In PBVI mode (the default), every belief point is backed up in each iteration and the backups can be computed in parallel with {@link #setParallelBackups(int)}.
+ * In Perseus mode ({@link #togglePerseusBackups(boolean)}), each iteration backs up randomly chosen points only until the value of every point has been improved,
+ * which usually requires far fewer backups than there are points. After each iteration, alpha vectors that are pointwise dominated by another vector are pruned.
+ * <p>
+ * The Q-values returned by this solver are those implied by the alpha vectors: the Q-value of an action in a belief state is the largest value of the action's
+ * alpha vectors in that belief state (or the initial lower bound if the action has none), so querying the Q-values and value of a belief state online only
+ * costs one dot product per alpha vector. Q-values are returned for Belief MDP actions created with a {@link burlap.oomdp.singleagent.pomdp.BeliefMDPGenerator};
+ * the {@link #planFromState(burlap.oomdp.core.states.State)} method returns a {@link burlap.behavior.policy.BeliefPolicyToPOMDPPolicy} that
+ * selects the corresponding POMDP actions. Belief states must implement {@link burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState}.
+ * <p>
+ * 1. Pineau, Joelle, Geoff Gordon, and Sebastian Thrun. "Point-based value iteration: An anytime algorithm for POMDPs." IJCAI. Vol. 3. 2003.
+ * <br>
+ * 2. Spaan, Matthijs TJ, and Nikos Vlassis. "Perseus: Randomized point-based value iteration for POMDPs." Journal of Artificial Intelligence Research 24 (2005): 195-220.
+ * @author James MacGlashan
+ *
+ */
+public class PointBasedValueIteration extends MDPSolver implements Planner, QFunction {
+
+	/**
+	 * The state enumerator defining the state ids of alpha vectors and belief points
+	 */
+	protected StateEnumerator						stateEnumerator;
+
+	/**
+	 * The maximum number of belief points
+	 */
+	protected int									maxBeliefPoints;
+
+	/**
+	 * The number of times the belief point set is expanded in each call to {@link #planFromState(burlap.oomdp.core.states.State)}
+	 */
+	protected int									numExpansions;
+
+	/**
+	 * The maximum number of backup iterations between expansions
+	 */
+	protected int									maxIterations;
+
+	/**
+	 * Backup iterations stop when the largest change in the value of any belief point is less than this value
+	 */
+	protected double								maxDelta;
+
+	/**
+	 * Whether Perseus backups are used instead of PBVI backups
+	 */
+	protected boolean								usePerseus = false;
+
+	/**
+	 * The executor on which PBVI backups are computed; null if backups are serial.
+	 */
+	protected ExecutorService						backupExecutor;
+
+	/**
+	 * The number of chunks into which the belief points are partitioned for parallel backups
+	 */
+	protected int									backupChunks = 1;
+
+	/**
+	 * Whether the backup executor was created by this object, in which case it is shut down when it is replaced
+	 */
+	protected boolean								ownsBackupExecutor = false;
+
+
+	/**
+	 * Whether the POMDP has been compiled
+	 */
+	protected boolean								compiled = false;
+
+	/**
+	 * The number of compiled states
+	 */
+	protected int									numStates;
+
+	/**
+	 * The POMDP grounded actions, indexed by action id
+	 */
+	protected GroundedAction []						pomdpActions;
+
+	/**
+	 * The Belief MDP whose actions are used in the returned Q-values
+	 */
+	protected SADomain								beliefMDP;
+
+	/**
+	 * The Belief MDP grounded actions corresponding to each POMDP action
+	 */
+	protected GroundedAction []						beliefActions;
+
+	/**
+	 * The POMDP observations, indexed by observation id
+	 */
+	protected List<State>							observations;
+
+	/**
+	 * The expected reward of each action (first index) in each state (second index)
+	 */
+	protected double [][]							rewards;
+
+	/**
+	 * The outcome state ids of each action (first index) from each state (second index)
+	 */
+	protected int [][][]							transitionNext;
+
+	/**
+	 * The outcome probabilities of each action (first index) from each state (second index)
+	 */
+	protected double [][][]							transitionProbs;
+
+	/**
+	 * The likelihood of each observation (second index) in each next state (third index) after each action (first index)
+	 */
+	protected double [][][]							observationLikelihoods;
+
+	/**
+	 * Whether each state is terminal
+	 */
+	protected boolean []							terminal;
+
+	/**
+	 * The initial lower bound alpha vector
+	 */
+	protected AlphaVector							lowerBound;
+
+
+	/**
+	 * The current alpha vectors
+	 */
+	protected List<AlphaVector>						alphas = new ArrayList<AlphaVector>();
+
+	/**
+	 * The belief points at which the value function is improved, as dense vectors over state ids
+	 */
+	protected List<double []>						beliefPoints = new ArrayList<double[]>();
+
+
+
+	/**
+	 * Initializes. The domain must provide a {@link burlap.behavior.singleagent.auxiliary.StateEnumerator}.
+	 * @param domain the POMDP domain
+	 * @param rf the POMDP hidden state reward function
+	 * @param tf the POMDP hidden state terminal function
+	 * @param discount the discount factor
+	 * @param maxBeliefPoints the maximum number of belief points
+	 * @param numExpansions the number of times the belief point set is expanded in each call to {@link #planFromState(burlap.oomdp.core.states.State)}
+	 * @param maxIterations the maximum number of backup iterations between expansions
+	 * @param maxDelta backup iterations stop when the largest change in the value of any belief point is less than this value
+	 */
+	public PointBasedValueIteration(PODomain domain, RewardFunction rf, TerminalFunction tf, double discount, int maxBeliefPoints, int numExpansions, int maxIterations, double maxDelta){
+		this.solverInit(domain, rf, tf, discount, null);
+		if(!domain.providesStateEnumerator()){
+			throw new RuntimeException("PointBasedValueIteration requires that the PODomain provides a StateEnumerator, but it does not.");
+		}
+		if(!domain.getObservationFunction().canEnumerateObservations()){
+			throw new RuntimeException("PointBasedValueIteration requires that the POMDP observation function can enumerate its observations, but it cannot.");
+		}
+		this.stateEnumerator = domain.getStateEnumerator();
+		this.maxBeliefPoints = maxBeliefPoints;
+		this.numExpansions = numExpansions;
+		this.maxIterations = maxIterations;
+		this.maxDelta = maxDelta;
+		this.debugCode = 8375;
+	}
+
+
+	/**
+	 * Sets whether the randomized Perseus backup schedule is used instead of backing up every belief point in each iteration.
+	 * Perseus backups are always computed serially.
+	 * @param usePerseus true to use Perseus backups; false to use PBVI backups (the default)
+	 */
+	public void togglePerseusBackups(boolean usePerseus){
+		this.usePerseus = usePerseus;
+	}
+
+
+	/**
+	 * Sets whether PBVI backups of the belief points should be computed in parallel with the given number of threads. If nThreads is greater
+	 * than one, a new daemon thread pool of that size is created; otherwise backups are computed serially, which is the default.
+	 * The resulting alpha vectors do not depend on the number of threads. A pool created by this method is shut down when it is replaced;
+	 * an executor provided with {@link #setParallelBackups(java.util.concurrent.ExecutorService, int)} never is.
+	 * @param nThreads the number of threads to use for backups.
+	 */
+	public void setParallelBackups(int nThreads){
+		if(nThreads <= 1){
+			this.setParallelBackups(null, 1);
+		}
+		else{
+			this.setParallelBackups(Parallel.newDaemonPool(nThreads, "pbvi-backup"), nThreads * 4);
+			this.ownsBackupExecutor = true;
+		}
+	}
+
+
+	/**
+	 * Sets PBVI backups of the belief points to be computed in parallel using the provided executor. The executor
+	 * is not shut down by this object. Setting the executor to null reverts to serial backups.
+	 * @param executor the executor on which backups will be computed
+	 * @param nChunks the number of chunks into which the belief points are partitioned
+	 */
+	public void setParallelBackups(ExecutorService executor, int nChunks){
+		if(this.ownsBackupExecutor && this.backupExecutor != executor){
+			this.backupExecutor.shutdown();
+		}
+		this.ownsBackupExecutor = false;
+		this.backupExecutor = executor;
+		this.backupChunks = Math.max(1, nChunks);
+	}
+
+
+	/**
+	 * Sets the maximum number of belief points
+	 * @param maxBeliefPoints the maximum number of belief points
+	 */
+	public void setMaxBeliefPoints(int maxBeliefPoints){
+		this.maxBeliefPoints = maxBeliefPoints;
+	}
+
+
+	/**
+	 * Sets the number of times the belief point set is expanded in each call to {@link #planFromState(burlap.oomdp.core.states.State)}
+	 * @param numExpansions the number of expansions
+	 */
+	public void setNumExpansions(int numExpansions){
+		this.numExpansions = numExpansions;
+	}
+
+
+	/**
+	 * Returns the current alpha vectors.
+	 * @return the current alpha vectors.
+	 */
+	public List<AlphaVector> getAlphaVectors(){
+		return this.alphas;
+	}
+
+
+	/**
+	 * Returns the number of belief points.
+	 * @return the number of belief points.
+	 */
+	public int numBeliefPoints(){
+		return this.beliefPoints.size();
+	}
+
+
+	/**
+	 * Returns the Belief MDP domain whose actions are used in the Q-values returned by this solver.
+	 * @return the Belief MDP domain
+	 */
+	public SADomain getBeliefMDP(){
+		this.compile();
+		return this.beliefMDP;
+	}
+
+
+
+	@Override
+	public Policy planFromState(State initialState) {
+
+		this.compile();
+
+		double [] b0 = this.beliefVector(initialState);
+		if(this.nearestPointDistance(b0, this.beliefPoints) > 0.){
+			this.beliefPoints.add(b0);
+		}
+
+		this.improve();
+		for(int i = 0; i < this.numExpansions && this.beliefPoints.size() < this.maxBeliefPoints; i++){
+			if(this.expand()){
+				this.improve();
+			}
+		}
+
+		DPrint.cl(this.debugCode, "Finished planning with " + this.beliefPoints.size() + " belief points and " + this.alphas.size() + " alpha vectors");
+
+		return new BeliefPolicyToPOMDPPolicy(new GreedyQPolicy(this));
+	}
+
+
+	@Override
+	public void resetSolver() {
+		this.alphas.clear();
+		this.beliefPoints.clear();
+	}
+
+
+	@Override
+	public List<QValue> getQs(State s) {
+		this.compile();
+		double [] b = this.beliefVector(s);
+		double [] qs = this.qValues(b);
+		List<QValue> result = new ArrayList<QValue>(qs.length);
+		for(int a = 0; a < qs.length; a++){
+			result.add(new QValue(s, this.beliefActions[a], qs[a]));
+		}
+		return result;
+	}
+
+
+	@Override
+	public QValue getQ(State s, AbstractGroundedAction a) {
+		this.compile();
+		GroundedAction ga = a instanceof BeliefMDPGenerator.GroundedBeliefAction ? ((BeliefMDPGenerator.GroundedBeliefAction)a).pomdpAction : (GroundedAction)a;
+		String name = ga.toString();
+		double [] qs = this.qValues(this.beliefVector(s));
+		for(int i = 0; i < this.pomdpActions.length; i++){
+			if(this.pomdpActions[i].toString().equals(name)){
+				return new QValue(s, this.beliefActions[i], qs[i]);
+			}
+		}
+		throw new RuntimeException("PointBasedValueIteration has no Q-value for unknown action " + name);
+	}
+
+
+	@Override
+	public double value(State s) {
+		this.compile();
+		double [] b = this.beliefVector(s);
+		return this.bestAlpha(b, this.currentAlphas()).dot(b);
+	}
+
+
+	/**
+	 * Returns the Q-value of each action id in the given belief point implied by the alpha vectors.
+	 * @param b the dense belief vector
+	 * @return the Q-value of each action id
+	 */
+	protected double [] qValues(double [] b){
+		double [] qs = new double[this.pomdpActions.length];
+		double floor = this.lowerBound.dot(b);
+		for(int a = 0; a < qs.length; a++){
+			qs[a] = floor;
+		}
+		for(AlphaVector alpha : this.alphas){
+			double v = alpha.dot(b);
+			if(v > qs[alpha.action]){
+				qs[alpha.action] = v;
+			}
+		}
+		return qs;
+	}
+
+
+	/**
+	 * Returns the current alpha vectors, or the lower bound alpha vector if there are none yet.
+	 * @return the current alpha vectors
+	 */
+	protected List<AlphaVector> currentAlphas(){
+		if(this.alphas.isEmpty()){
+			return Collections.singletonList(this.lowerBound);
+		}
+		return this.alphas;
+	}
+
+
+	/**
+	 * Performs backup iterations at the current belief points until the largest change in value at any point is less than {@link #maxDelta}
+	 * or {@link #maxIterations} iterations have been performed.
+	 */
+	protected void improve(){
+
+		for(int i = 0; i < this.maxIterations; i++){
+
+			final List<AlphaVector> old = this.currentAlphas();
+			double [] oldValues = this.pointValues(old);
+
+			List<AlphaVector> next;
+			if(this.usePerseus){
+				next = this.perseusIteration(old, oldValues);
+			}
+			else{
+				next = this.pbviIteration(old);
+			}
+
+			double [] newValues = this.pointValues(next);
+			double delta = 0.;
+			for(int j = 0; j < newValues.length; j++){
+				delta = Math.max(delta, Math.abs(newValues[j] - oldValues[j]));
+			}
+
+			this.alphas = next;
+			if(delta < this.maxDelta){
+				break;
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Backs up every belief point, across the backup executor if there is one, and prunes dominated vectors from the result.
+	 * @param old the alpha vectors of the previous iteration
+	 * @return the new alpha vectors
+	 */
+	protected List<AlphaVector> pbviIteration(final List<AlphaVector> old){
+
+		List<AlphaVector> next = new ArrayList<AlphaVector>(this.beliefPoints.size());
+		if(this.backupExecutor == null){
+			for(double [] b : this.beliefPoints){
+				next.add(this.backup(b, old));
+			}
+		}
+		else{
+			List<List<AlphaVector>> chunks = Parallel.forChunks(this.backupExecutor, this.beliefPoints.size(), this.backupChunks, new Parallel.ForChunk<List<AlphaVector>>() {
+				@Override
+				public List<AlphaVector> run(int chunk, int start, int end) {
+					List<AlphaVector> result = new ArrayList<AlphaVector>(end-start);
+					for(int j = start; j < end; j++){
+						result.add(PointBasedValueIteration.this.backup(PointBasedValueIteration.this.beliefPoints.get(j), old));
+					}
+					return result;
+				}
+			});
+			for(List<AlphaVector> chunk : chunks){
+				next.addAll(chunk);
+			}
+		}
+
+		return pruneDominated(next);
+	}
+
+
+	/**
+	 * Performs a Perseus iteration: randomly chosen belief points whose value has not yet been improved are backed up (keeping the old best
+	 * vector of a point if its backup is worse) until no point's value is lower than it was under the old alpha vectors. Dominated vectors are then pruned.
+	 * @param old the alpha vectors of the previous iteration
+	 * @param oldValues the value of each belief point under the old alpha vectors
+	 * @return the new alpha vectors
+	 */
+	protected List<AlphaVector> perseusIteration(List<AlphaVector> old, double [] oldValues){
+
+		Random rand = RandomFactory.getMapped(0);
+		List<AlphaVector> next = new ArrayList<AlphaVector>();
+		List<Integer> remaining = new ArrayList<Integer>(this.beliefPoints.size());
+		for(int j = 0; j < this.beliefPoints.size(); j++){
+			remaining.add(j);
+		}
+
+		while(!remaining.isEmpty()){
+			int j = remaining.get(rand.nextInt(remaining.size()));
+			double [] b = this.beliefPoints.get(j);
+			AlphaVector alpha = this.backup(b, old);
+			if(alpha.dot(b) < oldValues[j]){
+				alpha = this.bestAlpha(b, old);
+			}
+			next.add(alpha);
+
+			List<Integer> stillRemaining = new ArrayList<Integer>(remaining.size());
+			for(int k : remaining){
+				if(alpha.dot(this.beliefPoints.get(k)) < oldValues[k]){
+					stillRemaining.add(k);
+				}
+			}
+			remaining = stillRemaining;
+		}
+
+		return pruneDominated(next);
+	}
+
+
+	/**
+	 * Returns the point-based Bellman backup of the given belief point: the alpha vector with the largest value in the belief point among the alpha vectors
+	 * that are generated for each action by combining, for each observation, the old vector that is best in the updated belief.
+	 * @param b the dense belief vector
+	 * @param old the alpha vectors of the previous iteration
+	 * @return the backed up alpha vector
+	 */
+	protected AlphaVector backup(double [] b, List<AlphaVector> old){
+
+		int n = this.numStates;
+		double [] predicted = new double[n];
+		double [] updated = new double[n];
+
+		AlphaVector best = null;
+		double bestV = Double.NEGATIVE_INFINITY;
+
+		for(int a = 0; a < this.pomdpActions.length; a++){
+
+			//predicted next state distribution
+			for(int s = 0; s < n; s++){
+				predicted[s] = 0.;
+			}
+			for(int s = 0; s < n; s++){
+				double bs = b[s];
+				if(bs == 0.){
+					continue;
+				}
+				int [] next = this.transitionNext[a][s];
+				double [] probs = this.transitionProbs[a][s];
+				for(int t = 0; t < next.length; t++){
+					predicted[next[t]] += bs * probs[t];
+				}
+			}
+
+			double [] values = new double[n];
+			for(int o = 0; o < this.observations.size(); o++){
+
+				double [] likelihood = this.observationLikelihoods[a][o];
+				double po = 0.;
+				for(int s = 0; s < n; s++){
+					updated[s] = predicted[s] * likelihood[s];
+					po += updated[s];
+				}
+
+				//add the projection of the best old vector for the (unnormalized) updated belief; if the observation cannot occur
+				//from b, any old vector is best at b, but its projection is still needed for the vector to be valid at other beliefs
+				AlphaVector chosen = po == 0. ? old.get(0) : this.bestAlpha(updated, old);
+				for(int s = 0; s < n; s++){
+					int [] next = this.transitionNext[a][s];
+					double [] probs = this.transitionProbs[a][s];
+					double g = 0.;
+					for(int t = 0; t < next.length; t++){
+						g += probs[t] * likelihood[next[t]] * chosen.values[next[t]];
+					}
+					values[s] += g;
+				}
+
+			}
+
+			double [] r = this.rewards[a];
+			for(int s = 0; s < n; s++){
+				values[s] = this.terminal[s] ? 0. : r[s] + this.gamma * values[s];
+			}
+
+			AlphaVector candidate = new AlphaVector(values, a);
+			double v = candidate.dot(b);
+			if(v > bestV){
+				bestV = v;
+				best = candidate;
+			}
+
+		}
+
+		return best;
+	}
+
+
+	/**
+	 * Expands the belief point set: for each current point, a successor belief is simulated for each action and the successor that
+	 * is farthest (in L1 distance) from all points is added, if it is not already a point.
+	 * @return true if any point was added; false otherwise.
+	 */
+	protected boolean expand(){
+
+		Random rand = RandomFactory.getMapped(0);
+		int n = this.numStates;
+		List<double []> added = new ArrayList<double[]>();
+		List<double []> all = new ArrayList<double[]>(this.beliefPoints);
+		int numPoints = this.beliefPoints.size();
+
+		for(int j = 0; j < numPoints && all.size() < this.maxBeliefPoints; j++){
+
+			double [] b = this.beliefPoints.get(j);
+			double [] farthest = null;
+			double farthestD = 0.;
+
+			for(int a = 0; a < this.pomdpActions.length; a++){
+
+				int s = sample(b, n, rand);
+				if(this.terminal[s]){
+					continue;
+				}
+				int [] next = this.transitionNext[a][s];
+				double [] probs = this.transitionProbs[a][s];
+				if(next.length == 0){
+					continue;
+				}
+				int sp = next[sample(probs, probs.length, rand)];
+				double [] oProbs = new double[this.observations.size()];
+				for(int o = 0; o < oProbs.length; o++){
+					oProbs[o] = this.observationLikelihoods[a][o][sp];
+				}
+				int o = sample(oProbs, oProbs.length, rand);
+
+				double [] nb = this.updatedBelief(b, a, o);
+				if(nb == null){
+					continue;
+				}
+				double d = this.nearestPointDistance(nb, all);
+				if(d > farthestD){
+					farthestD = d;
+					farthest = nb;
+				}
+
+			}
+
+			if(farthest != null){
+				added.add(farthest);
+				all.add(farthest);
+			}
+
+		}
+
+		this.beliefPoints.addAll(added);
+
+		return !added.isEmpty();
+	}
+
+
+	/**
+	 * Returns the belief that results from taking an action in a belief and receiving an observation, or null if the observation is impossible.
+	 * @param b the dense belief vector
+	 * @param a the action id
+	 * @param o the observation id
+	 * @return the updated dense belief vector, or null if the observation is impossible.
+	 */
+	protected double [] updatedBelief(double [] b, int a, int o){
+		int n = this.numStates;
+		double [] nb = new double[n];
+		for(int s = 0; s < n; s++){
+			double bs = b[s];
+			if(bs == 0.){
+				continue;
+			}
+			int [] next = this.transitionNext[a][s];
+			double [] probs = this.transitionProbs[a][s];
+			for(int t = 0; t < next.length; t++){
+				nb[next[t]] += bs * probs[t];
+			}
+		}
+		double [] likelihood = this.observationLikelihoods[a][o];
+		double sum = 0.;
+		for(int s = 0; s < n; s++){
+			nb[s] *= likelihood[s];
+			sum += nb[s];
+		}
+		if(sum == 0.){
+			return null;
+		}
+		for(int s = 0; s < n; s++){
+			nb[s] /= sum;
+		}
+		return nb;
+	}
+
+
+	/**
+	 * Returns the value of each belief point under the given alpha vectors.
+	 * @param vectors the alpha vectors
+	 * @return the value of each belief point
+	 */
+	protected double [] pointValues(List<AlphaVector> vectors){
+		double [] values = new double[this.beliefPoints.size()];
+		for(int j = 0; j < values.length; j++){
+			double [] b = this.beliefPoints.get(j);
+			values[j] = this.bestAlpha(b, vectors).dot(b);
+		}
+		return values;
+	}
+
+
+	/**
+	 * Returns the alpha vector with the largest value in the given (possibly unnormalized) belief.
+	 * @param b the dense belief vector
+	 * @param vectors the alpha vectors
+	 * @return the alpha vector with the largest value
+	 */
+	protected AlphaVector bestAlpha(double [] b, List<AlphaVector> vectors){
+		AlphaVector best = null;
+		double bestV = Double.NEGATIVE_INFINITY;
+		for(AlphaVector alpha : vectors){
+			double v = alpha.dot(b);
+			if(v > bestV){
+				bestV = v;
+				best = alpha;
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Returns the L1 distance from a belief to the nearest of the given belief points, or infinity if there are none.
+	 * @param b the dense belief vector
+	 * @param points the belief points
+	 * @return the L1 distance to the nearest point
+	 */
+	protected double nearestPointDistance(double [] b, List<double []> points){
+		double nearest = Double.POSITIVE_INFINITY;
+		for(double [] p : points){
+			double d = 0.;
+			for(int s = 0; s < b.length && d < nearest; s++){
+				d += Math.abs(b[s] - p[s]);
+			}
+			nearest = Math.min(nearest, d);
+		}
+		return nearest;
+	}
+
+
+	/**
+	 * Returns the dense belief vector over compiled state ids of a belief state.
+	 * @param s the belief state, which must be a {@link burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState}
+	 * @return the dense belief vector
+	 */
+	protected double [] beliefVector(State s){
+		if(s instanceof DenseBeliefVector){
+			double [] v = ((DenseBeliefVector)s).getBeliefVector();
+			if(v.length == this.numStates){
+				return v;
+			}
+		}
+		if(!(s instanceof EnumerableBeliefState)){
+			throw new RuntimeException("PointBasedValueIteration requires EnumerableBeliefState instances, but was given a " + s.getClass().getName() + " instance.");
+		}
+		double [] v = new double[this.numStates];
+		for(EnumerableBeliefState.StateBelief sb : ((EnumerableBeliefState)s).getStatesAndBeliefsWithNonZeroProbability()){
+			int id = this.stateEnumerator.getEnumeratedID(sb.s);
+			if(id >= this.numStates){
+				throw new RuntimeException("PointBasedValueIteration was given a belief state with mass on a state that was not compiled.");
+			}
+			v[id] = sb.belief;
+		}
+		return v;
+	}
+
+
+	/**
+	 * Compiles the transition dynamics, expected rewards and observation likelihoods of the POMDP over the enumerated states, enumerating any
+	 * reachable states that were not enumerated yet. Does nothing if the POMDP has already been compiled.
+	 */
+	protected void compile(){
+
+		if(this.compiled){
+			return;
+		}
+
+		PODomain podomain = (PODomain)this.domain;
+		List<GroundedAction> gas = Action.getAllApplicableGroundedActionsFromActionList(this.actions, this.stateEnumerator.getStateForEnumerationId(0));
+		int nA = gas.size();
+		this.pomdpActions = gas.toArray(new GroundedAction[nA]);
+
+		this.beliefMDP = (SADomain)new BeliefMDPGenerator(podomain).generateDomain();
+		this.beliefActions = new GroundedAction[nA];
+		for(int a = 0; a < nA; a++){
+			this.beliefActions[a] = new BeliefMDPGenerator.GroundedBeliefAction(this.beliefMDP.getAction(this.pomdpActions[a].actionName()), this.pomdpActions[a]);
+		}
+
+		List<List<int []>> next = new ArrayList<List<int[]>>(nA);
+		List<List<double []>> probs = new ArrayList<List<double[]>>(nA);
+		List<List<Double>> rs = new ArrayList<List<Double>>(nA);
+		for(int a = 0; a < nA; a++){
+			next.add(new ArrayList<int[]>());
+			probs.add(new ArrayList<double[]>());
+			rs.add(new ArrayList<Double>());
+		}
+		List<Boolean> terminalList = new ArrayList<Boolean>();
+
+		//the enumeration may grow as we encounter states that were not enumerated
+		for(int s = 0; s < this.stateEnumerator.numStatesEnumerated(); s++){
+			State st = this.stateEnumerator.getStateForEnumerationId(s);
+			boolean isTerminal = this.tf.isTerminal(st);
+			terminalList.add(isTerminal);
+			for(int a = 0; a < nA; a++){
+				if(isTerminal){
+					next.get(a).add(new int[0]);
+					probs.get(a).add(new double[0]);
+					rs.get(a).add(0.);
+					continue;
+				}
+				List<TransitionProbability> tps = this.pomdpActions[a].getTransitions(st);
+				int [] ids = new int[tps.size()];
+				double [] ps = new double[tps.size()];
+				double r = 0.;
+				for(int t = 0; t < ids.length; t++){
+					TransitionProbability tp = tps.get(t);
+					ids[t] = this.stateEnumerator.getEnumeratedID(tp.s);
+					ps[t] = tp.p;
+					r += tp.p * this.rf.reward(st, this.pomdpActions[a], tp.s);
+				}
+				next.get(a).add(ids);
+				probs.get(a).add(ps);
+				rs.get(a).add(r);
+			}
+		}
+
+		int n = terminalList.size();
+		this.numStates = n;
+		this.terminal = new boolean[n];
+		boolean hasTerminal = false;
+		for(int s = 0; s < n; s++){
+			this.terminal[s] = terminalList.get(s);
+			hasTerminal |= this.terminal[s];
+		}
+
+		this.transitionNext = new int[nA][][];
+		this.transitionProbs = new double[nA][][];
+		this.rewards = new double[nA][n];
+		double minR = Double.POSITIVE_INFINITY;
+		for(int a = 0; a < nA; a++){
+			this.transitionNext[a] = next.get(a).toArray(new int[n][]);
+			this.transitionProbs[a] = probs.get(a).toArray(new double[n][]);
+			for(int s = 0; s < n; s++){
+				this.rewards[a][s] = rs.get(a).get(s);
+				if(!this.terminal[s]){
+					minR = Math.min(minR, this.rewards[a][s]);
+				}
+			}
+		}
+
+		ObservationFunction of = podomain.getObservationFunction();
+		this.observations = of.getAllPossibleObservations();
+		this.observationLikelihoods = new double[nA][this.observations.size()][n];
+		for(int a = 0; a < nA; a++){
+			for(int o = 0; o < this.observations.size(); o++){
+				for(int s = 0; s < n; s++){
+					this.observationLikelihoods[a][o][s] = of.getObservationProbability(this.observations.get(o), this.stateEnumerator.getStateForEnumerationId(s), this.pomdpActions[a]);
+				}
+			}
+		}
+
+		//the value of always receiving the smallest reward is a lower bound, unless episodes can end before accumulating it
+		if(minR == Double.POSITIVE_INFINITY || (hasTerminal && minR > 0.)){
+			minR = 0.;
+		}
+		double [] lb = new double[n];
+		for(int s = 0; s < n; s++){
+			lb[s] = this.terminal[s] ? 0. : minR / (1. - this.gamma);
+		}
+		this.lowerBound = new AlphaVector(lb, 0);
+
+		this.compiled = true;
+
+	}
+
+
+	/**
+	 * Removes duplicate alpha vectors and alpha vectors that are pointwise dominated by another vector in the list.
+	 * @param vectors the alpha vectors
+	 * @return the vectors that are not dominated
+	 */
+	public static List<AlphaVector> pruneDominated(List<AlphaVector> vectors){
+		List<AlphaVector> kept = new ArrayList<AlphaVector>(vectors.size());
+		for(AlphaVector alpha : vectors){
+			boolean dominated = false;
+			for(AlphaVector other : kept){
+				if(other.dominates(alpha)){
+					dominated = true;
+					break;
+				}
+			}
+			if(dominated){
+				continue;
+			}
+			//remove any kept vectors this one dominates
+			for(int i = kept.size()-1; i >= 0; i--){
+				if(alpha.dominates(kept.get(i))){
+					kept.remove(i);
+				}
+			}
+			kept.add(alpha);
+		}
+		return kept;
+	}
+
+
+	/**
+	 * Returns an index of a probability distribution sampled with the given random number generator.
+	 */
+	private static int sample(double [] dist, int n, Random rand){
+		double r = rand.nextDouble();
+		double sum = 0.;
+		int last = 0;
+		for(int i = 0; i < n; i++){
+			if(dist[i] > 0.){
+				sum += dist[i];
+				last = i;
+				if(r < sum){
+					return i;
+				}
+			}
+		}
+		return last;
+	}
+
+
+
+	/**
+	 * An alpha vector: a linear function over the compiled state ids that gives the value of following the conditional plan
+	 * it represents from each state, along with the id of the action that plan takes first.
+	 * @author James MacGlashan
+	 *
+	 */
+	public static class AlphaVector{
+
+		/**
+		 * The value of each state id
+		 */
+		public final double [] values;
+
+		/**
+		 * The id of the first action of the vector's plan
+		 */
+		public final int action;
+
+
+		/**
+		 * Initializes.
+		 * @param values the value of each state id
+		 * @param action the id of the first action of the vector's plan
+		 */
+		public AlphaVector(double [] values, int action){
+			this.values = values;
+			this.action = action;
+		}
+
+
+		/**
+		 * Returns the value of this vector in the given (possibly unnormalized) belief.
+		 * @param b the dense belief vector
+		 * @return the dot product of this vector and the belief
+		 */
+		public double dot(double [] b){
+			double sum = 0.;
+			for(int s = 0; s < b.length; s++){
+				sum += b[s] * this.values[s];
+			}
+			return sum;
+		}
+
+
+		/**
+		 * Returns whether this vector is at least as large as the other vector in every state.
+		 * @param other the other vector
+		 * @return true if this vector pointwise dominates the other; false otherwise.
+		 */
+		public boolean dominates(AlphaVector other){
+			for(int s = 0; s < this.values.length; s++){
+				if(this.values[s] < other.values[s]){
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,483 @@
+package burlap.behavior.singleagent.pomdp.pomcp;
+
+import burlap.behavior.policy.GreedyQPolicy;
+import burlap.behavior.policy.Policy;
+import burlap.behavior.singleagent.MDPSolver;
+import burlap.behavior.singleagent.planning.Planner;
+import burlap.behavior.valuefunction.QFunction;
+import burlap.behavior.valuefunction.QValue;
+import burlap.debugtools.DPrint;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.core.AbstractGroundedAction;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+import burlap.oomdp.singleagent.pomdp.ObservationFunction;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState;
+import burlap.oomdp.statehashing.HashableState;
+import burlap.oomdp.statehashing.HashableStateFactory;
+
+import java.util.*;
+
+/**
+ * An implementation of Partially Observable Monte Carlo Planning (POMCP) [1]. POMCP is an online planner that grows a UCT
+ * search tree over action-observation histories instead of belief states. Each simulation samples a hidden MDP state from the
+ * belief being planned for and then simulates the POMDP from it: actions are selected with the UCB1 rule in the tree, outcomes are
+ * sampled with {@link burlap.oomdp.singleagent.GroundedAction#executeIn(burlap.oomdp.core.states.State)}, observations are sampled from the domain's
+ * {@link burlap.oomdp.singleagent.pomdp.ObservationFunction}, and a rollout policy estimates the return of histories that are added to the tree.
+ * Because beliefs are never updated during search, the cost of planning depends only on the number of simulations and their depth, not on the
+ * size of the state or observation space.
+ * <p>
+ * Every history node stores the hidden states with which simulations reached it (up to a maximum number), which form a particle approximation of
+ * the belief for that history. After the agent acts and observes, {@link #advanceRoot(burlap.oomdp.singleagent.GroundedAction, burlap.oomdp.core.states.State)}
+ * makes the corresponding history node the root so that its statistics are reused when tree reuse is enabled, and {@link #getRootParticleBelief()}
+ * returns its particles as a {@link burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState}. The {@link burlap.behavior.singleagent.pomdp.pomcp.POMCPAgent}
+ * does both automatically.
+ * <p>
+ * Planning stops when the number of simulations has been performed or the planning time budget set with {@link #setPlanningTimeBudget(long)} is exhausted, whichever
+ * comes first, so POMCP can be used as an anytime planner by setting the number of simulations to -1 and a time budget.
+ * This class is also a {@link burlap.behavior.valuefunction.QFunction} for belief states, so the {@link burlap.behavior.policy.GreedyQPolicy} returned by
+ * {@link #planFromState(burlap.oomdp.core.states.State)} can be followed by a {@link burlap.behavior.singleagent.pomdp.BeliefPolicyAgent}; querying it for a belief
+ * that is not the current root belief plans for that belief.
+ * <p>
+ * 1. Silver, David, and Joel Veness. "Monte-Carlo planning in large POMDPs." Advances in Neural Information Processing Systems. 2010.
+ * @author James MacGlashan.
+ */
+public class POMCP extends MDPSolver implements Planner, QFunction {
+
+	/**
+	 * The maximum depth of simulations
+	 */
+	protected int								maxDepth;
+
+	/**
+	 * The number of simulations performed for each planning call; -1 if there is no limit.
+	 */
+	protected int								numSimulations;
+
+	/**
+	 * The UCB1 exploration bias constant. It should be on the order of the range of returns in the domain.
+	 */
+	protected double							explorationBias;
+
+	/**
+	 * The maximum wall-clock time in milliseconds for each planning call; -1 if there is no time limit.
+	 */
+	protected long								planningTimeBudget = -1;
+
+	/**
+	 * The maximum number of particles stored at each history node
+	 */
+	protected int								maxNodeParticles = 1000;
+
+	/**
+	 * Whether the subtree of the root is reused between planning calls after {@link #advanceRoot(burlap.oomdp.singleagent.GroundedAction, burlap.oomdp.core.states.State)}.
+	 */
+	protected boolean							reuseTree = true;
+
+	/**
+	 * The policy followed by rollouts from new history nodes; if null, actions are selected uniformly randomly.
+	 */
+	protected Policy							rolloutPolicy;
+
+	/**
+	 * The root of the search tree
+	 */
+	protected HistoryNode						root;
+
+	/**
+	 * The belief state for which the root was last searched; null if the root was advanced and has not been searched since.
+	 */
+	protected BeliefState						rootBelief;
+
+	/**
+	 * The number of simulations performed by the last planning call
+	 */
+	protected int								numSimulationsPerformed;
+
+	/**
+	 * The random number generator
+	 */
+	protected Random							rand;
+
+
+	/**
+	 * Initializes.
+	 * @param domain the POMDP domain
+	 * @param rf the reward function
+	 * @param tf the terminal function
+	 * @param gamma the discount factor
+	 * @param hashingFactory the hashing factory used to index observations in the search tree
+	 * @param maxDepth the maximum depth of simulations
+	 * @param numSimulations the number of simulations performed for each planning call; -1 to plan only until the time budget set with {@link #setPlanningTimeBudget(long)} is exhausted
+	 * @param explorationBias the UCB1 exploration bias constant, which should be on the order of the range of returns in the domain
+	 */
+	public POMCP(PODomain domain, RewardFunction rf, TerminalFunction tf, double gamma, HashableStateFactory hashingFactory, int maxDepth, int numSimulations, double explorationBias){
+		this.solverInit(domain, rf, tf, gamma, hashingFactory);
+		this.maxDepth = maxDepth;
+		this.numSimulations = numSimulations;
+		this.explorationBias = explorationBias;
+		this.rand = RandomFactory.getMapped(0);
+	}
+
+
+	/**
+	 * Sets a wall-clock time budget for each planning call. Planning will stop when the time budget is exhausted or the number of simulations
+	 * has been performed, whichever comes first. A simulation that is in progress when the budget expires is finished first.
+	 * @param milliseconds the maximum planning time in milliseconds; if less than or equal to zero, then there is no time limit.
+	 */
+	public void setPlanningTimeBudget(long milliseconds){
+		this.planningTimeBudget = milliseconds > 0 ? milliseconds : -1;
+	}
+
+
+	/**
+	 * Sets whether the subtree of the root is reused between planning calls. When enabled, planning for a new belief after the root has been advanced with
+	 * {@link #advanceRoot(burlap.oomdp.singleagent.GroundedAction, burlap.oomdp.core.states.State)} keeps the statistics of the advanced root's subtree;
+	 * otherwise a new tree is grown for each belief. The default is true.
+	 * @param reuseTree whether the tree should be reused between planning calls
+	 */
+	public void toggleTreeReuse(boolean reuseTree){
+		this.reuseTree = reuseTree;
+	}
+
+
+	/**
+	 * Sets the maximum number of particles stored at each history node. The default is 1000.
+	 * @param maxNodeParticles the maximum number of particles stored at each history node
+	 */
+	public void setMaxNodeParticles(int maxNodeParticles){
+		this.maxNodeParticles = maxNodeParticles;
+	}
+
+
+	/**
+	 * Sets the policy over hidden MDP states followed by rollouts from new history nodes. If null, rollouts select actions uniformly randomly.
+	 * @param rolloutPolicy the rollout policy
+	 */
+	public void setRolloutPolicy(Policy rolloutPolicy){
+		this.rolloutPolicy = rolloutPolicy;
+	}
+
+
+	/**
+	 * Returns the root of the search tree.
+	 * @return the root of the search tree; null if no tree has been grown or the last advanced history was not in the tree.
+	 */
+	public HistoryNode getRoot(){
+		return this.root;
+	}
+
+
+	/**
+	 * Returns the number of simulations performed by the last planning call.
+	 * @return the number of simulations performed by the last planning call.
+	 */
+	public int getNumSimulationsPerformed(){
+		return this.numSimulationsPerformed;
+	}
+
+
+	/**
+	 * Plans from the input {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState} and returns a {@link burlap.behavior.policy.GreedyQPolicy}
+	 * that selects the root action with the highest mean return.
+	 * @param initialState the {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState} for which to plan
+	 * @return a {@link burlap.behavior.policy.GreedyQPolicy}.
+	 */
+	@Override
+	public GreedyQPolicy planFromState(State initialState) {
+
+		if(!(initialState instanceof BeliefState)){
+			throw new RuntimeException("POMCP cannot plan from a state that is not a BeliefState instance.");
+		}
+		if(this.numSimulations < 0 && this.planningTimeBudget <= 0){
+			throw new RuntimeException("POMCP cannot plan with an unlimited number of simulations unless a positive planning time budget is set.");
+		}
+		BeliefState belief = (BeliefState)initialState;
+
+		if(this.root == null || !this.reuseTree || (this.rootBelief != null && this.rootBelief != belief)){
+			this.root = new HistoryNode();
+		}
+		this.rootBelief = belief;
+
+		long deadline = System.nanoTime() + this.planningTimeBudget * 1000000L;
+		this.numSimulationsPerformed = 0;
+		while((this.numSimulations < 0 || this.numSimulationsPerformed < this.numSimulations)
+				&& !(this.planningTimeBudget > 0 && System.nanoTime() - deadline >= 0)){
+			this.simulate(belief.sampleStateFromBelief(), this.root, 0);
+			this.numSimulationsPerformed++;
+		}
+
+		DPrint.cl(this.debugCode, "Simulations: " + this.numSimulationsPerformed + "; root visits: " + this.root.visits);
+
+		return new GreedyQPolicy(this);
+	}
+
+
+	/**
+	 * Makes the history node that follows the root by the given action and observation the new root, discarding the rest of the tree.
+	 * If the history is not in the tree, the tree is discarded.
+	 * @param ga the action taken
+	 * @param observation the observation received
+	 * @return true if the history was in the tree; false otherwise.
+	 */
+	public boolean advanceRoot(GroundedAction ga, State observation){
+		HistoryNode next = null;
+		if(this.root != null && this.root.actionNodes != null){
+			String actionKey = ga.toString();
+			for(ActionNode an : this.root.actionNodes){
+				if(an.action.toString().equals(actionKey)){
+					next = an.children.get(this.hashingFactory.hashState(observation));
+					break;
+				}
+			}
+		}
+		this.root = next;
+		this.rootBelief = null;
+		return next != null;
+	}
+
+
+	/**
+	 * Returns the particles of the root as an equally weighted {@link burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState}.
+	 * @return the particle belief of the root; null if there is no root or it has no particles.
+	 */
+	public ParticleBeliefState getRootParticleBelief(){
+		if(this.root == null || this.root.particles.isEmpty()){
+			return null;
+		}
+		return new ParticleBeliefState((PODomain)this.domain, this.root.particles);
+	}
+
+
+	@Override
+	public List<QValue> getQs(State s) {
+		this.planIfNotRoot(s);
+		List<QValue> qs = new ArrayList<QValue>(this.root.actionNodes.size());
+		for(ActionNode an : this.root.actionNodes){
+			qs.add(new QValue(s, an.action, an.value));
+		}
+		return qs;
+	}
+
+
+	@Override
+	public QValue getQ(State s, AbstractGroundedAction a) {
+		this.planIfNotRoot(s);
+		String actionKey = a.toString();
+		for(ActionNode an : this.root.actionNodes){
+			if(an.action.toString().equals(actionKey)){
+				return new QValue(s, an.action, an.value);
+			}
+		}
+		throw new RuntimeException("POMCP has no Q-value for action " + actionKey + " because it is not applicable in the sampled states of the root.");
+	}
+
+
+	@Override
+	public double value(State s) {
+		return QFunctionHelper.getOptimalValue(this, s);
+	}
+
+
+	@Override
+	public void resetSolver() {
+		this.root = null;
+		this.rootBelief = null;
+		this.numSimulationsPerformed = 0;
+	}
+
+
+	/**
+	 * Plans for the given belief state if it is not the belief for which the root was searched.
+	 * @param s the belief state
+	 */
+	protected void planIfNotRoot(State s){
+		if(this.root == null || this.rootBelief != s || this.root.actionNodes == null){
+			this.planFromState(s);
+		}
+		if(this.root.actionNodes == null){
+			throw new RuntimeException("POMCP could not expand the root for the belief state; the sampled states may all be terminal or the maximum depth is 0.");
+		}
+	}
+
+
+	/**
+	 * Simulates an episode from a hidden state through the tree, expanding the tree by one history node, and updates the statistics of the visited nodes.
+	 * @param s the hidden state
+	 * @param node the history node of the hidden state
+	 * @param depth the depth of the history node
+	 * @return the discounted return of the simulation from the history node
+	 */
+	protected double simulate(State s, HistoryNode node, int depth){
+
+		if(depth >= this.maxDepth || this.tf.isTerminal(s)){
+			return 0.;
+		}
+
+		if(node.particles.size() < this.maxNodeParticles){
+			node.particles.add(s);
+		}
+
+		if(node.actionNodes == null){
+			List<GroundedAction> gas = this.getAllGroundedActions(s);
+			node.actionNodes = new ArrayList<ActionNode>(gas.size());
+			for(GroundedAction ga : gas){
+				node.actionNodes.add(new ActionNode(ga));
+			}
+			node.visits++;
+			return this.rollout(s, depth);
+		}
+
+		ActionNode an = this.selectActionNode(node);
+		State sp = an.action.executeIn(s);
+		double r = this.rf.reward(s, an.action, sp);
+		State o = ((PODomain)this.domain).getObservationFunction().sampleObservation(sp, an.action);
+
+		HashableState oh = this.hashingFactory.hashState(o);
+		HistoryNode child = an.children.get(oh);
+		if(child == null){
+			child = new HistoryNode();
+			an.children.put(oh, child);
+		}
+
+		double ret = r + this.gamma * this.simulate(sp, child, depth+1);
+
+		node.visits++;
+		an.update(ret);
+
+		return ret;
+	}
+
+
+	/**
+	 * Estimates the discounted return from a hidden state by following the rollout policy until the maximum depth or a terminal state.
+	 * @param s the hidden state
+	 * @param depth the depth of the hidden state
+	 * @return the discounted return of the rollout
+	 */
+	protected double rollout(State s, int depth){
+		double ret = 0.;
+		double discount = 1.;
+		for(int d = depth; d < this.maxDepth && !this.tf.isTerminal(s); d++){
+			GroundedAction ga;
+			if(this.rolloutPolicy != null){
+				ga = (GroundedAction)this.rolloutPolicy.getAction(s);
+			}
+			else{
+				List<GroundedAction> gas = this.getAllGroundedActions(s);
+				ga = gas.get(this.rand.nextInt(gas.size()));
+			}
+			State sp = ga.executeIn(s);
+			ret += discount * this.rf.reward(s, ga, sp);
+			discount *= this.gamma;
+			s = sp;
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Selects the action node with the highest UCB1 value, selecting untried action nodes first and breaking ties randomly.
+	 * @param node the history node from which to select an action
+	 * @return the selected action node
+	 */
+	protected ActionNode selectActionNode(HistoryNode node){
+
+		double logVisits = Math.log(node.visits);
+		double maxValue = Double.NEGATIVE_INFINITY;
+		ActionNode selected = null;
+		int nTies = 0;
+		for(ActionNode an : node.actionNodes){
+			double v = an.visits == 0 ? Double.POSITIVE_INFINITY : an.value + this.explorationBias * Math.sqrt(logVisits / an.visits);
+			if(v > maxValue){
+				maxValue = v;
+				selected = an;
+				nTies = 1;
+			}
+			else if(v == maxValue){
+				//reservoir sample among ties
+				nTies++;
+				if(this.rand.nextInt(nTies) == 0){
+					selected = an;
+				}
+			}
+		}
+
+		return selected;
+	}
+
+
+	/**
+	 * A node of the search tree for an action-observation history.
+	 */
+	public static class HistoryNode{
+
+		/**
+		 * The number of simulations through this node
+		 */
+		public int							visits;
+
+		/**
+		 * The action nodes of this history; null until the node is expanded.
+		 */
+		public List<ActionNode>				actionNodes;
+
+		/**
+		 * The hidden states with which simulations reached this node
+		 */
+		public List<State>					particles = new ArrayList<State>();
+
+	}
+
+
+	/**
+	 * A node of the search tree for taking an action after a history.
+	 */
+	public static class ActionNode{
+
+		/**
+		 * The action
+		 */
+		public GroundedAction				action;
+
+		/**
+		 * The number of simulations that took this action
+		 */
+		public int							visits;
+
+		/**
+		 * The mean discounted return of the simulations that took this action
+		 */
+		public double						value;
+
+		/**
+		 * The history nodes that follow this action, indexed by observation
+		 */
+		public Map<HashableState, HistoryNode>	children = new HashMap<HashableState, HistoryNode>();
+
+
+		/**
+		 * Initializes for the given action.
+		 * @param action the action
+		 */
+		public ActionNode(GroundedAction action){
+			this.action = action;
+		}
+
+
+		/**
+		 * Adds the return of a simulation to the mean return of this action.
+		 * @param ret the discounted return of the simulation
+		 */
+		public void update(double ret){
+			this.visits++;
+			this.value += (ret - this.value) / this.visits;
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+package burlap.behavior.singleagent.pomdp.pomcp;
+
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.environment.Environment;
+import burlap.oomdp.singleagent.pomdp.BeliefAgent;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState;
+
+
+/**
+ * A {@link burlap.oomdp.singleagent.pomdp.BeliefAgent} that selects actions by planning with {@link burlap.behavior.singleagent.pomdp.pomcp.POMCP}
+ * from its current belief at every step. After each action and observation, the root of the search tree is advanced to the
+ * observed history so that its statistics are reused by the next planning call (if tree reuse is enabled in the planner).
+ * <p>
+ * By default the agent's belief is updated with the current belief's own update method. If particle belief updates are enabled
+ * with {@link #toggleParticleBeliefUpdates(boolean)}, the agent's belief is instead replaced by the particles stored at the advanced root
+ * whenever it has at least a minimum number of them, which avoids exact belief updates entirely; when it has fewer particles,
+ * the agent falls back to the current belief's update method.
+ */
+public class POMCPAgent extends BeliefAgent {
+
+	/**
+	 * The POMCP planner
+	 */
+	protected POMCP						planner;
+
+	/**
+	 * Whether the agent's belief is replaced by the particles of the advanced root
+	 */
+	protected boolean					useParticleBeliefs = false;
+
+	/**
+	 * The minimum number of root particles required to use them as the agent's belief
+	 */
+	protected int						minBeliefParticles = 100;
+
+
+	/**
+	 * Initializes.
+	 * @param domain the POMDP domain
+	 * @param environment the environment with which the agent will interact
+	 * @param planner the POMCP planner used to select actions
+	 */
+	public POMCPAgent(PODomain domain, Environment environment, POMCP planner){
+		super(domain, environment);
+		this.planner = planner;
+	}
+
+
+	/**
+	 * Sets whether the agent's belief is replaced by the particles stored at the root of the search tree after each step.
+	 * @param useParticleBeliefs whether to use the root particles as the agent's belief
+	 * @param minBeliefParticles the minimum number of root particles required to use them; otherwise the current belief's update method is used
+	 */
+	public void toggleParticleBeliefUpdates(boolean useParticleBeliefs, int minBeliefParticles){
+		this.useParticleBeliefs = useParticleBeliefs;
+		this.minBeliefParticles = minBeliefParticles;
+	}
+
+
+	/**
+	 * Sets whether the agent's belief is replaced by the particles stored at the root of the search tree after each step, keeping the
+	 * current minimum number of particles (100 by default).
+	 * @param useParticleBeliefs whether to use the root particles as the agent's belief
+	 */
+	public void toggleParticleBeliefUpdates(boolean useParticleBeliefs){
+		this.useParticleBeliefs = useParticleBeliefs;
+	}
+
+
+	/**
+	 * Returns the POMCP planner used by this agent.
+	 * @return the POMCP planner used by this agent.
+	 */
+	public POMCP getPlanner(){
+		return this.planner;
+	}
+
+
+	/**
+	 * Returns the agent's current belief.
+	 * @return the agent's current belief.
+	 */
+	public BeliefState getBeliefState(){
+		return this.curBelief;
+	}
+
+
+	@Override
+	public void setBeliefState(BeliefState beliefState){
+		super.setBeliefState(beliefState);
+		this.planner.resetSolver();
+	}
+
+
+	@Override
+	public GroundedAction getAction(BeliefState curBelief) {
+		return (GroundedAction)this.planner.planFromState(curBelief).getAction(curBelief);
+	}
+
+
+	@Override
+	protected void updateBelief(State observation, GroundedAction ga) {
+		boolean inTree = this.planner.advanceRoot(ga, observation);
+		if(this.useParticleBeliefs && inTree){
+			ParticleBeliefState pb = this.planner.getRootParticleBelief();
+			if(pb != null && pb.numParticles() >= this.minBeliefParticles){
+				this.curBelief = pb;
+				return;
+			}
+		}
+		super.updateBelief(observation, ga);
+	}
+
+}
@@ -32,6 +32,8 @@ import burlap.oomdp.statehashing.HashableStateFactory;
 /**
  * A POMDP planning algorithm that converts a POMDP into a Belief MDP and then uses {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling}
  * to solve it. If the full transition dynamics are used (set c in the constructor to -1), then it provides and optimal finite horizon POMDP policy.
+ * The belief MDP tree can be expanded in parallel and its stored nodes capped with the {@link #setParallelSampling(int)} and {@link #setMaxStoredNodes(int)}
+ * methods, which configure the underlying {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling} instance.
  */
 public class BeliefSparseSampling extends MDPSolver implements Planner, QFunction{
 
@@ -90,6 +92,22 @@ public class BeliefSparseSampling extends MDPSolver implements Planner, QFunctio
 		return this.mdpPlanner;
 	}
 
+	/**
+	 * Sets the underlying {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling} planner to expand the samples of the root belief in parallel.
+	 * @param nThreads the number of threads to use. If less than or equal to 1, then planning will be serial.
+	 */
+	public void setParallelSampling(int nThreads){
+		this.mdpPlanner.setParallelSampling(nThreads);
+	}
+
+	/**
+	 * Sets the maximum number of belief tree nodes that the underlying {@link burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling} planner stores for reuse.
+	 * @param maxNodes the maximum number of stored nodes; -1 for no limit.
+	 */
+	public void setMaxStoredNodes(int maxNodes){
+		this.mdpPlanner.setMaxStoredNodes(maxNodes);
+	}
+
 	@Override
 	public List<QValue> getQs(State s) {
 		List <QValue> beliefQs = this.mdpPlanner.getQs(s);
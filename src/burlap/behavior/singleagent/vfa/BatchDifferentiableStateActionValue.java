@@ -0,0 +1,47 @@
+package burlap.behavior.singleagent.vfa;
+
+import burlap.oomdp.core.AbstractGroundedAction;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+
+import java.util.List;
+
+/**
+ * A {@link burlap.behavior.singleagent.vfa.DifferentiableStateActionValue} that can evaluate and differentiate the function
+ * for all the actions of a state at once. Implementations compute the state's features a single time for all actions and write their results
+ * into caller provided primitive arrays and {@link burlap.behavior.singleagent.vfa.FunctionGradient.ArrayGradient} buffers, so
+ * that action selection and gradient updates do not need to allocate objects once the buffers have been created.
+ * @author James MacGlashan.
+ */
+public interface BatchDifferentiableStateActionValue extends DifferentiableStateActionValue {
+
+	/**
+	 * Evaluates this function for each of the given actions in the given state.
+	 * @param s the input {@link burlap.oomdp.core.states.State}
+	 * @param actions the actions to evaluate
+	 * @param out the array into which the values are written; if null or shorter than the number of actions, a new array is created
+	 * @return the array holding the value of each action, in the order of the actions
+	 */
+	double [] evaluateAll(State s, List<GroundedAction> actions, double [] out);
+
+
+	/**
+	 * Writes the gradient of this function for the given state and action into a buffer, replacing its previous contents.
+	 * @param s the input {@link burlap.oomdp.core.states.State}
+	 * @param a the input {@link burlap.oomdp.core.AbstractGroundedAction}
+	 * @param buffer the buffer into which the gradient is written; if null, a new buffer is created
+	 * @return the buffer holding the gradient
+	 */
+	FunctionGradient.ArrayGradient gradient(State s, AbstractGroundedAction a, FunctionGradient.ArrayGradient buffer);
+
+
+	/**
+	 * Writes the gradient of this function for each of the given actions in the given state into buffers, replacing their previous contents.
+	 * @param s the input {@link burlap.oomdp.core.states.State}
+	 * @param actions the actions for which the gradient is computed
+	 * @param buffers the buffers into which the gradients are written; if null or shorter than the number of actions, a new array is created that reuses the given buffers. Null buffers are created.
+	 * @return the array of buffers holding the gradient of each action, in the order of the actions
+	 */
+	FunctionGradient.ArrayGradient [] gradientAll(State s, List<GroundedAction> actions, FunctionGradient.ArrayGradient [] buffers);
+
+}
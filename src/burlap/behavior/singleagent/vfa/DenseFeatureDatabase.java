@@ -0,0 +1,35 @@
+package burlap.behavior.singleagent.vfa;
+
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+
+
+/**
+ * A {@link burlap.behavior.singleagent.vfa.FeatureDatabase} whose state features are dense: every state has a value for each of the
+ * same m state features, whose ids are 0 through m-1, and the state-action features of an action are a copy of the state features whose ids
+ * start at an action specific offset. Such a database can write the values of the state features into a caller supplied double array rather than
+ * creating {@link burlap.behavior.singleagent.vfa.StateFeature} objects, which {@link burlap.behavior.singleagent.vfa.common.LinearVFA}
+ * uses to evaluate all actions of a state from a single computation of the state features.
+ * @author James MacGlashan
+ *
+ */
+public interface DenseFeatureDatabase extends FeatureDatabase {
+
+	/**
+	 * Writes the value of each state feature of the given state into an array, where the value of the feature with id i is written to index i.
+	 * @param s the state for which features should be computed
+	 * @param out the array into which the values are written; if null or if its length is not the number of state features, a new array is created
+	 * @return the array holding the state feature values
+	 */
+	double [] getDenseStateFeatures(State s, double [] out);
+
+
+	/**
+	 * Returns the id of the first state-action feature of the given action. The id of the state-action feature of the action that
+	 * corresponds to the state feature with id i is the returned offset plus i.
+	 * @param ga the action
+	 * @return the id of the first state-action feature of the given action
+	 */
+	int getActionFeatureOffset(GroundedAction ga);
+
+}
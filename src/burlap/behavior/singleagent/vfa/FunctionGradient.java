@@ -1,5 +1,6 @@
 package burlap.behavior.singleagent.vfa;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -149,4 +150,143 @@ public interface FunctionGradient {
 
 	}
 
+
+
+	/**
+	 * A sparse {@link burlap.behavior.singleagent.vfa.FunctionGradient} that stores its partial derivatives in parallel primitive arrays
+	 * of parameter ids and values. It is meant to be reused as a buffer: {@link #clear()} empties it without releasing its arrays, so that
+	 * a gradient can be rewritten every step without allocating. The entries can be iterated with {@link #numNonZeroPDs()},
+	 * {@link #parameterId(int)}, and {@link #value(int)}. Looking up a single parameter with {@link #getPartialDerivative(int)} and
+	 * replacing an entry with {@link #put(int, double)} scan the entries, so buffers are best read by iterating over their entries.
+	 */
+	public static class ArrayGradient implements FunctionGradient{
+
+		/**
+		 * The parameter id of each entry
+		 */
+		protected int [] ids;
+
+		/**
+		 * The partial derivative of each entry
+		 */
+		protected double [] values;
+
+		/**
+		 * The number of entries
+		 */
+		protected int size = 0;
+
+
+		/**
+		 * Initializes with a default capacity.
+		 */
+		public ArrayGradient() {
+			this(16);
+		}
+
+
+		/**
+		 * Initializes with the given capacity.
+		 * @param capacity the number of entries that can be stored before the arrays grow
+		 */
+		public ArrayGradient(int capacity) {
+			this.ids = new int[Math.max(1, capacity)];
+			this.values = new double[Math.max(1, capacity)];
+		}
+
+
+		/**
+		 * Removes all entries while keeping the allocated arrays.
+		 */
+		public void clear(){
+			this.size = 0;
+		}
+
+
+		/**
+		 * Appends an entry without checking whether the parameter already has an entry. Zero partial derivatives are ignored.
+		 * @param parameterId the parameter identifier
+		 * @param partialDerivative the partial derivative value for the parameter
+		 */
+		public void add(int parameterId, double partialDerivative){
+			if(partialDerivative == 0.){
+				return;
+			}
+			if(this.size == this.ids.length){
+				this.ids = Arrays.copyOf(this.ids, this.size*2);
+				this.values = Arrays.copyOf(this.values, this.size*2);
+			}
+			this.ids[this.size] = parameterId;
+			this.values[this.size] = partialDerivative;
+			this.size++;
+		}
+
+
+		/**
+		 * Returns the parameter id of the entry with the given index.
+		 * @param i the entry index
+		 * @return the parameter id of the entry
+		 */
+		public int parameterId(int i){
+			return this.ids[i];
+		}
+
+
+		/**
+		 * Returns the partial derivative of the entry with the given index.
+		 * @param i the entry index
+		 * @return the partial derivative of the entry
+		 */
+		public double value(int i){
+			return this.values[i];
+		}
+
+
+		@Override
+		public void put(int parameterId, double partialDerivative) {
+			for(int i = 0; i < this.size; i++){
+				if(this.ids[i] == parameterId){
+					if(partialDerivative == 0.){
+						this.size--;
+						this.ids[i] = this.ids[this.size];
+						this.values[i] = this.values[this.size];
+					}
+					else{
+						this.values[i] = partialDerivative;
+					}
+					return;
+				}
+			}
+			this.add(parameterId, partialDerivative);
+		}
+
+
+		@Override
+		public double getPartialDerivative(int parameterId) {
+			for(int i = 0; i < this.size; i++){
+				if(this.ids[i] == parameterId){
+					return this.values[i];
+				}
+			}
+			return 0.;
+		}
+
+
+		@Override
+		public Set<PartialDerivative> getNonZeroPartialDerivatives() {
+			Set<PartialDerivative> nzPds = new HashSet<PartialDerivative>(this.size);
+			for(int i = 0; i < this.size; i++){
+				nzPds.add(new PartialDerivative(this.ids[i], this.values[i]));
+			}
+			return nzPds;
+		}
+
+
+		@Override
+		public int numNonZeroPDs() {
+			return this.size;
+		}
+
+	}
+
 }
@@ -32,6 +32,10 @@ import java.util.*;
  * x position while another tiles the y position. Alternatively, a tiling may be multidimensional with different tilings
  * being defined over different setns of attributes. Having different tilings defined over different sets of attributes
  * enables the VFA to capture value function independence over different attributes.
+ * <p>
+ * By default, feature ids are assigned to tiles as they are first visited, so memory grows with the number of visited tiles. For long running
+ * online learners, {@link #setHashedTileCoding(int)} switches to a {@link HashedTileCoding} mode in which tiles are hashed arithmetically into a
+ * fixed number of features, so no tile objects are created or stored.
  * 
  * 
  * 
@@ -123,6 +127,12 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	protected int													nextStateFeatureId = 0;
 
 
+	/**
+	 * The hashed tile coding used to assign feature ids; null if feature ids are assigned to tiles as they are visited
+	 */
+	protected HashedTileCoding										hashedTileCoding = null;
+
+
 	protected State													lastState;
 	protected List<StateTile>										tilesForLastState;
 	
@@ -198,6 +208,25 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	}
 	
 	
+	/**
+	 * Sets this CMAC to hash tiles into a fixed number of features with a {@link HashedTileCoding} rather than assigning each visited tile a new feature id.
+	 * This should be set before any features are queried.
+	 * @param numFeatures the number of features into which tiles are hashed; 0 or less to assign feature ids to tiles as they are visited
+	 */
+	public void setHashedTileCoding(int numFeatures){
+		this.hashedTileCoding = numFeatures > 0 ? new HashedTileCoding(numFeatures) : null;
+	}
+	
+	
+	/**
+	 * Returns the {@link HashedTileCoding} used to assign feature ids, or null if feature ids are assigned to tiles as they are visited.
+	 * @return the {@link HashedTileCoding} used to assign feature ids, or null if feature ids are assigned to tiles as they are visited.
+	 */
+	public HashedTileCoding getHashedTileCoding(){
+		return this.hashedTileCoding;
+	}
+	
+	
 	/**
 	 * After all the tiling specifications have been set, this method can be called to produce a linear
 	 * VFA object.
@@ -213,6 +242,14 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 		
 		List <StateFeature> result = new ArrayList<StateFeature>(nTilings);
 		
+		if(this.hashedTileCoding != null){
+			for(int i = 0; i < nTilings; i++){
+				int tileHash = this.tilings.get(i).tileHash(s);
+				HashedTileCoding.addBinaryFeature(result, this.hashedTileCoding.stateFeatureId(i, tileHash));
+			}
+			return result;
+		}
+		
 		for(int i = 0; i < nTilings; i++){
 			Tiling tiling = this.tilings.get(i);
 			StateTile st = tiling.getStateTile(s);
@@ -234,6 +271,10 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	@Override
 	public List<ActionFeaturesQuery> getActionFeaturesSets(State s, List<GroundedAction> actions) {
 
+		if(this.hashedTileCoding != null){
+			return this.getHashedActionFeatureSets(s, actions);
+		}
+
 		if(s == this.lastState){
 			return this.getActionFeatureSetsFromCacheStateTiles(s, actions);
 		}
@@ -288,6 +329,30 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	}
 
 
+	/**
+	 * Returns the action features of the given actions in the given state using this CMAC's {@link HashedTileCoding}.
+	 * @param s the state for which features should be returned
+	 * @param actions the actions whose features should be returned
+	 * @return the action features of each action
+	 */
+	protected List<ActionFeaturesQuery> getHashedActionFeatureSets(State s, List<GroundedAction> actions){
+
+		List <ActionFeaturesQuery> result = new ArrayList<ActionFeaturesQuery>(actions.size());
+		for(GroundedAction ga : actions){
+			result.add(new ActionFeaturesQuery(ga, new ArrayList<StateFeature>(nTilings)));
+		}
+
+		for(int i = 0; i < nTilings; i++){
+			int tileHash = this.tilings.get(i).tileHash(s);
+			for(ActionFeaturesQuery afq : result){
+				HashedTileCoding.addBinaryFeature(afq.features, this.hashedTileCoding.actionFeatureId(i, tileHash, afq.queryAction)); //CMACs use binary features
+			}
+		}
+
+		return result;
+	}
+
+
 	protected List<ActionFeaturesQuery> getActionFeatureSetsFromCacheStateTiles(State s, List<GroundedAction> actions){
 
 		List <ActionFeaturesQuery> result = new ArrayList<ActionFeaturesQuery>(actions.size());
@@ -342,6 +407,9 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	
 	@Override
 	public int numberOfFeatures() {
+		if(this.hashedTileCoding != null){
+			return this.hashedTileCoding.getNumFeatures();
+		}
 		return Math.max(this.nextActionFeatureId, this.nextStateFeatureId);
 	}
 
@@ -378,6 +446,7 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 
 		cmac.nextActionFeatureId = this.nextActionFeatureId;
 		cmac.nextStateFeatureId = this.nextStateFeatureId;
+		cmac.hashedTileCoding = this.hashedTileCoding;
 
 		return cmac;
 	}
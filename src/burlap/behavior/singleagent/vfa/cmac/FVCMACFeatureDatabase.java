@@ -22,6 +22,10 @@ import java.util.*;
  * <p>
  * To specify the tiling used, use the {@link #addTilingsForAllDimensionsWithWidths(double[], int, CMACFeatureDatabase.TilingArrangement)} or 
  * {@link #addTilingsForDimensionsAndWidths(boolean[], double[], int, CMACFeatureDatabase.TilingArrangement)} method.
+ * <p>
+ * By default, feature ids are assigned to tiles as they are first visited, so memory grows with the number of visited tiles. For long running
+ * online learners, {@link #setHashedTileCoding(int)} switches to a {@link HashedTileCoding} mode in which tiles are hashed arithmetically into a
+ * fixed number of features, so no tile objects are created or stored.
  * 
  * 
  * <p>
@@ -73,6 +77,11 @@ public class FVCMACFeatureDatabase implements FeatureDatabase {
 	 */
 	protected int														nextStateFeatureId = 0;
 
+	/**
+	 * The hashed tile coding used to assign feature ids; null if feature ids are assigned to tiles as they are visited
+	 */
+	protected HashedTileCoding											hashedTileCoding = null;
+
 
 	@Override
 	public FVCMACFeatureDatabase copy() {
@@ -96,6 +105,7 @@ public class FVCMACFeatureDatabase implements FeatureDatabase {
 		}
 		cmac.nextActionFeatureId = this.nextActionFeatureId;
 		cmac.nextStateFeatureId = this.nextStateFeatureId;
+		cmac.hashedTileCoding = this.hashedTileCoding;
 
 		return cmac;
 	}
@@ -164,11 +174,36 @@ public class FVCMACFeatureDatabase implements FeatureDatabase {
 		
 	}
 	
+	/**
+	 * Sets this CMAC to hash tiles into a fixed number of features with a {@link HashedTileCoding} rather than assigning each visited tile a new feature id.
+	 * This should be set before any features are queried.
+	 * @param numFeatures the number of features into which tiles are hashed; 0 or less to assign feature ids to tiles as they are visited
+	 */
+	public void setHashedTileCoding(int numFeatures){
+		this.hashedTileCoding = numFeatures > 0 ? new HashedTileCoding(numFeatures) : null;
+	}
+	
+	
+	/**
+	 * Returns the {@link HashedTileCoding} used to assign feature ids, or null if feature ids are assigned to tiles as they are visited.
+	 * @return the {@link HashedTileCoding} used to assign feature ids, or null if feature ids are assigned to tiles as they are visited.
+	 */
+	public HashedTileCoding getHashedTileCoding(){
+		return this.hashedTileCoding;
+	}
+	
 	@Override
 	public List<StateFeature> getStateFeatures(State s) {
 		
 		double [] input = this.featureVectorGenerator.generateFeatureVectorFrom(s);
 		List<StateFeature> features = new ArrayList<StateFeature>();
+		if(this.hashedTileCoding != null){
+			for(int i = 0; i < this.tilings.size(); i++){
+				int tileHash = this.tilings.get(i).tileHash(input);
+				HashedTileCoding.addBinaryFeature(features, this.hashedTileCoding.stateFeatureId(i, tileHash));
+			}
+			return features;
+		}
 		for(int i = 0; i < this.tilings.size(); i++){
 			FVTiling tiling = this.tilings.get(i);
 			Map<FVTiling.FVTile, Integer> tileFeatureMap = this.stateFeatures.get(i);
@@ -186,6 +221,9 @@ public class FVCMACFeatureDatabase implements FeatureDatabase {
 	
 	@Override
 	public int numberOfFeatures() {
+		if(this.hashedTileCoding != null){
+			return this.hashedTileCoding.getNumFeatures();
+		}
 		return Math.max(this.nextActionFeatureId, this.nextStateFeatureId);
 	}
 	
@@ -217,6 +255,16 @@ public class FVCMACFeatureDatabase implements FeatureDatabase {
 			features.add(new ActionFeaturesQuery(ga));
 		}
 		
+		if(this.hashedTileCoding != null){
+			for(int i = 0; i < this.tilings.size(); i++){
+				int tileHash = this.tilings.get(i).tileHash(input);
+				for(ActionFeaturesQuery afq : features){
+					HashedTileCoding.addBinaryFeature(afq.features, this.hashedTileCoding.actionFeatureId(i, tileHash, afq.queryAction));
+				}
+			}
+			return features;
+		}
+		
 		for(int i = 0; i < this.tilings.size(); i++){
 			FVTiling tiling = this.tilings.get(i);
 			Map<FVTiling.FVTile, List<ActionFeatureID>> tileFeatureMap = this.stateActionFeatures.get(i);
@@ -81,6 +81,31 @@ public class FVTiling {
 	}
 	
 	
+	/**
+	 * Returns a hash of the tile of the given input vector, computed arithmetically from the tile coordinates without creating a tile object.
+	 * Used by {@link burlap.behavior.singleagent.vfa.cmac.HashedTileCoding}.
+	 * @param input the input vector to tile
+	 * @return the hash of the tile of the input vector
+	 */
+	public int tileHash(double [] input){
+		
+		if(input.length != this.widths.length){
+			throw new RuntimeException("Error: the input feature vector to be tiled is a different dimensionality " +
+					"than the dimensionality on which this tiling was defined; " +
+					"e.g., the specified widths vector for this tiling is a different dimension than the input vector.");
+		}
+		
+		int h = 0;
+		for(int i = 0; i < input.length; i++){
+			if(this.dimensionMask[i]){
+				h = HashedTileCoding.combine(h, (int)Math.floor((input[i] - this.offset[i]) / this.widths[i]));
+			}
+		}
+		
+		return h;
+	}
+	
+	
 	/**
 	 * Stores a tiled version of a feature vector with a hashcode and equality comparions methods implemented.
 	 * @author James MacGlashan
@@ -0,0 +1,161 @@
+package burlap.behavior.singleagent.vfa.cmac;
+
+import burlap.behavior.singleagent.vfa.StateFeature;
+import burlap.oomdp.core.AbstractObjectParameterizedGroundedAction;
+import burlap.oomdp.singleagent.GroundedAction;
+
+import java.util.List;
+
+
+/**
+ * Maps tiles to feature ids with the hashing trick, which lets {@link burlap.behavior.singleagent.vfa.cmac.CMACFeatureDatabase} and
+ * {@link burlap.behavior.singleagent.vfa.cmac.FVCMACFeatureDatabase} use a fixed number of features instead of assigning a new feature id
+ * to every tile the first time it is visited. A tiling reduces a state to an int tile hash computed arithmetically from the tile coordinates
+ * (see {@link burlap.behavior.singleagent.vfa.cmac.FVTiling#tileHash(double[])} and {@link burlap.behavior.singleagent.vfa.cmac.Tiling#tileHash(burlap.oomdp.core.states.State)}),
+ * and this class mixes the tiling index, the tile hash, and the action into a feature id in [0, {@link #getNumFeatures()}).
+ * No tile objects or maps are created, so memory use is fixed by the number of features regardless of how many tiles are visited.
+ * Different tiles may collide on the same feature id, which happens more often the smaller the number of features is relative to the
+ * number of visited tiles. When tiles of different tilings collide, {@link #addBinaryFeature(java.util.List, int)} merges them into a single
+ * feature whose value is the number of colliding tiles, so each feature id appears at most once in a feature list.
+ * <p>
+ * Actions are identified by their name, so object parameterized actions are not supported.
+ * @author James MacGlashan
+ *
+ */
+public class HashedTileCoding {
+
+	/**
+	 * The seed of state feature hashes
+	 */
+	protected static final int		STATE_SEED = 0x3C6EF372;
+
+	/**
+	 * The seed of state-action feature hashes
+	 */
+	protected static final int		ACTION_SEED = 0x5BE0CD19;
+
+
+	/**
+	 * The number of features into which tiles are hashed
+	 */
+	protected int					numFeatures;
+
+
+	/**
+	 * Initializes.
+	 * @param numFeatures the number of features into which tiles are hashed
+	 */
+	public HashedTileCoding(int numFeatures){
+		if(numFeatures < 1){
+			throw new RuntimeException("Hashed tile coding requires at least one feature.");
+		}
+		this.numFeatures = numFeatures;
+	}
+
+
+	/**
+	 * Returns the number of features into which tiles are hashed.
+	 * @return the number of features into which tiles are hashed.
+	 */
+	public int getNumFeatures(){
+		return this.numFeatures;
+	}
+
+
+	/**
+	 * Returns the state feature id of a tile.
+	 * @param tiling the index of the tiling of the tile
+	 * @param tileHash the hash of the tile
+	 * @return the state feature id of the tile
+	 */
+	public int stateFeatureId(int tiling, int tileHash){
+		return this.toFeatureId(combine(combine(STATE_SEED, tiling), tileHash));
+	}
+
+
+	/**
+	 * Returns the state-action feature id of a tile and action.
+	 * @param tiling the index of the tiling of the tile
+	 * @param tileHash the hash of the tile
+	 * @param ga the action
+	 * @return the state-action feature id of the tile and action
+	 */
+	public int actionFeatureId(int tiling, int tileHash, GroundedAction ga){
+		return this.toFeatureId(combine(combine(combine(ACTION_SEED, tiling), tileHash), actionCode(ga)));
+	}
+
+
+	/**
+	 * Adds a binary tile feature with the given id to a feature list. If the list already contains a feature with the same id (because tiles
+	 * of different tilings collided), its value is incremented instead, so that value function gradients, which are keyed by feature id,
+	 * see the same total as the value function itself.
+	 * @param features the feature list to which the feature is added
+	 * @param id the feature id
+	 */
+	public static void addBinaryFeature(List<StateFeature> features, int id){
+		for(StateFeature sf : features){
+			if(sf.id == id){
+				sf.value += 1.;
+				return;
+			}
+		}
+		features.add(new StateFeature(id, 1.));
+	}
+
+
+	/**
+	 * Reduces a hash to a feature id.
+	 * @param h the hash
+	 * @return the feature id in [0, {@link #getNumFeatures()})
+	 */
+	protected int toFeatureId(int h){
+		return (h & 0x7fffffff) % this.numFeatures;
+	}
+
+
+	/**
+	 * Returns the hash code of an action, which is the hash code of its name combined with the hash code of each of its parameters, if it is parameterized.
+	 * @param ga the action
+	 * @return the hash code of the action
+	 */
+	public static int actionCode(GroundedAction ga){
+		if(ga instanceof AbstractObjectParameterizedGroundedAction){
+			throw new RuntimeException("Hashed tile coding does not support AbstractObjectParameterizedGroundedActions.");
+		}
+		if(ga.isParameterized()){
+			int h = ga.actionName().hashCode();
+			for(String p : ga.getParametersAsString()){
+				h = combine(h, p.hashCode());
+			}
+			return h;
+		}
+		return ga.action.getName().hashCode();
+	}
+
+
+	/**
+	 * Combines a hash with a value so that the result depends on the order in which values are combined.
+	 * @param h the hash
+	 * @param v the value
+	 * @return the combined hash
+	 */
+	public static int combine(int h, int v){
+		return mix(31*h + v);
+	}
+
+
+	/**
+	 * Scrambles the bits of a hash (the MurmurHash3 finalizer) so that nearby inputs produce unrelated outputs.
+	 * @param h the hash
+	 * @return the scrambled hash
+	 */
+	public static int mix(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
@@ -90,6 +90,53 @@ public class Tiling {
 	
 	
 	
+	/**
+	 * Returns a hash of the multi-dimensional tile of the given input state, computed arithmetically from the attribute tiles without creating
+	 * tile objects. Like {@link StateTile}, the hash is invariant to object identifiers: the hashes of the objects of a class
+	 * are combined with a commutative sum. Used by {@link burlap.behavior.singleagent.vfa.cmac.HashedTileCoding}.
+	 * @param s the input state
+	 * @return the hash of the tile of the input state
+	 */
+	public int tileHash(State s){
+		int h = 1;
+		for(String className : this.classOrder){
+			List<AttributeTileSpecification> classSpecs = this.specification.get(className);
+			List<ObjectInstance> objectsOfClass = s.getObjectsOfClass(className);
+			int classHash = 0;
+			for(ObjectInstance o : objectsOfClass){
+				int oh = 1;
+				for(AttributeTileSpecification ats : classSpecs){
+					oh = HashedTileCoding.combine(oh, this.attributeTile(o, ats));
+				}
+				classHash += HashedTileCoding.mix(oh);
+			}
+			h = HashedTileCoding.combine(HashedTileCoding.combine(h, objectsOfClass.size()), classHash);
+		}
+		return h;
+	}
+	
+	
+	/**
+	 * Returns the tile index of the attribute of the given object instance for the given attribute tile specification.
+	 * @param o the object instance
+	 * @param ats the attribute tile specification
+	 * @return the tile index of the attribute
+	 */
+	protected int attributeTile(ObjectInstance o, AttributeTileSpecification ats){
+		String attName = ats.attribute.name;
+		int tv = 0;
+		if(ats.attribute.type.equals(Attribute.AttributeType.DISC)){
+			tv = o.getIntValForAttribute(attName);
+		}
+		else if(ats.attribute.type.equals(Attribute.AttributeType.REAL) || ats.attribute.type.equals(Attribute.AttributeType.REALUNBOUND)){
+			double v = o.getRealValForAttribute(attName);
+			tv = (int)Math.floor((v - ats.bucketBoundary) / ats.windowSize);
+		}
+		return tv;
+	}
+	
+	
+	
 	/**
 	 * A class for representing a tile, which can be treated as a state feature.
 	 * @author James MacGlashan
@@ -252,14 +299,7 @@ public class Tiling {
 			List<AttributeTileSpecification> classSpecs = specification.get(className);
 			for(AttributeTileSpecification ats : classSpecs){
 				String attName = ats.attribute.name;
-				int tv = 0;
-				if(ats.attribute.type.equals(Attribute.AttributeType.DISC)){
-					tv = o.getIntValForAttribute(attName);
-				}
-				else if(ats.attribute.type.equals(Attribute.AttributeType.REAL) || ats.attribute.type.equals(Attribute.AttributeType.REALUNBOUND)){
-					double v = o.getRealValForAttribute(attName);
-					tv = (int)Math.floor((v - ats.bucketBoundary) / ats.windowSize);
-				}
+				int tv = attributeTile(o, ats);
 				attTiles.put(attName, tv);
 				hashCode = 31*hashCode + tv;
 			}
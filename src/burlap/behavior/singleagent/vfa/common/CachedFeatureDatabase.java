@@ -0,0 +1,334 @@
+package burlap.behavior.singleagent.vfa.common;
+
+import burlap.behavior.singleagent.vfa.ActionFeaturesQuery;
+import burlap.behavior.singleagent.vfa.FeatureDatabase;
+import burlap.behavior.singleagent.vfa.StateFeature;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.statehashing.HashableStateFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A {@link burlap.behavior.singleagent.vfa.FeatureDatabase} that wraps another {@link burlap.behavior.singleagent.vfa.FeatureDatabase}
+ * and caches the state features and state-action features it returns, so that repeated queries for the same state (such as the
+ * queries {@link burlap.behavior.singleagent.learning.lspi.LSPI} makes for every sample on every policy iteration, or the per action queries of
+ * {@link burlap.behavior.singleagent.vfa.common.LinearVFA}) do not recompute tilings or kernel values.
+ * <p>
+ * The cache holds an entry for at most a fixed number of states and evicts the least recently used state when it is full. States are keyed either
+ * by object identity, which is the default and costs nothing to compute, or by the {@link burlap.oomdp.statehashing.HashableState}
+ * produced by a {@link burlap.oomdp.statehashing.HashableStateFactory}, which lets different but equal state objects share an entry.
+ * With identity keys, a state must not be modified while it is in the cache: the entry stays keyed by the same object, so a query for the
+ * modified state returns the features of its old values. Use hashed keys (or {@link #clearCache()} after modifying a state) if states
+ * are modified in place.
+ * When hashed keys are used with a {@link burlap.oomdp.statehashing.HashableStateFactory} that ignores object identifiers, parameterized actions
+ * should not be used, because cached action features are looked up by the queried {@link burlap.oomdp.singleagent.GroundedAction}.
+ * <p>
+ * When a state's action features are requested, all the actions missing from the cache are computed with a single call to the wrapped database.
+ * If prefetch actions are set with {@link #setPrefetchActions(java.util.List)}, a miss also computes the features of all actions applicable
+ * in the state in that call, so that evaluating each action of a state separately only calls the wrapped database once.
+ * <p>
+ * The cached feature lists are shared between calls and should not be modified by the caller. The number of feature sets found in and missing from
+ * the cache is counted and can be retrieved with {@link #getHits()} and {@link #getMisses()}. All methods are synchronized, so the cache can be
+ * shared between threads.
+ * @author James MacGlashan
+ *
+ */
+public class CachedFeatureDatabase implements FeatureDatabase {
+
+	/**
+	 * The wrapped feature database
+	 */
+	protected FeatureDatabase							delegate;
+
+	/**
+	 * The maximum number of states with cached features
+	 */
+	protected int										capacity;
+
+	/**
+	 * The hashing factory used to key states; null to key states by identity
+	 */
+	protected HashableStateFactory						hashingFactory;
+
+	/**
+	 * The actions whose features are computed for a state whenever any of its action features are missing; null to compute only the requested actions
+	 */
+	protected List<Action>								prefetchActions = null;
+
+	/**
+	 * The cached features of each state key in least recently used order
+	 */
+	protected LinkedHashMap<Object, CachedFeatures>		cache;
+
+	/**
+	 * The number of feature sets found in the cache
+	 */
+	protected long										hits = 0;
+
+	/**
+	 * The number of feature sets missing from the cache
+	 */
+	protected long										misses = 0;
+
+
+	/**
+	 * Initializes with states keyed by identity. Cached states must not be modified, or their cached features will be returned for their new values.
+	 * @param delegate the feature database whose features are cached
+	 * @param capacity the maximum number of states with cached features
+	 */
+	public CachedFeatureDatabase(FeatureDatabase delegate, int capacity){
+		this(delegate, capacity, null);
+	}
+
+
+	/**
+	 * Initializes.
+	 * @param delegate the feature database whose features are cached
+	 * @param capacity the maximum number of states with cached features
+	 * @param hashingFactory the hashing factory used to key states; null to key states by identity
+	 */
+	public CachedFeatureDatabase(FeatureDatabase delegate, final int capacity, HashableStateFactory hashingFactory){
+		if(capacity < 1){
+			throw new RuntimeException("CachedFeatureDatabase capacity must be at least 1.");
+		}
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.hashingFactory = hashingFactory;
+		this.cache = new LinkedHashMap<Object, CachedFeatures>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CachedFeatures> eldest) {
+				return this.size() > CachedFeatureDatabase.this.capacity;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the wrapped feature database.
+	 * @return the wrapped feature database.
+	 */
+	public FeatureDatabase getDelegate() {
+		return delegate;
+	}
+
+
+	/**
+	 * Returns the maximum number of states with cached features.
+	 * @return the maximum number of states with cached features.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+	/**
+	 * Sets the actions whose features are computed for a state whenever any of the state's action features are missing from the cache.
+	 * @param prefetchActions the actions to prefetch; null to compute only the requested actions
+	 */
+	public synchronized void setPrefetchActions(List<Action> prefetchActions) {
+		this.prefetchActions = prefetchActions;
+	}
+
+
+	/**
+	 * Returns the number of feature sets that were found in the cache.
+	 * @return the number of feature sets that were found in the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+
+	/**
+	 * Returns the number of feature sets that were missing from the cache.
+	 * @return the number of feature sets that were missing from the cache.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+
+	/**
+	 * Resets the hit and miss counts to zero.
+	 */
+	public synchronized void resetStatistics(){
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+
+	/**
+	 * Returns the number of states with cached features.
+	 * @return the number of states with cached features.
+	 */
+	public synchronized int cacheSize(){
+		return this.cache.size();
+	}
+
+
+	/**
+	 * Removes all cached features.
+	 */
+	public synchronized void clearCache(){
+		this.cache.clear();
+	}
+
+
+	@Override
+	public synchronized List<StateFeature> getStateFeatures(State s) {
+		CachedFeatures cf = this.getCachedFeatures(s);
+		if(cf.stateFeatures != null){
+			this.hits++;
+		}
+		else{
+			this.misses++;
+			cf.stateFeatures = this.delegate.getStateFeatures(s);
+		}
+		return cf.stateFeatures;
+	}
+
+
+	@Override
+	public synchronized List<ActionFeaturesQuery> getActionFeaturesSets(State s, List<GroundedAction> actions) {
+
+		CachedFeatures cf = this.getCachedFeatures(s);
+
+		List<GroundedAction> missing = null;
+		for(GroundedAction ga : actions){
+			if(cf.actionFeatures.containsKey(ga)){
+				this.hits++;
+			}
+			else{
+				this.misses++;
+				if(missing == null){
+					missing = new ArrayList<GroundedAction>(actions.size());
+				}
+				missing.add(ga);
+			}
+		}
+
+		if(missing != null){
+			List<GroundedAction> toCompute = missing;
+			if(this.prefetchActions != null){
+				toCompute = Action.getAllApplicableGroundedActionsFromActionList(this.prefetchActions, s);
+				for(GroundedAction ga : missing){
+					if(!toCompute.contains(ga)){
+						toCompute.add(ga);
+					}
+				}
+			}
+			List<ActionFeaturesQuery> computed = this.delegate.getActionFeaturesSets(s, toCompute);
+			for(ActionFeaturesQuery afq : computed){
+				if(!cf.actionFeatures.containsKey(afq.queryAction)){
+					cf.actionFeatures.put(afq.queryAction, afq.features);
+				}
+			}
+		}
+
+		List<ActionFeaturesQuery> result = new ArrayList<ActionFeaturesQuery>(actions.size());
+		for(GroundedAction ga : actions){
+			result.add(new ActionFeaturesQuery(ga, cf.actionFeatures.get(ga)));
+		}
+
+		return result;
+	}
+
+
+	@Override
+	public synchronized void freezeDatabaseState(boolean toggle) {
+		this.delegate.freezeDatabaseState(toggle);
+	}
+
+
+	@Override
+	public int numberOfFeatures() {
+		return this.delegate.numberOfFeatures();
+	}
+
+
+	/**
+	 * Returns a new {@link burlap.behavior.singleagent.vfa.common.CachedFeatureDatabase} with the same settings and an empty cache
+	 * that wraps a copy of the wrapped feature database.
+	 * @return a copy of this feature database with an empty cache
+	 */
+	@Override
+	public synchronized CachedFeatureDatabase copy() {
+		CachedFeatureDatabase c = new CachedFeatureDatabase(this.delegate.copy(), this.capacity, this.hashingFactory);
+		c.prefetchActions = this.prefetchActions;
+		return c;
+	}
+
+
+	/**
+	 * Returns the cache entry for the given state, creating it if it does not exist.
+	 * @param s the state
+	 * @return the cache entry for the given state
+	 */
+	protected CachedFeatures getCachedFeatures(State s){
+		Object key = this.hashingFactory != null ? this.hashingFactory.hashState(s) : new IdentityKey(s);
+		CachedFeatures cf = this.cache.get(key);
+		if(cf == null){
+			cf = new CachedFeatures();
+			this.cache.put(key, cf);
+		}
+		return cf;
+	}
+
+
+
+	/**
+	 * The cached features of a single state.
+	 */
+	protected static class CachedFeatures{
+
+		/**
+		 * The state features; null if they have not been computed
+		 */
+		public List<StateFeature>							stateFeatures;
+
+		/**
+		 * The features of each action whose features have been computed
+		 */
+		public Map<GroundedAction, List<StateFeature>>		actionFeatures = new HashMap<GroundedAction, List<StateFeature>>();
+
+	}
+
+
+	/**
+	 * A cache key that compares states by identity.
+	 */
+	protected static class IdentityKey{
+
+		/**
+		 * The state
+		 */
+		protected State s;
+
+		/**
+		 * Initializes.
+		 * @param s the state
+		 */
+		public IdentityKey(State s){
+			this.s = s;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.s);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey)obj).s == this.s;
+		}
+	}
+
+}
@@ -1,13 +1,15 @@
 package burlap.behavior.singleagent.vfa.common;
 
-import burlap.behavior.singleagent.vfa.DifferentiableStateActionValue;
+import burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue;
 import burlap.behavior.singleagent.vfa.DifferentiableStateValue;
 import burlap.behavior.singleagent.vfa.FunctionGradient;
 import burlap.behavior.singleagent.vfa.StateToFeatureVectorGenerator;
 import burlap.oomdp.core.AbstractGroundedAction;
 import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,9 +23,12 @@ import java.util.Map;
  * Which one is used is determined implicitly by whether the first function input is set with the
  * {@link #evaluate(burlap.oomdp.core.states.State)} method or the {@link #evaluate(burlap.oomdp.core.states.State, burlap.oomdp.core.AbstractGroundedAction)}
  * method.
+ * <p>
+ * The {@link burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue} methods generate the state feature vector once
+ * for all actions of a state rather than once per action.
  * @author James MacGlashan.
  */
-public class LinearFVVFA implements DifferentiableStateValue, DifferentiableStateActionValue{
+public class LinearFVVFA implements DifferentiableStateValue, BatchDifferentiableStateActionValue{
 
 
 	/**
@@ -171,6 +176,88 @@ public class LinearFVVFA implements DifferentiableStateValue, DifferentiableStat
 	}
 
 
+	@Override
+	public double[] evaluateAll(State s, List<GroundedAction> actions, double[] out) {
+
+		if(out == null || out.length < actions.size()){
+			out = new double[actions.size()];
+		}
+
+		this.currentStateFeatures = this.fvGen.generateFeatureVectorFrom(s);
+		double [] features = this.currentStateFeatures;
+		for(int j = 0; j < actions.size(); j++){
+			int indOff = this.getActionOffset(actions.get(j))*features.length;
+			double val = 0;
+			for(int i = 0; i < features.length; i++){
+				val += features[i] * this.stateActionWeights[i+indOff];
+			}
+			out[j] = val;
+		}
+
+		this.currentActionOffset = -1;
+		this.currentGradient = null;
+		this.lastState = s;
+
+		return out;
+	}
+
+	@Override
+	public FunctionGradient.ArrayGradient gradient(State s, AbstractGroundedAction a, FunctionGradient.ArrayGradient buffer) {
+
+		if(this.lastState != s){
+			this.currentStateFeatures = this.fvGen.generateFeatureVectorFrom(s);
+			this.currentGradient = null;
+			this.lastState = s;
+		}
+
+		return this.fillGradient(this.currentStateFeatures, this.getActionOffset(a), buffer);
+	}
+
+	@Override
+	public FunctionGradient.ArrayGradient[] gradientAll(State s, List<GroundedAction> actions, FunctionGradient.ArrayGradient[] buffers) {
+
+		if(buffers == null || buffers.length < actions.size()){
+			FunctionGradient.ArrayGradient [] nBuffers = new FunctionGradient.ArrayGradient[actions.size()];
+			if(buffers != null){
+				System.arraycopy(buffers, 0, nBuffers, 0, buffers.length);
+			}
+			buffers = nBuffers;
+		}
+
+		if(this.lastState != s){
+			this.currentStateFeatures = this.fvGen.generateFeatureVectorFrom(s);
+			this.currentGradient = null;
+			this.lastState = s;
+		}
+
+		for(int i = 0; i < actions.size(); i++){
+			buffers[i] = this.fillGradient(this.currentStateFeatures, this.getActionOffset(actions.get(i)), buffers[i]);
+		}
+
+		return buffers;
+	}
+
+
+	/**
+	 * Writes the gradient of the given action's Q-value for the given state features into a buffer.
+	 * @param features the state features
+	 * @param actionOffset the feature index offset of the action
+	 * @param buffer the buffer into which the gradient is written; if null, a new buffer is created
+	 * @return the buffer holding the gradient
+	 */
+	protected FunctionGradient.ArrayGradient fillGradient(double [] features, int actionOffset, FunctionGradient.ArrayGradient buffer){
+		if(buffer == null){
+			buffer = new FunctionGradient.ArrayGradient(features.length);
+		}
+		buffer.clear();
+		int sIndOffset = actionOffset*features.length;
+		for(int i = 0; i < features.length; i++){
+			buffer.add(i+sIndOffset, features[i]);
+		}
+		return buffer;
+	}
+
+
 	@Override
 	public int numParameters() {
 		if(this.stateWeights != null){
@@ -15,11 +15,20 @@ import java.util.Map;
  * This class is used for general purpose linear VFA. It only needs to be provided a FeatureDatabase object that will be used to store
  * retrieve state features. For every feature returned by the feature database, this class will automatically create a weight associated with it.
  * The returned approximated value for any state is the linear combination of state features and weights.
+ * <p>
+ * The {@link burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue} methods query the feature database once for all
+ * actions of a state rather than once per action.
+ * <p>
+ * If the feature database is a {@link burlap.behavior.singleagent.vfa.DenseFeatureDatabase}, such as {@link burlap.behavior.singleagent.vfa.fourier.FourierBasis},
+ * features are read from a dense array of state feature values instead of {@link burlap.behavior.singleagent.vfa.StateFeature} lists. The array
+ * is reused across calls, but its values are recomputed by every query, except that a gradient query for the state and action that were just evaluated
+ * reuses the evaluated values. The batch methods compute the state features once for all actions of a state. The weights of a dense feature database
+ * are stored in a double array indexed by feature id rather than in a map, so dense evaluations do not box or hash feature ids.
  *  
  * @author James MacGlashan
  *
  */
-public class LinearVFA implements DifferentiableStateValue, DifferentiableStateActionValue {
+public class LinearVFA implements DifferentiableStateValue, BatchDifferentiableStateActionValue {
 
 	/**
 	 * A feature database for which a unique function weight will be associated
@@ -30,6 +39,12 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	 * A map from feature identifiers to function weights
 	 */
 	protected Map<Integer, Double>					weights;
+
+	/**
+	 * The function weights indexed by feature id, which are used instead of {@link #weights} when the feature database is a
+	 * {@link burlap.behavior.singleagent.vfa.DenseFeatureDatabase}; null otherwise. The array grows as features with larger ids are used.
+	 */
+	protected double []								denseWeights;
 	
 	/**
 	 * A default weight for the functions
@@ -46,6 +61,16 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	protected State									lastState = null;
 	protected AbstractGroundedAction				lastAction = null;
 
+	/**
+	 * The dense state feature values of {@link #denseFeaturesState} when the feature database is a {@link burlap.behavior.singleagent.vfa.DenseFeatureDatabase}
+	 */
+	protected double []								denseFeatures;
+
+	/**
+	 * The state whose dense state feature values are stored in {@link #denseFeatures}
+	 */
+	protected State									denseFeaturesState = null;
+
 
 	/**
 	 * Initializes with a feature database; the default weight value will be zero
@@ -60,6 +85,9 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 		else{
 			this.weights = new HashMap<Integer, Double>();
 		}
+		if(featureDatabase instanceof DenseFeatureDatabase){
+			this.denseWeights = new double[0];
+		}
 
 	}
 
@@ -79,6 +107,9 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 		else{
 			this.weights = new HashMap<Integer, Double>();
 		}
+		if(featureDatabase instanceof DenseFeatureDatabase){
+			this.denseWeights = new double[0];
+		}
 
 	}
 
@@ -87,6 +118,11 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	@Override
 	public double evaluate(State s, AbstractGroundedAction a) {
 
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			int offset = ((DenseFeatureDatabase)this.featureDatabase).getActionFeatureOffset((GroundedAction)a);
+			return this.evaluateDense(s, a, offset);
+		}
+
 		List<StateFeature> features = this.featureDatabase.getActionFeaturesSets(s, Arrays.asList((GroundedAction)a)).get(0).features;
 		double val = 0.;
 		for(StateFeature sf : features){
@@ -103,6 +139,9 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 
 	@Override
 	public double evaluate(State s) {
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			return this.evaluateDense(s, null, 0);
+		}
 		List<StateFeature> features = this.featureDatabase.getStateFeatures(s);
 		double val = 0.;
 		for(StateFeature sf : features){
@@ -121,6 +160,10 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	@Override
 	public FunctionGradient gradient(State s) {
 
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			return this.denseGradient(s, null, 0);
+		}
+
 		List<StateFeature> features;
 
 		if(this.lastState == s && this.lastAction == null){
@@ -148,6 +191,11 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	@Override
 	public FunctionGradient gradient(State s, AbstractGroundedAction a) {
 
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			int offset = ((DenseFeatureDatabase)this.featureDatabase).getActionFeatureOffset((GroundedAction)a);
+			return this.denseGradient(s, a, offset);
+		}
+
 		List<StateFeature> features;
 
 		if(this.lastState == s && this.lastAction == a){
@@ -173,8 +221,246 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	}
 
 
+	@Override
+	public double[] evaluateAll(State s, List<GroundedAction> actions, double[] out) {
+
+		if(out == null || out.length < actions.size()){
+			out = new double[actions.size()];
+		}
+
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			DenseFeatureDatabase dfd = (DenseFeatureDatabase)this.featureDatabase;
+			double [] features = this.denseFeaturesFor(s);
+			for(int i = 0; i < actions.size(); i++){
+				out[i] = this.denseValue(features, dfd.getActionFeatureOffset(actions.get(i)));
+			}
+			this.currentGradient = null;
+			this.lastState = null;
+			this.lastAction = null;
+			return out;
+		}
+
+		List<ActionFeaturesQuery> afqs = this.featureDatabase.getActionFeaturesSets(s, actions);
+		for(int i = 0; i < actions.size(); i++){
+			double val = 0.;
+			for(StateFeature sf : this.actionFeatures(afqs, i, actions.get(i))){
+				val += sf.value * this.getWeight(sf.id);
+			}
+			out[i] = val;
+		}
+
+		this.currentGradient = null;
+		this.lastState = null;
+		this.lastAction = null;
+
+		return out;
+	}
+
+	@Override
+	public FunctionGradient.ArrayGradient gradient(State s, AbstractGroundedAction a, FunctionGradient.ArrayGradient buffer) {
+
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			int offset = ((DenseFeatureDatabase)this.featureDatabase).getActionFeatureOffset((GroundedAction)a);
+			return this.fillDenseGradient(this.evaluatedDenseFeaturesFor(s, a), offset, buffer);
+		}
+
+		List<StateFeature> features;
+		if(this.lastState == s && this.lastAction == a){
+			features = this.currentFeatures;
+		}
+		else{
+			features = this.featureDatabase.getActionFeaturesSets(s, Arrays.asList((GroundedAction)a)).get(0).features;
+		}
+
+		return this.fillGradient(features, buffer);
+	}
+
+	@Override
+	public FunctionGradient.ArrayGradient[] gradientAll(State s, List<GroundedAction> actions, FunctionGradient.ArrayGradient[] buffers) {
+
+		if(buffers == null || buffers.length < actions.size()){
+			FunctionGradient.ArrayGradient [] nBuffers = new FunctionGradient.ArrayGradient[actions.size()];
+			if(buffers != null){
+				System.arraycopy(buffers, 0, nBuffers, 0, buffers.length);
+			}
+			buffers = nBuffers;
+		}
+
+		if(this.featureDatabase instanceof DenseFeatureDatabase){
+			DenseFeatureDatabase dfd = (DenseFeatureDatabase)this.featureDatabase;
+			double [] features = this.denseFeaturesFor(s);
+			for(int i = 0; i < actions.size(); i++){
+				buffers[i] = this.fillDenseGradient(features, dfd.getActionFeatureOffset(actions.get(i)), buffers[i]);
+			}
+			return buffers;
+		}
+
+		List<ActionFeaturesQuery> afqs = this.featureDatabase.getActionFeaturesSets(s, actions);
+		for(int i = 0; i < actions.size(); i++){
+			buffers[i] = this.fillGradient(this.actionFeatures(afqs, i, actions.get(i)), buffers[i]);
+		}
+
+		return buffers;
+	}
+
+
+	/**
+	 * Returns the features of the given action from a feature database query result, which is expected to list
+	 * the actions in the order they were queried.
+	 * @param afqs the feature database query result
+	 * @param i the index of the action in the query
+	 * @param ga the action
+	 * @return the features of the action
+	 */
+	protected List<StateFeature> actionFeatures(List<ActionFeaturesQuery> afqs, int i, GroundedAction ga){
+		ActionFeaturesQuery afq = afqs.get(i);
+		if(!afq.queryAction.equals(ga)){
+			afq = ActionFeaturesQuery.getActionFeaturesForQueryFromSet(ga, afqs);
+		}
+		return afq.features;
+	}
+
+
+	/**
+	 * Writes the gradient for the given features into a buffer.
+	 * @param features the features
+	 * @param buffer the buffer into which the gradient is written; if null, a new buffer is created
+	 * @return the buffer holding the gradient
+	 */
+	protected FunctionGradient.ArrayGradient fillGradient(List<StateFeature> features, FunctionGradient.ArrayGradient buffer){
+		if(buffer == null){
+			buffer = new FunctionGradient.ArrayGradient(features.size());
+		}
+		buffer.clear();
+		for(StateFeature sf : features){
+			buffer.put(sf.id, sf.value);
+		}
+		return buffer;
+	}
+
+
+	/**
+	 * Computes and returns the dense state feature values of the given state. The values are written into the stored array.
+	 * @param s the state
+	 * @return the dense state feature values of the given state
+	 */
+	protected double [] denseFeaturesFor(State s){
+		this.denseFeatures = ((DenseFeatureDatabase)this.featureDatabase).getDenseStateFeatures(s, this.denseFeatures);
+		this.denseFeaturesState = s;
+		return this.denseFeatures;
+	}
+
+
+	/**
+	 * Returns the dense state feature values of the given state, reusing the stored values if they were computed by the evaluation of the same
+	 * state and action that this object last performed; otherwise they are recomputed.
+	 * @param s the state
+	 * @param a the action; null for a state value query
+	 * @return the dense state feature values of the given state
+	 */
+	protected double [] evaluatedDenseFeaturesFor(State s, AbstractGroundedAction a){
+		if(this.lastState == s && this.lastAction == a && this.denseFeaturesState == s){
+			return this.denseFeatures;
+		}
+		return this.denseFeaturesFor(s);
+	}
+
+
+	/**
+	 * Returns the linear combination of the given dense state feature values and the weights of the features starting at the given offset.
+	 * @param features the dense state feature values
+	 * @param offset the id of the feature corresponding to the first state feature
+	 * @return the linear combination of the features and weights
+	 */
+	protected double denseValue(double [] features, int offset){
+		this.ensureDenseWeights(offset + features.length);
+		double [] w = this.denseWeights;
+		double val = 0.;
+		for(int i = 0; i < features.length; i++){
+			val += features[i] * w[offset + i];
+		}
+		return val;
+	}
+
+
+	/**
+	 * Grows {@link #denseWeights} to hold at least the given number of weights, initializing new weights to the default weight.
+	 * @param n the number of weights required
+	 */
+	protected void ensureDenseWeights(int n){
+		if(this.denseWeights.length < n){
+			int oldLength = this.denseWeights.length;
+			this.denseWeights = Arrays.copyOf(this.denseWeights, Math.max(n, 2*oldLength));
+			Arrays.fill(this.denseWeights, oldLength, this.denseWeights.length, this.defaultWeight);
+		}
+	}
+
+
+	/**
+	 * Evaluates the function with dense features and records the evaluation as the current evaluation.
+	 * @param s the state
+	 * @param a the action; null for a state value evaluation
+	 * @param offset the id of the feature corresponding to the first state feature
+	 * @return the value of the function
+	 */
+	protected double evaluateDense(State s, AbstractGroundedAction a, int offset){
+		this.currentValue = this.denseValue(this.denseFeaturesFor(s), offset);
+		this.currentGradient = null;
+		this.currentFeatures = null;
+		this.lastState = s;
+		this.lastAction = a;
+		return this.currentValue;
+	}
+
+
+	/**
+	 * Returns the gradient of the function with dense features and records it as the current gradient.
+	 * @param s the state
+	 * @param a the action; null for a state value gradient
+	 * @param offset the id of the feature corresponding to the first state feature
+	 * @return the gradient of the function
+	 */
+	protected FunctionGradient denseGradient(State s, AbstractGroundedAction a, int offset){
+		if(this.lastState == s && this.lastAction == a && this.currentGradient != null){
+			return this.currentGradient;
+		}
+		double [] features = this.evaluatedDenseFeaturesFor(s, a);
+		FunctionGradient gd = new FunctionGradient.SparseGradient(features.length);
+		for(int i = 0; i < features.length; i++){
+			gd.put(offset + i, features[i]);
+		}
+		this.currentGradient = gd;
+		this.currentFeatures = null;
+		this.lastState = s;
+		this.lastAction = a;
+		return gd;
+	}
+
+
+	/**
+	 * Writes the gradient for the given dense state feature values into a buffer.
+	 * @param features the dense state feature values
+	 * @param offset the id of the feature corresponding to the first state feature
+	 * @param buffer the buffer into which the gradient is written; if null, a new buffer is created
+	 * @return the buffer holding the gradient
+	 */
+	protected FunctionGradient.ArrayGradient fillDenseGradient(double [] features, int offset, FunctionGradient.ArrayGradient buffer){
+		if(buffer == null){
+			buffer = new FunctionGradient.ArrayGradient(features.length);
+		}
+		buffer.clear();
+		for(int i = 0; i < features.length; i++){
+			buffer.add(offset + i, features[i]);
+		}
+		return buffer;
+	}
+
+
 	@Override
 	public int numParameters() {
+		if(this.denseWeights != null){
+			return this.featureDatabase.numberOfFeatures();
+		}
 		return this.weights.size();
 	}
 
@@ -185,10 +471,19 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 
 	@Override
 	public void setParameter(int i, double p) {
+		if(this.denseWeights != null){
+			this.ensureDenseWeights(i+1);
+			this.denseWeights[i] = p;
+			return;
+		}
 		this.weights.put(i, p);
 	}
 
 	protected double getWeight(int weightId){
+		if(this.denseWeights != null){
+			this.ensureDenseWeights(weightId+1);
+			return this.denseWeights[weightId];
+		}
 		Double stored = this.weights.get(weightId);
 		if(stored == null){
 			this.weights.put(weightId, this.defaultWeight);
@@ -201,6 +496,9 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 	@Override
 	public void resetParameters() {
 		this.weights.clear();
+		if(this.denseWeights != null){
+			this.denseWeights = new double[0];
+		}
 	}
 
 	@Override
@@ -211,6 +509,9 @@ public class LinearVFA implements DifferentiableStateValue, DifferentiableStateA
 		for(Map.Entry<Integer, Double> e : this.weights.entrySet()){
 			vfa.weights.put(e.getKey(), e.getValue());
 		}
+		if(this.denseWeights != null){
+			vfa.denseWeights = this.denseWeights.clone();
+		}
 
 		return vfa;
 	}
@@ -26,14 +26,18 @@ import java.util.Map;
  * <p>
  * When using a learning algorithm like {@link GradientDescentSarsaLam} with Fourier basis functions, it is typically a good idea to use the {@link FourierBasisLearningRateWrapper}, which scales the normal learning rate by the inverse of the norm
  * of a basis function's coefficient vector. 
- * 
+ * <p>
+ * This class is a {@link burlap.behavior.singleagent.vfa.DenseFeatureDatabase}. The coefficient vectors are packed into a flat row major
+ * matrix, and {@link #getDenseStateFeatures(burlap.oomdp.core.states.State, double[])} computes the dot product of the input with every
+ * row in a single pass over that matrix, writing the basis function values into a caller supplied array. {@link burlap.behavior.singleagent.vfa.common.LinearVFA}
+ * uses this path, so no {@link StateFeature} objects are created when it evaluates a Fourier basis.
  * <p>
  * 1. G.D. Konidaris, S. Osentoski and P.S. Thomas. Value Function Approximation in Reinforcement Learning using the Fourier Basis. In Proceedings of the Twenty-Fifth Conference on Artificial Intelligence, pages 380-385, August 2011.
  * 
  * @author James MacGlashan
  *
  */
-public class FourierBasis implements FeatureDatabase {
+public class FourierBasis implements DenseFeatureDatabase {
 
 	/**
 	 * The number of state varibles on which the produced basis functions operate
@@ -50,6 +54,11 @@ public class FourierBasis implements FeatureDatabase {
 	 */
 	protected List<short[]>						coefficientVectors;
 	
+	/**
+	 * The coefficient vectors packed into a row major matrix with a row for each coefficient vector; null until the first features are computed
+	 */
+	protected double []							coefficientMatrix;
+	
 	/**
 	 * The maximum number of non-zero coefficient entries permitted in a coefficient vector
 	 */
@@ -108,6 +117,7 @@ public class FourierBasis implements FeatureDatabase {
 	 */
 	public void setCoefficientVectors(List<short[]> coefficientVectors){
 		this.coefficientVectors = coefficientVectors;
+		this.coefficientMatrix = null;
 	}
 	
 	
@@ -136,23 +146,56 @@ public class FourierBasis implements FeatureDatabase {
 		return sum;
 	}
 	
-	@Override
-	public List<StateFeature> getStateFeatures(State s) {
+	/**
+	 * Computes the value of every basis function for the given input state variables and writes them into an array. The dot products of the input with all
+	 * coefficient vectors are computed in a single pass over the flat coefficient matrix. The values are the same as those returned by {@link #basisValue(double[], int)}.
+	 * @param input the state variables
+	 * @param out the array into which the values are written; if null or if its length is not the number of coefficient vectors, a new array is created
+	 * @return the array holding the value of each basis function
+	 */
+	public double [] basisValues(double [] input, double [] out){
 		
-		double [] input = this.featureVectorGenerator.generateFeatureVectorFrom(s);
-		if(this.coefficientVectors == null){
-			this.numStateVariables = input.length;
-			if(this.maxNonZeroCoefficents == -1){
-				this.maxNonZeroCoefficents = this.numStateVariables;
+		this.initializeCoefficients(input);
+		
+		int m = this.coefficientVectors.size();
+		int d = this.numStateVariables;
+		if(out == null || out.length != m){
+			out = new double[m];
+		}
+		
+		double [] coefficients = this.coefficientMatrix;
+		int k = 0;
+		for(int j = 0; j < m; j++){
+			double sum = 0.;
+			for(int i = 0; i < d; i++){
+				sum += input[i] * coefficients[k];
+				k++;
 			}
-			this.generateCoefficientVectors();
+			out[j] = Math.cos(sum * Math.PI);
 		}
 		
-		List<StateFeature> res = new ArrayList<StateFeature>(this.coefficientVectors.size());
+		return out;
+	}
+	
+	@Override
+	public double [] getDenseStateFeatures(State s, double [] out) {
+		return this.basisValues(this.featureVectorGenerator.generateFeatureVectorFrom(s), out);
+	}
+	
+	@Override
+	public int getActionFeatureOffset(GroundedAction ga) {
+		return this.getActionMultiplier(ga)*this.coefficientVectors.size();
+	}
+	
+	@Override
+	public List<StateFeature> getStateFeatures(State s) {
+		
+		double [] values = this.getDenseStateFeatures(s, null);
 		
-		for(int i = 0; i < this.coefficientVectors.size(); i++){
-			double value = this.basisValue(input, i);
-			StateFeature sf = new StateFeature(i, value);
+		List<StateFeature> res = new ArrayList<StateFeature>(values.length);
+		
+		for(int i = 0; i < values.length; i++){
+			StateFeature sf = new StateFeature(i, values[i]);
 			res.add(sf);
 		}
 		
@@ -243,6 +286,45 @@ public class FourierBasis implements FeatureDatabase {
 	}
 	
 	
+	/**
+	 * Generates the coefficient vectors if they have not been generated or set and packs them into the flat coefficient matrix if it has not been built.
+	 * @param input the state variables of the first input, which determine the number of state variables
+	 */
+	protected void initializeCoefficients(double [] input){
+		
+		if(this.coefficientVectors == null){
+			this.numStateVariables = input.length;
+			if(this.maxNonZeroCoefficents == -1){
+				this.maxNonZeroCoefficents = this.numStateVariables;
+			}
+			this.generateCoefficientVectors();
+		}
+		else if(this.numStateVariables == 0){
+			this.numStateVariables = input.length;
+		}
+		
+		if(input.length != this.numStateVariables){
+			throw new RuntimeException("Error in Fourier Basis function evaluation: expected input state variable vector of size " + this.numStateVariables + ", but received one of dimension " + input.length);
+		}
+		
+		if(this.coefficientMatrix == null){
+			int d = this.numStateVariables;
+			double [] matrix = new double[this.coefficientVectors.size()*d];
+			for(int j = 0; j < this.coefficientVectors.size(); j++){
+				short [] vector = this.coefficientVectors.get(j);
+				if(vector.length != d){
+					throw new RuntimeException("Error in Fourier Basis function evaluation: expected coefficient vectors of size " + d + ", but received one of dimension " + vector.length);
+				}
+				for(int i = 0; i < d; i++){
+					matrix[j*d + i] = vector[i];
+				}
+			}
+			this.coefficientMatrix = matrix;
+		}
+		
+	}
+	
+	
 	/**
 	 * Generates all coefficient vectors given the number of state variables and the maximum number of non-zero coefficient element entries.
 	 */
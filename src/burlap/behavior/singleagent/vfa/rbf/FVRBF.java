@@ -27,6 +27,14 @@ public abstract class FVRBF {
 		this.metric = metric;
 	}
 
+	/**
+	 * Returns the center state of this RBF unit.
+	 * @return the center state of this RBF unit.
+	 */
+	public double [] getCenteredState(){
+		return this.centeredState;
+	}
+
 	/**
 	 * Returns the RBF response from its center state to the query input state.
 	 * @param input the query input state represented with a double array.
@@ -22,6 +22,13 @@ import java.util.Map;
  * for states for each RBF unit. Therefore, for RBFs like ones that  use Gaussian functions over
  * Euclidean distance metrics, this class is recommended. However, the standard {@link burlap.behavior.singleagent.vfa.rbf.RBFFeatureDatabase}
  * may have the advantage of using RBF units that exploit the OO-MDP state representation for distance measures.
+ * <p>
+ * By default, every RBF unit is evaluated for every query, so the cost of a query grows linearly with the number of units. With
+ * {@link #setTruncatedKernel(double)}, the database instead uses a {@link burlap.behavior.singleagent.vfa.rbf.KDTree} over the
+ * unit centers to evaluate only the units whose center is within a cutoff Euclidean distance of the query, and returns a sparse feature list
+ * with no features for the other units. For units whose response decays with Euclidean distance, such as
+ * {@link burlap.behavior.singleagent.vfa.rbf.functions.FVGaussianRBF} with a {@link burlap.behavior.singleagent.vfa.rbf.metrics.FVEuclideanDistance}
+ * metric, this drops only responses smaller than the response at the cutoff distance.
  *
  * @author James MacGlashan.
  */
@@ -58,6 +65,16 @@ public class FVRBFFeatureDatabase implements FeatureDatabase{
 	 */
 	protected int nextActionMultiplier = 0;
 
+	/**
+	 * The Euclidean distance beyond which RBF units are not evaluated; infinite if all units are evaluated
+	 */
+	protected double cutoffRadius = Double.POSITIVE_INFINITY;
+
+	/**
+	 * The index over the RBF unit centers used when the kernel is truncated; null if it needs to be built
+	 */
+	protected KDTree centerIndex;
+
 
 
 
@@ -85,6 +102,7 @@ public class FVRBFFeatureDatabase implements FeatureDatabase{
 	{
 		this.rbfs.add(rbf);
 		nRbfs++;
+		this.centerIndex = null;
 	}
 
 	/**
@@ -94,6 +112,23 @@ public class FVRBFFeatureDatabase implements FeatureDatabase{
 	public void addRBFs(List<FVRBF> rbfs){
 		this.nRbfs += rbfs.size();
 		this.rbfs.addAll(rbfs);
+		this.centerIndex = null;
+	}
+
+	/**
+	 * Truncates the RBF kernels so that only units whose center is within the given Euclidean distance of a query are evaluated and returned as features.
+	 * @param cutoffRadius the Euclidean distance beyond which units are not evaluated; {@link Double#POSITIVE_INFINITY} to evaluate all units
+	 */
+	public void setTruncatedKernel(double cutoffRadius){
+		this.cutoffRadius = cutoffRadius;
+	}
+
+	/**
+	 * Returns the Euclidean distance beyond which RBF units are not evaluated.
+	 * @return the Euclidean distance beyond which RBF units are not evaluated; {@link Double#POSITIVE_INFINITY} if all units are evaluated
+	 */
+	public double getCutoffRadius(){
+		return this.cutoffRadius;
 	}
 
 	@Override
@@ -105,12 +140,34 @@ public class FVRBFFeatureDatabase implements FeatureDatabase{
 
 		double [] svars = this.fvGen.generateFeatureVectorFrom(s);
 
-		for(FVRBF r : rbfs)
+		if(this.cutoffRadius != Double.POSITIVE_INFINITY)
 		{
-			double value = r.responseFor(svars);
-			StateFeature sf = new StateFeature(id, value);
-			rbfsf.add(sf);
-			id++;
+			if(this.centerIndex == null)
+			{
+				List<double[]> centers = new ArrayList<double[]>(this.rbfs.size());
+				for(FVRBF r : rbfs)
+				{
+					centers.add(r.getCenteredState());
+				}
+				this.centerIndex = new KDTree(centers);
+			}
+			int nFound = this.centerIndex.radiusSearch(svars, this.cutoffRadius);
+			for(int i = 0; i < nFound; i++)
+			{
+				int rid = this.centerIndex.getResult(i);
+				rbfsf.add(new StateFeature(rid, this.rbfs.get(rid).responseFor(svars)));
+			}
+			id = this.rbfs.size();
+		}
+		else
+		{
+			for(FVRBF r : rbfs)
+			{
+				double value = r.responseFor(svars);
+				StateFeature sf = new StateFeature(id, value);
+				rbfsf.add(sf);
+				id++;
+			}
 		}
 
 		if(hasOffset)
@@ -204,6 +261,7 @@ public class FVRBFFeatureDatabase implements FeatureDatabase{
 		rbf.nRbfs = this.nRbfs;
 		rbf.actionFeatureMultiplier = new HashMap<GroundedAction, Integer>(this.actionFeatureMultiplier);
 		rbf.nextActionMultiplier = this.nextActionMultiplier;
+		rbf.cutoffRadius = this.cutoffRadius;
 
 		return rbf;
 	}
@@ -0,0 +1,274 @@
+package burlap.behavior.singleagent.vfa.rbf;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A static k-d tree over a set of points of equal dimensionality that answers fixed radius queries under Euclidean distance. The tree
+ * is built once from the points and is stored in flat arrays: the point coordinates are packed into a single row major array, and the tree
+ * is implicit in a permutation of the point indices, where the median of each index range is the node that splits the range along the
+ * dimension of largest spread.
+ * <p>
+ * Query results are written into a buffer owned by the tree and reused across queries, so queries do not allocate once the buffer is
+ * large enough. As a consequence, a tree should not be queried by multiple threads at once.
+ * @author James MacGlashan
+ *
+ */
+public class KDTree {
+
+	/**
+	 * The dimensionality of the points
+	 */
+	protected int			dim;
+
+	/**
+	 * The number of points
+	 */
+	protected int			n;
+
+	/**
+	 * The point coordinates in row major order; the coordinates of point i are at [i*dim, (i+1)*dim)
+	 */
+	protected double []		coords;
+
+	/**
+	 * The point indices ordered by the implicit tree
+	 */
+	protected int []		order;
+
+	/**
+	 * The split dimension of the node at each position of {@link #order}
+	 */
+	protected int []		splitDims;
+
+	/**
+	 * The indices of the points found by the last query; only the first {@link #numResults} entries are valid
+	 */
+	protected int []		results;
+
+	/**
+	 * The number of points found by the last query
+	 */
+	protected int			numResults = 0;
+
+
+	/**
+	 * Builds a tree over the given points.
+	 * @param points the points, which must all have the same dimensionality
+	 */
+	public KDTree(List<double[]> points){
+
+		this.n = points.size();
+		this.dim = this.n > 0 ? points.get(0).length : 0;
+		this.coords = new double[this.n*this.dim];
+		this.order = new int[this.n];
+		this.splitDims = new int[this.n];
+		this.results = new int[16];
+
+		for(int i = 0; i < this.n; i++){
+			double [] p = points.get(i);
+			if(p.length != this.dim){
+				throw new RuntimeException("Cannot build k-d tree; points are not all of dimension " + this.dim + ".");
+			}
+			System.arraycopy(p, 0, this.coords, i*this.dim, this.dim);
+			this.order[i] = i;
+		}
+
+		this.build(0, this.n);
+
+	}
+
+
+	/**
+	 * Returns the number of points in this tree.
+	 * @return the number of points in this tree.
+	 */
+	public int size(){
+		return this.n;
+	}
+
+
+	/**
+	 * Finds all points whose Euclidean distance to the query is no greater than the given radius. The indices of the found points, in the order
+	 * the points were given to the constructor, can be read with {@link #getResult(int)} until the next query. The indices are sorted in ascending order.
+	 * @param query the query point
+	 * @param radius the search radius
+	 * @return the number of points found
+	 */
+	public int radiusSearch(double [] query, double radius){
+		if(query.length != this.dim && this.n > 0){
+			throw new RuntimeException("Cannot search k-d tree; query is of dimension " + query.length + " but the tree is of dimension " + this.dim + ".");
+		}
+		this.numResults = 0;
+		this.search(0, this.n, query, radius, radius*radius);
+		Arrays.sort(this.results, 0, this.numResults);
+		return this.numResults;
+	}
+
+
+	/**
+	 * Returns the index of the ith point found by the last query.
+	 * @param i the result index, which must be less than the number returned by the last query
+	 * @return the index of the point
+	 */
+	public int getResult(int i){
+		return this.results[i];
+	}
+
+
+	/**
+	 * Builds the implicit tree over the index range [lo, hi) of {@link #order}.
+	 * @param lo the first position (inclusive)
+	 * @param hi the last position (exclusive)
+	 */
+	protected void build(int lo, int hi){
+
+		if(hi - lo <= 0){
+			return;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		int d = this.widestDimension(lo, hi);
+		this.select(lo, hi - 1, mid, d);
+		this.splitDims[mid] = d;
+
+		this.build(lo, mid);
+		this.build(mid+1, hi);
+
+	}
+
+
+	/**
+	 * Returns the dimension along which the points in the index range [lo, hi) have the largest spread.
+	 * @param lo the first position (inclusive)
+	 * @param hi the last position (exclusive)
+	 * @return the dimension with the largest spread
+	 */
+	protected int widestDimension(int lo, int hi){
+		int best = 0;
+		double bestSpread = -1.;
+		for(int d = 0; d < this.dim; d++){
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int i = lo; i < hi; i++){
+				double v = this.coords[this.order[i]*this.dim + d];
+				if(v < min){
+					min = v;
+				}
+				if(v > max){
+					max = v;
+				}
+			}
+			if(max - min > bestSpread){
+				bestSpread = max - min;
+				best = d;
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Partially orders the positions [left, right] of {@link #order} (quickselect) so that the position k holds the point whose
+	 * coordinate along dimension d would be at position k if sorted, with no larger coordinates before it and no smaller ones after it.
+	 * @param left the first position (inclusive)
+	 * @param right the last position (inclusive)
+	 * @param k the position to select
+	 * @param d the dimension by which points are compared
+	 */
+	protected void select(int left, int right, int k, int d){
+		while(left < right){
+			double pivot = this.coords[this.order[(left + right) >>> 1]*this.dim + d];
+			int i = left;
+			int j = right;
+			while(i <= j){
+				while(this.coords[this.order[i]*this.dim + d] < pivot){
+					i++;
+				}
+				while(this.coords[this.order[j]*this.dim + d] > pivot){
+					j--;
+				}
+				if(i <= j){
+					int tmp = this.order[i];
+					this.order[i] = this.order[j];
+					this.order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(k <= j){
+				right = j;
+			}
+			else if(k >= i){
+				left = i;
+			}
+			else{
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Searches the implicit tree over the index range [lo, hi) for points within the radius of the query.
+	 * @param lo the first position (inclusive)
+	 * @param hi the last position (exclusive)
+	 * @param query the query point
+	 * @param radius the search radius
+	 * @param radiusSq the squared search radius
+	 */
+	protected void search(int lo, int hi, double [] query, double radius, double radiusSq){
+
+		while(hi - lo > 0){
+
+			int mid = (lo + hi) >>> 1;
+			int p = this.order[mid];
+			int base = p*this.dim;
+
+			double sum = 0.;
+			for(int i = 0; i < this.dim; i++){
+				double diff = this.coords[base + i] - query[i];
+				sum += diff*diff;
+			}
+			if(sum <= radiusSq){
+				this.addResult(p);
+			}
+
+			int d = this.splitDims[mid];
+			double delta = query[d] - this.coords[base + d];
+
+			//search the near side recursively and continue with the far side if the radius crosses the split
+			if(delta <= 0.){
+				this.search(lo, mid, query, radius, radiusSq);
+				if(-delta > radius){
+					return;
+				}
+				lo = mid+1;
+			}
+			else{
+				this.search(mid+1, hi, query, radius, radiusSq);
+				if(delta > radius){
+					return;
+				}
+				hi = mid;
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Adds a point index to the results of the current query.
+	 * @param p the point index
+	 */
+	protected void addResult(int p){
+		if(this.numResults == this.results.length){
+			this.results = Arrays.copyOf(this.results, this.results.length*2);
+		}
+		this.results[this.numResults] = p;
+		this.numResults++;
+	}
+
+}
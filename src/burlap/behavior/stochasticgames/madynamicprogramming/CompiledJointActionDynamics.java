@@ -0,0 +1,381 @@
+package burlap.behavior.stochasticgames.madynamicprogramming;
+
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.core.TransitionProbability;
+import burlap.oomdp.statehashing.HashableState;
+import burlap.oomdp.statehashing.HashableStateFactory;
+import burlap.oomdp.stochasticgames.JointAction;
+import burlap.oomdp.stochasticgames.JointActionModel;
+import burlap.oomdp.stochasticgames.JointReward;
+import burlap.oomdp.stochasticgames.SGAgentType;
+
+import java.util.*;
+
+
+/**
+ * A compiled, index-compacted representation of the joint action transition dynamics of a stochastic game, for use by
+ * {@link burlap.behavior.stochasticgames.madynamicprogramming.MADynamicProgramming} planners. Each state is assigned a dense int id once, its joint actions are
+ * enumerated once, and the dynamics are stored in compressed sparse row (CSR) style primitive arrays: the joint action slots of state s are the indices
+ * [jointActionStarts[s], jointActionStarts[s+1]) and the transitions of joint action slot j are the indices [transitionStarts[j], transitionStarts[j+1])
+ * of the {@link #nextStates} and {@link #transitionProbs} arrays.
+ * <p>
+ * The expected immediate reward of each agent for each joint action slot is precomputed, so the Q-value of agent i for joint action slot j is simply
+ * expectedRewards[i][j] + discount * sum_t transitionProbs[t] * v[i][nextStates[t]]. As with {@link burlap.behavior.stochasticgames.madynamicprogramming.MADynamicProgramming},
+ * the joint actions of terminal states are enumerated, but they have no transitions and a Q-value of 0.
+ * <p>
+ * Agents are indexed by their position in {@link #agentNames()} and value functions and Q-values operated on by this class are
+ * plain double arrays indexed by agent and then state id or joint action slot.
+ * @author James MacGlashan
+ *
+ */
+public class CompiledJointActionDynamics {
+
+	/**
+	 * The names of the agents, in agent index order
+	 */
+	protected String []								agentNames;
+
+	/**
+	 * The hashed state of each state id
+	 */
+	protected List<HashableState>					states;
+
+	/**
+	 * The state id of each hashed state
+	 */
+	protected Map<HashableState, Integer>			stateIds;
+
+	/**
+	 * Whether each state is terminal
+	 */
+	protected boolean []							terminal;
+
+	/**
+	 * The first joint action slot of each state, with a final entry equal to the number of slots
+	 */
+	protected int []								jointActionStarts;
+
+	/**
+	 * The joint action of each slot
+	 */
+	protected JointAction []						jointActions;
+
+	/**
+	 * The expected immediate reward of each agent for each joint action slot
+	 */
+	protected double [][]							expectedRewards;
+
+	/**
+	 * The first transition of each joint action slot, with a final entry equal to the number of transitions
+	 */
+	protected int []								transitionStarts;
+
+	/**
+	 * The outcome state id of each transition
+	 */
+	protected int []								nextStates;
+
+	/**
+	 * The probability of each transition
+	 */
+	protected double []								transitionProbs;
+
+	/**
+	 * The joint action slot index of each joint action of a state, created on demand by {@link #jointActionSlot(int, burlap.oomdp.stochasticgames.JointAction)}.
+	 */
+	protected List<Map<JointAction, Integer>>		jointActionSlotIndex;
+
+
+
+	/**
+	 * Compiles the joint action dynamics of the given states and of all states reachable from them.
+	 * @param seedStates the states to compile
+	 * @param agentDefinitions the agents whose joint actions are enumerated
+	 * @param jointActionModel the joint action model
+	 * @param jointReward the joint reward function
+	 * @param terminalFunction the terminal function
+	 * @param hashingFactory the hashing factory used to identify states
+	 */
+	public CompiledJointActionDynamics(Collection<HashableState> seedStates, Map<String, SGAgentType> agentDefinitions, JointActionModel jointActionModel,
+									   JointReward jointReward, TerminalFunction terminalFunction, HashableStateFactory hashingFactory){
+
+		this.agentNames = agentDefinitions.keySet().toArray(new String[agentDefinitions.size()]);
+		int nAgents = this.agentNames.length;
+
+		this.states = new ArrayList<HashableState>(seedStates.size());
+		this.stateIds = new HashMap<HashableState, Integer>(seedStates.size());
+		for(HashableState sh : seedStates){
+			this.idFor(sh);
+		}
+
+		int capacity = Math.max(seedStates.size(), 1);
+		int [] jaStarts = new int[capacity+1];
+		int [] tStarts = new int[capacity*4+1];
+		int [] next = new int[capacity*4];
+		double [] probs = new double[capacity*4];
+		double [][] rewards = new double[nAgents][capacity*4];
+		boolean [] terminalList = new boolean[capacity+1];
+		List<JointAction> slotActions = new ArrayList<JointAction>(capacity*4);
+		int nTransitions = 0;
+
+		//the state list may grow as we encounter outcome states that were not in the seed set
+		for(int s = 0; s < this.states.size(); s++){
+
+			HashableState sh = this.states.get(s);
+			if(s+1 >= jaStarts.length){
+				jaStarts = Arrays.copyOf(jaStarts, jaStarts.length*2);
+				terminalList = Arrays.copyOf(terminalList, terminalList.length*2);
+			}
+			jaStarts[s] = slotActions.size();
+
+			boolean isTerminal = terminalFunction.isTerminal(sh.s);
+			terminalList[s] = isTerminal;
+
+			List<JointAction> jas = JointAction.getAllJointActions(sh.s, agentDefinitions);
+			for(JointAction ja : jas){
+
+				int slot = slotActions.size();
+				slotActions.add(ja);
+				if(slot+1 >= tStarts.length){
+					tStarts = Arrays.copyOf(tStarts, tStarts.length*2);
+				}
+				if(slot >= rewards[0].length){
+					for(int i = 0; i < nAgents; i++){
+						rewards[i] = Arrays.copyOf(rewards[i], rewards[i].length*2);
+					}
+				}
+				tStarts[slot] = nTransitions;
+
+				if(isTerminal){
+					continue;
+				}
+
+				List<TransitionProbability> tps = jointActionModel.transitionProbsFor(sh.s, ja);
+				for(TransitionProbability tp : tps){
+					Map<String, Double> jr = jointReward.reward(sh.s, ja, tp.s);
+					for(int i = 0; i < nAgents; i++){
+						rewards[i][slot] += tp.p * jr.get(this.agentNames[i]);
+					}
+					if(nTransitions == next.length){
+						next = Arrays.copyOf(next, next.length*2);
+						probs = Arrays.copyOf(probs, probs.length*2);
+					}
+					next[nTransitions] = this.idFor(hashingFactory.hashState(tp.s));
+					probs[nTransitions] = tp.p;
+					nTransitions++;
+				}
+
+			}
+
+		}
+
+		int nStates = this.states.size();
+		int nSlots = slotActions.size();
+		jaStarts[nStates] = nSlots;
+		tStarts[nSlots] = nTransitions;
+
+		this.jointActionStarts = Arrays.copyOf(jaStarts, nStates+1);
+		this.terminal = Arrays.copyOf(terminalList, nStates);
+		this.transitionStarts = Arrays.copyOf(tStarts, nSlots+1);
+		this.nextStates = Arrays.copyOf(next, nTransitions);
+		this.transitionProbs = Arrays.copyOf(probs, nTransitions);
+		this.expectedRewards = new double[nAgents][];
+		for(int i = 0; i < nAgents; i++){
+			this.expectedRewards[i] = Arrays.copyOf(rewards[i], nSlots);
+		}
+		this.jointActions = slotActions.toArray(new JointAction[nSlots]);
+		this.jointActionSlotIndex = new ArrayList<Map<JointAction, Integer>>(Collections.<Map<JointAction, Integer>>nCopies(nStates, null));
+
+	}
+
+
+	/**
+	 * Returns the names of the agents, in agent index order.
+	 * @return the names of the agents, in agent index order.
+	 */
+	public String [] agentNames(){
+		return this.agentNames;
+	}
+
+
+	/**
+	 * Returns the number of compiled states.
+	 * @return the number of compiled states.
+	 */
+	public int numStates(){
+		return this.terminal.length;
+	}
+
+
+	/**
+	 * Returns the number of joint action slots over all states.
+	 * @return the number of joint action slots over all states.
+	 */
+	public int numJointActionSlots(){
+		return this.jointActions.length;
+	}
+
+
+	/**
+	 * Returns the id of the hashed state.
+	 * @param sh the hashed state
+	 * @return the id of the hashed state, or -1 if it was not compiled.
+	 */
+	public int stateId(HashableState sh){
+		Integer id = this.stateIds.get(sh);
+		return id == null ? -1 : id;
+	}
+
+
+	/**
+	 * Returns the hashed state of the given id.
+	 * @param id the state id
+	 * @return the hashed state
+	 */
+	public HashableState state(int id){
+		return this.states.get(id);
+	}
+
+
+	/**
+	 * Returns whether the state with the given id is terminal.
+	 * @param id the state id
+	 * @return true if the state is terminal; false otherwise.
+	 */
+	public boolean isTerminal(int id){
+		return this.terminal[id];
+	}
+
+
+	/**
+	 * Returns the first joint action slot of the given state. The slots of state s are [firstJointActionSlot(s), firstJointActionSlot(s+1)).
+	 * @param s the state id
+	 * @return the first joint action slot of the state
+	 */
+	public int firstJointActionSlot(int s){
+		return this.jointActionStarts[s];
+	}
+
+
+	/**
+	 * Returns the joint action of the given slot.
+	 * @param slot the joint action slot
+	 * @return the joint action
+	 */
+	public JointAction jointAction(int slot){
+		return this.jointActions[slot];
+	}
+
+
+	/**
+	 * Returns the joint action slot of the given joint action in the given state.
+	 * @param s the state id
+	 * @param ja the joint action
+	 * @return the joint action slot, or -1 if the joint action is not applicable in the state.
+	 */
+	public int jointActionSlot(int s, JointAction ja){
+		Map<JointAction, Integer> index = this.jointActionSlotIndex.get(s);
+		if(index == null){
+			index = new HashMap<JointAction, Integer>();
+			for(int j = this.jointActionStarts[s]; j < this.jointActionStarts[s+1]; j++){
+				index.put(this.jointActions[j], j);
+			}
+			this.jointActionSlotIndex.set(s, index);
+		}
+		Integer slot = index.get(ja);
+		return slot == null ? -1 : slot;
+	}
+
+
+	/**
+	 * Returns the Q-value of an agent for the given joint action slot under the agent's value function.
+	 * @param agent the agent index
+	 * @param slot the joint action slot
+	 * @param v the state id indexed value function of the agent
+	 * @param discount the discount factor
+	 * @return the Q-value of the agent for the joint action slot
+	 */
+	public double q(int agent, int slot, double [] v, double discount){
+		double future = 0.;
+		int end = this.transitionStarts[slot+1];
+		for(int t = this.transitionStarts[slot]; t < end; t++){
+			future += this.transitionProbs[t] * v[this.nextStates[t]];
+		}
+		return this.expectedRewards[agent][slot] + discount * future;
+	}
+
+
+	/**
+	 * Computes the Q-values of every agent for every joint action of the given state into the agent and joint action slot indexed Q-tables.
+	 * @param s the state id
+	 * @param v the agent and state id indexed value functions
+	 * @param discount the discount factor
+	 * @param q the agent and joint action slot indexed Q-tables into which the Q-values are written
+	 */
+	public void computeQs(int s, double [][] v, double discount, double [][] q){
+		int end = this.jointActionStarts[s+1];
+		for(int i = 0; i < this.agentNames.length; i++){
+			for(int j = this.jointActionStarts[s]; j < end; j++){
+				q[i][j] = this.q(i, j, v[i], discount);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the initial value functions of the agents, taking each state's value from the corresponding {@link QSourceForSingleAgent} of the planner
+	 * if it is a backup based source, and 0 otherwise.
+	 * @param qSources the Q-sources of the agents
+	 * @return the agent and state id indexed value functions
+	 */
+	public double [][] initialValues(AgentQSourceMap qSources){
+		double [][] v = new double[this.agentNames.length][this.terminal.length];
+		for(int i = 0; i < this.agentNames.length; i++){
+			QSourceForSingleAgent qs = qSources.agentQSource(this.agentNames[i]);
+			if(!(qs instanceof MADynamicProgramming.BackupBasedQSource)){
+				continue;
+			}
+			MADynamicProgramming.BackupBasedQSource bqs = (MADynamicProgramming.BackupBasedQSource)qs;
+			for(int s = 0; s < this.terminal.length; s++){
+				v[i][s] = bqs.getValue(this.states.get(s));
+			}
+		}
+		return v;
+	}
+
+
+	/**
+	 * Writes the agents' value functions into the corresponding backup based {@link QSourceForSingleAgent}s of a planner.
+	 * @param v the agent and state id indexed value functions
+	 * @param qSources the Q-sources of the agents
+	 */
+	public void writeValues(double [][] v, AgentQSourceMap qSources){
+		for(int i = 0; i < this.agentNames.length; i++){
+			QSourceForSingleAgent qs = qSources.agentQSource(this.agentNames[i]);
+			if(!(qs instanceof MADynamicProgramming.BackupBasedQSource)){
+				continue;
+			}
+			MADynamicProgramming.BackupBasedQSource bqs = (MADynamicProgramming.BackupBasedQSource)qs;
+			for(int s = 0; s < this.terminal.length; s++){
+				bqs.setValue(this.states.get(s), v[i][s]);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the id of the hashed state, assigning a new id if it does not yet have one.
+	 * @param sh the hashed state
+	 * @return the id of the hashed state
+	 */
+	protected int idFor(HashableState sh){
+		Integer id = this.stateIds.get(sh);
+		if(id == null){
+			id = this.states.size();
+			this.states.add(sh);
+			this.stateIds.put(sh, id);
+		}
+		return id;
+	}
+
+}
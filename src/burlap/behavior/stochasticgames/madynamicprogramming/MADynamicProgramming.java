@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import burlap.behavior.valuefunction.ConcurrentValueTable;
 import burlap.behavior.valuefunction.ValueFunctionInitialization;
 import burlap.oomdp.statehashing.HashableStateFactory;
 import burlap.oomdp.statehashing.HashableState;
@@ -246,9 +247,9 @@ public abstract class MADynamicProgramming implements MultiAgentQSourceProvider{
 		protected String agentName;
 		
 		/**
-		 * The tabular value function
+		 * The tabular value function, which is safe to read and write from multiple threads
 		 */
-		protected Map<HashableState, Double> valueFunction = new HashMap<HashableState, Double>();
+		protected ConcurrentValueTable valueFunction = new ConcurrentValueTable();
 		
 		
 		/**
@@ -300,16 +301,15 @@ public abstract class MADynamicProgramming implements MultiAgentQSourceProvider{
 		 * @return the value of the state.
 		 */
 		public double getValue(HashableState sh){
-			Double stored = this.valueFunction.get(sh);
-			if(stored != null){
+			double stored = this.valueFunction.getValue(sh, Double.NaN);
+			if(!Double.isNaN(stored) || this.valueFunction.containsState(sh)){
 				return stored;
 			}
 			double v = 0.;
 			if(!MADynamicProgramming.this.terminalFunction.isTerminal(sh.s)){
 				v = MADynamicProgramming.this.vInit.value(sh.s);
 			}
-			this.valueFunction.put(sh, v);
-			return v;
+			return this.valueFunction.putIfAbsentValue(sh, v);
 		}
 		
 		
@@ -319,7 +319,7 @@ public abstract class MADynamicProgramming implements MultiAgentQSourceProvider{
 		 * @param v the value to set the state to.
 		 */
 		public void setValue(HashableState sh, double v){
-			this.valueFunction.put(sh, v);
+			this.valueFunction.setValue(sh, v);
 		}
 		
 	}
@@ -1,11 +1,17 @@
 package burlap.behavior.stochasticgames.madynamicprogramming.dpplanners;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import burlap.behavior.stochasticgames.madynamicprogramming.AgentQSourceMap;
+import burlap.behavior.stochasticgames.madynamicprogramming.CompiledJointActionDynamics;
+import burlap.behavior.stochasticgames.madynamicprogramming.JAQValue;
+import burlap.behavior.stochasticgames.madynamicprogramming.QSourceForSingleAgent;
+import burlap.behavior.stochasticgames.madynamicprogramming.backupOperators.MaxQ;
 import burlap.behavior.valuefunction.ValueFunctionInitialization;
 import burlap.oomdp.statehashing.HashableStateFactory;
 import burlap.oomdp.statehashing.HashableState;
@@ -33,6 +39,12 @@ import burlap.oomdp.stochasticgames.SGDomain;
  * <p>
  * Value iteration will continue until either the maximum change in Q-value is less than some user provided threshold or until a max number
  * of iterations have passed. 
+ * <p>
+ * Setting {@link #toggleCompiledDynamics(boolean)} to true makes value iteration operate on a {@link burlap.behavior.stochasticgames.madynamicprogramming.CompiledJointActionDynamics}
+ * that enumerates the joint actions of each state once and stores the joint transitions and expected joint rewards in primitive arrays, and keeps the
+ * agents' values and Q-values in dense arrays during the sweeps instead of regenerating joint actions and transitions on every backup. The compiled
+ * dynamics are reused across planning calls until new states are found. When the compiled sweeps finish, the values are written back to
+ * the Q-sources returned by {@link #getQSources()}.
  * 
  * @author James MacGlashan
  *
@@ -59,6 +71,16 @@ public class MAValueIteration extends MADynamicProgramming {
 	 */
 	protected int debugCode = 88934789;
 	
+	/**
+	 * Whether value iteration operates on compiled joint action dynamics
+	 */
+	protected boolean useCompiledDynamics = false;
+	
+	/**
+	 * The compiled joint action dynamics of the found states; null if they have not been compiled since new states were found.
+	 */
+	protected CompiledJointActionDynamics compiledDynamics;
+	
 	
 	
 	/**
@@ -154,6 +176,28 @@ public class MAValueIteration extends MADynamicProgramming {
 	
 	
 
+	/**
+	 * Sets whether value iteration operates on compiled joint action dynamics with dense value and Q-value arrays. Compiling the dynamics
+	 * costs about as much as one regular sweep, after which each sweep avoids all joint action enumeration, transition generation, reward evaluation, and state hashing.
+	 * @param useCompiledDynamics whether value iteration operates on compiled joint action dynamics
+	 */
+	public void toggleCompiledDynamics(boolean useCompiledDynamics){
+		this.useCompiledDynamics = useCompiledDynamics;
+	}
+	
+	
+	/**
+	 * Returns the compiled joint action dynamics of the states that have been found, compiling them if they have not been compiled since new states were found.
+	 * @return the compiled joint action dynamics
+	 */
+	public CompiledJointActionDynamics getCompiledDynamics(){
+		if(this.compiledDynamics == null){
+			this.compiledDynamics = new CompiledJointActionDynamics(this.states, this.agentDefinitions, this.jointActionModel, this.jointReward, this.terminalFunction, this.hashingFactory);
+		}
+		return this.compiledDynamics;
+	}
+	
+	
 	@Override
 	public void planFromState(State s) {
 		
@@ -178,6 +222,11 @@ public class MAValueIteration extends MADynamicProgramming {
 			throw new RuntimeException("No states to iterate over. Note that state reacability needs to be performed before runVI() can be called. Consider using planFromState(State s) method instead or using the performStateReachabilityFrom(State s) method first.");
 		}
 		
+		if(this.useCompiledDynamics){
+			this.runCompiledVI();
+			return;
+		}
+		
 		int i;
 		for(i = 0; i < this.maxIterations; i++){
 			
@@ -202,6 +251,66 @@ public class MAValueIteration extends MADynamicProgramming {
 	}
 	
 	
+	/**
+	 * Runs value iteration on the compiled joint action dynamics. Each backup of a state computes the Q-values of every agent for every joint action of the state
+	 * into dense Q-tables and then applies the backup operator for each agent. The {@link burlap.behavior.stochasticgames.madynamicprogramming.backupOperators.MaxQ}
+	 * operator is applied directly to the Q-tables; any other operator queries them through a {@link burlap.behavior.stochasticgames.madynamicprogramming.AgentQSourceMap}
+	 * backed by the Q-tables.
+	 */
+	protected void runCompiledVI(){
+		
+		CompiledJointActionDynamics cd = this.getCompiledDynamics();
+		String [] agentNames = cd.agentNames();
+		int nStates = cd.numStates();
+		
+		double [][] v = cd.initialValues(this.qSources);
+		double [][] q = new double[agentNames.length][cd.numJointActionSlots()];
+		boolean maxQ = this.backupOperator instanceof MaxQ;
+		CompiledQSourceMap compiledQSources = new CompiledQSourceMap(cd, q);
+		
+		int i;
+		for(i = 0; i < this.maxIterations; i++){
+			
+			double maxChange = Double.NEGATIVE_INFINITY;
+			for(int s = 0; s < nStates; s++){
+				
+				cd.computeQs(s, v, this.discount, q);
+				int start = cd.firstJointActionSlot(s);
+				int end = cd.firstJointActionSlot(s+1);
+				compiledQSources.curState = s;
+				
+				for(int a = 0; a < agentNames.length; a++){
+					double nv;
+					if(maxQ){
+						nv = Double.NEGATIVE_INFINITY;
+						for(int j = start; j < end; j++){
+							nv = Math.max(nv, q[a][j]);
+						}
+					}
+					else{
+						nv = this.backupOperator.performBackup(cd.state(s).s, agentNames[a], this.agentDefinitions, compiledQSources);
+					}
+					maxChange = Math.max(maxChange, Math.abs(nv - v[a][s]));
+					v[a][s] = nv;
+				}
+				
+			}
+			
+			DPrint.cl(this.debugCode, "Finished pass: " + i + " with max change: " + maxChange);
+			
+			if(maxChange < this.maxDelta){
+				break ;
+			}
+			
+		}
+		
+		cd.writeValues(v, this.qSources);
+		
+		DPrint.cl(this.debugCode, "Performed " + i + " passes.");
+		
+	}
+	
+	
 	/**
 	 * Finds and stores all states that are reachable from input state s.
 	 * @param s the state from which all reachable states will be indexed
@@ -215,6 +324,7 @@ public class MAValueIteration extends MADynamicProgramming {
 		}
 		
 		this.states.add(shi);
+		this.compiledDynamics = null;
 		
 		LinkedList<HashableState> openQueue = new LinkedList<HashableState>();
 		openQueue.add(shi);
@@ -245,4 +355,69 @@ public class MAValueIteration extends MADynamicProgramming {
 		return true;
 	}
 	
+	
+	
+	/**
+	 * An {@link burlap.behavior.stochasticgames.madynamicprogramming.AgentQSourceMap} that returns the Q-values of the state being backed up
+	 * from the dense Q-tables of a compiled value iteration sweep. Queries for any other state are delegated to the planner's Q-sources, whose values
+	 * are only updated when the compiled sweeps finish.
+	 */
+	protected class CompiledQSourceMap implements AgentQSourceMap{
+		
+		/**
+		 * The compiled joint action dynamics
+		 */
+		protected CompiledJointActionDynamics cd;
+		
+		/**
+		 * The agent and joint action slot indexed Q-tables
+		 */
+		protected double [][] q;
+		
+		/**
+		 * The id of the state being backed up
+		 */
+		protected int curState = -1;
+		
+		/**
+		 * The Q-source of each agent
+		 */
+		protected Map<String, QSourceForSingleAgent> agentQSources = new HashMap<String, QSourceForSingleAgent>();
+		
+		
+		/**
+		 * Initializes.
+		 * @param cd the compiled joint action dynamics
+		 * @param q the agent and joint action slot indexed Q-tables
+		 */
+		public CompiledQSourceMap(CompiledJointActionDynamics cd, double [][] q){
+			this.cd = cd;
+			this.q = q;
+			String [] agentNames = cd.agentNames();
+			for(int i = 0; i < agentNames.length; i++){
+				final int agent = i;
+				final QSourceForSingleAgent fallback = MAValueIteration.this.qSources.agentQSource(agentNames[i]);
+				this.agentQSources.put(agentNames[i], new QSourceForSingleAgent() {
+					
+					@Override
+					public JAQValue getQValueFor(State s, JointAction ja) {
+						if(curState != -1 && CompiledQSourceMap.this.cd.state(curState).s == s){
+							int slot = CompiledQSourceMap.this.cd.jointActionSlot(curState, ja);
+							if(slot != -1){
+								return new JAQValue(s, ja, CompiledQSourceMap.this.q[agent][slot]);
+							}
+						}
+						return fallback.getQValueFor(s, ja);
+					}
+				});
+			}
+		}
+		
+		@Override
+		public QSourceForSingleAgent agentQSource(String agentName) {
+			return this.agentQSources.get(agentName);
+		}
+		
+	}
+	
 }
@@ -0,0 +1,654 @@
+package burlap.behavior.valuefunction;
+
+import burlap.oomdp.statehashing.HashableState;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A tabular value function that maps {@link burlap.oomdp.statehashing.HashableState} objects to primitive double values and that can be
+ * read and written by multiple threads at once. Planners that store a value for each state (such as
+ * {@link burlap.behavior.singleagent.planning.stochastic.DynamicProgramming} and its subclasses) use it so that parallel
+ * sweeps and asynchronous trials can share one table.
+ * <p>
+ * The table is split into a number of stripes selected by the state hash code. Each stripe is an open addressing (linear probing) hash table
+ * whose values are stored as the bits of a double in an {@link java.util.concurrent.atomic.AtomicLongArray}, so values are never boxed.
+ * Reads never lock and updates of states already in the table are lock free compare-and-set loops: {@link #setValue(burlap.oomdp.statehashing.HashableState, double)},
+ * {@link #compareAndSet(burlap.oomdp.statehashing.HashableState, double, double)}, and {@link #maxUpdate(burlap.oomdp.statehashing.HashableState, double)}.
+ * Only the insertion of a new state locks, and only its stripe. When a stripe grows, its values are frozen one by one while they are copied
+ * to the larger table, so no concurrent update is lost.
+ * <p>
+ * The table also implements {@link java.util.Map} so that it can be used wherever a {@link java.util.Map} from states to values is expected.
+ * Its views and iterators are weakly consistent snapshots, and removing states is not supported, except for clearing the whole table with {@link #clear()}.
+ * @author James MacGlashan
+ *
+ */
+public class ConcurrentValueTable extends AbstractMap<HashableState, Double> {
+
+	/**
+	 * The bits stored in place of a value whose stripe table has been replaced by a larger table. Values are stored with
+	 * {@link Double#doubleToLongBits(double)}, which maps every NaN to the same canonical bits, so no value can have these bits.
+	 */
+	protected static final long		MOVED = 0x7ff8deadbeef0001L;
+
+	/**
+	 * The default number of stripes
+	 */
+	public static final int			DEFAULT_STRIPES = 16;
+
+
+	/**
+	 * The stripes of the table
+	 */
+	protected Stripe []				stripes;
+
+	/**
+	 * The number of bits by which a spread hash code is shifted to get its stripe
+	 */
+	protected int					stripeShift;
+
+
+	/**
+	 * Initializes with the default number of stripes.
+	 */
+	public ConcurrentValueTable(){
+		this(DEFAULT_STRIPES, 64);
+	}
+
+
+	/**
+	 * Initializes.
+	 * @param concurrencyLevel the expected number of threads that insert states concurrently; the number of stripes is the next power of two
+	 * @param initialCapacity the expected number of states
+	 */
+	public ConcurrentValueTable(int concurrencyLevel, int initialCapacity){
+		int nStripes = 1;
+		int bits = 0;
+		while(nStripes < concurrencyLevel && nStripes < (1 << 16)){
+			nStripes <<= 1;
+			bits++;
+		}
+		this.stripeShift = 32 - bits;
+		this.stripes = new Stripe[nStripes];
+		int perStripe = Math.max(4, initialCapacity / nStripes);
+		for(int i = 0; i < nStripes; i++){
+			this.stripes[i] = new Stripe(perStripe);
+		}
+	}
+
+
+	/**
+	 * Returns the value of a state, or the default value if the state is not in the table.
+	 * @param sh the state
+	 * @param defaultValue the value returned if the state is not in the table
+	 * @return the value of the state or the default value
+	 */
+	public double getValue(HashableState sh, double defaultValue){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				return defaultValue;
+			}
+			long bits = t.values.get(i);
+			if(bits != MOVED){
+				return Double.longBitsToDouble(bits);
+			}
+			stripe.awaitResize();
+		}
+	}
+
+
+	/**
+	 * Returns whether a state is in the table.
+	 * @param sh the state
+	 * @return true if the state is in the table; false otherwise
+	 */
+	public boolean containsState(HashableState sh){
+		int h = spread(sh.hashCode());
+		return this.stripeFor(h).table.find(sh, h) >= 0;
+	}
+
+
+	/**
+	 * Sets the value of a state, adding the state to the table if it is not already in it.
+	 * @param sh the state
+	 * @param v the value
+	 */
+	public void setValue(HashableState sh, double v){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		long nbits = Double.doubleToLongBits(v);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				if(stripe.insert(sh, h, nbits)){
+					return;
+				}
+				continue;
+			}
+			long bits = t.values.get(i);
+			if(bits == MOVED){
+				stripe.awaitResize();
+			}
+			else if(t.values.compareAndSet(i, bits, nbits)){
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Adds a state with the given value if the state is not in the table and returns the state's value.
+	 * @param sh the state
+	 * @param v the value to store if the state is not in the table
+	 * @return the value of the state, which is v if it was not in the table
+	 */
+	public double putIfAbsentValue(HashableState sh, double v){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		long nbits = Double.doubleToLongBits(v);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				if(stripe.insert(sh, h, nbits)){
+					return v;
+				}
+				continue;
+			}
+			long bits = t.values.get(i);
+			if(bits != MOVED){
+				return Double.longBitsToDouble(bits);
+			}
+			stripe.awaitResize();
+		}
+	}
+
+
+	/**
+	 * Atomically sets the value of a state to the update value if its current value is the expected value. Values are compared by their bits,
+	 * so NaN matches NaN and 0.0 does not match -0.0. A state that is not in the table never matches.
+	 * @param sh the state
+	 * @param expect the expected current value
+	 * @param update the new value
+	 * @return true if the value was set; false if the current value was not the expected value
+	 */
+	public boolean compareAndSet(HashableState sh, double expect, double update){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		long ebits = Double.doubleToLongBits(expect);
+		long nbits = Double.doubleToLongBits(update);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				return false;
+			}
+			long bits = t.values.get(i);
+			if(bits == MOVED){
+				stripe.awaitResize();
+				continue;
+			}
+			if(bits != ebits){
+				return false;
+			}
+			if(t.values.compareAndSet(i, bits, nbits)){
+				return true;
+			}
+		}
+	}
+
+
+	/**
+	 * Atomically sets the value of a state to the maximum of its current value and the given value, adding the state with the given value if
+	 * it is not in the table.
+	 * @param sh the state
+	 * @param v the value
+	 * @return the value of the state after the update
+	 */
+	public double maxUpdate(HashableState sh, double v){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		long nbits = Double.doubleToLongBits(v);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				if(stripe.insert(sh, h, nbits)){
+					return v;
+				}
+				continue;
+			}
+			long bits = t.values.get(i);
+			if(bits == MOVED){
+				stripe.awaitResize();
+				continue;
+			}
+			double cur = Double.longBitsToDouble(bits);
+			if(cur >= v){
+				return cur;
+			}
+			if(t.values.compareAndSet(i, bits, nbits)){
+				return v;
+			}
+		}
+	}
+
+
+	/**
+	 * Atomically sets the value of a state to the minimum of its current value and the given value, adding the state with the given value if
+	 * it is not in the table.
+	 * @param sh the state
+	 * @param v the value
+	 * @return the value of the state after the update
+	 */
+	public double minUpdate(HashableState sh, double v){
+		int h = spread(sh.hashCode());
+		Stripe stripe = this.stripeFor(h);
+		long nbits = Double.doubleToLongBits(v);
+		while(true){
+			Table t = stripe.table;
+			int i = t.find(sh, h);
+			if(i < 0){
+				if(stripe.insert(sh, h, nbits)){
+					return v;
+				}
+				continue;
+			}
+			long bits = t.values.get(i);
+			if(bits == MOVED){
+				stripe.awaitResize();
+				continue;
+			}
+			double cur = Double.longBitsToDouble(bits);
+			if(cur <= v){
+				return cur;
+			}
+			if(t.values.compareAndSet(i, bits, nbits)){
+				return v;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the states in the table.
+	 * @return the states in the table.
+	 */
+	public List<HashableState> states(){
+		List<HashableState> result = new ArrayList<HashableState>(this.size());
+		for(Stripe stripe : this.stripes){
+			Table t = stripe.table;
+			for(int i = 0; i < t.keys.length(); i++){
+				HashableState k = t.keys.get(i);
+				if(k != null){
+					result.add(k);
+				}
+			}
+		}
+		return result;
+	}
+
+
+	@Override
+	public int size() {
+		int n = 0;
+		for(Stripe stripe : this.stripes){
+			n += stripe.size;
+		}
+		return n;
+	}
+
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof HashableState && this.containsState((HashableState)key);
+	}
+
+
+	@Override
+	public Double get(Object key) {
+		if(!(key instanceof HashableState)){
+			return null;
+		}
+		double v = this.getValue((HashableState)key, Double.NaN);
+		if(Double.isNaN(v) && !this.containsState((HashableState)key)){
+			return null;
+		}
+		return v;
+	}
+
+
+	@Override
+	public Double put(HashableState key, Double value) {
+		Double old = this.get(key);
+		this.setValue(key, value);
+		return old;
+	}
+
+
+	@Override
+	public Double remove(Object key) {
+		throw new UnsupportedOperationException("ConcurrentValueTable does not support removing individual states.");
+	}
+
+
+	/**
+	 * Removes all states from the table. States that are added concurrently with this call may or may not be removed.
+	 */
+	@Override
+	public void clear() {
+		for(Stripe stripe : this.stripes){
+			stripe.clear();
+		}
+	}
+
+
+	@Override
+	public Set<Entry<HashableState, Double>> entrySet() {
+		return new AbstractSet<Entry<HashableState, Double>>() {
+			@Override
+			public Iterator<Entry<HashableState, Double>> iterator() {
+				final Iterator<HashableState> keys = states().iterator();
+				return new Iterator<Entry<HashableState, Double>>() {
+					@Override
+					public boolean hasNext() {
+						return keys.hasNext();
+					}
+
+					@Override
+					public Entry<HashableState, Double> next() {
+						return new ValueEntry(keys.next());
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException("ConcurrentValueTable does not support removing individual states.");
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ConcurrentValueTable.this.size();
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the stripe of a spread hash code.
+	 * @param h the spread hash code
+	 * @return the stripe of the hash code
+	 */
+	protected Stripe stripeFor(int h){
+		return this.stripes.length == 1 ? this.stripes[0] : this.stripes[h >>> this.stripeShift];
+	}
+
+
+	/**
+	 * Scrambles the bits of a hash code so that both its high bits (which select the stripe) and its low bits (which select the slot) are well distributed.
+	 * @param h the hash code
+	 * @return the spread hash code
+	 */
+	protected static int spread(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+
+
+	/**
+	 * An open addressing hash table of a stripe. Slots are claimed by writing the key after the hash and value, so a reader that
+	 * sees a key also sees its hash and initial value.
+	 */
+	protected static class Table{
+
+		/**
+		 * The key of each slot; null for empty slots
+		 */
+		public AtomicReferenceArray<HashableState>		keys;
+
+		/**
+		 * The spread hash code of the key of each slot
+		 */
+		public int []									hashes;
+
+		/**
+		 * The bits of the value of each slot
+		 */
+		public AtomicLongArray							values;
+
+		/**
+		 * The slot index mask
+		 */
+		public int										mask;
+
+
+		/**
+		 * Initializes.
+		 * @param capacity the number of slots, which must be a power of two
+		 */
+		public Table(int capacity){
+			this.keys = new AtomicReferenceArray<HashableState>(capacity);
+			this.hashes = new int[capacity];
+			this.values = new AtomicLongArray(capacity);
+			this.mask = capacity - 1;
+		}
+
+
+		/**
+		 * Returns the slot of a key, or -1 if the key is not in this table.
+		 * @param sh the key
+		 * @param h the spread hash code of the key
+		 * @return the slot of the key or -1
+		 */
+		public int find(HashableState sh, int h){
+			int i = h & this.mask;
+			while(true){
+				HashableState k = this.keys.get(i);
+				if(k == null){
+					return -1;
+				}
+				if(k == sh || (this.hashes[i] == h && k.equals(sh))){
+					return i;
+				}
+				i = (i + 1) & this.mask;
+			}
+		}
+
+
+		/**
+		 * Claims an empty slot for a key that is not in this table. Must only be called by the thread that holds the lock of the stripe.
+		 * @param sh the key
+		 * @param h the spread hash code of the key
+		 * @param bits the bits of the value of the key
+		 */
+		public void claim(HashableState sh, int h, long bits){
+			int i = h & this.mask;
+			while(this.keys.get(i) != null){
+				i = (i + 1) & this.mask;
+			}
+			this.hashes[i] = h;
+			this.values.set(i, bits);
+			this.keys.set(i, sh);
+		}
+
+	}
+
+
+	/**
+	 * A stripe of the table, which holds the current {@link Table} of the stripe and serializes the insertion of new keys.
+	 */
+	protected static class Stripe{
+
+		/**
+		 * The current table of this stripe
+		 */
+		public volatile Table		table;
+
+		/**
+		 * The number of keys in this stripe
+		 */
+		public volatile int			size = 0;
+
+
+		/**
+		 * Initializes.
+		 * @param expected the expected number of keys
+		 */
+		public Stripe(int expected){
+			this.table = new Table(capacityFor(expected));
+		}
+
+
+		/**
+		 * Inserts a key with the given value bits if it is not already in this stripe.
+		 * @param sh the key
+		 * @param h the spread hash code of the key
+		 * @param bits the bits of the value
+		 * @return true if the key was inserted; false if another thread inserted it first, in which case the caller should retry its operation
+		 */
+		public synchronized boolean insert(HashableState sh, int h, long bits){
+			if(this.table.find(sh, h) >= 0){
+				return false;
+			}
+			if(2*(this.size+1) > this.table.keys.length()){
+				this.resize();
+			}
+			this.table.claim(sh, h, bits);
+			this.size++;
+			return true;
+		}
+
+
+		/**
+		 * Removes all keys from this stripe.
+		 */
+		public synchronized void clear(){
+			Table old = this.table;
+			for(int i = 0; i < old.keys.length(); i++){
+				if(old.keys.get(i) != null){
+					old.values.set(i, MOVED);
+				}
+			}
+			this.table = new Table(capacityFor(4));
+			this.size = 0;
+		}
+
+
+		/**
+		 * Blocks until a resize of this stripe that is in progress completes.
+		 */
+		public void awaitResize(){
+			synchronized(this){
+				//the lock is held for the whole resize, so acquiring it means the resize is done
+			}
+		}
+
+
+		/**
+		 * Replaces the table of this stripe with a table of twice the size. Each value of the old table is frozen by replacing it with {@link #MOVED}
+		 * as it is copied, so concurrent updates either complete before their value is copied or retry on the new table.
+		 */
+		protected void resize(){
+			Table old = this.table;
+			Table nt = new Table(old.keys.length() * 2);
+			for(int i = 0; i < old.keys.length(); i++){
+				HashableState k = old.keys.get(i);
+				if(k == null){
+					continue;
+				}
+				long bits;
+				do{
+					bits = old.values.get(i);
+				}while(!old.values.compareAndSet(i, bits, MOVED));
+				nt.claim(k, old.hashes[i], bits);
+			}
+			this.table = nt;
+		}
+
+
+		/**
+		 * Returns the table capacity used for an expected number of keys.
+		 * @param expected the expected number of keys
+		 * @return a power of two that is at least twice the expected number of keys
+		 */
+		protected static int capacityFor(int expected){
+			int c = 8;
+			while(c < 2*expected){
+				c <<= 1;
+			}
+			return c;
+		}
+
+	}
+
+
+	/**
+	 * A map entry whose value is read from and written to the table.
+	 */
+	protected class ValueEntry implements Entry<HashableState, Double>{
+
+		/**
+		 * The key of the entry
+		 */
+		protected HashableState sh;
+
+		/**
+		 * Initializes.
+		 * @param sh the key of the entry
+		 */
+		public ValueEntry(HashableState sh){
+			this.sh = sh;
+		}
+
+		@Override
+		public HashableState getKey() {
+			return this.sh;
+		}
+
+		@Override
+		public Double getValue() {
+			return ConcurrentValueTable.this.getValue(this.sh, 0.);
+		}
+
+		@Override
+		public Double setValue(Double value) {
+			Double old = this.getValue();
+			ConcurrentValueTable.this.setValue(this.sh, value);
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry)){
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+			return this.sh.equals(e.getKey()) && this.getValue().equals(e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return this.sh.hashCode() ^ this.getValue().hashCode();
+		}
+	}
+
+}
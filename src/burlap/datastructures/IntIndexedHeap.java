@@ -0,0 +1,354 @@
+package burlap.datastructures;
+
+
+/**
+ * A primitive counterpart of {@link burlap.datastructures.HashIndexedHeap} for elements that are identified by dense int ids in [0, capacity).
+ * Instead of a hash map from objects to heap positions and a list of heap ordered objects, this heap stores a d-ary heap of ids in an int array,
+ * the heap position of each id in another int array, and the priority of each id in a double array. As a result, contains checks and priority lookups are O(1)
+ * array reads and inserts, polls and priority changes (including decrease-key) are O(d log_d(n)) and never allocate objects.
+ * <p>
+ * Like {@link burlap.datastructures.HashIndexedHeap}, the heap is a max heap by default (the id with the highest priority is dequeued first), but it may also be set to be a min heap.
+ * A branching factor (arity) of 4 is used by default, which makes the heap shallower and more cache friendly than a binary heap for the
+ * frequent priority increases performed by algorithms like prioritized sweeping.
+ *
+ * @author James MacGlashan
+ *
+ */
+public class IntIndexedHeap {
+
+	/**
+	 * Heap ordered array of ids; only the first {@link #size} entries are used.
+	 */
+	protected int []						heap;
+
+	/**
+	 * The heap position of each id, or -1 if the id is not in the heap.
+	 */
+	protected int []						positions;
+
+	/**
+	 * The priority of each id.
+	 */
+	protected double []						priorities;
+
+	/**
+	 * Number of ids in the heap
+	 */
+	protected int							size;
+
+	/**
+	 * The branching factor of the heap
+	 */
+	protected int							arity;
+
+	/**
+	 * If true, this is ordered according to a max heap; if false ordered according to a min heap.
+	 */
+	protected boolean						maxHeap = true;
+
+
+
+	/**
+	 * Initializes an empty 4-ary heap for ids in [0, capacity).
+	 * @param capacity the number of ids that can be stored
+	 */
+	public IntIndexedHeap(int capacity){
+		this(capacity, 4);
+	}
+
+
+	/**
+	 * Initializes an empty heap for ids in [0, capacity) with the given branching factor.
+	 * @param capacity the number of ids that can be stored
+	 * @param arity the branching factor of the heap; must be at least 2.
+	 */
+	public IntIndexedHeap(int capacity, int arity){
+		if(arity < 2){
+			throw new RuntimeException("IntIndexedHeap arity must be at least 2; was " + arity);
+		}
+		this.arity = arity;
+		this.heap = new int[capacity];
+		this.positions = new int[capacity];
+		this.priorities = new double[capacity];
+		for(int i = 0; i < capacity; i++){
+			this.positions[i] = -1;
+		}
+		this.size = 0;
+	}
+
+
+	/**
+	 * Returns the size of the heap
+	 * @return the size of the heap
+	 */
+	public int size(){
+		return this.size;
+	}
+
+
+	/**
+	 * Returns the number of ids that can be stored, that is, one more than the largest storable id.
+	 * @return the number of ids that can be stored
+	 */
+	public int capacity(){
+		return this.positions.length;
+	}
+
+
+	/**
+	 * Sets whether this heap is a max heap or a min heap. This should be set before any ids are inserted.
+	 * @param max if true, sets to be max heap; if false sets to be min heap.
+	 */
+	public void setUseMaxHeap(boolean max){
+		this.maxHeap = max;
+	}
+
+
+	/**
+	 * Returns whether the given id is in the heap.
+	 * @param id the id to check
+	 * @return true if the id is in the heap; false otherwise.
+	 */
+	public boolean contains(int id){
+		return this.positions[id] != -1;
+	}
+
+
+	/**
+	 * Returns the priority of the given id. If the id is not in the heap, the priority it last had is returned.
+	 * @param id the id whose priority is returned
+	 * @return the priority of the id
+	 */
+	public double priority(int id){
+		return this.priorities[id];
+	}
+
+
+	/**
+	 * Returns the id at the head of the heap without removing it, or -1 if the heap is empty.
+	 * @return the id at the head of the heap, or -1 if the heap is empty.
+	 */
+	public int peek(){
+		if(this.size == 0){
+			return -1;
+		}
+		return this.heap[0];
+	}
+
+
+	/**
+	 * Returns and removes the id at the head of the heap, or returns -1 if the heap is empty.
+	 * @return the id at the head of the heap, or -1 if the heap is empty.
+	 */
+	public int poll(){
+		if(this.size == 0){
+			return -1;
+		}
+		int top = this.heap[0];
+		this.removeAt(0);
+		return top;
+	}
+
+
+	/**
+	 * Inserts the id into the heap with the given priority. If the id is already in the heap, its priority is changed instead.
+	 * @param id the id to insert
+	 * @param priority the priority of the id
+	 */
+	public void insert(int id, double priority){
+		if(this.positions[id] != -1){
+			this.setPriority(id, priority);
+			return;
+		}
+		this.priorities[id] = priority;
+		int i = this.size++;
+		this.heap[i] = id;
+		this.positions[id] = i;
+		this.siftUp(i);
+	}
+
+
+	/**
+	 * Changes the priority of an id in the heap and reorders the heap accordingly. The priority may be increased or decreased.
+	 * If the id is not in the heap, it is inserted.
+	 * @param id the id whose priority is changed
+	 * @param priority the new priority of the id
+	 */
+	public void setPriority(int id, double priority){
+		int i = this.positions[id];
+		if(i == -1){
+			this.insert(id, priority);
+			return;
+		}
+		this.priorities[id] = priority;
+		if(!this.siftUp(i)){
+			this.siftDown(i);
+		}
+	}
+
+
+	/**
+	 * Raises the priority of the given id to the given priority if it is higher in the heap's ordering than its current priority (that is, larger for a max heap
+	 * and smaller for a min heap); otherwise does nothing. If the id is not in the heap, it is inserted.
+	 * @param id the id whose priority is raised
+	 * @param priority the candidate priority
+	 * @return true if the priority of the id was changed; false otherwise.
+	 */
+	public boolean raisePriority(int id, double priority){
+		int i = this.positions[id];
+		if(i == -1){
+			this.insert(id, priority);
+			return true;
+		}
+		if(!this.before(priority, this.priorities[id])){
+			return false;
+		}
+		this.priorities[id] = priority;
+		this.siftUp(i);
+		return true;
+	}
+
+
+	/**
+	 * Removes the given id from the heap.
+	 * @param id the id to remove
+	 * @return true if the id was in the heap; false otherwise.
+	 */
+	public boolean remove(int id){
+		int i = this.positions[id];
+		if(i == -1){
+			return false;
+		}
+		this.removeAt(i);
+		return true;
+	}
+
+
+	/**
+	 * Removes all ids from the heap.
+	 */
+	public void clear(){
+		for(int i = 0; i < this.size; i++){
+			this.positions[this.heap[i]] = -1;
+		}
+		this.size = 0;
+	}
+
+
+	/**
+	 * This method returns whether the data structure stored is in fact a heap (costs linear time) and whether the position index is consistent with it.
+	 * This method should only be used for debug purposes.
+	 * @return true if the stored data is a valid heap; false otherwise.
+	 */
+	public boolean satisfiesHeap(){
+		for(int i = 0; i < this.size; i++){
+			if(this.positions[this.heap[i]] != i){
+				return false;
+			}
+			if(i > 0 && this.before(this.priorities[this.heap[i]], this.priorities[this.heap[this.parent(i)]])){
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+
+	/**
+	 * Removes the id at the given heap position.
+	 * @param i the heap position to remove
+	 */
+	protected void removeAt(int i){
+		int id = this.heap[i];
+		this.positions[id] = -1;
+		this.size--;
+		if(i != this.size){
+			int last = this.heap[this.size];
+			this.heap[i] = last;
+			this.positions[last] = i;
+			if(!this.siftUp(i)){
+				this.siftDown(i);
+			}
+		}
+	}
+
+
+	/**
+	 * Moves the id at the given position up the heap until its parent precedes it.
+	 * @param i the heap position
+	 * @return true if the id was moved; false otherwise.
+	 */
+	protected boolean siftUp(int i){
+		int id = this.heap[i];
+		double p = this.priorities[id];
+		int start = i;
+		while(i > 0){
+			int parent = this.parent(i);
+			int pid = this.heap[parent];
+			if(!this.before(p, this.priorities[pid])){
+				break;
+			}
+			this.heap[i] = pid;
+			this.positions[pid] = i;
+			i = parent;
+		}
+		this.heap[i] = id;
+		this.positions[id] = i;
+		return i != start;
+	}
+
+
+	/**
+	 * Moves the id at the given position down the heap until it precedes all of its children.
+	 * @param i the heap position
+	 * @return true if the id was moved; false otherwise.
+	 */
+	protected boolean siftDown(int i){
+		int id = this.heap[i];
+		double p = this.priorities[id];
+		int start = i;
+		while(true){
+			int first = this.arity*i + 1;
+			if(first >= this.size){
+				break;
+			}
+			int end = Math.min(first + this.arity, this.size);
+			int best = first;
+			double bestP = this.priorities[this.heap[first]];
+			for(int c = first+1; c < end; c++){
+				double cp = this.priorities[this.heap[c]];
+				if(this.before(cp, bestP)){
+					best = c;
+					bestP = cp;
+				}
+			}
+			if(!this.before(bestP, p)){
+				break;
+			}
+			int cid = this.heap[best];
+			this.heap[i] = cid;
+			this.positions[cid] = i;
+			i = best;
+		}
+		this.heap[i] = id;
+		this.positions[id] = i;
+		return i != start;
+	}
+
+
+	/**
+	 * Returns whether priority a strictly precedes priority b in this heap's ordering.
+	 * @param a the first priority
+	 * @param b the second priority
+	 * @return true if a should be closer to the head of the heap than b; false otherwise.
+	 */
+	protected boolean before(double a, double b){
+		return this.maxHeap ? a > b : a < b;
+	}
+
+
+	private int parent(int i){
+		return (i-1) / this.arity;
+	}
+
+}
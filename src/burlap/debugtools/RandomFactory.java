@@ -14,6 +14,12 @@ import java.util.*;
  * To synchronize, just seed either a mapped random generator or the default in the
  * main method and use the get method to retrieve the random object for all other
  * classes. To break the fixed sequence, just construct it without a seed
+ * <p>
+ * A thread can also be given its own {@link RandomFactory} with {@link #setThreadFactory(RandomFactory)}, after which all static
+ * methods called from that thread use that factory instead of the shared one until {@link #clearThreadFactory()} is called.
+ * Combined with a factory constructed with a base seed (see {@link #RandomFactory(long)}), which seeds every generator it
+ * creates from the base seed and the generator's id, this gives code running on different threads (such as parallel experiment trials)
+ * independent and reproducible random sequences.
  * 
  * 
  * @author James MacGlashan
@@ -23,6 +29,11 @@ public class RandomFactory {
 
 	private static RandomFactory factory = new RandomFactory();
 	
+	/**
+	 * Factories that override the shared factory for individual threads
+	 */
+	private static final ThreadLocal<RandomFactory> threadFactory = new ThreadLocal<RandomFactory>();
+	
 	/**
 	 * A default random number generator
 	 */
@@ -38,6 +49,16 @@ public class RandomFactory {
 	 */
 	Map <String, Random> stringMapped;
 	
+	/**
+	 * Whether generators created without an explicit seed are seeded from {@link #baseSeed}
+	 */
+	boolean hasBaseSeed = false;
+	
+	/**
+	 * The seed from which generators created without an explicit seed are seeded when {@link #hasBaseSeed} is true
+	 */
+	long baseSeed;
+	
 	
 	/**
 	 * Example usage.
@@ -62,12 +83,40 @@ public class RandomFactory {
 	}
 	
 	
+	/**
+	 * Sets the factory used by all static methods called from the current thread.
+	 * @param threadRandomFactory the factory to use for the current thread
+	 */
+	public static void setThreadFactory(RandomFactory threadRandomFactory){
+		threadFactory.set(threadRandomFactory);
+	}
+	
+	
+	/**
+	 * Removes the current thread's factory so that static methods called from it use the shared factory again.
+	 */
+	public static void clearThreadFactory(){
+		threadFactory.remove();
+	}
+	
+	
+	/**
+	 * Returns the factory used by static methods called from the current thread: its thread factory if one was set with
+	 * {@link #setThreadFactory(RandomFactory)}, otherwise the shared factory.
+	 * @return the factory used by static methods called from the current thread.
+	 */
+	public static RandomFactory current(){
+		RandomFactory f = threadFactory.get();
+		return f != null ? f : factory;
+	}
+	
+	
 	/**
 	 * Returns the default random number generator.
 	 * @return the default random number generator.
 	 */
 	public static Random getDefault(){
-		return factory.ingetDefault();
+		return current().ingetDefault();
 	}
 	
 	/**
@@ -76,7 +125,7 @@ public class RandomFactory {
 	 * @return the default random number generator
 	 */
 	public static Random seedDefault(long seed){
-		return factory.inseedDefault(seed);
+		return current().inseedDefault(seed);
 	}
 	
 	
@@ -86,7 +135,7 @@ public class RandomFactory {
 	 * @return the default random generator
 	 */
 	public static Random getOrSeedDefault(long seed){
-		return factory.ingetOrSeedDefault(seed);
+		return current().ingetOrSeedDefault(seed);
 	}
 	
 	/**
@@ -95,7 +144,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random getMapped(int id){
-		return factory.ingetMapped(id);
+		return current().ingetMapped(id);
 	}
 	
 	
@@ -106,7 +155,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random seedMapped(int id, long seed){
-		return factory.inseedMapped(id, seed);
+		return current().inseedMapped(id, seed);
 	}
 	
 	
@@ -117,7 +166,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random getOrSeedMapped(int id, long seed){
-		return factory.ingetOrSeedMapped(id, seed);
+		return current().ingetOrSeedMapped(id, seed);
 	}
 	
 	
@@ -128,7 +177,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random getMapped(String id){
-		return factory.ingetMapped(id);
+		return current().ingetMapped(id);
 	}
 	
 	
@@ -139,7 +188,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random seedMapped(String id, long seed){
-		return factory.inseedMapped(id, seed);
+		return current().inseedMapped(id, seed);
 	}
 	
 	
@@ -150,7 +199,7 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public static Random getOrSeedMapped(String id, long seed){
-		return factory.ingetOrSeedMapped(id, seed);
+		return current().ingetOrSeedMapped(id, seed);
 	}
 	
 	
@@ -173,13 +222,39 @@ public class RandomFactory {
 	}
 	
 	
+	/**
+	 * Initializes the map structures and a base seed. Every generator this factory creates without an explicit seed is seeded
+	 * with a value determined by the base seed and the generator's id, so the sequences of a factory are reproducible.
+	 * @param baseSeed the base seed
+	 */
+	public RandomFactory(long baseSeed){
+		this();
+		this.hasBaseSeed = true;
+		this.baseSeed = baseSeed;
+	}
+	
+	
+	/**
+	 * Creates a generator for which no explicit seed was given. If this factory has a base seed, the generator is seeded with a
+	 * mix of the base seed and the given id hash; otherwise it is unseeded.
+	 * @param idHash a hash of the id of the generator
+	 * @return a new random generator
+	 */
+	protected Random newUnseeded(long idHash){
+		if(!this.hasBaseSeed){
+			return new Random();
+		}
+		return new Random(this.baseSeed * 6364136223846793005L + idHash * 1442695040888963407L + 1);
+	}
+	
+	
 	/**
 	 * Returns the default random number generator.
 	 * @return the default random number generator.
 	 */
 	public Random ingetDefault(){
 		if(defaultRandom_ == null){
-			defaultRandom_ = new Random();
+			defaultRandom_ = this.newUnseeded(0);
 		}
 		return defaultRandom_;
 	}
@@ -221,7 +296,7 @@ public class RandomFactory {
 			return r;
 		}
 		else{
-			r = new Random();
+			r = this.newUnseeded(2L*id + 1);
 			intMapped.put(id, r);
 		}
 		return r;
@@ -267,12 +342,12 @@ public class RandomFactory {
 	 * @return the random generator
 	 */
 	public Random ingetMapped(String id){
-		Random r = intMapped.get(id);
+		Random r = stringMapped.get(id);
 		if(r != null){
 			return r;
 		}
 		else{
-			r = new Random();
+			r = this.newUnseeded(2L*id.hashCode());
 			stringMapped.put(id, r);
 		}
 		return r;
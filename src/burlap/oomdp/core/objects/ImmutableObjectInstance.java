@@ -368,7 +368,7 @@ public final class ImmutableObjectInstance extends OOMDPObjectInstance implement
 	 */
 	public int [] getIntArrayValForAttribute(String attName){
 		int ind = obClass.attributeIndex(attName);
-		return values.get(ind).getIntArray().clone();
+		return values.get(ind).getIntArray();
 	}
 	
 	
@@ -379,7 +379,7 @@ public final class ImmutableObjectInstance extends OOMDPObjectInstance implement
 	 */
 	public double [] getDoubleArrayValForAttribute(String attName){
 		int ind = obClass.attributeIndex(attName);
-		return values.get(ind).getDoubleArray().clone();
+		return values.get(ind).getDoubleArray();
 	}
 	
 	
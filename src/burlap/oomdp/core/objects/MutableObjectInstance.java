@@ -6,6 +6,7 @@ import burlap.oomdp.core.Attribute;
 import burlap.oomdp.core.ObjectClass;
 import burlap.oomdp.core.Attribute.AttributeType;
 import burlap.oomdp.core.values.Value;
+import burlap.oomdp.statehashing.CachedHashCode;
 
 
 /**
@@ -13,6 +14,10 @@ import burlap.oomdp.core.values.Value;
  * identifier that is unique from any other object instances in the same state. Object instances
  * belong to a specific object class, and have a set of value assignments for each of its object
  * class' attributes.
+ * <p>
+ * Every modification of an object instance's name or values increments its modification count, which allows
+ * hashing factories to cache the hash code they compute for an object (see {@link #getCachedHashCode()}) and reuse it until the
+ * object is next modified.
  * @author James MacGlashan
  *
  */
@@ -34,6 +39,18 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 	protected List <Value>					values;
 	
 	
+	/**
+	 * The number of times this object's name or values have been modified
+	 */
+	protected int							modifications = 0;
+	
+	
+	/**
+	 * The most recent hash code computed for this object by a hashing factory, or null if none has been cached
+	 */
+	protected volatile CachedHashCode		cachedHashCode;
+	
+	
 	
 	
 	/**
@@ -61,6 +78,10 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		this.name = o.name;
 		
 		this.values = new ArrayList <Value>(o.values);
+		
+		//values are identical, so any cached hash code remains valid for the copy
+		this.modifications = o.modifications;
+		this.cachedHashCode = o.cachedHashCode;
 			
 	}
 	
@@ -94,6 +115,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 	 */
 	public ObjectInstance setName(String name){
 		this.name = name;
+		this.modifications++;
 		return this;
 	}
 	
@@ -108,6 +130,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -122,6 +145,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -135,6 +159,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -148,6 +173,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -161,6 +187,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -174,6 +201,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.setValue(v);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -188,6 +216,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.addRelationalTarget(target);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -203,6 +232,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.addAllRelationalTargets(targets);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -215,6 +245,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.clearRelationTargets();
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
@@ -228,10 +259,61 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 		Value value = values.get(ind);
 		Value newValue = value.removeRelationalTarget(target);
 		values.set(ind, newValue);
+		this.modifications++;
 		return this;
 	}
 	
 	
+	/**
+	 * Returns the number of times this object's name or values have been modified. The count never decreases, so an unchanged
+	 * count means an unchanged object.
+	 * @return the number of times this object's name or values have been modified.
+	 */
+	public int getModificationCount(){
+		return this.modifications;
+	}
+	
+	
+	/**
+	 * Returns the most recent hash code cached for this object by a hashing factory, or null if none has been cached.
+	 * Callers must check that it is valid for their hashing configuration and the current {@link #getModificationCount()}.
+	 * @return the most recent cached hash code, or null if none has been cached.
+	 */
+	public CachedHashCode getCachedHashCode(){
+		return this.cachedHashCode;
+	}
+	
+	
+	/**
+	 * Caches a hash code computed for this object by a hashing factory.
+	 * @param cachedHashCode the hash code record to cache
+	 */
+	public void setCachedHashCode(CachedHashCode cachedHashCode){
+		this.cachedHashCode = cachedHashCode;
+	}
+	
+	
+	/**
+	 * Returns the number of attribute values of this object.
+	 * @return the number of attribute values of this object.
+	 */
+	public int numValues(){
+		return this.values.size();
+	}
+	
+	
+	/**
+	 * Returns the {@link burlap.oomdp.core.values.Value} of the attribute with the given index in this object's {@link burlap.oomdp.core.ObjectClass}
+	 * without copying it. {@link burlap.oomdp.core.values.Value} objects are replaced rather than modified when
+	 * an attribute is set, so the returned value will not change; it should not be modified by the caller.
+	 * @param attIndex the index of the attribute
+	 * @return the {@link burlap.oomdp.core.values.Value} of the attribute
+	 */
+	public Value getValueAt(int attIndex){
+		return this.values.get(attIndex);
+	}
+	
+	
 	/**
 	 * Returns the name identifier of this object instance
 	 * @return the name identifier of this object instance
@@ -344,7 +426,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 	 */
 	public int [] getIntArrayValForAttribute(String attName){
 		int ind = obClass.attributeIndex(attName);
-		return values.get(ind).getIntArray().clone();
+		return values.get(ind).getIntArray();
 	}
 
 	/**
@@ -354,7 +436,7 @@ public class MutableObjectInstance extends OOMDPObjectInstance implements Object
 	 */
 	public double [] getDoubleArrayValForAttribute(String attName){
 		int ind = obClass.attributeIndex(attName);
-		return values.get(ind).getDoubleArray().clone();
+		return values.get(ind).getDoubleArray();
 	}
 	
 	
@@ -2,11 +2,18 @@ package burlap.oomdp.core.states;
 
 import java.util.*;
 
+import burlap.oomdp.core.objects.ImmutableObjectInstance;
+import burlap.oomdp.core.objects.MutableObjectInstance;
 import burlap.oomdp.core.objects.ObjectInstance;
+import burlap.oomdp.statehashing.CachedHashCode;
 
 
 /**
  * State objects are a collection of Object Instances.
+ * <p>
+ * A hashing factory may cache the hash code it computes for a state with {@link #setCachedHashCode(burlap.oomdp.statehashing.CachedHashCode)}.
+ * The cached hash code is discarded whenever objects are added, removed or renamed through this state, and it is
+ * stamped with {@link #getModificationStamp()} so that modifying the values of any of this state's objects also invalidates it.
  * @author James MacGlashan
  *
  */
@@ -29,6 +36,12 @@ public class MutableState extends OOMDPState implements State{
 	 * Map of object instances organized by class name
 	 */
 	protected Map <String, List <ObjectInstance>> 			objectIndexByClass;
+	
+	
+	/**
+	 * The most recent hash code computed for this state by a hashing factory, or null if none has been cached
+	 */
+	protected volatile CachedHashCode						cachedHashCode;
 
 	
 	
@@ -50,6 +63,9 @@ public class MutableState extends OOMDPState implements State{
 		for(ObjectInstance o : s.objectInstances){
 			this.addObject(o.copy());
 		}
+		
+		//object copies preserve their modification counts, so any cached hash code remains valid for the copy
+		this.cachedHashCode = s.cachedHashCode;
 
 		
 	}
@@ -141,6 +157,7 @@ public class MutableState extends OOMDPState implements State{
 		
 		objectMap.put(oname, o);
 		objectInstances.add(o);
+		this.cachedHashCode = null;
 
 		
 		
@@ -202,6 +219,7 @@ public class MutableState extends OOMDPState implements State{
 		
 
 		objectInstances.remove(o);
+		this.cachedHashCode = null;
 
 		
 		objectMap.remove(oname);
@@ -240,6 +258,47 @@ public class MutableState extends OOMDPState implements State{
 	
 	
 	
+	/**
+	 * Returns a stamp of the modification state of this state's objects: the sum of the modification counts of its
+	 * {@link burlap.oomdp.core.objects.MutableObjectInstance}s. Since modification counts never decrease and the cached hash code is discarded
+	 * on any change to the set of objects, an unchanged stamp means that no object has been modified since the hash code was cached.
+	 * If this state contains objects whose modifications cannot be tracked, -1 is returned.
+	 * @return the modification stamp of this state's objects, or -1 if modifications cannot be tracked.
+	 */
+	public long getModificationStamp(){
+		long stamp = 0;
+		for(int i = 0; i < this.objectInstances.size(); i++){
+			ObjectInstance o = this.objectInstances.get(i);
+			if(o instanceof MutableObjectInstance){
+				stamp += ((MutableObjectInstance)o).getModificationCount();
+			}
+			else if(!(o instanceof ImmutableObjectInstance)){
+				return -1;
+			}
+		}
+		return stamp;
+	}
+	
+	
+	/**
+	 * Returns the most recent hash code cached for this state by a hashing factory, or null if none has been cached.
+	 * Callers must check that it is valid for their hashing configuration and the current {@link #getModificationStamp()}.
+	 * @return the most recent cached hash code, or null if none has been cached.
+	 */
+	public CachedHashCode getCachedHashCode(){
+		return this.cachedHashCode;
+	}
+	
+	
+	/**
+	 * Caches a hash code computed for this state by a hashing factory.
+	 * @param cachedHashCode the hash code record to cache
+	 */
+	public void setCachedHashCode(CachedHashCode cachedHashCode){
+		this.cachedHashCode = cachedHashCode;
+	}
+	
+	
 	/**
 	 * Renames the identifier for object instance o in this state to newName.
 	 * @param o the object instance to rename in this state
@@ -248,6 +307,7 @@ public class MutableState extends OOMDPState implements State{
 	public State renameObject(ObjectInstance o, String newName){
 		String originalName = o.getName();
 		o.setName(newName);
+		this.cachedHashCode = null;
 		objectMap.remove(originalName);
 		objectMap.put(newName, o);
 		return this;
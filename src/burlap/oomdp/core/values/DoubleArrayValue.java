@@ -24,17 +24,18 @@ public class DoubleArrayValue extends OOMDPValue{
 	
 	public DoubleArrayValue(DoubleArrayValue v){
 		super(v);
-		DoubleArrayValue daValue = v;
-		if(daValue.doubleArray != null) {
-			this.doubleArray = daValue.doubleArray.clone();
-		} else {
-			this.doubleArray = null;
-		}
+		//array values are never modified, so copies can share the array
+		this.doubleArray = v.doubleArray;
 	}
 	
+	/**
+	 * Initializes with a copy of the given array, so that later changes to the array do not change this value.
+	 * @param attribute the attribute of this value
+	 * @param doubleArray the double array value
+	 */
 	public DoubleArrayValue(Attribute attribute, double[] doubleArray) {
 		super(attribute);
-		this.doubleArray = doubleArray;
+		this.doubleArray = doubleArray == null ? null : doubleArray.clone();
 	}
 
 	@Override
@@ -108,12 +109,17 @@ public class DoubleArrayValue extends OOMDPValue{
 		return intArray;
 	}
 
+	/**
+	 * Returns a copy of the double array of this value, so that changing the returned array does not change this value or the hash codes
+	 * cached for the states that hold it.
+	 * @return a copy of the double array of this value
+	 */
 	@Override
 	public double[] getDoubleArray() {
 		if(this.doubleArray == null){
 			throw new RuntimeException("Error, double array value is unset, cannot return a value for it.");
 		}
-		return this.doubleArray;
+		return this.doubleArray.clone();
 	}
 	
 	
@@ -26,17 +26,18 @@ public class IntArrayValue extends OOMDPValue implements Value {
 	
 	public IntArrayValue(IntArrayValue v){
 		super(v);
-		IntArrayValue iaValue  = v;
-		if(iaValue.intArray != null){
-			this.intArray = iaValue.intArray.clone();
-		} else {
-			this.intArray = null;
-		}
+		//array values are never modified, so copies can share the array
+		this.intArray = v.intArray;
 	}
 	
+	/**
+	 * Initializes with a copy of the given array, so that later changes to the array do not change this value.
+	 * @param attribute the attribute of this value
+	 * @param intArray the int array value
+	 */
 	public IntArrayValue(Attribute attribute, int[] intArray) {
 		super(attribute);
-		this.intArray = intArray;
+		this.intArray = intArray == null ? null : intArray.clone();
 	}
 
 	@Override
@@ -93,9 +94,14 @@ public class IntArrayValue extends OOMDPValue implements Value {
 		throw new UnsupportedOperationException("Cannot set int array value to double array value.");	
 	}
 
+	/**
+	 * Returns a copy of the int array of this value, so that changing the returned array does not change this value or the hash codes
+	 * cached for the states that hold it.
+	 * @return a copy of the int array of this value; null if it has not been set
+	 */
 	@Override
 	public int[] getIntArray() {
-		return this.intArray;
+		return this.intArray == null ? null : this.intArray.clone();
 	}
 
 	@Override
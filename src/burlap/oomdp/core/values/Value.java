@@ -133,14 +133,14 @@ public interface Value {
 	
 	
 	/**
-	 * Returns an int array value
+	 * Returns an int array value. Array values are immutable, so the returned array is a copy that the caller may modify.
 	 * @return an int array value
 	 */
 	int [] getIntArray();
 	
 	
 	/**
-	 * Returns a double array value
+	 * Returns a double array value. Array values are immutable, so the returned array is a copy that the caller may modify.
 	 * @return a double array value.
 	 */
 	double [] getDoubleArray();
@@ -0,0 +1,21 @@
+package burlap.oomdp.singleagent.environment;
+
+/**
+ * A factory interface for generating new, independent {@link burlap.oomdp.singleagent.environment.Environment} instances. This is used
+ * when multiple threads each need their own copy of an {@link burlap.oomdp.singleagent.environment.Environment}, such as when
+ * the {@link burlap.behavior.singleagent.auxiliary.performance.LearningAlgorithmExperimenter} runs trials in parallel.
+ * @author James MacGlashan
+ *
+ */
+public interface EnvironmentFactory {
+
+	/**
+	 * Generates a new {@link burlap.oomdp.singleagent.environment.Environment} that does not share mutable state with any
+	 * previously generated {@link burlap.oomdp.singleagent.environment.Environment}. Since domain actions typically retrieve their
+	 * {@link java.util.Random} from {@link burlap.debugtools.RandomFactory} when the domain is generated, the domain should be generated
+	 * by this method too, so that it uses the {@link burlap.debugtools.RandomFactory} of the calling thread.
+	 * @return a new {@link burlap.oomdp.singleagent.environment.Environment}
+	 */
+	Environment generateEnvironment();
+
+}
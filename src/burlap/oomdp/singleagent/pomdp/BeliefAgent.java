@@ -1,6 +1,7 @@
 package burlap.oomdp.singleagent.pomdp;
 
 import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.oomdp.core.states.State;
 import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.environment.Environment;
 import burlap.oomdp.singleagent.environment.EnvironmentOutcome;
@@ -80,7 +81,7 @@ public abstract class BeliefAgent {
 			ea.recordTransitionTo(ga, eo.op, eo.r);
 			
 			//update our belief
-			this.curBelief = this.curBelief.getUpdatedBeliefState(eo.op, eo.a);
+			this.updateBelief(eo.op, eo.a);
 			
 		}
 		
@@ -106,7 +107,7 @@ public abstract class BeliefAgent {
 			ea.recordTransitionTo(ga, eo.op, eo.r);
 
 			//update our belief
-			this.curBelief = this.curBelief.getUpdatedBeliefState(eo.op, eo.a);
+			this.updateBelief(eo.op, eo.a);
 			
 			c++;
 			
@@ -116,6 +117,19 @@ public abstract class BeliefAgent {
 	}
 
 
+	/**
+	 * Updates the agent's current {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState} after it takes an action and receives an observation.
+	 * The default implementation uses the current belief's
+	 * {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState#getUpdatedBeliefState(burlap.oomdp.core.states.State, burlap.oomdp.singleagent.GroundedAction)}
+	 * method. Agents that track additional state about their history, such as a search tree, can override this method.
+	 * @param observation the observation received after taking the action
+	 * @param ga the action taken
+	 */
+	protected void updateBelief(State observation, GroundedAction ga){
+		this.curBelief = this.curBelief.getUpdatedBeliefState(observation, ga);
+	}
+
+
 	/**
 	 * Returns the action the agent should take for the input {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState}.
 	 * @param curBelief the {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState} in which the agent must make a decision.
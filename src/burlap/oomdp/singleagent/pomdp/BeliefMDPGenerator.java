@@ -8,6 +8,8 @@ import burlap.oomdp.core.states.State;
 import burlap.oomdp.singleagent.*;
 import burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState;
 import burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.tabular.CompiledTabularBeliefUpdater;
+import burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,7 +24,8 @@ import java.util.List;
  * implement the {@link burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState} and {@link burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState}
  * interfaces. The getTransitions method (used by planning algorithms that require the full transition dynamics)
  * also operates by iterating over all possible observations. If your domain has many observations, consider using
- * a sample-based MDP planning algorithm.
+ * a sample-based MDP planning algorithm. For {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState}s that use compiled belief updates,
+ * the predicted next state distribution is computed once per action and reused for every observation.
  * <p>
  * For more information on Belief MDPs, see the POMDP wikipedia page: https://en.wikipedia.org/wiki/Partially_observable_Markov_decision_process#Belief_MDP
  *
@@ -181,6 +184,11 @@ public class BeliefMDPGenerator implements DomainGenerator {
 
 			
 			List<State> observations = BeliefMDPGenerator.this.podomain.getObservationFunction().getAllPossibleObservations();
+
+			if(bs instanceof TabularBeliefState && ((TabularBeliefState)bs).usesCompiledBeliefUpdates()){
+				return this.compiledTransitions((TabularBeliefState)bs, mdpGA, observations);
+			}
+
 			List<TransitionProbability> tps = new ArrayList<TransitionProbability>(observations.size());
 			for(State observation : observations){
 				double p = this.probObservation(bs, observation, mdpGA);
@@ -197,6 +205,33 @@ public class BeliefMDPGenerator implements DomainGenerator {
 		}
 
 
+		/**
+		 * Computes the Belief MDP transitions of a {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState} with its
+		 * {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.CompiledTabularBeliefUpdater}. The predicted next state distribution is computed
+		 * once and then conditioned on each observation, which yields both the probability of the observation and the updated belief state.
+		 * @param bs the previous belief state
+		 * @param mdpGA the pomdp action that is taken
+		 * @param observations all possible observations
+		 * @return the collapsed list of Belief MDP transitions
+		 */
+		protected List<TransitionProbability> compiledTransitions(TabularBeliefState bs, GroundedAction mdpGA, List<State> observations){
+
+			CompiledTabularBeliefUpdater updater = bs.getBeliefUpdater();
+			CompiledTabularBeliefUpdater.SparseBeliefVector predicted = updater.predict(bs, mdpGA);
+
+			List<TransitionProbability> tps = new ArrayList<TransitionProbability>(observations.size());
+			for(State observation : observations){
+				CompiledTabularBeliefUpdater.SparseBeliefVector posterior = new CompiledTabularBeliefUpdater.SparseBeliefVector(predicted.size);
+				double p = updater.correct(predicted, observation, mdpGA, posterior);
+				if(p > 0){
+					tps.add(new TransitionProbability(updater.toBeliefState(posterior, bs), p));
+				}
+			}
+
+			return this.collapseTransitionProbabilityDuplicates(tps);
+		}
+
+
 		/**
 		 * Computes and returns the probability of observing an observation in a given BeleifState when a specific action is taken.
 		 * @param bs the previous belief state
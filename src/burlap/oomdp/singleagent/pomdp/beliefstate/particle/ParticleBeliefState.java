@@ -0,0 +1,584 @@
+package burlap.oomdp.singleagent.pomdp.beliefstate.particle;
+
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.core.objects.ObjectInstance;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.pomdp.ObservationFunction;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState;
+
+import java.util.*;
+
+/**
+ * A belief state represented by a set of weighted particles (MDP states), which is suitable for POMDPs whose state spaces are too large to
+ * enumerate or are continuous. Belief updates are computed with a sequential importance resampling particle filter: each particle is moved to a
+ * sampled outcome of the taken action with {@link burlap.oomdp.singleagent.GroundedAction#executeIn(burlap.oomdp.core.states.State)},
+ * its weight is multiplied by the probability of the received observation in its new state according to the domain's {@link burlap.oomdp.singleagent.pomdp.ObservationFunction},
+ * and, if the effective sample size of the resulting weights falls below a fraction of the number of particles, the particles are resampled with the
+ * selected {@link burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState.ResamplingStrategy}. The cost of an update is linear in the number of particles
+ * and does not depend on the size of the state space.
+ * <p>
+ * Sampling an MDP state from the belief with {@link #sampleStateFromBelief()} takes constant time: an alias table over the particle weights
+ * is built the first time a state is sampled (in time linear in the number of particles) and reused for all subsequent samples.
+ * <p>
+ * Particles are shared, not copied, between belief states created by updates, copies, and resampling (which may also make several particles refer to the same state),
+ * so particle states must not be modified. The {@link #belief(burlap.oomdp.core.states.State)} method sums the weights of the particles that are equal to the query state,
+ * which takes linear time, and {@link #getStatesAndBeliefsWithNonZeroProbability()} returns one entry per particle without merging equal particles, which
+ * preserves any expectation computed over it.
+ * <p>
+ * This belief state has no OO-MDP object representation; it reports no objects and throws an {@link java.lang.UnsupportedOperationException} for
+ * any object modification.
+ * @author James MacGlashan.
+ */
+public class ParticleBeliefState implements BeliefState, EnumerableBeliefState {
+
+	/**
+	 * The strategies for resampling particles in proportion to their weights.
+	 */
+	public static enum ResamplingStrategy{
+
+		/**
+		 * Draws each new particle independently from the weight distribution.
+		 */
+		MULTINOMIAL,
+
+		/**
+		 * Draws one particle from each of n equal width strata of the cumulative weight distribution, with an independent offset in each stratum.
+		 */
+		STRATIFIED,
+
+		/**
+		 * Draws one particle from each of n equal width strata of the cumulative weight distribution, with the same offset in every stratum.
+		 * This has the lowest resampling variance of the strategies and is the default.
+		 */
+		SYSTEMATIC,
+
+		/**
+		 * Deterministically copies each particle floor(n * weight) times and draws the remaining particles from the residual weights.
+		 */
+		RESIDUAL
+	}
+
+
+	/**
+	 * The POMDP domain whose observation function is used for updates.
+	 */
+	protected PODomain				domain;
+
+	/**
+	 * The particles
+	 */
+	protected State []				particles;
+
+	/**
+	 * The normalized weight of each particle
+	 */
+	protected double []				weights;
+
+	/**
+	 * The resampling strategy used after updates
+	 */
+	protected ResamplingStrategy	resamplingStrategy = ResamplingStrategy.SYSTEMATIC;
+
+	/**
+	 * Particles are resampled after an update when the effective sample size is less than this fraction of the number of particles.
+	 */
+	protected double				resamplingThreshold = 0.5;
+
+	/**
+	 * The probability of keeping each column of the alias table; null until the table is built.
+	 */
+	protected volatile double []	aliasProbs;
+
+	/**
+	 * The alias of each column of the alias table.
+	 */
+	protected volatile int []		aliases;
+
+
+
+	/**
+	 * Uninitialized constructor used by updates and resampling, which set the fields directly.
+	 */
+	protected ParticleBeliefState(){
+
+	}
+
+
+	/**
+	 * Initializes with equally weighted particles.
+	 * @param domain the POMDP domain
+	 * @param particles the particles, which will not be modified.
+	 */
+	public ParticleBeliefState(PODomain domain, List<State> particles){
+		this.domain = domain;
+		this.particles = particles.toArray(new State[particles.size()]);
+		this.weights = new double[this.particles.length];
+		Arrays.fill(this.weights, 1. / this.particles.length);
+	}
+
+
+	/**
+	 * Initializes with weighted particles. The weights are normalized.
+	 * @param domain the POMDP domain
+	 * @param particles the particles, which will not be modified.
+	 * @param weights the weight of each particle
+	 */
+	public ParticleBeliefState(PODomain domain, State [] particles, double [] weights){
+		if(particles.length != weights.length){
+			throw new RuntimeException("Cannot create ParticleBeliefState because the number of particles (" + particles.length + ") and weights (" + weights.length + ") differ.");
+		}
+		this.domain = domain;
+		this.particles = particles.clone();
+		this.weights = weights.clone();
+		double sum = 0.;
+		for(double w : this.weights){
+			sum += w;
+		}
+		if(!(sum > 0.)){
+			throw new RuntimeException("Cannot create ParticleBeliefState because the particle weights sum to " + sum);
+		}
+		for(int i = 0; i < this.weights.length; i++){
+			this.weights[i] /= sum;
+		}
+	}
+
+
+	/**
+	 * Initializes with equally weighted particles sampled from another belief state, such as an initial {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState}.
+	 * @param domain the POMDP domain
+	 * @param source the belief state from which particles are sampled
+	 * @param numParticles the number of particles
+	 */
+	public ParticleBeliefState(PODomain domain, BeliefState source, int numParticles){
+		this.domain = domain;
+		this.particles = new State[numParticles];
+		for(int i = 0; i < numParticles; i++){
+			this.particles[i] = source.sampleStateFromBelief();
+		}
+		this.weights = new double[numParticles];
+		Arrays.fill(this.weights, 1. / numParticles);
+	}
+
+
+	/**
+	 * Initializes as a copy of the source particle belief state, sharing its particles.
+	 * @param src the source particle belief state
+	 */
+	public ParticleBeliefState(ParticleBeliefState src){
+		this.domain = src.domain;
+		this.particles = src.particles.clone();
+		this.weights = src.weights.clone();
+		this.resamplingStrategy = src.resamplingStrategy;
+		this.resamplingThreshold = src.resamplingThreshold;
+		this.aliasProbs = src.aliasProbs;
+		this.aliases = src.aliases;
+	}
+
+
+	/**
+	 * Sets the resampling strategy used after updates. The setting is inherited by belief states created by updates.
+	 * @param resamplingStrategy the resampling strategy
+	 */
+	public void setResamplingStrategy(ResamplingStrategy resamplingStrategy){
+		this.resamplingStrategy = resamplingStrategy;
+	}
+
+
+	/**
+	 * Returns the resampling strategy used after updates.
+	 * @return the resampling strategy used after updates.
+	 */
+	public ResamplingStrategy getResamplingStrategy(){
+		return this.resamplingStrategy;
+	}
+
+
+	/**
+	 * Sets the effective sample size fraction below which particles are resampled after an update. A value of 1 resamples after every update
+	 * and a value of 0 never resamples. The setting is inherited by belief states created by updates.
+	 * @param resamplingThreshold the fraction of the number of particles, in [0, 1]
+	 */
+	public void setResamplingThreshold(double resamplingThreshold){
+		this.resamplingThreshold = resamplingThreshold;
+	}
+
+
+	/**
+	 * Returns the number of particles.
+	 * @return the number of particles.
+	 */
+	public int numParticles(){
+		return this.particles.length;
+	}
+
+
+	/**
+	 * Returns the particle with the given index.
+	 * @param i the particle index
+	 * @return the particle
+	 */
+	public State getParticle(int i){
+		return this.particles[i];
+	}
+
+
+	/**
+	 * Returns the normalized weight of the particle with the given index.
+	 * @param i the particle index
+	 * @return the weight of the particle
+	 */
+	public double getWeight(int i){
+		return this.weights[i];
+	}
+
+
+	/**
+	 * Returns the effective sample size of the particle weights, 1 / sum_i w_i^2, which ranges from 1 (all weight on one particle) to the
+	 * number of particles (equal weights).
+	 * @return the effective sample size
+	 */
+	public double effectiveSampleSize(){
+		double sumSq = 0.;
+		for(double w : this.weights){
+			sumSq += w*w;
+		}
+		return 1. / sumSq;
+	}
+
+
+	@Override
+	public double belief(State s) {
+		double b = 0.;
+		for(int i = 0; i < this.particles.length; i++){
+			if(this.particles[i].equals(s)){
+				b += this.weights[i];
+			}
+		}
+		return b;
+	}
+
+
+	@Override
+	public State sampleStateFromBelief() {
+		return this.particles[this.sampleIndex(RandomFactory.getMapped(0))];
+	}
+
+
+	@Override
+	public BeliefState getUpdatedBeliefState(State observation, GroundedAction ga) {
+
+		ObservationFunction of = this.domain.getObservationFunction();
+		int n = this.particles.length;
+		State [] next = new State[n];
+		double [] nWeights = new double[n];
+		double sum = 0.;
+		for(int i = 0; i < n; i++){
+			if(this.weights[i] == 0.){
+				next[i] = this.particles[i];
+				continue;
+			}
+			next[i] = ga.executeIn(this.particles[i]);
+			nWeights[i] = this.weights[i] * of.getObservationProbability(observation, next[i], ga);
+			sum += nWeights[i];
+		}
+
+		if(sum == 0. || Double.isNaN(sum)){
+			throw new RuntimeException("getUpdatedBeliefState for ParticleBeliefState failed because no particle is consistent with the observation (the probability normalization is " + sum + ")." +
+					"\nConsider using more particles.\nFailed for action: " + ga.toString() + "\nAnd observation:\n" + observation.getCompleteStateDescriptionWithUnsetAttributesAsNull());
+		}
+
+		ParticleBeliefState nb = new ParticleBeliefState();
+		nb.domain = this.domain;
+		nb.particles = next;
+		for(int i = 0; i < n; i++){
+			nWeights[i] /= sum;
+		}
+		nb.weights = nWeights;
+		nb.resamplingStrategy = this.resamplingStrategy;
+		nb.resamplingThreshold = this.resamplingThreshold;
+
+		if(nb.effectiveSampleSize() < this.resamplingThreshold * n){
+			return nb.resample();
+		}
+
+		return nb;
+	}
+
+
+	/**
+	 * Returns a new equally weighted particle belief state with the same number of particles, resampled from this one with its resampling strategy.
+	 * @return the resampled particle belief state
+	 */
+	public ParticleBeliefState resample(){
+		return this.resample(this.particles.length);
+	}
+
+
+	/**
+	 * Returns a new equally weighted particle belief state with the given number of particles, resampled from this one with its resampling strategy.
+	 * @param numParticles the number of particles of the resampled belief state
+	 * @return the resampled particle belief state
+	 */
+	public ParticleBeliefState resample(int numParticles){
+
+		Random rand = RandomFactory.getMapped(0);
+		int [] indices = new int[numParticles];
+
+		switch(this.resamplingStrategy){
+			case MULTINOMIAL:
+				for(int i = 0; i < numParticles; i++){
+					indices[i] = this.sampleIndex(rand);
+				}
+				break;
+			case STRATIFIED:
+			case SYSTEMATIC:
+				boolean systematic = this.resamplingStrategy == ResamplingStrategy.SYSTEMATIC;
+				double offset = rand.nextDouble();
+				double cumulative = this.weights[0];
+				int j = 0;
+				for(int i = 0; i < numParticles; i++){
+					double u = (i + (systematic ? offset : rand.nextDouble())) / numParticles;
+					while(u >= cumulative && j < this.weights.length-1){
+						j++;
+						cumulative += this.weights[j];
+					}
+					indices[i] = j;
+				}
+				break;
+			case RESIDUAL:
+				int filled = 0;
+				double [] residuals = new double[this.weights.length];
+				double residualSum = 0.;
+				for(int k = 0; k < this.weights.length; k++){
+					double expected = this.weights[k] * numParticles;
+					int copies = (int)Math.floor(expected);
+					for(int c = 0; c < copies && filled < numParticles; c++){
+						indices[filled++] = k;
+					}
+					residuals[k] = expected - copies;
+					residualSum += residuals[k];
+				}
+				if(filled < numParticles){
+					ParticleBeliefState residual = new ParticleBeliefState(this.domain, this.particles, residualSum > 0. ? residuals : this.weights);
+					while(filled < numParticles){
+						indices[filled++] = residual.sampleIndex(rand);
+					}
+				}
+				break;
+		}
+
+		State [] nParticles = new State[numParticles];
+		for(int i = 0; i < numParticles; i++){
+			nParticles[i] = this.particles[indices[i]];
+		}
+		double [] nWeights = new double[numParticles];
+		Arrays.fill(nWeights, 1. / numParticles);
+
+		ParticleBeliefState nb = new ParticleBeliefState();
+		nb.domain = this.domain;
+		nb.particles = nParticles;
+		nb.weights = nWeights;
+		nb.resamplingStrategy = this.resamplingStrategy;
+		nb.resamplingThreshold = this.resamplingThreshold;
+		return nb;
+	}
+
+
+	/**
+	 * Samples a particle index in proportion to the particle weights in constant time using the alias table, building the table first if needed.
+	 * @param rand the random number generator to use
+	 * @return the sampled particle index
+	 */
+	protected int sampleIndex(Random rand){
+		double [] probs = this.aliasProbs;
+		int [] alias = this.aliases;
+		if(probs == null){
+			synchronized(this){
+				if(this.aliasProbs == null){
+					this.buildAliasTable();
+				}
+				probs = this.aliasProbs;
+				alias = this.aliases;
+			}
+		}
+		int column = rand.nextInt(probs.length);
+		return rand.nextDouble() < probs[column] ? column : alias[column];
+	}
+
+
+	/**
+	 * Builds the alias table of the particle weights with Vose's method.
+	 */
+	protected void buildAliasTable(){
+
+		int n = this.weights.length;
+		double [] probs = new double[n];
+		int [] alias = new int[n];
+		double [] scaled = new double[n];
+		int [] small = new int[n];
+		int [] large = new int[n];
+		int nSmall = 0;
+		int nLarge = 0;
+
+		for(int i = 0; i < n; i++){
+			scaled[i] = this.weights[i] * n;
+			if(scaled[i] < 1.){
+				small[nSmall++] = i;
+			}
+			else{
+				large[nLarge++] = i;
+			}
+		}
+
+		while(nSmall > 0 && nLarge > 0){
+			int l = small[--nSmall];
+			int g = large[--nLarge];
+			probs[l] = scaled[l];
+			alias[l] = g;
+			scaled[g] = (scaled[g] + scaled[l]) - 1.;
+			if(scaled[g] < 1.){
+				small[nSmall++] = g;
+			}
+			else{
+				large[nLarge++] = g;
+			}
+		}
+
+		//any remaining columns are full up to numerical error
+		while(nLarge > 0){
+			int g = large[--nLarge];
+			probs[g] = 1.;
+			alias[g] = g;
+		}
+		while(nSmall > 0){
+			int l = small[--nSmall];
+			probs[l] = 1.;
+			alias[l] = l;
+		}
+
+		this.aliases = alias;
+		this.aliasProbs = probs;
+	}
+
+
+	@Override
+	public List<StateBelief> getStatesAndBeliefsWithNonZeroProbability() {
+		List<StateBelief> result = new ArrayList<StateBelief>(this.particles.length);
+		for(int i = 0; i < this.particles.length; i++){
+			if(this.weights[i] > 0.){
+				result.add(new StateBelief(this.particles[i], this.weights[i]));
+			}
+		}
+		return result;
+	}
+
+
+	@Override
+	public State copy() {
+		return new ParticleBeliefState(this);
+	}
+
+	@Override
+	public State addObject(ObjectInstance o) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects added to it.");
+	}
+
+	@Override
+	public State addAllObjects(Collection<ObjectInstance> objects) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects added to it.");
+	}
+
+	@Override
+	public State removeObject(String oname) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects removed from it.");
+	}
+
+	@Override
+	public <T> State setObjectsValue(String objectName, String attName, T value) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP object values set.");
+	}
+
+	@Override
+	public State removeObject(ObjectInstance o) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects removed from it.");
+	}
+
+	@Override
+	public State removeAllObjects(Collection<ObjectInstance> objects) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects removed from it.");
+	}
+
+	@Override
+	public State renameObject(String originalName, String newName) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects renamed");
+	}
+
+	@Override
+	public State renameObject(ObjectInstance o, String newName) {
+		throw new UnsupportedOperationException("ParticleBeliefState cannot have OO-MDP objects renamed");
+	}
+
+	@Override
+	public Map<String, String> getObjectMatchingTo(State so, boolean enforceStateExactness) {
+		return new HashMap<String, String>();
+	}
+
+	@Override
+	public int numTotalObjects() {
+		return 0;
+	}
+
+	@Override
+	public ObjectInstance getObject(String oname) {
+		return null;
+	}
+
+	@Override
+	public List<ObjectInstance> getAllObjects() {
+		return new ArrayList<ObjectInstance>();
+	}
+
+	@Override
+	public List<ObjectInstance> getObjectsOfClass(String oclass) {
+		return new ArrayList<ObjectInstance>();
+	}
+
+	@Override
+	public ObjectInstance getFirstObjectOfClass(String oclass) {
+		return null;
+	}
+
+	@Override
+	public Set<String> getObjectClassesPresent() {
+		return new HashSet<String>();
+	}
+
+	@Override
+	public List<List<ObjectInstance>> getAllObjectsByClass() {
+		return new ArrayList<List<ObjectInstance>>();
+	}
+
+	@Override
+	public String getCompleteStateDescription() {
+		return "ParticleBeliefState with " + this.particles.length + " particles and effective sample size " + this.effectiveSampleSize();
+	}
+
+	@Override
+	public Map<String, List<String>> getAllUnsetAttributes() {
+		return new HashMap<String, List<String>>();
+	}
+
+	@Override
+	public String getCompleteStateDescriptionWithUnsetAttributesAsNull() {
+		return this.getCompleteStateDescription();
+	}
+
+	@Override
+	public List<List<String>> getPossibleBindingsGivenParamOrderGroups(String[] paramClasses, String[] paramOrderGroups) {
+		return new ArrayList<List<String>>();
+	}
+
+}
@@ -0,0 +1,483 @@
+package burlap.oomdp.singleagent.pomdp.beliefstate.tabular;
+
+import burlap.behavior.singleagent.auxiliary.StateEnumerator;
+import burlap.oomdp.core.TransitionProbability;
+import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.pomdp.ObservationFunction;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.statehashing.HashableState;
+import burlap.oomdp.statehashing.HashableStateFactory;
+import burlap.oomdp.statehashing.SimpleHashableStateFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A belief update engine for {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState}s that compiles the POMDP
+ * transition and observation functions over the {@link burlap.behavior.singleagent.auxiliary.StateEnumerator} ids of the MDP states.
+ * For each grounded action, the outcome distribution of each source state is compiled once into a sparse row of next state ids and probabilities,
+ * and, if the observation function can enumerate its observations, the likelihood of each observation in each next state is compiled into a table indexed by state id.
+ * A belief update is then a sparse matrix-vector product of the belief with the action's transition rows ({@link #predict(TabularBeliefState, burlap.oomdp.singleagent.GroundedAction)}),
+ * followed by a reweighting of the predicted next states by the observation likelihoods ({@link #correct(SparseBeliefVector, burlap.oomdp.core.states.State, burlap.oomdp.singleagent.GroundedAction, SparseBeliefVector)}).
+ * Its cost is proportional to the number of transitions from the states with non-zero belief, rather than to the square of the number of states.
+ * <p>
+ * Rows and tables are compiled lazily the first time they are needed, so the state enumerator may continue to enumerate new states as they are encountered.
+ * Compilation assumes that the transition and observation functions do not change. An updater may be shared by any number of belief states and used
+ * from multiple threads.
+ * <p>
+ * Because the predicted next state distribution does not depend on the observation, code that needs the updated belief for every observation,
+ * such as {@link burlap.oomdp.singleagent.pomdp.BeliefMDPGenerator}, can call {@link #predict(TabularBeliefState, burlap.oomdp.singleagent.GroundedAction)} once and then
+ * {@link #correct(SparseBeliefVector, burlap.oomdp.core.states.State, burlap.oomdp.singleagent.GroundedAction, SparseBeliefVector)} for each observation, which also returns the
+ * probability of the observation.
+ * @author James MacGlashan.
+ */
+public class CompiledTabularBeliefUpdater {
+
+	/**
+	 * The POMDP domain whose dynamics are compiled
+	 */
+	protected PODomain								domain;
+
+	/**
+	 * The state enumerator that defines the state ids
+	 */
+	protected StateEnumerator						stateEnumerator;
+
+	/**
+	 * The compiled model of each grounded action, keyed by the grounded action's string representation
+	 */
+	protected Map<String, ActionModel>				actionModels = new ConcurrentHashMap<String, ActionModel>();
+
+	/**
+	 * The id of each enumerated observation, or null if the observation function cannot enumerate its observations
+	 */
+	protected Map<HashableState, Integer>			observationIds;
+
+	/**
+	 * The hashing factory used to look up observation ids
+	 */
+	protected HashableStateFactory					observationHashingFactory;
+
+	/**
+	 * Per thread scratch space for accumulating predicted beliefs
+	 */
+	protected ThreadLocal<Accumulator>				accumulators = new ThreadLocal<Accumulator>(){
+		@Override
+		protected Accumulator initialValue() {
+			return new Accumulator();
+		}
+	};
+
+
+	/**
+	 * Initializes.
+	 * @param domain the POMDP domain whose transition and observation functions are compiled
+	 * @param stateEnumerator the state enumerator that defines the state ids of the belief vectors
+	 */
+	public CompiledTabularBeliefUpdater(PODomain domain, StateEnumerator stateEnumerator){
+		this.domain = domain;
+		this.stateEnumerator = stateEnumerator;
+		ObservationFunction of = domain.getObservationFunction();
+		if(of.canEnumerateObservations()){
+			this.observationHashingFactory = new SimpleHashableStateFactory();
+			List<State> observations = of.getAllPossibleObservations();
+			this.observationIds = new HashMap<HashableState, Integer>(observations.size());
+			for(State o : observations){
+				HashableState oh = this.observationHashingFactory.hashState(o);
+				if(!this.observationIds.containsKey(oh)){
+					this.observationIds.put(oh, this.observationIds.size());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the updated belief state of a belief state after taking an action and receiving an observation.
+	 * @param b the previous belief state
+	 * @param observation the observation received
+	 * @param ga the action taken
+	 * @return the updated belief state
+	 */
+	public TabularBeliefState update(TabularBeliefState b, State observation, GroundedAction ga){
+		SparseBeliefVector predicted = this.predict(b, ga);
+		SparseBeliefVector posterior = new SparseBeliefVector(predicted.size);
+		double sum = this.correct(predicted, observation, ga, posterior);
+		if(sum == 0. || Double.isNaN(sum)){
+			throw new RuntimeException("getUpdatedBeliefState for TaubularBeliefState failed because the probability normalization is " + sum + "." +
+					"\nFailed for action: " + ga.toString() + "\nAnd observation:\n" + observation.getCompleteStateDescriptionWithUnsetAttributesAsNull());
+		}
+		return this.toBeliefState(posterior, b);
+	}
+
+
+	/**
+	 * Returns the distribution over next states after taking an action from a belief state, before any observation is received.
+	 * @param b the belief state
+	 * @param ga the action taken
+	 * @return the predicted next state distribution
+	 */
+	public SparseBeliefVector predict(TabularBeliefState b, GroundedAction ga){
+
+		ActionModel am = this.actionModel(ga);
+		Accumulator acc = this.accumulators.get();
+
+		for(Map.Entry<Integer, Double> e : b.beliefValues.entrySet()){
+			double srcB = e.getValue();
+			Row row = this.row(am, e.getKey());
+			for(int i = 0; i < row.next.length; i++){
+				acc.add(row.next[i], srcB * row.probs[i]);
+			}
+		}
+
+		SparseBeliefVector predicted = new SparseBeliefVector(acc.size);
+		for(int i = 0; i < acc.size; i++){
+			int id = acc.touched[i];
+			predicted.add(id, acc.values[id]);
+		}
+		acc.clear();
+
+		return predicted;
+	}
+
+
+	/**
+	 * Reweights a predicted next state distribution by the likelihood of an observation, normalizes it, and stores it in result.
+	 * Next states in which the observation is impossible are not stored.
+	 * @param predicted the predicted next state distribution returned by {@link #predict(TabularBeliefState, burlap.oomdp.singleagent.GroundedAction)}
+	 * @param observation the observation
+	 * @param ga the action that was taken
+	 * @param result the vector into which the posterior distribution is written; its previous contents are discarded
+	 * @return the probability of the observation given the predicted distribution, which is the normalizing constant of the posterior. If it is 0, result is left empty.
+	 */
+	public double correct(SparseBeliefVector predicted, State observation, GroundedAction ga, SparseBeliefVector result){
+
+		ActionModel am = this.actionModel(ga);
+		int oid = this.observationId(observation);
+
+		result.size = 0;
+		double sum = 0.;
+		for(int i = 0; i < predicted.size; i++){
+			int id = predicted.ids[i];
+			double w = predicted.probs[i] * this.likelihood(am, oid, observation, id);
+			if(w > 0.){
+				result.add(id, w);
+				sum += w;
+			}
+		}
+
+		if(sum > 0.){
+			for(int i = 0; i < result.size; i++){
+				result.probs[i] /= sum;
+			}
+		}
+
+		return sum;
+	}
+
+
+	/**
+	 * Creates a new {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState} with the given belief vector
+	 * that uses the same domain, state enumerator and update settings as a template belief state.
+	 * @param v the sparse belief vector
+	 * @param template the belief state whose domain, state enumerator and update settings are used
+	 * @return the new belief state
+	 */
+	public TabularBeliefState toBeliefState(SparseBeliefVector v, TabularBeliefState template){
+		TabularBeliefState nb = new TabularBeliefState(template.domain, template.stateEnumerator);
+		nb.beliefUpdater = template.beliefUpdater;
+		nb.useCompiledUpdates = template.useCompiledUpdates;
+		for(int i = 0; i < v.size; i++){
+			if(v.probs[i] != 0.){
+				nb.beliefValues.put(v.ids[i], v.probs[i]);
+			}
+		}
+		return nb;
+	}
+
+
+	/**
+	 * Returns the compiled model of the given grounded action, creating it if needed.
+	 * @param ga the grounded action
+	 * @return the compiled model of the action
+	 */
+	protected ActionModel actionModel(GroundedAction ga){
+		String key = ga.toString();
+		ActionModel am = this.actionModels.get(key);
+		if(am == null){
+			synchronized(this){
+				am = this.actionModels.get(key);
+				if(am == null){
+					am = new ActionModel(ga.copy(), this.observationIds == null ? 0 : this.observationIds.size());
+					this.actionModels.put(key, am);
+				}
+			}
+		}
+		return am;
+	}
+
+
+	/**
+	 * Returns the id of an observation, or -1 if observations are not enumerated or the observation is not one of them.
+	 * @param observation the observation
+	 * @return the id of the observation, or -1 if it has none.
+	 */
+	protected int observationId(State observation){
+		if(this.observationIds == null){
+			return -1;
+		}
+		Integer id = this.observationIds.get(this.observationHashingFactory.hashState(observation));
+		return id == null ? -1 : id;
+	}
+
+
+	/**
+	 * Returns the compiled outcome distribution of a source state under an action, compiling it if needed.
+	 * @param am the compiled action model
+	 * @param s the source state id
+	 * @return the compiled outcome distribution
+	 */
+	protected Row row(ActionModel am, int s){
+		Row [] rows = am.rows;
+		if(s < rows.length && rows[s] != null){
+			return rows[s];
+		}
+
+		synchronized(this){
+			rows = am.rows;
+			if(s < rows.length && rows[s] != null){
+				return rows[s];
+			}
+
+			List<TransitionProbability> tps = am.ga.getTransitions(this.stateForId(s));
+			int [] next = new int[tps.size()];
+			double [] probs = new double[tps.size()];
+			int n = 0;
+			for(TransitionProbability tp : tps){
+				if(tp.p == 0.){
+					continue;
+				}
+				int id = this.stateEnumerator.getEnumeratedID(tp.s);
+				//collapse duplicate outcomes
+				int j = 0;
+				while(j < n && next[j] != id){
+					j++;
+				}
+				if(j == n){
+					next[n] = id;
+					n++;
+				}
+				probs[j] += tp.p;
+			}
+			if(n < next.length){
+				int [] tnext = new int[n];
+				double [] tprobs = new double[n];
+				System.arraycopy(next, 0, tnext, 0, n);
+				System.arraycopy(probs, 0, tprobs, 0, n);
+				next = tnext;
+				probs = tprobs;
+			}
+			Row row = new Row(next, probs);
+
+			if(s >= rows.length){
+				Row [] nrows = new Row[Math.max(s+1, Math.max(16, rows.length*2))];
+				System.arraycopy(rows, 0, nrows, 0, rows.length);
+				rows = nrows;
+			}
+			rows[s] = row;
+			am.rows = rows;
+
+			return row;
+		}
+	}
+
+
+	/**
+	 * Returns the probability of an observation in a next state after an action. If the observation has an id, the likelihood is read from the action's
+	 * compiled likelihood table for the observation, which is compiled (or extended to newly enumerated states) if needed; otherwise it is
+	 * computed directly from the observation function.
+	 * @param am the compiled action model
+	 * @param oid the observation id, or -1 if it has none
+	 * @param observation the observation
+	 * @param s the next state id
+	 * @return the probability of the observation
+	 */
+	protected double likelihood(ActionModel am, int oid, State observation, int s){
+
+		if(oid == -1){
+			return this.domain.getObservationFunction().getObservationProbability(observation, this.stateForId(s), am.ga);
+		}
+
+		LikelihoodTable table = am.likelihoods.get(oid);
+		if(table != null && s < table.values.length){
+			return table.values[s];
+		}
+
+		synchronized(this){
+			table = am.likelihoods.get(oid);
+			if(table == null || s >= table.values.length){
+				int n = Math.max(s+1, this.stateEnumerator.numStatesEnumerated());
+				double [] values = new double[n];
+				int start = 0;
+				if(table != null){
+					System.arraycopy(table.values, 0, values, 0, table.values.length);
+					start = table.values.length;
+				}
+				ObservationFunction of = this.domain.getObservationFunction();
+				for(int i = start; i < n; i++){
+					values[i] = of.getObservationProbability(observation, this.stateForId(i), am.ga);
+				}
+				table = new LikelihoodTable(values);
+				am.likelihoods.set(oid, table);
+			}
+			return table.values[s];
+		}
+	}
+
+
+	/**
+	 * Returns the MDP state of a state id.
+	 * @param id the state id
+	 * @return the MDP state
+	 */
+	protected synchronized State stateForId(int id){
+		return this.stateEnumerator.getStateForEnumerationId(id);
+	}
+
+
+
+	/**
+	 * A sparse belief (or unnormalized belief) vector stored as parallel arrays of state ids and probabilities; only the first {@link #size} entries are used.
+	 */
+	public static class SparseBeliefVector{
+
+		public int [] ids;
+		public double [] probs;
+		public int size = 0;
+
+		/**
+		 * Initializes an empty vector.
+		 * @param capacity the initial capacity
+		 */
+		public SparseBeliefVector(int capacity){
+			this.ids = new int[Math.max(capacity, 4)];
+			this.probs = new double[this.ids.length];
+		}
+
+		/**
+		 * Appends an entry. The state id must not already be in the vector.
+		 * @param id the state id
+		 * @param p the probability
+		 */
+		public void add(int id, double p){
+			if(this.size == this.ids.length){
+				int [] nids = new int[this.size*2];
+				double [] nprobs = new double[this.size*2];
+				System.arraycopy(this.ids, 0, nids, 0, this.size);
+				System.arraycopy(this.probs, 0, nprobs, 0, this.size);
+				this.ids = nids;
+				this.probs = nprobs;
+			}
+			this.ids[this.size] = id;
+			this.probs[this.size] = p;
+			this.size++;
+		}
+
+	}
+
+
+	/**
+	 * The compiled model of a single grounded action: the outcome distribution of each source state id, and the likelihood table of each observation id.
+	 */
+	protected static class ActionModel{
+
+		public GroundedAction ga;
+		public volatile Row [] rows = new Row[0];
+		public final AtomicReferenceArray<LikelihoodTable> likelihoods;
+
+		public ActionModel(GroundedAction ga, int numObservations){
+			this.ga = ga;
+			this.likelihoods = new AtomicReferenceArray<LikelihoodTable>(numObservations);
+		}
+
+	}
+
+
+	/**
+	 * The likelihood of a single observation in each next state id under an action.
+	 */
+	protected static class LikelihoodTable{
+
+		public final double [] values;
+
+		public LikelihoodTable(double [] values){
+			this.values = values;
+		}
+
+	}
+
+
+	/**
+	 * The outcome distribution of a single source state under an action.
+	 */
+	protected static class Row{
+
+		public final int [] next;
+		public final double [] probs;
+
+		public Row(int [] next, double [] probs){
+			this.next = next;
+			this.probs = probs;
+		}
+
+	}
+
+
+	/**
+	 * A dense accumulator that remembers which entries it has touched so that it can be cleared in time proportional to the number of touched entries.
+	 */
+	protected static class Accumulator{
+
+		public double [] values = new double[16];
+		public boolean [] used = new boolean[16];
+		public int [] touched = new int[16];
+		public int size = 0;
+
+		public void add(int id, double v){
+			if(id >= this.values.length){
+				int n = Math.max(id+1, this.values.length*2);
+				double [] nvalues = new double[n];
+				boolean [] nused = new boolean[n];
+				System.arraycopy(this.values, 0, nvalues, 0, this.values.length);
+				System.arraycopy(this.used, 0, nused, 0, this.used.length);
+				this.values = nvalues;
+				this.used = nused;
+			}
+			if(!this.used[id]){
+				this.used[id] = true;
+				if(this.size == this.touched.length){
+					int [] ntouched = new int[this.size*2];
+					System.arraycopy(this.touched, 0, ntouched, 0, this.size);
+					this.touched = ntouched;
+				}
+				this.touched[this.size++] = id;
+			}
+			this.values[id] += v;
+		}
+
+		public void clear(){
+			for(int i = 0; i < this.size; i++){
+				int id = this.touched[i];
+				this.values[id] = 0.;
+				this.used[id] = false;
+			}
+			this.size = 0;
+		}
+
+	}
+
+}
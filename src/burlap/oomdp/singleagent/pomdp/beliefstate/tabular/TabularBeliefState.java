@@ -30,6 +30,11 @@ import java.util.*;
  * it is recommended that you use {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.HashableTabularBeliefStateFactory}
  * which will compute hash codes and perform state equality checks with the sparse Map representation
  * (rather than the dense OO-MDP representation)
+ * <p>
+ * By default, belief updates are computed with a {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.CompiledTabularBeliefUpdater}, which compiles the
+ * transition and observation functions over the state ids and is shared by all belief states derived from this one by copying or updating. A single updater can also be
+ * shared across independently constructed belief states with {@link #setBeliefUpdater(CompiledTabularBeliefUpdater)}. If the POMDP's transition or observation
+ * functions may change, compiled updates can be turned off with {@link #toggleCompiledBeliefUpdates(boolean)}.
  * @author James MacGlashan.
  */
 public class TabularBeliefState implements BeliefState, EnumerableBeliefState, DenseBeliefVector{
@@ -69,6 +74,18 @@ public class TabularBeliefState implements BeliefState, EnumerableBeliefState, D
 	protected PODomain domain;
 
 
+	/**
+	 * The compiled belief update engine; created when first needed if compiled updates are used.
+	 */
+	protected CompiledTabularBeliefUpdater beliefUpdater;
+
+
+	/**
+	 * Whether belief updates are computed with the compiled belief update engine.
+	 */
+	protected boolean useCompiledUpdates = true;
+
+
 	/**
 	 * Constructs a new {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState} from a source
 	 * {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState}. Changes to the new state or source
@@ -77,6 +94,8 @@ public class TabularBeliefState implements BeliefState, EnumerableBeliefState, D
 	 */
 	public TabularBeliefState(TabularBeliefState srcBeliefState){
 		this(srcBeliefState.domain, srcBeliefState.stateEnumerator);
+		this.beliefUpdater = srcBeliefState.beliefUpdater;
+		this.useCompiledUpdates = srcBeliefState.useCompiledUpdates;
 		this.beliefValues = new HashMap<Integer, Double>(srcBeliefState.beliefValues.size());
 		for(Map.Entry<Integer, Double> e : srcBeliefState.beliefValues.entrySet()){
 			this.beliefValues.put(e.getKey(), e.getValue());
@@ -140,8 +159,54 @@ public class TabularBeliefState implements BeliefState, EnumerableBeliefState, D
 		throw new RuntimeException("Error; could not sample from belief state because the beliefs did not sum to 1; they summed to: " + sumProb);
 	}
 
+	/**
+	 * Sets whether belief updates are computed with a {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.CompiledTabularBeliefUpdater} (the default),
+	 * or by enumerating all state pairs with the POMDP's transition and observation functions on every update. The setting is inherited by belief states
+	 * derived from this one.
+	 * @param useCompiledUpdates true to use compiled updates; false to use enumeration.
+	 */
+	public void toggleCompiledBeliefUpdates(boolean useCompiledUpdates){
+		this.useCompiledUpdates = useCompiledUpdates;
+	}
+
+
+	/**
+	 * Returns whether belief updates are computed with a {@link burlap.oomdp.singleagent.pomdp.beliefstate.tabular.CompiledTabularBeliefUpdater}.
+	 * @return true if compiled updates are used; false otherwise.
+	 */
+	public boolean usesCompiledBeliefUpdates(){
+		return this.useCompiledUpdates;
+	}
+
+
+	/**
+	 * Returns the compiled belief update engine of this belief state, creating it if it does not exist yet.
+	 * @return the compiled belief update engine of this belief state
+	 */
+	public CompiledTabularBeliefUpdater getBeliefUpdater(){
+		if(this.beliefUpdater == null){
+			this.beliefUpdater = new CompiledTabularBeliefUpdater(this.domain, this.stateEnumerator);
+		}
+		return this.beliefUpdater;
+	}
+
+
+	/**
+	 * Sets the compiled belief update engine of this belief state, which is also used by the belief states derived from it. The engine
+	 * must have been created for the same domain and state enumerator as this belief state.
+	 * @param beliefUpdater the compiled belief update engine to use
+	 */
+	public void setBeliefUpdater(CompiledTabularBeliefUpdater beliefUpdater){
+		this.beliefUpdater = beliefUpdater;
+	}
+
 	@Override
 	public BeliefState getUpdatedBeliefState(State observation, GroundedAction ga) {
+
+		if(this.useCompiledUpdates){
+			return this.getBeliefUpdater().update(this, observation, ga);
+		}
+
 		ObservationFunction of = this.domain.getObservationFunction();
 		double [] newBeliefStateVector = new double[this.numStates()];
 		double sum = 0.;
@@ -167,6 +232,8 @@ public class TabularBeliefState implements BeliefState, EnumerableBeliefState, D
 		}
 
 		TabularBeliefState newBeliefState = new TabularBeliefState(this.domain, this.stateEnumerator);
+		newBeliefState.beliefUpdater = this.beliefUpdater;
+		newBeliefState.useCompiledUpdates = this.useCompiledUpdates;
 		for(int i = 0; i < newBeliefStateVector.length; i++){
 			double nb = newBeliefStateVector[i] / sum;
 			newBeliefState.setBelief(i, nb);
@@ -0,0 +1,54 @@
+package burlap.oomdp.statehashing;
+
+/**
+ * An immutable record of a hash code that was computed for a mutable object (such as a {@link burlap.oomdp.core.objects.MutableObjectInstance}
+ * or {@link burlap.oomdp.core.states.MutableState}) by a particular hashing configuration. The record stores the key of the
+ * hashing configuration that computed the hash code and the modification stamp of the hashed object at the time it was computed, so that
+ * the hash code can be reused as long as neither has changed.
+ * <p>
+ * Because instances are immutable, they can be published to a volatile field and read from multiple threads without further synchronization.
+ * @author James MacGlashan
+ *
+ */
+public final class CachedHashCode {
+
+	/**
+	 * The key of the hashing configuration that computed the hash code
+	 */
+	public final Object		key;
+
+	/**
+	 * The modification stamp of the hashed object when the hash code was computed
+	 */
+	public final long		stamp;
+
+	/**
+	 * The cached hash code
+	 */
+	public final int		hashCode;
+
+
+	/**
+	 * Initializes.
+	 * @param key the key of the hashing configuration that computed the hash code
+	 * @param stamp the modification stamp of the hashed object when the hash code was computed
+	 * @param hashCode the hash code
+	 */
+	public CachedHashCode(Object key, long stamp, int hashCode){
+		this.key = key;
+		this.stamp = stamp;
+		this.hashCode = hashCode;
+	}
+
+
+	/**
+	 * Returns whether this cached hash code was computed by the hashing configuration with the given key for the given modification stamp.
+	 * @param key the key of the hashing configuration
+	 * @param stamp the current modification stamp of the hashed object
+	 * @return true if the cached hash code can be reused; false otherwise.
+	 */
+	public boolean isValidFor(Object key, long stamp){
+		return this.key == key && this.stamp == stamp;
+	}
+
+}
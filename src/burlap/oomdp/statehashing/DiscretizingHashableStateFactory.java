@@ -1,7 +1,6 @@
 package burlap.oomdp.statehashing;
 
 import burlap.oomdp.core.values.Value;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -81,6 +80,7 @@ public class DiscretizingHashableStateFactory extends SimpleHashableStateFactory
 	 */
 	public void addFloorDiscretizingMultipleFor(String attributeName, double nearestMultipleValue){
 		this.attributeWiseMultiples.put(attributeName, nearestMultipleValue);
+		this.invalidateCachedHashCodes();
 	}
 
 
@@ -93,19 +93,20 @@ public class DiscretizingHashableStateFactory extends SimpleHashableStateFactory
 	 */
 	public void setDefaultFloorDiscretizingMultiple(double defaultMultiple){
 		this.defaultMultiple = defaultMultiple;
+		this.invalidateCachedHashCodes();
 	}
 
 
 	@Override
-	protected void appendHashcodeForValue(HashCodeBuilder hashCodeBuilder, Value v) {
+	protected int hashValue(int hashCode, Value v) {
 		AttClass attClass = getAttClass(v.getAttribute());
 		if(attClass == AttClass.DOUBLE){
 			Double mult = attributeWiseMultiples.get(v.attName());
 			if(mult != null){
-				hashCodeBuilder.append(intMultiples(mult, v.getRealVal()));
+				return HASH_PRIME * hashCode + intMultiples(mult, v.getRealVal());
 			}
 			else{
-				hashCodeBuilder.append(intMultiples(this.defaultMultiple, v.getRealVal()));
+				return HASH_PRIME * hashCode + intMultiples(this.defaultMultiple, v.getRealVal());
 			}
 		}
 		else if(attClass == AttClass.DOUBLEARRAY){
@@ -113,11 +114,12 @@ public class DiscretizingHashableStateFactory extends SimpleHashableStateFactory
 			double mult = multPointer == null ? this.defaultMultiple : multPointer;
 			double [] vals = v.getDoubleArray();
 			for(int i = 0; i < vals.length; i++){
-				hashCodeBuilder.append(intMultiples(mult, vals[i]));
+				hashCode = HASH_PRIME * hashCode + intMultiples(mult, vals[i]);
 			}
+			return HASH_PRIME * hashCode + vals.length;
 		}
 		else {
-			super.appendHashcodeForValue(hashCodeBuilder, v);
+			return super.hashValue(hashCode, v);
 		}
 	}
 
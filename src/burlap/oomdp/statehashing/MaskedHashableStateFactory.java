@@ -3,7 +3,6 @@ package burlap.oomdp.statehashing;
 import burlap.oomdp.core.objects.ObjectInstance;
 import burlap.oomdp.core.states.State;
 import burlap.oomdp.core.values.Value;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import java.util.*;
 
@@ -144,39 +143,36 @@ public class MaskedHashableStateFactory extends SimpleHashableStateFactory {
 	@Override
 	protected int computeHashCode(State s) {
 		List<ObjectInstance> objects = s.getAllObjects();
-		List<Integer> hashCodes = new ArrayList<Integer>(objects.size());
-		for(ObjectInstance o : objects){
+		int n = 0;
+		int sum = 0;
+		for(int i = 0; i < objects.size(); i++){
+			ObjectInstance o = objects.get(i);
 			if(!this.maskedObjectClasses.contains(o.getClassName())){
-				hashCodes.add(computeHashCode(o));
+				//order invariant combination of object hash codes
+				sum += mixHashCode(computeHashCode(o));
+				n++;
 			}
 		}
-		//sort for invariance to object appearance order
-		Collections.sort(hashCodes);
-		HashCodeBuilder hashCodeBuilder = new HashCodeBuilder(17, 31);
-		for(int code : hashCodes){
-			hashCodeBuilder.append(code);
-		}
-		int code = hashCodeBuilder.toHashCode();
 
-		return code;
+		return 31 * (527 + n) + sum;
 	}
 
 	@Override
 	protected int computeHashCode(ObjectInstance o) {
-		HashCodeBuilder hashCodeBuilder = new HashCodeBuilder(17, 31);
+		int hashCode = 17;
 		if(!this.identifierIndependent){
-			hashCodeBuilder.append(o.getName());
+			hashCode = HASH_PRIME * hashCode + o.getName().hashCode();
 		}
 
 		List<Value> values = o.getValues();
 		for(Value v : values){
 			if(!this.maskedAttributes.contains(v.attName())) {
-				this.appendHashcodeForValue(hashCodeBuilder, v);
+				hashCode = this.hashValue(hashCode, v);
 			}
 		}
 
 
-		return hashCodeBuilder.toHashCode();
+		return hashCode;
 	}
 
 	@Override
@@ -185,7 +181,6 @@ public class MaskedHashableStateFactory extends SimpleHashableStateFactory {
 			return false;
 		}
 
-		Set<String> matchedObjects = new HashSet<String>();
 		for(List<ObjectInstance> objects : s1.getAllObjectsByClass()){
 
 			String oclass = objects.get(0).getClassName();
@@ -197,22 +192,8 @@ public class MaskedHashableStateFactory extends SimpleHashableStateFactory {
 				return false;
 			}
 
-			for(ObjectInstance o : objects){
-				boolean foundMatch = false;
-				for(ObjectInstance oo : oobjects){
-					String ooname = oo.getName();
-					if(matchedObjects.contains(ooname)){
-						continue;
-					}
-					if(objectValuesEqual(o, oo)){
-						foundMatch = true;
-						matchedObjects.add(ooname);
-						break;
-					}
-				}
-				if(!foundMatch){
-					return false;
-				}
+			if(!this.objectsMatch(objects, oobjects)){
+				return false;
 			}
 
 		}
@@ -1,15 +1,14 @@
 package burlap.oomdp.statehashing;
 
 import burlap.oomdp.core.Attribute;
+import burlap.oomdp.core.objects.MutableObjectInstance;
 import burlap.oomdp.core.objects.ObjectInstance;
+import burlap.oomdp.core.states.MutableState;
 import burlap.oomdp.core.states.State;
 import burlap.oomdp.core.states.ImmutableState;
 import burlap.oomdp.core.values.Value;
 
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -28,6 +27,11 @@ import java.util.Set;
  * To enable hash code caching, use the {@link #SimpleHashableStateFactory(boolean, boolean)} constructor.
  * Using caching will use slightly more memory by having to associate an int with each {@link burlap.oomdp.statehashing.HashableState}.
  * <p>
+ * Hashing is allocation free: values are combined directly into primitive hash codes and objects are combined with an order
+ * invariant sum rather than sorting. In addition, the hash codes of {@link burlap.oomdp.core.objects.MutableObjectInstance}s and
+ * {@link burlap.oomdp.core.states.MutableState}s are cached in them and reused until they are next modified, so unchanged
+ * objects of a copied and modified state are never rehashed.
+ * <p>
  * This class has multiple aspects of the state equality methods implemented so that it can be easily sub classed
  * by other forms of equality checking and have each method override only what it needs to override.
  * @author James MacGlashan.
@@ -52,6 +56,33 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 	protected static enum AttClass {INT, DOUBLE, INTARRAY, DOUBLEARRAY, STRING, RELATIONAL}
 
 
+	/**
+	 * The {@link burlap.oomdp.statehashing.SimpleHashableStateFactory.AttClass} of each {@link burlap.oomdp.core.Attribute.AttributeType}, indexed by ordinal
+	 */
+	protected static final AttClass [] ATT_CLASSES;
+	static{
+		Attribute.AttributeType [] types = Attribute.AttributeType.values();
+		ATT_CLASSES = new AttClass[types.length];
+		for(int i = 0; i < types.length; i++){
+			ATT_CLASSES[i] = attClassFor(types[i]);
+		}
+	}
+
+
+	/**
+	 * The multiplier used to combine values into an object's hash code. A large prime is used (rather than 31) so that small differences
+	 * in consecutive int values, such as nearby grid coordinates, cannot cancel each other out.
+	 */
+	protected static final int HASH_PRIME = 16777619;
+
+
+	/**
+	 * The key identifying this factory's current hashing configuration in the hash codes it caches in
+	 * {@link burlap.oomdp.core.states.MutableState} and {@link burlap.oomdp.core.objects.MutableObjectInstance} objects.
+	 */
+	protected volatile Object hashCodeCacheKey = new Object();
+
+
 	/**
 	 * Default constructor: object identifier independent and no hash code caching.
 	 */
@@ -99,79 +130,128 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 	}
 
 	/**
-	 * Computes the hash code for the input state.
+	 * Computes the hash code for the input state. The hash code is an order invariant combination of the hash codes of the state's objects.
+	 * For {@link burlap.oomdp.core.states.MutableState} instances, the hash code is cached in the state and
+	 * reused until the state or any of its objects is modified.
 	 * @param s the input state for which a hash code is to be computed
 	 * @return the hash code
 	 */
 	protected int computeHashCode(State s){
 
-		int [] hashCodes = new int[s.numTotalObjects()];
-		if (s instanceof ImmutableState) {
+		if(s instanceof MutableState){
+			MutableState ms = (MutableState)s;
+			long stamp = ms.getModificationStamp();
+			if(stamp >= 0){
+				Object key = this.hashCodeCacheKey;
+				CachedHashCode cached = ms.getCachedHashCode();
+				if(cached != null && cached.isValidFor(key, stamp)){
+					return cached.hashCode;
+				}
+				int code = this.combineObjectHashCodes(s);
+				ms.setCachedHashCode(new CachedHashCode(key, stamp, code));
+				return code;
+			}
+		}
+
+		return this.combineObjectHashCodes(s);
+	}
+
+
+	/**
+	 * Computes the order invariant combination of the hash codes of all objects in a state without allocating intermediate arrays.
+	 * @param s the input state
+	 * @return the combined hash code
+	 */
+	protected int combineObjectHashCodes(State s){
+		int n = s.numTotalObjects();
+		int sum = 0;
+		if(s instanceof ImmutableState) {
 			ImmutableState sTimm = (ImmutableState)s;
-			for(int i = 0; i < hashCodes.length; i++){
-				hashCodes[i] = computeHashCode(sTimm.getObject(i));
+			for(int i = 0; i < n; i++){
+				sum += mixHashCode(computeHashCode(sTimm.getObject(i)));
 			}
 		} else {
 			List<ObjectInstance> objects = s.getAllObjects();
-			
-			for(int i = 0; i < hashCodes.length; i++){
-				hashCodes[i] = computeHashCode(objects.get(i));
+			for(int i = 0; i < n; i++){
+				sum += mixHashCode(computeHashCode(objects.get(i)));
 			}
 		}
-		//sort for invariance to order
-		Arrays.sort(hashCodes);
-		HashCodeBuilder hashCodeBuilder = new HashCodeBuilder(17, 31);
-		hashCodeBuilder.append(hashCodes);
-		return hashCodeBuilder.toHashCode();
+		return 31 * (527 + n) + sum;
 	}
 
 
 	/**
-	 * Computes the hash code for an individual {@link burlap.oomdp.core.objects.ObjectInstance}.
+	 * Computes the hash code for an individual {@link burlap.oomdp.core.objects.ObjectInstance}. For {@link burlap.oomdp.core.objects.MutableObjectInstance}s,
+	 * the hash code is cached in the object and reused until the object is modified.
 	 * @param o the {@link burlap.oomdp.core.objects.ObjectInstance} whose hash code will be computed.
 	 * @return the hash code for the {@link burlap.oomdp.core.objects.ObjectInstance}.
 	 */
 	protected int computeHashCode(ObjectInstance o){
 
-		HashCodeBuilder hashCodeBuilder = new HashCodeBuilder(17, 31);
-		if(!this.identifierIndependent){
-			hashCodeBuilder.append(o.getName());
+		if(o instanceof MutableObjectInstance){
+			MutableObjectInstance mo = (MutableObjectInstance)o;
+			Object key = this.hashCodeCacheKey;
+			int stamp = mo.getModificationCount();
+			CachedHashCode cached = mo.getCachedHashCode();
+			if(cached != null && cached.isValidFor(key, stamp)){
+				return cached.hashCode;
+			}
+
+			int hashCode = this.objectHashPrefix(o);
+			int n = mo.numValues();
+			for(int i = 0; i < n; i++){
+				hashCode = this.hashValue(hashCode, mo.getValueAt(i));
+			}
+			mo.setCachedHashCode(new CachedHashCode(key, stamp, hashCode));
+			return hashCode;
 		}
-		
-		hashCodeBuilder.append(o.getClassName());
 
+		int hashCode = this.objectHashPrefix(o);
 		List<Value> values = o.getValues();
-		for(Value v : values){
-			this.appendHashcodeForValue(hashCodeBuilder, v);
+		for(int i = 0; i < values.size(); i++){
+			hashCode = this.hashValue(hashCode, values.get(i));
 		}
 
-		return hashCodeBuilder.toHashCode();
+		return hashCode;
+	}
+
+
+	/**
+	 * Returns the initial hash code of an object before its values are combined into it, which accounts for
+	 * the object's class and, if this factory is identifier dependent, its name.
+	 * @param o the object being hashed
+	 * @return the initial hash code of the object
+	 */
+	protected int objectHashPrefix(ObjectInstance o){
+		int hashCode = 17;
+		if(!this.identifierIndependent){
+			hashCode = HASH_PRIME * hashCode + o.getName().hashCode();
+		}
+		return HASH_PRIME * hashCode + o.getClassName().hashCode();
 	}
 
+
 	/**
-	 * Appends the hash code for the given {@link burlap.oomdp.core.values.Value} to the {@link org.apache.commons.lang3.builder.HashCodeBuilder}
-	 * @param hashCodeBuilder the {@link org.apache.commons.lang3.builder.HashCodeBuilder} to which the value's hash code will be appended
-	 * @param v the {@link burlap.oomdp.core.values.Value} whose hash code should be appended.
+	 * Combines the hash of the given {@link burlap.oomdp.core.values.Value} into an accumulated hash code and returns the result.
+	 * Primitive values are hashed directly without boxing.
+	 * @param hashCode the accumulated hash code
+	 * @param v the {@link burlap.oomdp.core.values.Value} to combine into the hash code
+	 * @return the new accumulated hash code
 	 */
-	protected void appendHashcodeForValue(HashCodeBuilder hashCodeBuilder, Value v){
-		hashCodeBuilder.append(0).append(0);
+	protected int hashValue(int hashCode, Value v){
 		AttClass attClass = getAttClass(v.getAttribute());
 		switch(attClass) {
 		case INT:
-			hashCodeBuilder.append(v.getDiscVal());
-			break;
+			return HASH_PRIME * hashCode + v.getDiscVal();
 		case DOUBLE:
-			hashCodeBuilder.append(v.getNumericRepresentation());
-			break;
+			return HASH_PRIME * hashCode + hashDouble(v.getNumericRepresentation());
 		case INTARRAY:
-			hashCodeBuilder.append(v.getIntArray());
-			break;
 		case DOUBLEARRAY:
-			hashCodeBuilder.append(v.getDoubleArray());
-			break;
+			//the value's own hash code reads its array in place, whereas getIntArray and getDoubleArray return copies
+			return HASH_PRIME * hashCode + v.hashCode();
 		case STRING:
-			hashCodeBuilder.append(v.getStringVal());
-			break;
+			String sv = v.getStringVal();
+			return HASH_PRIME * hashCode + (sv == null ? 0 : sv.hashCode());
 		case RELATIONAL:
 			if(identifierIndependent){
 				throw new RuntimeException("SimpleHashableStateFactory is set to be identifier independent, but attribute " + v.attName() + " is " +
@@ -179,33 +259,90 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 			}
 			Set<String> targets = v.getAllRelationalTargets();
 			for(String t : targets){
-				hashCodeBuilder.append(t);
+				hashCode = HASH_PRIME * hashCode + t.hashCode();
 			}
-			break;
+			return HASH_PRIME * hashCode + targets.size();
 		}
+		return hashCode;
+	}
+
+
+	/**
+	 * Invalidates all hash codes that this factory has cached in states and objects. Subclasses must call this method whenever
+	 * a change to their configuration changes the hash codes they compute.
+	 */
+	protected void invalidateCachedHashCodes(){
+		this.hashCodeCacheKey = new Object();
+	}
+
+
+	/**
+	 * Returns the hash code of a double value.
+	 * @param d the double value
+	 * @return the hash code of the double value
+	 */
+	protected static int hashDouble(double d){
+		long bits = Double.doubleToLongBits(d);
+		return (int)(bits ^ (bits >>> 32));
 	}
 
 
+	/**
+	 * Scrambles the bits of a hash code (using the MurmurHash3 finalizer) so that hash codes can be combined with an order invariant sum
+	 * without structured inputs cancelling out.
+	 * @param h the hash code to scramble
+	 * @return the scrambled hash code
+	 */
+	protected static int mixHashCode(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+
+	/**
+	 * Returns the {@link burlap.oomdp.statehashing.SimpleHashableStateFactory.AttClass} of an attribute through a precomputed
+	 * table indexed by attribute type.
+	 * @param att the attribute
+	 * @return the {@link burlap.oomdp.statehashing.SimpleHashableStateFactory.AttClass} of the attribute
+	 */
 	protected AttClass getAttClass(Attribute att){
-		if(att.type == Attribute.AttributeType.INT || att.type == Attribute.AttributeType.DISC || att.type == Attribute.AttributeType.BOOLEAN){
+		AttClass attClass = ATT_CLASSES[att.type.ordinal()];
+		if(attClass == null){
+			throw new RuntimeException("SimpleHashableStateFactory cannot hash value for attribute of type " + att.type);
+		}
+		return attClass;
+	}
+
+
+	/**
+	 * Returns the {@link burlap.oomdp.statehashing.SimpleHashableStateFactory.AttClass} for an attribute type, or null if it cannot be hashed.
+	 * @param type the attribute type
+	 * @return the {@link burlap.oomdp.statehashing.SimpleHashableStateFactory.AttClass} for the type, or null if it cannot be hashed.
+	 */
+	protected static AttClass attClassFor(Attribute.AttributeType type){
+		if(type == Attribute.AttributeType.INT || type == Attribute.AttributeType.DISC || type == Attribute.AttributeType.BOOLEAN){
 			return AttClass.INT;
 		}
-		else if(att.type == Attribute.AttributeType.REAL || att.type == Attribute.AttributeType.REALUNBOUND){
+		else if(type == Attribute.AttributeType.REAL || type == Attribute.AttributeType.REALUNBOUND){
 			return AttClass.DOUBLE;
 		}
-		else if(att.type == Attribute.AttributeType.STRING){
+		else if(type == Attribute.AttributeType.STRING){
 			return AttClass.STRING;
 		}
-		else if(att.type == Attribute.AttributeType.INTARRAY){
+		else if(type == Attribute.AttributeType.INTARRAY){
 			return AttClass.INTARRAY;
 		}
-		else if(att.type == Attribute.AttributeType.DOUBLEARRAY){
+		else if(type == Attribute.AttributeType.DOUBLEARRAY){
 			return AttClass.DOUBLEARRAY;
 		}
-		else if(att.type == Attribute.AttributeType.RELATIONAL || att.type == Attribute.AttributeType.MULTITARGETRELATIONAL){
+		else if(type == Attribute.AttributeType.RELATIONAL || type == Attribute.AttributeType.MULTITARGETRELATIONAL){
 			return AttClass.RELATIONAL;
 		}
-		throw new RuntimeException("SimpleHashableStateFactory cannot hash value for attribute of type " + att.type);
+		return null;
 	}
 
 
@@ -241,7 +378,6 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 			return false;
 		}
 
-		Set<String> matchedObjects = new HashSet<String>();
 		for(List<ObjectInstance> objects : s1.getAllObjectsByClass()){
 
 			String oclass = objects.get(0).getClassName();
@@ -250,16 +386,54 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 				return false;
 			}
 
-			for(ObjectInstance o : objects){
+			if(!this.objectsMatch(objects, oobjects)){
+				return false;
+			}
+
+		}
+
+
+		return true;
+
+	}
+
+
+	/**
+	 * Returns whether there is a one-to-one matching between two equally sized lists of objects in which matched objects have equal values.
+	 * Objects are first compared by their hash code ({@link #computeHashCode(burlap.oomdp.core.objects.ObjectInstance)}) so that
+	 * {@link #objectValuesEqual(burlap.oomdp.core.objects.ObjectInstance, burlap.oomdp.core.objects.ObjectInstance)} is only called
+	 * on candidates in the same hash bucket. The hash code of each object is computed once. For up to 64 objects, the hash codes of the
+	 * second list are scanned linearly and matched objects are tracked in a single long bit mask; larger lists are bucketed by sorting the
+	 * packed (hash code, index) pairs of the second list so that each lookup is a binary search.
+	 * @param objects the first list of objects
+	 * @param oobjects the second list of objects, which must be the same size as the first
+	 * @return true if every object in the first list can be matched to a distinct value-equal object in the second; false otherwise.
+	 */
+	protected boolean objectsMatch(List<ObjectInstance> objects, List<ObjectInstance> oobjects){
+
+		int n = objects.size();
+		if(n == 1){
+			return objectValuesEqual(objects.get(0), oobjects.get(0));
+		}
+
+		if(n <= 64){
+			int [] ohashes = new int[n];
+			for(int j = 0; j < n; j++){
+				ohashes[j] = computeHashCode(oobjects.get(j));
+			}
+			long matched = 0L;
+			for(int i = 0; i < n; i++){
+				ObjectInstance o = objects.get(i);
+				int h = computeHashCode(o);
 				boolean foundMatch = false;
-				for(ObjectInstance oo : oobjects){
-					String ooname = oo.getName();
-					if(matchedObjects.contains(ooname)){
+				for(int j = 0; j < n; j++){
+					long bit = 1L << j;
+					if((matched & bit) != 0){
 						continue;
 					}
-					if(objectValuesEqual(o, oo)){
+					if(ohashes[j] == h && objectValuesEqual(o, oobjects.get(j))){
 						foundMatch = true;
-						matchedObjects.add(ooname);
+						matched |= bit;
 						break;
 					}
 				}
@@ -267,12 +441,42 @@ public class SimpleHashableStateFactory implements HashableStateFactory {
 					return false;
 				}
 			}
+			return true;
+		}
 
+		//pack hash codes and indices so that sorting groups the second list into hash buckets
+		long [] keys = new long[n];
+		for(int j = 0; j < n; j++){
+			keys[j] = ((long)computeHashCode(oobjects.get(j)) << 32) | j;
 		}
+		Arrays.sort(keys);
+		long [] matched = new long[(n + 63) >>> 6];
 
+		for(int i = 0; i < n; i++){
+			ObjectInstance o = objects.get(i);
+			long h = computeHashCode(o);
+			int k = Arrays.binarySearch(keys, h << 32);
+			if(k < 0){
+				k = -k - 1;
+			}
+			boolean foundMatch = false;
+			for(; k < n && (keys[k] >> 32) == h; k++){
+				int j = (int)keys[k];
+				if((matched[j >>> 6] & (1L << j)) != 0){
+					continue;
+				}
+				if(objectValuesEqual(o, oobjects.get(j))){
+					foundMatch = true;
+					matched[j >>> 6] |= 1L << j;
+					break;
+				}
+			}
+			if(!foundMatch){
+				return false;
+			}
+		}
 
 		return true;
-
 	}
 
 	/**
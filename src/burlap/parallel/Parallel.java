@@ -0,0 +1,155 @@
+package burlap.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small set of utilities for splitting independent work across the threads of an {@link java.util.concurrent.ExecutorService}.
+ * Work is expressed as a {@link burlap.parallel.Parallel.ForChunk} instance that processes a contiguous range of indices
+ * and returns a result for that range. The {@link #forChunks(java.util.concurrent.ExecutorService, int, int, burlap.parallel.Parallel.ForChunk)}
+ * method partitions an index range into (nearly) equal sized chunks, submits one task per chunk, blocks until they all complete,
+ * and returns the per-chunk results in chunk order so that the caller can merge them deterministically.
+ * <p>
+ * Executors created with {@link #newDaemonPool(int, String)} use daemon threads so that a solver that is never explicitly
+ * shut down will not prevent the JVM from exiting.
+ * @author James MacGlashan
+ *
+ */
+public class Parallel {
+
+
+	/**
+	 * Returns a fixed size thread pool whose threads are daemon threads.
+	 * @param nThreads the number of threads in the pool
+	 * @param name the prefix name given to each thread in the pool
+	 * @return a fixed size {@link java.util.concurrent.ExecutorService}
+	 */
+	public static ExecutorService newDaemonPool(int nThreads, final String name){
+		return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+
+			AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+
+	/**
+	 * Returns the number of processors available to the JVM.
+	 * @return the number of processors available to the JVM.
+	 */
+	public static int availableProcessors(){
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+
+	/**
+	 * Splits the index range [0, n) into at most nChunks contiguous chunks of (nearly) equal size and returns the chunk
+	 * boundaries. The returned array has one more element than the number of chunks; chunk i covers
+	 * indices [bounds[i], bounds[i+1]).
+	 * @param n the size of the index range
+	 * @param nChunks the maximum number of chunks
+	 * @return the chunk boundaries
+	 */
+	public static int [] partition(int n, int nChunks){
+		int chunks = Math.max(1, Math.min(nChunks, n));
+		int [] bounds = new int[chunks+1];
+		int base = n / chunks;
+		int rem = n % chunks;
+		for(int i = 0; i < chunks; i++){
+			bounds[i+1] = bounds[i] + base + (i < rem ? 1 : 0);
+		}
+		return bounds;
+	}
+
+
+	/**
+	 * Partitions the index range [0, n) into at most nChunks chunks, runs the provided {@link burlap.parallel.Parallel.ForChunk}
+	 * on each chunk with the given executor, and returns the result of each chunk in chunk order. This method blocks
+	 * until all chunks have completed. If any chunk throws an exception, it is rethrown as a {@link java.lang.RuntimeException}.
+	 * @param executor the executor on which to run the chunks
+	 * @param n the size of the index range
+	 * @param nChunks the maximum number of chunks
+	 * @param body the work to perform on each chunk
+	 * @param <R> the type of the result of each chunk
+	 * @return the list of chunk results in chunk order
+	 */
+	public static <R> List<R> forChunks(ExecutorService executor, int n, int nChunks, final ForChunk<R> body){
+
+		int [] bounds = partition(n, nChunks);
+		List<Callable<R>> tasks = new ArrayList<Callable<R>>(bounds.length-1);
+		for(int i = 0; i < bounds.length-1; i++){
+			final int chunk = i;
+			final int start = bounds[i];
+			final int end = bounds[i+1];
+			tasks.add(new Callable<R>() {
+				@Override
+				public R call() throws Exception {
+					return body.run(chunk, start, end);
+				}
+			});
+		}
+
+		return invokeAll(executor, tasks);
+
+	}
+
+
+	/**
+	 * Runs all of the given tasks with the executor, blocks until they complete, and returns their results in the order of the tasks.
+	 * If any task throws an exception, it is rethrown as a {@link java.lang.RuntimeException}.
+	 * @param executor the executor on which to run the tasks
+	 * @param tasks the tasks to run
+	 * @param <R> the result type of the tasks
+	 * @return the results of each task in the same order as the tasks
+	 */
+	public static <R> List<R> invokeAll(ExecutorService executor, List<? extends Callable<R>> tasks){
+
+		List<R> results = new ArrayList<R>(tasks.size());
+		try {
+			List<Future<R>> futures = executor.invokeAll(tasks);
+			for(Future<R> f : futures){
+				results.add(f.get());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for parallel tasks to complete.", e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("A parallel task threw an exception.", e.getCause());
+		}
+
+		return results;
+
+	}
+
+
+	/**
+	 * The work to be performed on a contiguous chunk of an index range.
+	 * @param <R> the type of result produced for the chunk
+	 */
+	public static abstract class ForChunk<R> {
+
+		/**
+		 * Processes the indices [start, end) and returns a result for them.
+		 * @param chunk the index of this chunk
+		 * @param start the first index (inclusive) of the chunk
+		 * @param end the last index (exclusive) of the chunk
+		 * @return the result for this chunk
+		 */
+		public abstract R run(int chunk, int start, int end);
+
+	}
+
+}
@@ -1,10 +1,16 @@
 package burlap.testing;
 
+import burlap.domain.singleagent.blockdude.BlockDude;
+import burlap.domain.singleagent.blockdude.BlockDudeLevelConstructor;
 import burlap.domain.singleagent.gridworld.GridWorldDomain;
+import burlap.oomdp.core.Attribute;
+import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.TransitionProbability;
 import burlap.oomdp.core.objects.ObjectInstance;
 import burlap.oomdp.core.states.ImmutableState;
 import burlap.oomdp.core.states.State;
+import burlap.oomdp.core.values.DoubleArrayValue;
+import burlap.oomdp.core.values.Value;
 import burlap.oomdp.singleagent.Action;
 import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.SADomain;
@@ -15,6 +21,9 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.*;
@@ -56,6 +65,26 @@ public class TestHashing {
 		assert(hashedStates.size() == 104);
 	}
 	
+	@Test
+	public void testSimpleHashFactoryIdentifierIndependentPermutedObjects() {
+		SADomain domain = (SADomain)this.gridWorldTest.getDomain();
+		HashableStateFactory factory = new SimpleHashableStateFactory();
+
+		//small and large (more than 64 objects of a class) states
+		for (int width : new int[]{5, 100}) {
+			State s1 = this.generateLargeGW(domain, width);
+			State s2 = GridWorldDomain.getOneAgentNLocationState(domain, width);
+			for (int i = 0; i < width; i++) {
+				GridWorldDomain.setLocation(s2, i, width - 1 - i, i);
+			}
+			s2 = this.renameObjects(s2);
+			assertEquals(factory.hashState(s1), factory.hashState(s2));
+
+			GridWorldDomain.setLocation(s2, width / 2, 0, 0);
+			assertFalse(factory.hashState(s1).equals(factory.hashState(s2)));
+		}
+	}
+
 	@Test
 	public void testSimpleHashFactoryIdentifierDependent() {
 		SADomain domain = (SADomain)this.gridWorldTest.getDomain();
@@ -164,6 +193,51 @@ public class TestHashing {
 		System.out.println("3 N: " + n*n + ", " + hashes3.size());
 	}
 	
+	@Test
+	public void testSimpleHashFactoryModifiedState() {
+		HashableStateFactory factory = new SimpleHashableStateFactory();
+		
+		//a grid world state whose agent moves after it has been hashed
+		State s = this.gridWorldTest.generateState();
+		State unchanged = s.copy();
+		factory.hashState(s).hashCode();
+		GridWorldDomain.setAgent(s, 1, 0);
+		State expected = this.gridWorldTest.generateState();
+		GridWorldDomain.setAgent(expected, 1, 0);
+		HashableState modified = factory.hashState(s);
+		assertEquals(factory.hashState(expected).hashCode(), modified.hashCode());
+		assertEquals(factory.hashState(expected), modified);
+		assertFalse(factory.hashState(unchanged).equals(modified));
+		
+		//a block dude state whose int array brick map changes after it has been hashed
+		Domain bdDomain = new BlockDude().generateDomain();
+		s = BlockDudeLevelConstructor.getLevel3(bdDomain);
+		unchanged = s.copy();
+		factory.hashState(s).hashCode();
+		int brick = s.getFirstObjectOfClass(BlockDude.CLASSBRICKS).getIntArrayValForAttribute(BlockDude.ATTMAP)[0];
+		BlockDude.setBrickValue(s, 0, 0, 1 - brick);
+		expected = BlockDudeLevelConstructor.getLevel3(bdDomain);
+		BlockDude.setBrickValue(expected, 0, 0, 1 - brick);
+		modified = factory.hashState(s);
+		assertEquals(factory.hashState(expected).hashCode(), modified.hashCode());
+		assertEquals(factory.hashState(expected), modified);
+		assertFalse(factory.hashState(unchanged).equals(modified));
+		
+		//changing the array returned by an int array value must not change the value
+		Value map = s.getFirstObjectOfClass(BlockDude.CLASSBRICKS).getValueForAttribute(BlockDude.ATTMAP);
+		map.getIntArray()[0] = brick + 2;
+		assertEquals(1 - brick, map.getIntArray()[0]);
+		
+		//neither changing the array a double array value was set from nor the array it returns may change the value
+		Attribute daAtt = new Attribute(new SADomain(), "da", Attribute.AttributeType.DOUBLEARRAY);
+		double [] source = new double[]{1., 2.};
+		Value da = new DoubleArrayValue(daAtt).setValue(source);
+		source[0] = 3.;
+		da.getDoubleArray()[1] = 4.;
+		assertEquals(1., da.getDoubleArray()[0], 0.);
+		assertEquals(2., da.getDoubleArray()[1], 0.);
+	}
+	
 	@Test
 	public void testSimpleHashFactoryLargeStateIdentifierDependent() {
 		SADomain domain = (SADomain)this.gridWorldTest.getDomain();
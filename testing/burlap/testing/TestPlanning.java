@@ -6,14 +6,70 @@ import org.junit.Before;
 import org.junit.Test;
 
 import burlap.behavior.policy.Policy;
+import burlap.behavior.valuefunction.QValue;
 import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.behavior.singleagent.learnfromdemo.mlirl.commonrfs.LinearStateDifferentiableRF;
+import burlap.behavior.singleagent.learnfromdemo.mlirl.differentiableplanners.DifferentiableSparseSampling;
+import burlap.behavior.singleagent.learnfromdemo.mlirl.support.QGradientTuple;
+import burlap.behavior.singleagent.learning.VectorizedLearningRunner;
+import burlap.behavior.singleagent.learning.lspi.LSPI;
+import burlap.behavior.singleagent.learning.lspi.SARSCollector;
+import burlap.behavior.singleagent.learning.lspi.SARSData;
+import burlap.behavior.singleagent.learning.lspi.SparseLSTDQ;
+import burlap.behavior.singleagent.learning.tdmethods.QLearning;
+import burlap.behavior.singleagent.learning.tdmethods.SarsaLam;
 import burlap.behavior.singleagent.planning.deterministic.DeterministicPlanner;
 import burlap.behavior.singleagent.planning.deterministic.SDPlannerPolicy;
 import burlap.behavior.singleagent.planning.deterministic.informed.Heuristic;
 import burlap.behavior.singleagent.planning.deterministic.informed.astar.AStar;
 import burlap.behavior.singleagent.planning.deterministic.uninformed.bfs.BFS;
 import burlap.behavior.singleagent.planning.deterministic.uninformed.dfs.DFS;
+import burlap.behavior.singleagent.planning.stochastic.CompiledTabularDynamics;
+import burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCT;
+import burlap.behavior.singleagent.planning.stochastic.rtdp.BoundedRTDP;
+import burlap.behavior.singleagent.planning.stochastic.rtdp.RTDP;
+import burlap.behavior.singleagent.planning.stochastic.sparsesampling.SparseSampling;
+import burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCTActionNode;
+import burlap.behavior.singleagent.planning.stochastic.montecarlo.uct.UCTStateNode;
+import burlap.behavior.singleagent.planning.stochastic.valueiteration.PrioritizedSweeping;
+import burlap.behavior.singleagent.planning.stochastic.valueiteration.ValueIteration;
+import burlap.behavior.singleagent.planning.vfa.fittedvi.FittedVI;
+import burlap.behavior.singleagent.pomdp.pbvi.PointBasedValueIteration;
+import burlap.behavior.singleagent.pomdp.pomcp.POMCP;
+import burlap.behavior.singleagent.pomdp.pomcp.POMCPAgent;
+import burlap.behavior.singleagent.pomdp.wrappedmdpalgs.BeliefSparseSampling;
+import burlap.behavior.singleagent.planning.vfa.fittedvi.SupervisedVFA;
+import burlap.behavior.stochasticgames.madynamicprogramming.AgentQSourceMap;
+import burlap.behavior.stochasticgames.madynamicprogramming.SGBackupOperator;
+import burlap.behavior.stochasticgames.madynamicprogramming.backupOperators.MaxQ;
+import burlap.behavior.stochasticgames.madynamicprogramming.dpplanners.MAValueIteration;
+import burlap.behavior.valuefunction.ConcurrentValueTable;
+import burlap.behavior.valuefunction.ValueFunctionInitialization;
+import burlap.behavior.valuefunction.ValueFunction;
+import burlap.behavior.singleagent.options.MacroAction;
+import burlap.behavior.singleagent.vfa.ActionFeaturesQuery;
+import burlap.behavior.singleagent.vfa.BatchDifferentiableStateActionValue;
+import burlap.behavior.singleagent.vfa.FunctionGradient;
+import burlap.behavior.singleagent.vfa.FeatureDatabase;
+import burlap.behavior.singleagent.vfa.StateFeature;
+import burlap.behavior.singleagent.vfa.cmac.CMACFeatureDatabase;
+import burlap.behavior.singleagent.vfa.cmac.FVCMACFeatureDatabase;
+import burlap.behavior.singleagent.vfa.common.CachedFeatureDatabase;
+import burlap.behavior.singleagent.vfa.common.ConcatenatedObjectFeatureVectorGenerator;
+import burlap.behavior.singleagent.vfa.common.LinearFVVFA;
+import burlap.behavior.singleagent.vfa.common.LinearVFA;
+import burlap.behavior.singleagent.vfa.fourier.FourierBasis;
+import burlap.behavior.singleagent.vfa.rbf.FVRBF;
+import burlap.behavior.singleagent.vfa.rbf.FVRBFFeatureDatabase;
+import burlap.behavior.singleagent.vfa.rbf.KDTree;
+import burlap.behavior.singleagent.vfa.rbf.functions.FVGaussianRBF;
+import burlap.datastructures.IntIndexedHeap;
+import burlap.debugtools.RandomFactory;
 import burlap.domain.singleagent.gridworld.GridWorldDomain;
+import burlap.domain.singleagent.pomdp.tiger.TigerDomain;
+import burlap.domain.stochasticgames.gridgame.GridGame;
+import burlap.oomdp.auxiliary.common.ConstantStateGenerator;
+import burlap.oomdp.auxiliary.common.NullTermination;
 import burlap.oomdp.auxiliary.common.SinglePFTF;
 import burlap.oomdp.auxiliary.stateconditiontest.StateConditionTest;
 import burlap.oomdp.auxiliary.stateconditiontest.TFGoalCondition;
@@ -21,9 +77,36 @@ import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.TerminalFunction;
 import burlap.oomdp.core.objects.ObjectInstance;
 import burlap.oomdp.core.states.State;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 import burlap.oomdp.singleagent.common.UniformCostRF;
+import burlap.oomdp.singleagent.environment.Environment;
+import burlap.oomdp.singleagent.environment.SimulatedEnvironment;
+import burlap.oomdp.singleagent.pomdp.PODomain;
+import burlap.oomdp.singleagent.pomdp.SimulatedPOEnvironment;
+import burlap.oomdp.singleagent.pomdp.beliefstate.BeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.EnumerableBeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.particle.ParticleBeliefState;
+import burlap.oomdp.singleagent.pomdp.beliefstate.tabular.HashableTabularBeliefStateFactory;
+import burlap.oomdp.singleagent.pomdp.beliefstate.tabular.TabularBeliefState;
+import burlap.oomdp.statehashing.HashableState;
 import burlap.oomdp.statehashing.SimpleHashableStateFactory;
+import burlap.oomdp.stochasticgames.JointAction;
+import burlap.oomdp.stochasticgames.SGAgentType;
+import burlap.oomdp.stochasticgames.SGDomain;
+import burlap.parallel.Parallel;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class TestPlanning {
 	public static final double delta = 0.000001;
@@ -114,6 +197,1022 @@ public class TestPlanning {
 		this.evaluateEpisode(analysis, true);
 	}
 	
+	@Test
+	public void testParallelValueIteration() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		ValueIteration serial = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		serial.planFromState(initialState);
+		
+		ValueIteration parallel = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		parallel.setParallelSweeps(4);
+		Policy p = parallel.planFromState(initialState);
+		
+		for(State s : serial.getAllStates()){
+			Assert.assertEquals(serial.value(s), parallel.value(s), 0.01);
+		}
+		
+		EpisodeAnalysis analysis = p.evaluateBehavior(initialState, this.rf, this.tf);
+		this.evaluateEpisode(analysis, true);
+		
+		//in place parallel sweeps share one value function between all threads
+		ValueIteration inPlace = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		inPlace.setParallelSweeps(4);
+		inPlace.toggleParallelSweepsInPlace(true);
+		inPlace.planFromState(initialState);
+		
+		for(State s : serial.getAllStates()){
+			Assert.assertEquals(serial.value(s), inPlace.value(s), 0.01);
+		}
+	}
+	
+	@Test
+	public void testCompiledValueIteration() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		ValueIteration serial = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		serial.planFromState(initialState);
+		
+		ValueIteration compiled = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		compiled.toggleCompiledDynamics(true);
+		Policy p = compiled.planFromState(initialState);
+		
+		for(State s : serial.getAllStates()){
+			Assert.assertEquals(serial.value(s), compiled.value(s), 0.001);
+		}
+		
+		CompiledTabularDynamics cd = compiled.getCompiledDynamics();
+		compiled.runVI();
+		Assert.assertSame(cd, compiled.getCompiledDynamics());
+		compiled.resetSolver();
+		compiled.planFromState(initialState);
+		Assert.assertNotSame(cd, compiled.getCompiledDynamics());
+		
+		EpisodeAnalysis analysis = p.evaluateBehavior(initialState, this.rf, this.tf);
+		this.evaluateEpisode(analysis, true);
+	}
+	
+	@Test
+	public void testParallelUCT() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 7, 7);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		for(UCT.ParallelMode mode : UCT.ParallelMode.values()) {
+			RandomFactory.seedMapped(0, 42);
+			RandomFactory.seedMapped(589449, 42);
+			UCT planner = new UCT(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 12, 5000, 10);
+			planner.setParallelRollouts(4, mode);
+			planner.setVirtualLossReturn(-12);
+			Policy p = planner.planFromState(initialState);
+			
+			int visits = 0;
+			for(UCTActionNode anode : planner.getRoot().actionNodes) {
+				Assert.assertEquals(0, anode.virtualLosses);
+				visits += anode.n;
+			}
+			Assert.assertEquals(5000, visits);
+			Assert.assertEquals(5000, planner.getRoot().n);
+			
+			EpisodeAnalysis analysis = p.evaluateBehavior(initialState, this.rf, this.tf, 30);
+			this.evaluateEpisode(analysis);
+		}
+	}
+	
+	@Test
+	public void testUCTTimeBudgetAndTreeReuse() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 7, 7);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		UCT planner = new UCT(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 12, -1, 2);
+		planner.setPlanningTimeBudget(100);
+		planner.toggleTreeReuse(true);
+		
+		long start = System.currentTimeMillis();
+		planner.planFromState(initialState);
+		Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+		Assert.assertTrue(planner.getRoot().n > 0);
+		
+		State next = initialState.copy();
+		GridWorldDomain.setAgent(next, 7, 8);
+		UCTStateNode child = null;
+		for(UCTActionNode anode : planner.getRoot().actionNodes) {
+			for(UCTStateNode suc : anode.getAllSuccessors()) {
+				if(suc.state.equals(this.hashingFactory.hashState(next))) {
+					child = suc;
+				}
+			}
+		}
+		Assert.assertNotNull(child);
+		int childVisits = child.n;
+		
+		planner.planFromState(next);
+		Assert.assertSame(child, planner.getRoot());
+		Assert.assertEquals(0, child.depth);
+		Assert.assertTrue(planner.getRoot().n > childVisits);
+	}
+	
+	@Test
+	public void testParallelSparseSampling() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 7, 7);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		SparseSampling serial = new SparseSampling(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 8, -1);
+		serial.toggleDebugPrinting(false);
+		List<QValue> serialQs = serial.getQs(initialState);
+		
+		SparseSampling parallel = new SparseSampling(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 8, -1);
+		parallel.toggleDebugPrinting(false);
+		parallel.setParallelSampling(4);
+		List<QValue> parallelQs = parallel.getQs(initialState);
+		
+		SparseSampling capped = new SparseSampling(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 8, -1);
+		capped.toggleDebugPrinting(false);
+		capped.setParallelSampling(4);
+		capped.setMaxStoredNodes(50);
+		List<QValue> cappedQs = capped.getQs(initialState);
+		
+		Assert.assertEquals(serial.getNumberOfValueEsitmates(), parallel.getNumberOfValueEsitmates());
+		Assert.assertTrue(capped.getNumberOfStateNodesCreated() < 60);
+		for(int i = 0; i < serialQs.size(); i++) {
+			Assert.assertEquals(serialQs.get(i).q, parallelQs.get(i).q, TestPlanning.delta);
+			Assert.assertEquals(serialQs.get(i).q, cappedQs.get(i).q, TestPlanning.delta);
+		}
+		
+		//options record their last number of steps, so parallel sampling must reject them
+		SparseSampling withOption = new SparseSampling(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 2, 2);
+		withOption.toggleDebugPrinting(false);
+		withOption.addNonDomainReferencedAction(new MacroAction("northTwice", Arrays.asList(
+				this.domain.getAction(GridWorldDomain.ACTIONNORTH).getAssociatedGroundedAction(),
+				this.domain.getAction(GridWorldDomain.ACTIONNORTH).getAssociatedGroundedAction())));
+		withOption.setParallelSampling(2);
+		try{
+			withOption.getQs(initialState);
+			Assert.fail("Parallel sparse sampling accepted an option.");
+		}catch(RuntimeException e){
+			Assert.assertTrue(e.getMessage().contains("cannot work with options"));
+		}
+	}
+	
+	@Test
+	public void testParallelDifferentiableSparseSampling() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 7, 7);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		State nextState = initialState.copy();
+		GridWorldDomain.setAgent(nextState, 8, 7);
+		
+		LinearStateDifferentiableRF drf = new LinearStateDifferentiableRF(new ConcatenatedObjectFeatureVectorGenerator(false, GridWorldDomain.CLASSAGENT), 2);
+		drf.setParameter(0, 0.1);
+		drf.setParameter(1, 0.2);
+		
+		DifferentiableSparseSampling serial = new DifferentiableSparseSampling(this.domain, drf, this.tf, 0.9, this.hashingFactory, 4, 3, 10.);
+		serial.setUseVariableCSize(true);
+		serial.toggleDebugPrinting(false);
+		
+		DifferentiableSparseSampling parallel = new DifferentiableSparseSampling(this.domain, drf, this.tf, 0.9, this.hashingFactory, 4, 3, 10.);
+		parallel.setUseVariableCSize(true);
+		parallel.toggleDebugPrinting(false);
+		parallel.setParallelSampling(4);
+		
+		for(State s : Arrays.asList(initialState, nextState)) {
+			List<QValue> serialQs = serial.getQs(s);
+			List<QValue> parallelQs = parallel.getQs(s);
+			List<QGradientTuple> serialGrads = serial.getAllQGradients(s);
+			List<QGradientTuple> parallelGrads = parallel.getAllQGradients(s);
+			
+			Assert.assertEquals(4, serial.getH());
+			Assert.assertEquals(4, parallel.getH());
+			Assert.assertEquals(serial.getNumberOfValueEsitmates(), parallel.getNumberOfValueEsitmates());
+			for(int i = 0; i < serialQs.size(); i++) {
+				Assert.assertEquals(serialQs.get(i).q, parallelQs.get(i).q, TestPlanning.delta);
+				for(int j = 0; j < 2; j++) {
+					Assert.assertEquals(serialGrads.get(i).gradient.getPartialDerivative(j), parallelGrads.get(i).gradient.getPartialDerivative(j), TestPlanning.delta);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testParallelFittedVI() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		ValueIteration vi = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		vi.planFromState(initialState);
+		List<State> samples = new ArrayList<State>(vi.getAllStates());
+		
+		//a tabular fit, so every variant should produce exactly the same targets
+		SupervisedVFA table = new SupervisedVFA() {
+			@Override
+			public ValueFunction train(List<SupervisedVFAInstance> trainingData) {
+				final Map<HashableState, Double> values = new HashMap<HashableState, Double>();
+				for(SupervisedVFAInstance inst : trainingData){
+					values.put(hashingFactory.hashState(inst.s), inst.v);
+				}
+				return new ValueFunction() {
+					@Override
+					public double value(State s) {
+						Double v = values.get(hashingFactory.hashState(s));
+						return v != null ? v : 0.;
+					}
+				};
+			}
+		};
+		
+		FittedVI serial = new FittedVI(this.domain, this.rf, this.tf, 0.99, table, samples, -1, 0., 30);
+		serial.toggleDebugPrinting(false);
+		serial.runVI();
+		
+		FittedVI parallel = new FittedVI(this.domain, this.rf, this.tf, 0.99, table, samples, -1, 0., 30);
+		parallel.toggleDebugPrinting(false);
+		parallel.setParallelTargets(4);
+		parallel.runVI();
+		
+		FittedVI reused = new FittedVI(this.domain, this.rf, this.tf, 0.99, table, samples, -1, 0., 30);
+		reused.toggleDebugPrinting(false);
+		reused.setParallelTargets(4);
+		reused.toggleTransitionSampleReuse(true);
+		reused.setPlanningDepth(2);
+		reused.runVI();
+		
+		FittedVI deeper = new FittedVI(this.domain, this.rf, this.tf, 0.99, table, samples, -1, 0., 30);
+		deeper.toggleDebugPrinting(false);
+		deeper.setPlanningDepth(2);
+		deeper.runVI();
+		
+		for(State s : samples){
+			Assert.assertEquals(serial.value(s), parallel.value(s), TestPlanning.delta);
+			Assert.assertEquals(deeper.value(s), reused.value(s), TestPlanning.delta);
+		}
+		
+		EpisodeAnalysis analysis = parallel.planFromState(initialState).evaluateBehavior(initialState, this.rf, this.tf);
+		this.evaluateEpisode(analysis, true);
+	}
+	
+	@Test
+	public void testConcurrentValueTable() {
+		State base = GridWorldDomain.getOneAgentOneLocationState(domain);
+		final List<HashableState> states = new ArrayList<HashableState>();
+		for(int i = 0; i < 3000; i++){
+			State s = base.copy();
+			GridWorldDomain.setAgent(s, i % 11, (i / 11) % 11);
+			GridWorldDomain.setLocation(s, 0, (i / 121) % 11, i / 1331);
+			states.add(this.hashingFactory.hashState(s));
+		}
+		State counterState = base.copy();
+		GridWorldDomain.setAgent(counterState, 10, 10);
+		GridWorldDomain.setLocation(counterState, 0, 10, 10);
+		final HashableState counter = this.hashingFactory.hashState(counterState);
+		
+		//start small so that the stripes are resized while threads are writing
+		final ConcurrentValueTable table = new ConcurrentValueTable(4, 4);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for(int t = 0; t < 4; t++){
+			final int thread = t;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					for(int i = 0; i < states.size(); i++){
+						table.maxUpdate(states.get(i), thread*10000 + i);
+						table.putIfAbsentValue(counter, 0.);
+						double c;
+						do{
+							c = table.getValue(counter, 0.);
+						}while(!table.compareAndSet(counter, c, c+1));
+					}
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Parallel.newDaemonPool(4, "value-table-test");
+		Parallel.invokeAll(executor, tasks);
+		executor.shutdown();
+		
+		Assert.assertEquals(states.size()+1, table.size());
+		Assert.assertEquals(4*states.size(), table.getValue(counter, 0.), 0.);
+		for(int i = 0; i < states.size(); i++){
+			Assert.assertEquals(30000. + i, table.get(states.get(i)), 0.);
+		}
+		Assert.assertEquals(states.size()+1, table.entrySet().size());
+		Assert.assertFalse(table.compareAndSet(counter, 0., 1.));
+		table.clear();
+		Assert.assertEquals(0, table.size());
+		Assert.assertNull(table.get(counter));
+	}
+	
+	@Test
+	public void testParallelRTDP() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		ValueIteration vi = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		vi.planFromState(initialState);
+		
+		RTDP rtdp = new RTDP(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0., 5000, 0.0001, 200);
+		rtdp.toggleDebugPrinting(false);
+		rtdp.setMinNumRolloutsWithSmallValueChange(20);
+		rtdp.setParallelTrials(4);
+		Policy p = rtdp.planFromState(initialState);
+		
+		Assert.assertTrue(rtdp.getNumberOfBellmanUpdates() > 0);
+		Assert.assertEquals(vi.value(initialState), rtdp.value(initialState), 0.01);
+		this.evaluateEpisode(p.evaluateBehavior(initialState, this.rf, this.tf), true);
+		
+		BoundedRTDP brtdp = new BoundedRTDP(this.domain, this.rf, this.tf, 0.99, this.hashingFactory,
+				new ValueFunctionInitialization.ConstantValueFunctionInitialization(-100.),
+				new ValueFunctionInitialization.ConstantValueFunctionInitialization(0.), 0.001, 5000);
+		brtdp.toggleDebugPrinting(false);
+		brtdp.setMaxRolloutDepth(200);
+		brtdp.setParallelTrials(4);
+		p = brtdp.planFromState(initialState);
+		
+		double lower = brtdp.value(initialState);
+		brtdp.setValueFunctionToUpperBound();
+		double upper = brtdp.value(initialState);
+		brtdp.setValueFunctionToLowerBound();
+		
+		Assert.assertTrue(upper - lower <= 0.001);
+		Assert.assertTrue(lower <= vi.value(initialState) + 0.001);
+		Assert.assertTrue(upper >= vi.value(initialState) - 0.001);
+		this.evaluateEpisode(p.evaluateBehavior(initialState, this.rf, this.tf), true);
+	}
+	
+	@Test
+	public void testPrioritizedSweeping() {
+		IntIndexedHeap heap = new IntIndexedHeap(200);
+		double [] expected = new double[200];
+		Random rand = new Random(7);
+		for(int i = 0; i < 200; i++){
+			expected[i] = rand.nextDouble();
+			heap.insert(i, expected[i]);
+		}
+		for(int i = 0; i < 1000; i++){
+			int id = rand.nextInt(200);
+			double p = rand.nextDouble();
+			if(i % 2 == 0){
+				heap.setPriority(id, p);
+				expected[id] = p;
+			}
+			else if(heap.raisePriority(id, p)){
+				expected[id] = p;
+			}
+		}
+		Assert.assertTrue(heap.satisfiesHeap());
+		Arrays.sort(expected);
+		for(int i = 199; i >= 0; i--){
+			Assert.assertEquals(expected[i], heap.priority(heap.peek()), 0.);
+			heap.poll();
+		}
+		Assert.assertEquals(-1, heap.poll());
+		
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		ValueIteration vi = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		vi.planFromState(initialState);
+		
+		for(int mode = 0; mode < 3; mode++){
+			PrioritizedSweeping ps = new PrioritizedSweeping(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, -1);
+			ps.toggleDebugPrinting(false);
+			ps.toggleCompiledDynamics(mode == 1);
+			if(mode == 2){
+				ps.setMaxPredecessors(1);
+			}
+			Policy p = ps.planFromState(initialState);
+			for(State s : vi.getAllStates()){
+				Assert.assertEquals(vi.value(s), ps.value(s), 0.01);
+			}
+			this.evaluateEpisode(p.evaluateBehavior(initialState, this.rf, this.tf), true);
+		}
+	}
+	
+	@Test
+	public void testCompiledBeliefUpdates() {
+		PODomain tiger = (PODomain)new TigerDomain(true).generateDomain();
+		List<State> observations = tiger.getObservationFunction().getAllPossibleObservations();
+		GroundedAction listen = tiger.getAction(TigerDomain.ACTIONLISTEN).getAssociatedGroundedAction();
+		GroundedAction open = tiger.getAction(TigerDomain.ACTIONLEFT).getAssociatedGroundedAction();
+		
+		TabularBeliefState compiled = TigerDomain.getInitialBeliefState(tiger);
+		TabularBeliefState enumerated = TigerDomain.getInitialBeliefState(tiger);
+		enumerated.toggleCompiledBeliefUpdates(false);
+		GroundedAction [] actions = new GroundedAction[]{listen, listen, listen, open, listen};
+		int [] obs = new int[]{0, 0, 1, 2, 1};
+		for(int i = 0; i < actions.length; i++){
+			compiled = (TabularBeliefState)compiled.getUpdatedBeliefState(observations.get(obs[i]), actions[i]);
+			enumerated = (TabularBeliefState)enumerated.getUpdatedBeliefState(observations.get(obs[i]), actions[i]);
+			Assert.assertTrue(compiled.usesCompiledBeliefUpdates());
+			Assert.assertArrayEquals(enumerated.getBeliefVector(), compiled.getBeliefVector(), 1e-10);
+		}
+		
+		double [] values = new double[2];
+		for(int i = 0; i < 2; i++){
+			TabularBeliefState initialBelief = TigerDomain.getInitialBeliefState(tiger);
+			initialBelief.toggleCompiledBeliefUpdates(i == 0);
+			BeliefSparseSampling bss = new BeliefSparseSampling(tiger, new TigerDomain.TigerRF(), 0.99, new HashableTabularBeliefStateFactory(), 4, -1);
+			bss.planFromState(initialBelief);
+			values[i] = bss.value(initialBelief);
+		}
+		Assert.assertEquals(values[1], values[0], 1e-8);
+	}
+	
+	@Test
+	public void testPointBasedValueIteration() {
+		PODomain tiger = (PODomain)new TigerDomain(false).generateDomain();
+		List<State> observations = tiger.getObservationFunction().getAllPossibleObservations();
+		GroundedAction listen = tiger.getAction(TigerDomain.ACTIONLISTEN).getAssociatedGroundedAction();
+		
+		double [] values = new double[3];
+		for(int mode = 0; mode < 3; mode++){
+			RandomFactory.seedMapped(0, 42);
+			TabularBeliefState initialBelief = TigerDomain.getInitialBeliefState(tiger);
+			PointBasedValueIteration pbvi = new PointBasedValueIteration(tiger, new TigerDomain.TigerRF(), new NullTermination(), 0.95, 100, 8, 500, 1e-6);
+			pbvi.toggleDebugPrinting(false);
+			pbvi.togglePerseusBackups(mode == 1);
+			if(mode == 2){
+				pbvi.setParallelBackups(4);
+			}
+			Policy p = pbvi.planFromState(initialBelief);
+			values[mode] = pbvi.value(initialBelief);
+			
+			Assert.assertEquals(TigerDomain.ACTIONLISTEN, ((GroundedAction)p.getAction(initialBelief)).actionName());
+			TabularBeliefState heardLeft = (TabularBeliefState)initialBelief.getUpdatedBeliefState(observations.get(0), listen);
+			heardLeft = (TabularBeliefState)heardLeft.getUpdatedBeliefState(observations.get(0), listen);
+			Assert.assertEquals(TigerDomain.ACTIONRIGHT, ((GroundedAction)p.getAction(heardLeft)).actionName());
+		}
+		
+		//the optimal infinite horizon value of the tiger problem's uniform belief with these parameters is about 19.37
+		Assert.assertEquals(19.37, values[0], 0.01);
+		Assert.assertEquals(values[0], values[1], 0.01);
+		Assert.assertEquals(values[0], values[2], 1e-10);
+	}
+	
+	@Test
+	public void testCallerExecutorsAreNotShutDown() {
+		ExecutorService executor = Parallel.newDaemonPool(2, "test");
+		
+		ValueIteration vi = new ValueIteration(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0.0001, 500);
+		vi.setParallelSweeps(executor, 4);
+		vi.setParallelSweeps(1);
+		vi.setParallelSweeps(4);
+		vi.setParallelSweeps(executor, 4);
+		
+		PODomain tiger = (PODomain)new TigerDomain(false).generateDomain();
+		PointBasedValueIteration pbvi = new PointBasedValueIteration(tiger, new TigerDomain.TigerRF(), new NullTermination(), 0.95, 100, 8, 500, 1e-6);
+		pbvi.setParallelBackups(executor, 4);
+		pbvi.setParallelBackups(1);
+		pbvi.setParallelBackups(4);
+		pbvi.setParallelBackups(executor, 4);
+		
+		FittedVI fvi = new FittedVI(this.domain, this.rf, this.tf, 0.99, null, 1, 0.01, 10);
+		fvi.setParallelTargets(executor, 4);
+		fvi.setParallelTargets(1);
+		fvi.setParallelTargets(4);
+		fvi.setParallelTargets(executor, 4);
+		
+		RTDP rtdp = new RTDP(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 0., 10, 0.0001, 20);
+		rtdp.setParallelTrials(executor, 2);
+		rtdp.setParallelTrials(1);
+		rtdp.setParallelTrials(2);
+		rtdp.setParallelTrials(executor, 2);
+		
+		BoundedRTDP brtdp = new BoundedRTDP(this.domain, this.rf, this.tf, 0.99, this.hashingFactory,
+				new ValueFunctionInitialization.ConstantValueFunctionInitialization(-100.),
+				new ValueFunctionInitialization.ConstantValueFunctionInitialization(0.), 0.001, 10);
+		brtdp.setParallelTrials(executor, 2);
+		brtdp.setParallelTrials(1);
+		brtdp.setParallelTrials(2);
+		brtdp.setParallelTrials(executor, 2);
+		
+		SparseSampling ss = new SparseSampling(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 2, 2);
+		ss.setParallelSampling(executor);
+		ss.setParallelSampling(1);
+		ss.setParallelSampling(2);
+		ss.setParallelSampling(executor);
+		
+		DifferentiableSparseSampling dss = new DifferentiableSparseSampling(this.domain,
+				new LinearStateDifferentiableRF(new ConcatenatedObjectFeatureVectorGenerator(false, GridWorldDomain.CLASSAGENT), 2), this.tf, 0.9, this.hashingFactory, 2, 2, 10.);
+		dss.setParallelSampling(executor);
+		dss.setParallelSampling(1);
+		dss.setParallelSampling(2);
+		dss.setParallelSampling(executor);
+		
+		SparseLSTDQ lstdq = new SparseLSTDQ();
+		lstdq.setParallelAccumulation(executor, 2);
+		lstdq.setParallelAccumulation(1);
+		lstdq.setParallelAccumulation(2);
+		lstdq.setParallelAccumulation(executor, 2);
+		
+		UCT uct = new UCT(this.domain, this.rf, this.tf, 0.99, this.hashingFactory, 12, -1, 2);
+		uct.setParallelRollouts(executor, 2, UCT.ParallelMode.TREE);
+		uct.setParallelRollouts(1, UCT.ParallelMode.TREE);
+		uct.setParallelRollouts(2, UCT.ParallelMode.TREE);
+		uct.setParallelRollouts(executor, 2, UCT.ParallelMode.TREE);
+		
+		Assert.assertFalse(executor.isShutdown());
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testParticleBeliefState() {
+		RandomFactory.seedMapped(0, 42);
+		PODomain tiger = (PODomain)new TigerDomain(true).generateDomain();
+		List<State> observations = tiger.getObservationFunction().getAllPossibleObservations();
+		GroundedAction listen = tiger.getAction(TigerDomain.ACTIONLISTEN).getAssociatedGroundedAction();
+		
+		TabularBeliefState tabular = TigerDomain.getInitialBeliefState(tiger);
+		BeliefState particles = new ParticleBeliefState(tiger, tabular, 5000);
+		for(int i = 0; i < 2; i++){
+			tabular = (TabularBeliefState)tabular.getUpdatedBeliefState(observations.get(0), listen);
+			particles = particles.getUpdatedBeliefState(observations.get(0), listen);
+		}
+		List<EnumerableBeliefState.StateBelief> beliefs = tabular.getStatesAndBeliefsWithNonZeroProbability();
+		for(EnumerableBeliefState.StateBelief sb : beliefs){
+			Assert.assertEquals(sb.belief, particles.belief(sb.s), 0.03);
+		}
+		
+		//alias sampling reproduces the particle weights
+		State left = beliefs.get(0).s;
+		int leftCount = 0;
+		for(int i = 0; i < 20000; i++){
+			if(particles.sampleStateFromBelief().equals(left)){
+				leftCount++;
+			}
+		}
+		Assert.assertEquals(particles.belief(left), leftCount / 20000., 0.02);
+		
+		ParticleBeliefState weighted = new ParticleBeliefState(tiger, new State[]{beliefs.get(0).s, beliefs.get(1).s}, new double[]{3., 1.});
+		for(ParticleBeliefState.ResamplingStrategy strategy : ParticleBeliefState.ResamplingStrategy.values()){
+			weighted.setResamplingStrategy(strategy);
+			ParticleBeliefState resampled = weighted.resample(1000);
+			Assert.assertEquals(1000, resampled.numParticles());
+			Assert.assertEquals(1000., resampled.effectiveSampleSize(), 1e-6);
+			Assert.assertEquals(0.75, resampled.belief(beliefs.get(0).s), 0.05);
+		}
+	}
+	
+	@Test
+	public void testPOMCP() {
+		RandomFactory.seedMapped(0, 42);
+		PODomain tiger = (PODomain)new TigerDomain(false).generateDomain();
+		List<State> observations = tiger.getObservationFunction().getAllPossibleObservations();
+		GroundedAction listen = tiger.getAction(TigerDomain.ACTIONLISTEN).getAssociatedGroundedAction();
+		RewardFunction rf = new TigerDomain.TigerRF();
+		
+		POMCP pomcp = new POMCP(tiger, rf, new NullTermination(), 0.95, new SimpleHashableStateFactory(), 20, 20000, 110.);
+		pomcp.toggleDebugPrinting(false);
+		TabularBeliefState initialBelief = TigerDomain.getInitialBeliefState(tiger);
+		Policy p = pomcp.planFromState(initialBelief);
+		Assert.assertEquals(TigerDomain.ACTIONLISTEN, ((GroundedAction)p.getAction(initialBelief)).actionName());
+		
+		//reuse the subtree of the history listen/hearLeft and check its particles and decision
+		State hearLeft = observations.get(0);
+		BeliefState heardLeft = initialBelief.getUpdatedBeliefState(hearLeft, listen);
+		Assert.assertTrue(pomcp.advanceRoot(listen, hearLeft));
+		ParticleBeliefState rootParticles = pomcp.getRootParticleBelief();
+		Assert.assertTrue(rootParticles.numParticles() > 100);
+		Assert.assertEquals(heardLeft.belief(TigerDomain.tigerLeftState(tiger)), rootParticles.belief(TigerDomain.tigerLeftState(tiger)), 0.05);
+		heardLeft = heardLeft.getUpdatedBeliefState(hearLeft, listen);
+		Assert.assertTrue(pomcp.advanceRoot(listen, hearLeft));
+		int rootVisits = pomcp.getRoot().visits;
+		p = pomcp.planFromState(heardLeft);
+		Assert.assertTrue(pomcp.getRoot().visits >= rootVisits + 20000);
+		Assert.assertEquals(TigerDomain.ACTIONRIGHT, ((GroundedAction)p.getAction(heardLeft)).actionName());
+		
+		//anytime planning with only a time budget
+		pomcp = new POMCP(tiger, rf, new NullTermination(), 0.95, new SimpleHashableStateFactory(), 20, -1, 110.);
+		pomcp.toggleDebugPrinting(false);
+		boolean rejected = false;
+		try {
+			pomcp.planFromState(initialBelief);
+		} catch(RuntimeException e) {
+			rejected = true;
+		}
+		Assert.assertTrue(rejected);
+		pomcp.setPlanningTimeBudget(50);
+		long start = System.currentTimeMillis();
+		pomcp.planFromState(initialBelief);
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertTrue(pomcp.getNumSimulationsPerformed() > 0);
+		
+		//act in a simulated environment with particle belief updates
+		SimulatedPOEnvironment env = new SimulatedPOEnvironment(tiger, rf, new NullTermination(), TigerDomain.tigerLeftState(tiger));
+		pomcp = new POMCP(tiger, rf, new NullTermination(), 0.95, new SimpleHashableStateFactory(), 20, 2000, 110.);
+		pomcp.toggleDebugPrinting(false);
+		POMCPAgent agent = new POMCPAgent(tiger, env, pomcp);
+		agent.toggleParticleBeliefUpdates(true, 100);
+		agent.setBeliefState(initialBelief);
+		EpisodeAnalysis ea = agent.actUntilTerminalOrMaxSteps(10);
+		Assert.assertEquals(10, ea.numTimeSteps() - 1);
+		Assert.assertTrue(agent.getBeliefState() instanceof ParticleBeliefState);
+	}
+	
+	@Test
+	public void testCompiledMAValueIteration() {
+		SGDomain gg = (SGDomain)new GridGame().generateDomain();
+		State s = GridGame.getCorrdinationGameInitialState(gg);
+		Map<String, SGAgentType> agentDefinitions = new HashMap<String, SGAgentType>();
+		agentDefinitions.put("agent0", GridGame.getStandardGridGameAgentType(gg));
+		agentDefinitions.put("agent1", GridGame.getStandardGridGameAgentType(gg));
+		
+		//the second operator is not a MaxQ instance, so compiled planning must answer its queries through the dense Q-tables
+		SGBackupOperator [] operators = new SGBackupOperator[]{new MaxQ(), new SGBackupOperator() {
+			@Override
+			public double performBackup(State s, String forAgent, Map<String, SGAgentType> agentDefinitions, AgentQSourceMap qSourceMap) {
+				return new MaxQ().performBackup(s, forAgent, agentDefinitions, qSourceMap);
+			}
+		}};
+		
+		List<JointAction> jas = JointAction.getAllJointActions(s, agentDefinitions);
+		for(SGBackupOperator op : operators){
+			MAValueIteration [] planners = new MAValueIteration[2];
+			for(int i = 0; i < 2; i++){
+				planners[i] = new MAValueIteration(gg, agentDefinitions, new GridGame.GGJointRewardFunction(gg), new GridGame.GGTerminalFunction(gg),
+						0.95, new SimpleHashableStateFactory(), 0., op, 1e-6, 500);
+				planners[i].toggleCompiledDynamics(i == 1);
+				planners[i].planFromState(s);
+			}
+			Assert.assertEquals(planners[0].getCompiledDynamics().numStates(), planners[1].getCompiledDynamics().numStates());
+			for(String agent : agentDefinitions.keySet()){
+				for(JointAction ja : jas){
+					double expected = planners[0].getQSources().agentQSource(agent).getQValueFor(s, ja).q;
+					Assert.assertEquals(expected, planners[1].getQSources().agentQSource(agent).getQValueFor(s, ja).q, 1e-6);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testArrayQTableLearning() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		for(int lambdaAgent = 0; lambdaAgent < 2; lambdaAgent++){
+			QLearning [] agents = new QLearning[2];
+			for(int i = 0; i < 2; i++){
+				RandomFactory.seedMapped(0, 42);
+				agents[i] = lambdaAgent == 0 ? new QLearning(this.domain, 0.99, this.hashingFactory, 0., 0.1)
+						: new SarsaLam(this.domain, 0.99, this.hashingFactory, 0., 0.1, 0.9);
+				agents[i].toggleArrayQTable(i == 1);
+				SimulatedEnvironment env = new SimulatedEnvironment(this.domain, this.rf, this.tf, initialState);
+				for(int e = 0; e < 20; e++){
+					agents[i].runLearningEpisode(env);
+					env.resetEnvironment();
+				}
+			}
+			
+			Assert.assertEquals(agents[0].getLastNumSteps(), agents[1].getLastNumSteps());
+			Assert.assertTrue(agents[1].getArrayQTable().numStates() > 0);
+			for(int x = 0; x <= 10; x++){
+				for(int y = 0; y <= 10; y++){
+					State s = initialState.copy();
+					GridWorldDomain.setAgent(s, x, y);
+					List<QValue> qs = agents[0].getQs(s);
+					List<QValue> aqs = agents[1].getQs(s);
+					Assert.assertEquals(qs.size(), aqs.size());
+					for(int j = 0; j < qs.size(); j++){
+						Assert.assertEquals(qs.get(j).q, aqs.get(j).q, delta);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSparseLSTDQ() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+
+		RandomFactory.seedMapped(0, 42);
+		SARSData dataset = new SARSCollector.UniformRandomSARSCollector(this.domain)
+				.collectNInstances(new ConstantStateGenerator(initialState), this.rf, 2000, 50, this.tf, null);
+
+		CMACFeatureDatabase fd = new CMACFeatureDatabase(3, CMACFeatureDatabase.TilingArrangement.RANDOMJITTER);
+		fd.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTX), 2.);
+		fd.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTY), 2.);
+
+		LSPI dense = new LSPI(this.domain, 0.95, fd, dataset);
+		dense.toggleSparseLSTDQ(false);
+		RandomFactory.seedMapped(0, 7);
+		SimpleMatrix wDense = dense.LSTDQ();
+
+		LSPI sparse = new LSPI(this.domain, 0.95, fd, dataset);
+		RandomFactory.seedMapped(0, 7);
+		SimpleMatrix wSparse = sparse.LSTDQ();
+
+		LSPI iterative = new LSPI(this.domain, 0.95, fd, dataset);
+		iterative.getSparseLSTDQ().setMaxDenseFeatures(0);
+		iterative.getSparseLSTDQ().setParallelAccumulation(2);
+		RandomFactory.seedMapped(0, 7);
+		SimpleMatrix wIterative = iterative.LSTDQ();
+
+		Assert.assertEquals(wDense.numRows(), wSparse.numRows());
+		double scale = Math.max(1., wDense.normF());
+		Assert.assertEquals(0., wDense.minus(wSparse).normF() / scale, 1e-5);
+		Assert.assertEquals(0., wDense.minus(wIterative).normF() / scale, 1e-5);
+	}
+
+	@Test
+	public void testCachedFeatureDatabase() {
+		CMACFeatureDatabase cmac = new CMACFeatureDatabase(2, CMACFeatureDatabase.TilingArrangement.UNIFORM);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTX), 2.);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTY), 2.);
+		CachedFeatureDatabase cached = new CachedFeatureDatabase(cmac, 2, this.hashingFactory);
+		cached.setPrefetchActions(this.domain.getActions());
+
+		List<State> states = new ArrayList<State>();
+		for(int i = 0; i < 3; i++){
+			State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+			GridWorldDomain.setAgent(s, i*3, i*3);
+			GridWorldDomain.setLocation(s, 0, 10, 10);
+			states.add(s);
+		}
+
+		List<GroundedAction> gas = Action.getAllApplicableGroundedActionsFromActionList(this.domain.getActions(), states.get(0));
+		GroundedAction ga = gas.get(1);
+		List<ActionFeaturesQuery> first = cached.getActionFeaturesSets(states.get(0), Arrays.asList(ga));
+		Assert.assertEquals(0, cached.getHits());
+		Assert.assertEquals(1, cached.getMisses());
+
+		//all actions were prefetched, so the other actions of the state are hits
+		List<ActionFeaturesQuery> all = cached.getActionFeaturesSets(states.get(0).copy(), gas);
+		Assert.assertEquals(gas.size(), cached.getHits());
+		Assert.assertSame(first.get(0).features, all.get(1).features);
+		List<ActionFeaturesQuery> direct = cmac.getActionFeaturesSets(states.get(0), gas);
+		for(int i = 0; i < gas.size(); i++){
+			Assert.assertEquals(direct.get(i).features.size(), all.get(i).features.size());
+			for(int j = 0; j < direct.get(i).features.size(); j++){
+				Assert.assertEquals(direct.get(i).features.get(j).id, all.get(i).features.get(j).id);
+			}
+		}
+
+		//filling the cache beyond its capacity evicts the least recently used state
+		cached.getActionFeaturesSets(states.get(1), gas);
+		cached.getActionFeaturesSets(states.get(2), gas);
+		Assert.assertEquals(2, cached.cacheSize());
+		cached.resetStatistics();
+		cached.getActionFeaturesSets(states.get(0), Arrays.asList(ga));
+		Assert.assertEquals(1, cached.getMisses());
+	}
+
+	@Test
+	public void testBatchVFAEvaluation() {
+		State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(s, 3, 4);
+		GridWorldDomain.setLocation(s, 0, 10, 10);
+		List<GroundedAction> gas = Action.getAllApplicableGroundedActionsFromActionList(this.domain.getActions(), s);
+
+		CMACFeatureDatabase cmac = new CMACFeatureDatabase(2, CMACFeatureDatabase.TilingArrangement.UNIFORM);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTX), 2.);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, this.domain.getAttribute(GridWorldDomain.ATTY), 2.);
+		LinearVFA linear = new LinearVFA(cmac);
+		LinearFVVFA linearFV = new LinearFVVFA(new ConcatenatedObjectFeatureVectorGenerator(GridWorldDomain.CLASSAGENT), 0.);
+
+		for(BatchDifferentiableStateActionValue vfa : Arrays.asList(linear, linearFV)){
+			vfa.evaluateAll(s, gas, null);
+			for(int i = 0; i < vfa.numParameters(); i++){
+				vfa.setParameter(i, 0.1 * (i + 1));
+			}
+
+			double [] qs = vfa.evaluateAll(s, gas, new double[1]);
+			FunctionGradient.ArrayGradient [] gradients = vfa.gradientAll(s, gas, null);
+			FunctionGradient.ArrayGradient buffer = null;
+			for(int i = 0; i < gas.size(); i++){
+				Assert.assertEquals(vfa.evaluate(s, gas.get(i)), qs[i], delta);
+				FunctionGradient expected = vfa.gradient(s, gas.get(i));
+				buffer = vfa.gradient(s, gas.get(i), buffer);
+				Assert.assertEquals(expected.getNonZeroPartialDerivatives(), gradients[i].getNonZeroPartialDerivatives());
+				Assert.assertEquals(expected.getNonZeroPartialDerivatives(), buffer.getNonZeroPartialDerivatives());
+			}
+		}
+	}
+
+	@Test
+	public void testDenseFourierBasis() {
+		State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(s, 3, 4);
+		GridWorldDomain.setLocation(s, 0, 10, 10);
+		List<GroundedAction> gas = Action.getAllApplicableGroundedActionsFromActionList(this.domain.getActions(), s);
+
+		FourierBasis fb = new FourierBasis(new ConcatenatedObjectFeatureVectorGenerator(true, GridWorldDomain.CLASSAGENT), 3);
+		LinearVFA dense = new LinearVFA(fb);
+		dense.evaluateAll(s, gas, null);
+		//wrapping the basis in a cache hides its dense interface, so this VFA uses the StateFeature path
+		LinearVFA objects = new LinearVFA(new CachedFeatureDatabase(fb, 1));
+		for(int i = 0; i < dense.numParameters(); i++){
+			dense.setParameter(i, Math.sin(i));
+			objects.setParameter(i, Math.sin(i));
+		}
+
+		Assert.assertEquals(16, fb.getDenseStateFeatures(s, null).length);
+		Assert.assertEquals(objects.evaluate(s), dense.evaluate(s), delta);
+		double [] qs = dense.evaluateAll(s, gas, null);
+		for(int i = 0; i < gas.size(); i++){
+			Assert.assertEquals(objects.evaluate(s, gas.get(i)), dense.evaluate(s, gas.get(i)), delta);
+			Assert.assertEquals(objects.evaluate(s, gas.get(i)), qs[i], delta);
+			Assert.assertEquals(objects.gradient(s, gas.get(i)).getNonZeroPartialDerivatives(), dense.gradient(s, gas.get(i)).getNonZeroPartialDerivatives());
+		}
+		
+		//changing the state in place must not reuse the features of its previous values
+		double before = dense.evaluate(s, gas.get(0));
+		GridWorldDomain.setAgent(s, 6, 2);
+		LinearVFA fresh = new LinearVFA(fb);
+		for(int i = 0; i < dense.numParameters(); i++){
+			fresh.setParameter(i, Math.sin(i));
+		}
+		Assert.assertNotEquals(before, dense.evaluate(s, gas.get(0)), delta);
+		Assert.assertEquals(fresh.evaluate(s, gas.get(0)), dense.evaluate(s, gas.get(0)), delta);
+		Assert.assertEquals(fresh.gradient(s, gas.get(0)).getNonZeroPartialDerivatives(), dense.gradient(s, gas.get(0)).getNonZeroPartialDerivatives());
+
+		//dense weights are read and written through the parameter interface and survive copies
+		Assert.assertEquals(Math.sin(5), dense.getParameter(5), delta);
+		LinearVFA copy = dense.copy();
+		dense.setParameter(5, 42.);
+		Assert.assertEquals(42., dense.getParameter(5), delta);
+		Assert.assertEquals(Math.sin(5), copy.getParameter(5), delta);
+		Assert.assertEquals(fresh.evaluate(s, gas.get(0)), copy.evaluate(s, gas.get(0)), delta);
+	}
+
+	@Test
+	public void testHashedTileCoding() {
+		RandomFactory.seedMapped(0, 5);
+		FVCMACFeatureDatabase lazy = new FVCMACFeatureDatabase(new ConcatenatedObjectFeatureVectorGenerator(false, GridWorldDomain.CLASSAGENT));
+		lazy.addTilingsForAllDimensionsWithWidths(new double[]{3., 3.}, 3, CMACFeatureDatabase.TilingArrangement.RANDOMJITTER);
+		FVCMACFeatureDatabase hashed = lazy.copy();
+		hashed.setHashedTileCoding(1 << 20);
+
+		List<List<StateFeature>> lazyFeatures = new ArrayList<List<StateFeature>>();
+		List<List<StateFeature>> hashedFeatures = new ArrayList<List<StateFeature>>();
+		for(int x = 0; x < 11; x++){
+			for(int y = 0; y < 11; y++){
+				State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+				GridWorldDomain.setAgent(s, x, y);
+				GridWorldDomain.setLocation(s, 0, 10, 10);
+				lazyFeatures.add(lazy.getStateFeatures(s));
+				hashedFeatures.add(hashed.getStateFeatures(s));
+			}
+		}
+		Assert.assertEquals(1 << 20, hashed.numberOfFeatures());
+
+		//both modes must partition the states into the same tiles
+		for(int i = 0; i < lazyFeatures.size(); i++){
+			for(int j = 0; j < lazyFeatures.size(); j++){
+				for(int t = 0; t < 3; t++){
+					boolean sameLazy = lazyFeatures.get(i).get(t).id == lazyFeatures.get(j).get(t).id;
+					boolean sameHashed = hashedFeatures.get(i).get(t).id == hashedFeatures.get(j).get(t).id;
+					Assert.assertEquals(sameLazy, sameHashed);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testHashedTileCollisionsAreMerged() {
+		RandomFactory.seedMapped(0, 5);
+		CMACFeatureDatabase cmac = new CMACFeatureDatabase(3, CMACFeatureDatabase.TilingArrangement.RANDOMJITTER);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, domain.getAttribute(GridWorldDomain.ATTX), 1.);
+		cmac.addSpecificationForAllTilings(GridWorldDomain.CLASSAGENT, domain.getAttribute(GridWorldDomain.ATTY), 1.);
+		cmac.setHashedTileCoding(1); //every tile of every tiling collides on feature 0
+		FVCMACFeatureDatabase fvcmac = new FVCMACFeatureDatabase(new ConcatenatedObjectFeatureVectorGenerator(false, GridWorldDomain.CLASSAGENT));
+		fvcmac.addTilingsForAllDimensionsWithWidths(new double[]{3., 3.}, 3, CMACFeatureDatabase.TilingArrangement.RANDOMJITTER);
+		fvcmac.setHashedTileCoding(1);
+
+		State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(s, 4, 7);
+		GridWorldDomain.setLocation(s, 0, 10, 10);
+		List<GroundedAction> gas = Action.getAllApplicableGroundedActionsFromActionList(this.domain.getActions(), s);
+
+		for(FeatureDatabase fd : Arrays.<FeatureDatabase>asList(cmac, fvcmac)){
+			List<StateFeature> sfs = fd.getStateFeatures(s);
+			Assert.assertEquals(1, sfs.size());
+			Assert.assertEquals(3., sfs.get(0).value, delta);
+			for(ActionFeaturesQuery afq : fd.getActionFeaturesSets(s, gas)){
+				Assert.assertEquals(1, afq.features.size());
+				Assert.assertEquals(3., afq.features.get(0).value, delta);
+			}
+
+			//the gradient must agree with the value function on the merged feature
+			LinearVFA vfa = new LinearVFA(fd, 0.5);
+			Assert.assertEquals(1.5, vfa.evaluate(s), delta);
+			Assert.assertEquals(3., vfa.gradient(s).getPartialDerivative(0), delta);
+			Assert.assertEquals(1.5, vfa.evaluate(s, gas.get(0)), delta);
+			Assert.assertEquals(3., vfa.gradient(s, gas.get(0)).getPartialDerivative(0), delta);
+		}
+	}
+
+	@Test
+	public void testTruncatedRBFKernel() {
+		java.util.Random rand = new java.util.Random(11);
+		List<double[]> points = new ArrayList<double[]>();
+		for(int i = 0; i < 500; i++){
+			points.add(new double[]{rand.nextDouble(), rand.nextDouble(), rand.nextDouble()});
+		}
+		KDTree tree = new KDTree(points);
+		for(int q = 0; q < 50; q++){
+			double [] query = new double[]{rand.nextDouble(), rand.nextDouble(), rand.nextDouble()};
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int i = 0; i < points.size(); i++){
+				double [] p = points.get(i);
+				double dx = p[0]-query[0], dy = p[1]-query[1], dz = p[2]-query[2];
+				if(Math.sqrt(dx*dx + dy*dy + dz*dz) <= 0.2){
+					expected.add(i);
+				}
+			}
+			int n = tree.radiusSearch(query, 0.2);
+			Assert.assertEquals(expected.size(), n);
+			for(int i = 0; i < n; i++){
+				Assert.assertEquals((int)expected.get(i), tree.getResult(i));
+			}
+		}
+
+		ConcatenatedObjectFeatureVectorGenerator fvGen = new ConcatenatedObjectFeatureVectorGenerator(false, GridWorldDomain.CLASSAGENT);
+		List<FVRBF> units = new ArrayList<FVRBF>();
+		for(int x = 0; x < 11; x++){
+			for(int y = 0; y < 11; y++){
+				units.add(new FVGaussianRBF(new double[]{x, y}, 1.5));
+			}
+		}
+		FVRBFFeatureDatabase full = new FVRBFFeatureDatabase(fvGen, true);
+		full.addRBFs(units);
+		FVRBFFeatureDatabase truncated = full.copy();
+		truncated.setTruncatedKernel(2.);
+
+		State s = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(s, 4, 7);
+		GridWorldDomain.setLocation(s, 0, 10, 10);
+		List<StateFeature> fullFeatures = full.getStateFeatures(s);
+		List<StateFeature> truncatedFeatures = truncated.getStateFeatures(s);
+		int k = 0;
+		for(int i = 0; i < units.size(); i++){
+			double [] c = units.get(i).getCenteredState();
+			if(Math.hypot(c[0]-4, c[1]-7) <= 2.){
+				Assert.assertEquals(i, truncatedFeatures.get(k).id);
+				Assert.assertEquals(fullFeatures.get(i).value, truncatedFeatures.get(k).value, delta);
+				k++;
+			}
+		}
+		//the offset unit keeps its id
+		Assert.assertEquals(k+1, truncatedFeatures.size());
+		Assert.assertEquals(fullFeatures.get(fullFeatures.size()-1).id, truncatedFeatures.get(k).id);
+	}
+
+	@Test
+	public void testVectorizedLearning() {
+		State initialState = GridWorldDomain.getOneAgentOneLocationState(domain);
+		GridWorldDomain.setAgent(initialState, 0, 0);
+		GridWorldDomain.setLocation(initialState, 0, 10, 10);
+		
+		//a single lockstep environment learns exactly like the agent's own episode loop
+		RandomFactory.seedMapped(0, 42);
+		SarsaLam serial = new SarsaLam(this.domain, 0.99, this.hashingFactory, 0., 0.1, 0.9);
+		SimulatedEnvironment env = new SimulatedEnvironment(this.domain, this.rf, this.tf, initialState);
+		for(int e = 0; e < 10; e++){
+			serial.runLearningEpisode(env);
+			env.resetEnvironment();
+		}
+		
+		RandomFactory.seedMapped(0, 42);
+		SarsaLam vectorized = new SarsaLam(this.domain, 0.99, this.hashingFactory, 0., 0.1, 0.9);
+		List<Environment> envs = new ArrayList<Environment>();
+		envs.add(new SimulatedEnvironment(this.domain, this.rf, this.tf, initialState));
+		VectorizedLearningRunner runner = new VectorizedLearningRunner(vectorized, envs, 1, VectorizedLearningRunner.Mode.LOCKSTEP);
+		runner.runEpisodes(10);
+		Assert.assertEquals(10, runner.getEpisodes(0).size());
+		Assert.assertEquals(serial.value(initialState), vectorized.value(initialState), delta);
+		
+		for(VectorizedLearningRunner.Mode mode : VectorizedLearningRunner.Mode.values()){
+			QLearning agent = new QLearning(this.domain, 0.99, this.hashingFactory, 0., 0.1);
+			envs = new ArrayList<Environment>();
+			for(int i = 0; i < 4; i++){
+				envs.add(new SimulatedEnvironment(this.domain, this.rf, this.tf, initialState));
+			}
+			runner = new VectorizedLearningRunner(agent, envs, 4, mode);
+			runner.setMaxEpisodeSteps(500);
+			List<EpisodeAnalysis> episodes = runner.runEpisodes(30);
+			Assert.assertEquals(30, episodes.size());
+			int total = 0;
+			for(int i = 0; i < 4; i++){
+				for(EpisodeAnalysis ea : runner.getEpisodes(i)){
+					Assert.assertTrue(ea.numTimeSteps() <= 501);
+				}
+				total += runner.getEpisodes(i).size();
+			}
+			Assert.assertEquals(30, total);
+		}
+	}
+	
 	public void evaluateEpisode(EpisodeAnalysis analysis) {
 		this.evaluateEpisode(analysis, false);
 	}
@@ -0,0 +1,92 @@
+package burlap.testing;
+
+import burlap.debugtools.RandomFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestRandomFactory {
+
+	@After
+	public void teardown() {
+		RandomFactory.clearThreadFactory();
+	}
+
+	@Test
+	public void testGetMappedStringReturnsSameGenerator() {
+		RandomFactory factory = new RandomFactory();
+		Random r = factory.ingetMapped("rf-test");
+		assertSame(r, factory.ingetMapped("rf-test"));
+		assertNotSame(r, factory.ingetMapped("rf-test-other"));
+
+		Random seeded = factory.inseedMapped("rf-test", 7);
+		assertSame(seeded, factory.ingetMapped("rf-test"));
+		assertSame(seeded, factory.ingetOrSeedMapped("rf-test", 8));
+	}
+
+	@Test
+	public void testBaseSeedIsReproducible() {
+		RandomFactory a = new RandomFactory(11);
+		RandomFactory b = new RandomFactory(11);
+		RandomFactory c = new RandomFactory(12);
+
+		long [] sa = this.draw(a.ingetMapped(0), 5);
+		assertArrayEquals(sa, this.draw(b.ingetMapped(0), 5));
+		assertFalse(Arrays.equals(sa, this.draw(c.ingetMapped(0), 5)));
+
+		assertArrayEquals(this.draw(a.ingetMapped("x"), 5), this.draw(b.ingetMapped("x"), 5));
+		assertArrayEquals(this.draw(a.ingetDefault(), 5), this.draw(b.ingetDefault(), 5));
+
+		//different ids of the same factory get different sequences
+		assertFalse(Arrays.equals(this.draw(new RandomFactory(11).ingetMapped(0), 5),
+				this.draw(new RandomFactory(11).ingetMapped(1), 5)));
+
+		//explicit seeds take precedence over the base seed
+		assertArrayEquals(this.draw(new Random(3), 5), this.draw(a.inseedMapped(4, 3), 5));
+	}
+
+	@Test
+	public void testThreadFactory() throws Exception {
+		final Random shared = RandomFactory.getMapped(0);
+
+		RandomFactory local = new RandomFactory(5);
+		RandomFactory.setThreadFactory(local);
+		assertSame(local, RandomFactory.current());
+		assertSame(local.ingetMapped(0), RandomFactory.getMapped(0));
+		assertNotSame(shared, RandomFactory.getMapped(0));
+
+		//other threads still see the shared factory
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try{
+			Future<Random> other = executor.submit(new Callable<Random>() {
+				@Override
+				public Random call() throws Exception {
+					return RandomFactory.getMapped(0);
+				}
+			});
+			assertSame(shared, other.get());
+		}finally{
+			executor.shutdown();
+		}
+
+		RandomFactory.clearThreadFactory();
+		assertSame(shared, RandomFactory.getMapped(0));
+	}
+
+	protected long [] draw(Random r, int n){
+		long [] vals = new long[n];
+		for(int i = 0; i < n; i++){
+			vals[i] = r.nextLong();
+		}
+		return vals;
+	}
+
+}
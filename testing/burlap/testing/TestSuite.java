@@ -10,7 +10,8 @@ import org.junit.runners.Suite;
 	TestPlanning.class,
 	TestBlockDude.class,
 	TestImmutableState.class,
-	TestHashing.class
+	TestHashing.class,
+	TestRandomFactory.class
 })
 public class TestSuite {
 